@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binary search of a time and reading of the date at a position.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinarySearchBenchmark {
+
+    private static final int N = 1024;
+
+    @State(Scope.Thread)
+    public static class Targets {
+
+        BinarySearch bs;
+        Instant[] instants;
+        long[] positions;
+        Matcher date;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setUp(LogFiles files) throws IOException {
+            bs = new BinarySearch(files.config);
+            instants = files.instants(N);
+            positions = files.positions(N);
+            date = files.firstDate();
+        }
+
+        int next() {
+            i = (i + 1) & (N - 1);
+            return i;
+        }
+
+    }
+
+    @Benchmark
+    public long searchPosition(LogFiles files, Targets t) {
+        return t.bs.searchPosition(files.lf, t.instants[t.next()], 0, files.lf.
+                getFileSize());
+    }
+
+    @Benchmark
+    public Instant getZonedDateTimePosition(LogFiles files, Targets t) {
+        return t.bs.getZonedDateTime(t.positions[t.next()], files.lf);
+    }
+
+    @Benchmark
+    public Instant getZonedDateTimeMatch(LogFiles files, Targets t) {
+        return t.bs.getZonedDateTime(t.bs.getZonedDateTime(t.date, files.lf));
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.ParseCmdLine;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Top n longest operations of the file, found and printed as -o does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GetRowsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Options {
+
+        @Param({"10", "1000"})
+        public int top;
+
+        @Param({"1", "4"})
+        public int threads;
+
+        ConfigSnapshot config;
+
+        @Setup(Level.Trial)
+        public void setUp(LogFiles files) {
+            ParseCmdLine cmd = new ParseCmdLine();
+            cmd.setTop(top);
+            cmd.setThreads(threads);
+            config = files.snapshot(cmd);
+        }
+
+    }
+
+    @Benchmark
+    public int printLongestOperations(Options o) throws IOException {
+        LogRecord[] lrs = GetRows.getLongestOperations(o.config);
+        OutputSink sink = LogFiles.discard();
+        GetRows.printLongestOperations(lrs, sink);
+        sink.flush();
+        return lrs.length;
+    }
+
+}
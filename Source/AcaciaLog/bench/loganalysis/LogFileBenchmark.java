@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scans of the whole file: records, the record stream and date removal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LogFileBenchmark {
+
+    @Benchmark
+    public int findRecords(LogFiles files) {
+        files.resetRecords();
+        files.lf.findRecords();
+        return files.lf.getRecords().size();
+    }
+
+    @Benchmark
+    public long records(LogFiles files) {
+        return LogQuery.records(files.lc.getLogFiles()).count();
+    }
+
+    @Benchmark
+    public void removeDates(LogFiles files) throws IOException {
+        OutputSink sink = LogFiles.discard();
+        files.lf.removeDates(sink);
+        sink.flush();
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.IniFile;
+import acacialog.ParseCmdLine;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A log file of one section of acacialog.ini written by LogGenerator, shared
+ * by the benchmarks.
+ */
+@State(Scope.Benchmark)
+public class LogFiles {
+
+    @Param({"16", "256"})
+    public int fileSizeMB;
+
+    @Param({"80", "400"})
+    public int recordLength;
+
+    @Param({"[wu]", "[cbs]"})
+    public String section;
+
+    @Param("acacialog.ini")
+    public String ini;
+
+    Path dir;
+    Path path;
+    LogConfig lc;
+    LogFile lf;
+    ConfigSnapshot config;
+    Instant first;
+    Instant last;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        IniFile source = new IniFile(ini);
+        String date = source.getString(section, "DATE", null);
+        String zoned = source.getString(section, "ZONED_DATE_TIME", null);
+
+        dir = Files.createTempDirectory("acacialog-bench");
+        Path benchIni = dir.resolve("acacialog.ini");
+        Files.write(benchIni, Arrays.asList(section, "DIR=" + dir,
+                "FILE=bench.log", "DATE=" + date, "ZONED_DATE_TIME=" + zoned));
+
+        lc = new LogConfig(section, new IniFile(benchIni.toString()));
+        LogGenerator gen = new LogGenerator();
+        gen.setSeed(42);
+        gen.setSize(fileSizeMB * 1024L * 1024L);
+        gen.setRecordLength(recordLength);
+        path = gen.generate(lc, dir).get(0);
+        first = gen.getFirst();
+        last = gen.getLast();
+        config = snapshot(new ParseCmdLine());
+        lf = new LogFile(path, lc, 0, config, null);
+        lf.setFileSize(Files.size(path));
+        lf.setInterval(true);
+        lf.setPositionFrom(0);
+        lf.setPositionTo(lf.getFileSize());
+        TreeSet<LogFile> files = new TreeSet<>();
+        files.add(lf);
+        lc.setLogFiles(files);
+    }
+
+    /**
+     * @return snapshot of the section with the options of cmd
+     */
+    ConfigSnapshot snapshot(ParseCmdLine cmd) {
+        return new ConfigSnapshot(cmd, first, last, Collections.singletonList(
+                section), Collections.singletonMap(section, lc), null, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileChannelCache.getShared().clear();
+        for (Path p : Files.newDirectoryStream(dir)) {
+            Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * @return sink that drops the bytes written to it
+     */
+    static OutputSink discard() {
+        return new OutputSink(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int n = src.remaining();
+                src.position(src.limit());
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, OutputSink.DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @return the match of the first date of the file
+     */
+    Matcher firstDate() throws IOException {
+        byte[] head = new byte[4096];
+        try (FileChannel fc = FileChannel.open(path)) {
+            fc.read(ByteBuffer.wrap(head));
+        }
+        Matcher m = lc.getDatePattern().matcher(new String(head,
+                StandardCharsets.ISO_8859_1));
+        if (!m.find()) {
+            throw new IOException("no date in " + path);
+        }
+        return m;
+    }
+
+    /**
+     * @return instants spread over the file for searches
+     */
+    Instant[] instants(int n) {
+        Random rnd = new Random(7);
+        long span = last.toEpochMilli() - first.toEpochMilli();
+        Instant[] res = new Instant[n];
+        for (int i = 0; i < n; i++) {
+            res[i] = first.plusMillis((long) (rnd.nextDouble() * span));
+        }
+        return res;
+    }
+
+    /**
+     * @return positions spread over the file
+     */
+    long[] positions(int n) {
+        Random rnd = new Random(11);
+        long[] res = new long[n];
+        for (int i = 0; i < n; i++) {
+            res[i] = (long) (rnd.nextDouble() * lf.getFileSize());
+        }
+        return res;
+    }
+
+    /**
+     * Records of the last findRecords are dropped before the next one.
+     */
+    void resetRecords() {
+        lf.setRecords(new ArrayList<>());
+    }
+
+}
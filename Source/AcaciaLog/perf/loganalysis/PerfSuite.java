@@ -0,0 +1,435 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.IniFile;
+import acacialog.ParseCmdLine;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * End to end performance regression suite. Writes the sections of an ini
+ * with LogGenerator, runs the AcaciaLog command line on them in a new JVM
+ * and measures records/s of -o, MB/s of -i and -r, and binary search probes
+ * per lookup. The results are compared with a baseline properties file, a
+ * metric worse than the baseline by more than the tolerance fails the run.
+ * Throughputs are the best of the runs, so a busy machine does not fail it.
+ *
+ * java -cp build/perf/classes:build/classes loganalysis.PerfSuite -ini
+ * acacialog.ini -out build/perf -size 128M -baseline perf/baseline.properties
+ */
+public class PerfSuite {
+
+    static final String RECORDS_PER_SECOND = "recordsPerSecond";
+    static final String MB_PER_SECOND = "mbPerSecond";
+    static final String PROBES_PER_LOOKUP = "probesPerLookup";
+    private static final int LOOKUPS = 200;
+
+    private String ini = "acacialog.ini";
+    private String sections;
+    private Path out = Paths.get("build", "perf");
+    private long size = 128L * 1024 * 1024;
+    private long rotate = 32L * 1024 * 1024;
+    private int runs = 3;
+    private double tolerance = 0.2;
+
+    /**
+     * Generate the logs and measure every section.
+     *
+     * @return metric name to value
+     */
+    public Map<String, Double> run() throws IOException,
+            InterruptedException {
+        IniFile source = new IniFile(ini);
+        List<String> names = sections == null ? source.getSections()
+                : new ArrayList<>();
+        if (sections != null) {
+            for (String s : sections.split(",")) {
+                s = s.trim();
+                names.add(s.startsWith("[") ? s : "[" + s + "]");
+            }
+        }
+
+        Files.createDirectories(out);
+        Map<String, Double> results = new TreeMap<>();
+        for (String s : names) {
+            LogConfig lc = new LogConfig(s, source);
+            String name = s.substring(1, s.length() - 1);
+            Path dir = out.resolve(name);
+            LogGenerator gen = new LogGenerator();
+            gen.setSize(size);
+            gen.setRotate(rotate);
+            List<Path> files = gen.generate(lc, dir);
+            long bytes = 0;
+            for (Path p : files) {
+                bytes += Files.size(p);
+            }
+
+            // the command line reads acacialog.properties of its directory
+            Path home = out.resolve(name + "-run");
+            Files.createDirectories(home);
+            Path runIni = home.resolve("acacialog.ini");
+            Files.write(runIni, LogGenerator.iniSection(lc, dir));
+            Properties props = new Properties();
+            props.setProperty("INI_FILE", runIni.toAbsolutePath().toString());
+            props.setProperty("OUTPUT_DATE_FORMAT", "yyyy-MM-dd HH:mm:ss.SSS");
+            try (BufferedWriter w = Files.newBufferedWriter(home.resolve(
+                    "acacialog.properties"))) {
+                props.store(w, " -- PerfSuite --- ");
+            }
+
+            String from = gen.getFirst().toString();
+            String to = gen.getLast().plusMillis(1).toString();
+            double o = best(home, "-o", from, to);
+            double i = best(home, "-i", from, to);
+            double r = best(home, "-r", from, to);
+            results.put(name + ".o." + RECORDS_PER_SECOND, gen.getRecords()
+                    / o);
+            results.put(name + ".i." + MB_PER_SECOND, bytes / i / (1024
+                    * 1024));
+            results.put(name + ".r." + MB_PER_SECOND, bytes / r / (1024
+                    * 1024));
+            results.put(name + "." + PROBES_PER_LOOKUP, probesPerLookup(
+                    new LogConfig(s, new IniFile(runIni.toString())), files));
+        }
+        return results;
+    }
+
+    /**
+     * @return the shortest wall time in seconds of the runs of the action
+     */
+    private double best(Path home, String action, String from, String to)
+            throws IOException, InterruptedException {
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        List<String> command = Arrays.asList(java.toString(), "-cp", System.
+                getProperty("java.class.path"), "acacialog.AcaciaLog", action,
+                "-from", from, "-to", to);
+        double res = Double.MAX_VALUE;
+        for (int n = 0; n < runs; n++) {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.directory(home.toFile());
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.redirectError(home.resolve("stderr.txt").toFile());
+            long started = System.nanoTime();
+            int exit = pb.start().waitFor();
+            long nanos = System.nanoTime() - started;
+            if (exit != 0) {
+                throw new IOException("AcaciaLog " + action + " exited with "
+                        + exit + ", see " + home.resolve("stderr.txt"));
+            }
+            res = Math.min(res, nanos / 1e9);
+        }
+        return res;
+    }
+
+    /**
+     * @return the probes of a search for the time found at a random position
+     * of a file, the same for the same files
+     */
+    static double probesPerLookup(LogConfig lc, List<Path> files)
+            throws IOException {
+        ConfigSnapshot config = new ConfigSnapshot(new ParseCmdLine(), null,
+                null, Collections.singletonList(lc.getLogName()), Collections.
+                singletonMap(lc.getLogName(), lc), null, null);
+        BinarySearch bs = new BinarySearch(config, null);
+        EngineMetrics metrics = EngineMetrics.getShared();
+        Random rnd = new Random(1);
+        long probes = 0;
+        int lookups = 0;
+        for (Path p : files) {
+            LogFile lf = new LogFile(p, lc, 0, config, null);
+            long fileSize = Files.size(p);
+            for (int n = 0; n < LOOKUPS / files.size() + 1; n++) {
+                Instant instant = bs.getZonedDateTime((long) (rnd.nextDouble()
+                        * fileSize), lf);
+                if (instant == null) {
+                    continue;
+                }
+                long before = metrics.getProbes();
+                bs.searchPosition(lf, instant, 0, fileSize);
+                probes += metrics.getProbes() - before;
+                lookups++;
+            }
+        }
+        FileChannelCache.getShared().clear();
+        return lookups > 0 ? probes / (double) lookups : 0;
+    }
+
+    /**
+     * @return true when the metric is worse than its baseline by more than
+     * the tolerance, throughputs should not drop and probes should not grow
+     */
+    boolean isRegression(String metric, double baseline, double value) {
+        if (metric.endsWith(PROBES_PER_LOOKUP)) {
+            return value > baseline * (1 + tolerance);
+        }
+        return value < baseline * (1 - tolerance);
+    }
+
+    /**
+     * Print the metrics next to their baseline.
+     *
+     * @return the number of regressions
+     */
+    int compare(Map<String, Double> baseline, Map<String, Double> results) {
+        int res = 0;
+        System.out.println(String.format(Locale.ROOT, "%-32s %12s %12s %s",
+                "metric", "measured", "baseline", "change"));
+        for (Map.Entry<String, Double> e : results.entrySet()) {
+            Double base = baseline.get(e.getKey());
+            String verdict = "new";
+            if (base != null) {
+                boolean regression = isRegression(e.getKey(), base, e.
+                        getValue());
+                verdict = String.format(Locale.ROOT, "%+.1f%% %s", (e.
+                        getValue() / base - 1) * 100, regression ? "REGRESSION"
+                        : "ok");
+                if (regression) {
+                    res++;
+                }
+            }
+            System.out.println(String.format(Locale.ROOT, "%-32s %12.2f %12s %s",
+                    e.getKey(), e.getValue(), base != null ? String.format(
+                    Locale.ROOT, "%.2f", base) : "-", verdict));
+        }
+        return res;
+    }
+
+    static Map<String, Double> load(Path path) throws IOException {
+        Map<String, Double> res = new TreeMap<>();
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(path)) {
+            props.load(r);
+        }
+        for (String key : props.stringPropertyNames()) {
+            res.put(key, Double.parseDouble(props.getProperty(key)));
+        }
+        return res;
+    }
+
+    /**
+     * Write the metrics sorted by name as properties.
+     */
+    static void store(Map<String, Double> metrics, Path path)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# acacia-log performance baseline, " + Instant.now());
+        for (Map.Entry<String, Double> e : metrics.entrySet()) {
+            lines.add(e.getKey() + "=" + String.format(Locale.ROOT, "%.2f", e.
+                    getValue()));
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Files.write(path, lines);
+    }
+
+    public static void main(String[] args) throws Exception {
+        PerfSuite suite = new PerfSuite();
+        Path baseline = Paths.get("perf", "baseline.properties");
+        Path results = null;
+        boolean update = false;
+
+        int i = 0;
+        while (i < args.length && args[i].startsWith("-")) {
+            String arg = args[i++];
+            if (arg.equals("-update")) {
+                update = true;
+                continue;
+            }
+            if (i >= args.length) {
+                i = args.length + 1;
+                break;
+            }
+            String value = args[i++];
+            switch (arg) {
+                case "-ini":
+                    suite.setIni(value);
+                    break;
+                case "-section":
+                    suite.setSections(value);
+                    break;
+                case "-out":
+                    suite.setOut(Paths.get(value));
+                    break;
+                case "-size":
+                    suite.setSize(LogGenerator.parseSize(value));
+                    break;
+                case "-rotate":
+                    suite.setRotate(LogGenerator.parseSize(value));
+                    break;
+                case "-runs":
+                    suite.setRuns(Integer.parseInt(value));
+                    break;
+                case "-tolerance":
+                    suite.setTolerance(Double.parseDouble(value));
+                    break;
+                case "-baseline":
+                    baseline = Paths.get(value);
+                    break;
+                case "-results":
+                    results = Paths.get(value);
+                    break;
+                default:
+                    i = args.length + 1;
+                    break;
+            }
+        }
+        if (i != args.length) {
+            System.err.println("Usage: PerfSuite [-ini file] [-section sectionsList] [-out dir] [-size 128M] [-rotate 32M] [-runs 3]");
+            System.err.println("                 [-tolerance 0.2] [-baseline file] [-results file] [-update]");
+            System.exit(2);
+        }
+
+        long started = System.nanoTime();
+        Map<String, Double> measured = suite.run();
+        store(measured, results != null ? results : suite.getOut().resolve(
+                "results.properties"));
+        Map<String, Double> base = Files.exists(baseline) ? load(baseline)
+                : Collections.emptyMap();
+        int regressions = suite.compare(base, measured);
+        System.out.println("in " + Duration.ofNanos(System.nanoTime()
+                - started));
+
+        if (update || base.isEmpty()) {
+            store(measured, baseline);
+            System.out.println("Baseline written to " + baseline);
+        } else if (regressions > 0) {
+            System.err.println(regressions + " metrics regressed more than "
+                    + suite.getTolerance() * 100 + "% from " + baseline);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the ini
+     */
+    public String getIni() {
+        return ini;
+    }
+
+    /**
+     * @param ini the ini to set
+     */
+    public void setIni(String ini) {
+        this.ini = ini;
+    }
+
+    /**
+     * @return the sections
+     */
+    public String getSections() {
+        return sections;
+    }
+
+    /**
+     * @param sections the sections to set, all sections of the ini if null
+     */
+    public void setSections(String sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * @return the out
+     */
+    public Path getOut() {
+        return out;
+    }
+
+    /**
+     * @param out the out to set
+     */
+    public void setOut(Path out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the size to set
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the rotate
+     */
+    public long getRotate() {
+        return rotate;
+    }
+
+    /**
+     * @param rotate the rotate to set
+     */
+    public void setRotate(long rotate) {
+        this.rotate = rotate;
+    }
+
+    /**
+     * @return the runs
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @param runs the runs to set
+     */
+    public void setRuns(int runs) {
+        this.runs = runs;
+    }
+
+    /**
+     * @return the tolerance
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @param tolerance the tolerance to set
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+}
@@ -19,8 +19,11 @@
  */ 
 package acacialog;
 
+import loganalysis.Explain;
+import loganalysis.FileChannelCache;
 import loganalysis.GetRows;
 import loganalysis.ListFiles;
+import loganalysis.QueryPlan;
 
 public class AcaciaLog {
 
@@ -31,35 +34,83 @@ public class AcaciaLog {
 
         ApplicationFactory factory = new ApplicationFactory();
         Application app = factory.getInstance();
-        GetRows gr = new GetRows();
 
         app.cmd.parse(args);
+        ConfigSnapshot config = app.snapshot();
+        GetRows gr = new GetRows(config);
+        Explain explain = app.cmd.isExplain() ? new Explain(config) : null;
+        gr.setExplain(explain);
 
-        if(app.cmd.isFindInterval()) {
+        boolean batch = app.cmd.isBatch();
+        // -o is answered from the snapshot, the logs are read for the rest
+        boolean snapshot = app.cmd.getSnapshot() != null;
+        boolean logs = !snapshot || app.cmd.isPrintInterval()
+                || app.cmd.isRemoveDates() || app.cmd.isPrintJsonl()
+                || app.cmd.getExport() != null;
+
+        if(app.cmd.isFindInterval() && logs && (!batch
+                || app.cmd.isRemoveDates() || app.cmd.isPrintJsonl()
+                || app.cmd.getExport() != null)) {
             gr.findInterval();
         }
         
         if (app.cmd.isListLastFiles()) {
-            ListFiles instance = new ListFiles();
+            ListFiles instance = new ListFiles(config);
             instance.listLastFiles();
             System.out.println("");
         }
         
-        if(app.cmd.isPrintLongestOperations()) {
-            gr.findLogRecords();
-            gr.printLongestOperations();
-            System.out.println("");
+        if (batch) {
+            // -o and -i of every interval
+            gr.printBatch();
         }
-        
-        if (app.cmd.isPrintInterval()) {
-            gr.printInterval();
+
+        if (snapshot) {
+            gr.printSnapshot();
+        }
+
+        boolean longest = app.cmd.isPrintLongestOperations() && !batch
+                && !snapshot;
+        boolean interval = app.cmd.isPrintInterval() && !batch;
+        if (longest || interval || app.cmd.isRemoveDates()) {
+            // -o, -i and -r share one scan of the intervals
+            QueryPlan plan = new QueryPlan(config, longest, interval,
+                    app.cmd.isRemoveDates());
+            plan.setExplain(explain);
+            plan.run();
+        }
+
+        if (app.cmd.getExport() != null) {
+            gr.export();
+        }
+
+        if (app.cmd.isPrintJsonl()) {
+            gr.printJsonl();
+        }
+
+        if (app.cmd.isDiff()) {
+            gr.diff();
             System.out.println("");
         }
 
-        if (app.cmd.isRemoveDates()) {
-            gr.removeDates();
+        if (app.cmd.isIncremental()) {
+            gr.printIncremental();
             System.out.println("");
-        }        
+        }
+
+        if (app.cmd.getServe() >= 0) {
+            gr.serve();
+        }
+
+        if (app.cmd.isFollow()) {
+            gr.follow();
+        }
+
+        if (explain != null) {
+            explain.print(System.err);
+        }
+
+        FileChannelCache.getShared().clear();
         
     }
 
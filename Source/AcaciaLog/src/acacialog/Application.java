@@ -24,9 +24,11 @@ import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import loganalysis.EngineMetrics;
 import loganalysis.LogConfig;
 
 /**
@@ -40,6 +42,8 @@ public class Application {
 
     public PropertiesManager propsMg;
     public FileTime propsLastModified;
+    private volatile boolean stale = false;
+    ConfigWatcher watcher;
     public IniFile iniFile;
     public Map<String, LogConfig> logs = new HashMap<>();
 
@@ -54,7 +58,8 @@ public class Application {
         return this.propsMg.props;
     }
 
-    public void load() {
+    public synchronized void load() {
+        EngineMetrics.register();
         logs.clear();
         setupSections();
 
@@ -65,6 +70,28 @@ public class Application {
 
     }
 
+    /**
+     * Compile the current command line and configuration into a snapshot for
+     * the workers. Sections selected by -include or -exclude after load get
+     * their LogConfig here.
+     */
+    public synchronized ConfigSnapshot snapshot() {
+        List<String> secs = resolveSections();
+        Map<String, LogConfig> snapshotLogs = new LinkedHashMap<>();
+        for (String s : secs) {
+            LogConfig lc = logs.get(s);
+            if (lc == null) {
+                lc = new LogConfig(s, iniFile);
+                logs.put(s, lc);
+            }
+            snapshotLogs.put(s, lc);
+        }
+
+        return new ConfigSnapshot(cmd, ConfigSnapshot.parseInstant(cmd.
+                getFrom()), ConfigSnapshot.parseInstant(cmd.getTo()), secs,
+                snapshotLogs, iniFile, getProperties());
+    }
+
     public Instant getFrom() {
         return ZonedDateTime.parse(cmd.getFrom()).toInstant();
     }
@@ -85,9 +112,16 @@ public class Application {
     }
 
     public void setupSections() {
-        
-        sections.clear();
-        
+        sections = resolveSections();
+    }
+
+    /**
+     * @return the sections selected by the command line and properties
+     */
+    public List<String> resolveSections() {
+
+        List<String> sections = new ArrayList<>();
+
         if (cmd.getInclude() != null) {
             String[] secs = cmd.getInclude().split(";");
             for (String s : secs) {
@@ -100,7 +134,7 @@ public class Application {
                 sections.add("[" + s.trim() + "]");
             }
         } else {
-            sections = iniFile.getSections();
+            sections.addAll(iniFile.getSections());
         }
         
         if(cmd.getExclude()!=null) {
@@ -117,7 +151,22 @@ public class Application {
                 sections.remove("[" + s.trim() + "]");
             }
         }
-        
+
+        return sections;
+    }
+
+    /**
+     * @return true if the properties or ini file changed since it was loaded
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @param stale the stale to set
+     */
+    public void setStale(boolean stale) {
+        this.stale = stale;
     }
 
 }
@@ -22,6 +22,7 @@ package acacialog;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -44,12 +45,26 @@ public class ApplicationFactory {
     }
     
     protected Application initApplication() {
+      return initApplication(new PropertiesManager(), null);
+    }
+
+    /**
+     * @param cmd the command line of the application replaced after a
+     * change of its properties or ini file, or null for a new one
+     */
+    protected Application initApplication(PropertiesManager pm,
+            ParseCmdLine cmd) {
       Application app = getNewApplication();
-      app.propsMg = new PropertiesManager();
+      if (cmd != null) {
+          app.cmd = cmd;
+      }
+      app.propsMg = pm;
       app.propsMg.load();
         try {
             app.propsLastModified = Files.getLastModifiedTime(app.propsMg.getPath());
-            app.iniFile = new IniFile(app.getProperties().getProperty(PropertiesList.INI_FILE.name()));
+            String ini = app.getProperties().getProperty(PropertiesList.INI_FILE.name());
+            app.iniFile = new IniFile(ini);
+            app.watcher = ConfigWatcher.start(app, app.propsMg.getPath(), Paths.get(ini));
 
         } catch (IOException ex) {
             Logger.getLogger(ApplicationFactory.class.getName()).log(Level.SEVERE, null, ex);
@@ -61,38 +76,61 @@ public class ApplicationFactory {
     }
     
     public Application getInstance(){
-      Application app = null;
-      PropertiesManager pm = new PropertiesManager();
-        try {
-            Path check = pm.getPath().toRealPath();
-        } catch (IOException ex) {
+      return getInstance(Paths.get(PropertiesManager.PROP_FILE));
+    }
+
+    /**
+     * @return the application of the properties file, reloaded with the
+     * same command line when the properties or ini file changed
+     */
+    public Application getInstance(Path props){
+      String key = props.toAbsolutePath().toString();
+      Application app = apps.get(key);
+
+      // changes are reported by the watcher, files are only checked
+      // on every call when they cannot be watched
+      if (app != null && !app.isStale() && (app.watcher != null || !isModified(app))) {
+          return app;
+      }
+
+      synchronized (ApplicationFactory.class) {
+        app = apps.get(key);
+        if (app != null && !app.isStale() && (app.watcher != null || !isModified(app))) {
+            return app;
+        }
+        ParseCmdLine cmd = null;
+        if (app != null) {
+            cmd = app.cmd;
+            apps.remove(key);
+            if (app.watcher != null) {
+                app.watcher.close();
+            }
+        }
+
+        PropertiesManager pm = new PropertiesManager(props);
+        if (!Files.exists(pm.getPath())) {
             System.out.println("New resource file created!");
             pm.store();
             System.out.println("Path: " + pm.getPath().toString());
         }
-     
-      if(apps.containsKey(pm.getPath().toString())) {
-        app = apps.get(pm.getPath().toString());
 
-          try {
-              // check if properties file is changed
-              if(!app.propsLastModified.equals(Files.getLastModifiedTime(pm.getPath()))) {
-                  apps.remove(pm.getPath().toString());
-              } } catch (IOException ex) {
-              Logger.getLogger(ApplicationFactory.class.getName()).log(Level.SEVERE, null, ex);
-          }
-      } 
-      
-      if(!apps.containsKey(pm.getPath().toString())) {
-          // initialize application
-          app = initApplication();
-          apps.put(pm.getPath().toString(), app);
+        // initialize application
+        app = initApplication(pm, cmd);
+        apps.put(key, app);
       }
-      
             
       return app;
       
     }
+
+    private boolean isModified(Application app) {
+        try {
+            return app.propsLastModified == null || !app.propsLastModified.equals(Files.getLastModifiedTime(app.propsMg.getPath()));
+        } catch (IOException ex) {
+            Logger.getLogger(ApplicationFactory.class.getName()).log(Level.SEVERE, null, ex);
+            return true;
+        }
+    }
     
     
 }
\ No newline at end of file
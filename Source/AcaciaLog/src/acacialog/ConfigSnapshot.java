@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package acacialog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import loganalysis.LogConfig;
+
+/**
+ * Configuration of one run: parsed interval instants, the selected sections
+ * with their compiled LogConfigs and the output date formatter. It is built
+ * once by Application.snapshot and passed to the workers, so they do not look
+ * up the factory or parse dates again. The fields are final, but the
+ * LogConfigs are shared with the copies of withInterval and withSections and
+ * their logFiles are per-run mutable state set by GetRows.findInterval, so
+ * another interval of the same sections, like the second side of -d, is
+ * searched with new LogConfigs.
+ */
+public final class ConfigSnapshot {
+
+    private final ParseCmdLine cmd;
+    private final Instant from;
+    private final Instant to;
+    private final int top;
+    private final int threads;
+    private final int readahead;
+    private final int ioThreads;
+    private final List<String> sections;
+    private final Map<String, LogConfig> logs;
+    private final IniFile iniFile;
+    private final Properties properties;
+    private final DateTimeFormatter outputDateFormatter;
+
+    public ConfigSnapshot(ParseCmdLine cmd, Instant from, Instant to,
+            List<String> sections, Map<String, LogConfig> logs,
+            IniFile iniFile, Properties properties) {
+        this.cmd = cmd;
+        this.from = from;
+        this.to = to;
+        this.top = cmd.getTop();
+        this.threads = cmd.getThreads();
+        this.readahead = cmd.getReadahead();
+        this.ioThreads = cmd.getIoThreads();
+        this.sections = Collections.unmodifiableList(new ArrayList<>(
+                sections));
+        this.logs = Collections.unmodifiableMap(new LinkedHashMap<>(logs));
+        this.iniFile = iniFile;
+        this.properties = new Properties();
+        if (properties != null) {
+            this.properties.putAll(properties);
+        }
+
+        String format = this.properties.getProperty(
+                PropertiesList.OUTPUT_DATE_FORMAT.name());
+        this.outputDateFormatter = format != null ? DateTimeFormatter.
+                ofPattern(format).withZone(ZoneId.systemDefault()) : null;
+    }
+
+    /**
+     * @return the instant of the date text, or null if there is none
+     */
+    public static Instant parseInstant(String date) {
+        return date != null ? ZonedDateTime.parse(date).toInstant() : null;
+    }
+
+    /**
+     * @return a copy searching the interval [from, to] with the same sections
+     * and LogConfigs
+     */
+    public ConfigSnapshot withInterval(Instant from, Instant to) {
+        return new ConfigSnapshot(cmd, from, to, sections, logs, iniFile,
+                properties);
+    }
+
+    /**
+     * @return a copy with the given sections of this snapshot, in their order
+     * here, unknown sections are left out
+     */
+    public ConfigSnapshot withSections(List<String> selected) {
+        List<String> secs = new ArrayList<>();
+        for (String s : sections) {
+            if (selected.contains(s)) {
+                secs.add(s);
+            }
+        }
+        return new ConfigSnapshot(cmd, from, to, secs, logs, iniFile,
+                properties);
+    }
+
+    /**
+     * @return the parsed command line, for the options of the run modes
+     */
+    public ParseCmdLine getCmd() {
+        return cmd;
+    }
+
+    /**
+     * @return the from
+     */
+    public Instant getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the to
+     */
+    public Instant getTo() {
+        return to;
+    }
+
+    /**
+     * @return the top
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * @return the threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the readahead
+     */
+    public int getReadahead() {
+        return readahead;
+    }
+
+    /**
+     * @return the ioThreads
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @return the sections
+     */
+    public List<String> getSections() {
+        return sections;
+    }
+
+    /**
+     * @return the log config of the section
+     */
+    public LogConfig getLog(String section) {
+        return logs.get(section);
+    }
+
+    /**
+     * @return the logs
+     */
+    public Map<String, LogConfig> getLogs() {
+        return logs;
+    }
+
+    /**
+     * @return the iniFile
+     */
+    public IniFile getIniFile() {
+        return iniFile;
+    }
+
+    /**
+     * @return the properties
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the outputDateFormatter, or null if OUTPUT_DATE_FORMAT is not set
+     */
+    public DateTimeFormatter getOutputDateFormatter() {
+        return outputDateFormatter;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package acacialog;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the properties and ini files of an application on a daemon thread
+ * and marks the application stale when one of them is created, modified or
+ * deleted.
+ */
+class ConfigWatcher implements Runnable {
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    private final Set<Path> files = new HashSet<>();
+    private final Application app;
+
+    private ConfigWatcher(WatchService watchService, Application app) {
+        this.watchService = watchService;
+        this.app = app;
+    }
+
+    /**
+     * Start watching the files.
+     *
+     * @return the watcher, or null if the file system cannot be watched
+     */
+    static ConfigWatcher start(Application app, Path... paths) {
+        ConfigWatcher watcher = null;
+        try {
+            watcher = new ConfigWatcher(FileSystems.getDefault().
+                    newWatchService(), app);
+            for (Path p : paths) {
+                Path file = p.toAbsolutePath().normalize();
+                Path dir = file.getParent();
+                if (!watcher.dirs.containsValue(dir)) {
+                    watcher.dirs.put(dir.register(watcher.watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE), dir);
+                }
+                watcher.files.add(file);
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            Logger.getLogger(ConfigWatcher.class.getName()).
+                    log(Level.FINE, null, ex);
+            if (watcher != null) {
+                watcher.close();
+            }
+            return null;
+        }
+
+        Thread t = new Thread(watcher, "acacialog-config-watcher");
+        t.setDaemon(true);
+        t.start();
+        return watcher;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!app.isStale()) {
+                WatchKey key = watchService.take();
+                Path dir = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || files.contains(dir.resolve((Path) event.
+                                    context()))) {
+                        app.setStale(true);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // stopped
+        }
+        close();
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ConfigWatcher.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+}
@@ -16,6 +16,9 @@
  */
 package acacialog;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ParseCmdLine {
 
     private boolean verbose = false;
@@ -26,9 +29,33 @@ public class ParseCmdLine {
     private boolean findInterval = false;
     private boolean removeDates = false;
     private boolean printLongestOperations = false;
+    private boolean printJsonl = false;
+    private boolean diff = false;
+    private boolean mask = false;
     private String include;
     private String exclude;
     private int top = 10;
+    private String out;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int readahead = 0;
+    private int ioThreads = 2;
+    private boolean explain = false;
+    private String export;
+    private String snapshot;
+    private boolean histogram = false;
+    private String timeline;
+    private String from2;
+    private String to2;
+    private String section2;
+    private String file1;
+    private String file2;
+    private boolean follow = false;
+    private String threshold;
+    private boolean incremental = false;
+    private String checkpoint;
+    private int serve = -1;
+    private String intervalsFile;
+    private final List<String[]> intervals = new ArrayList<>();
 
     public void parse(String args[]) {
 
@@ -49,6 +76,7 @@ public class ParseCmdLine {
                 case "-from":
                     if (i < args.length) {
                         setFrom(args[i++]);
+                        addInterval(0, getFrom());
                     } else {
                         System.err.println("-from requires a time");
                     }   if (isVerbose()) {
@@ -57,6 +85,7 @@ public class ParseCmdLine {
                 case "-to":
                     if (i < args.length) {
                         setTo(args[i++]);
+                        addInterval(1, getTo());
                     } else {
                         System.err.println("-to requires a time");
                     }   if (isVerbose()) {
@@ -86,6 +115,164 @@ public class ParseCmdLine {
                     }   if (isVerbose()) {
                         System.out.println("-top = " + getTop());
                     }   break;
+                case "-out":
+                    if (i < args.length) {
+                        setOut(args[i++]);
+                    } else {
+                        System.err.println("-out requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-out = " + getOut());
+                    }   break;
+                case "-mask":
+                    setMask(true);
+                    if (isVerbose()) {
+                        System.out.println("-mask on");
+                    }   break;
+                case "-from2":
+                    if (i < args.length) {
+                        setFrom2(args[i++]);
+                    } else {
+                        System.err.println("-from2 requires a time");
+                    }   if (isVerbose()) {
+                        System.out.println("-from2 = " + getFrom2());
+                    }   break;
+                case "-to2":
+                    if (i < args.length) {
+                        setTo2(args[i++]);
+                    } else {
+                        System.err.println("-to2 requires a time");
+                    }   if (isVerbose()) {
+                        System.out.println("-to2 = " + getTo2());
+                    }   break;
+                case "-section2":
+                    if (i < args.length) {
+                        setSection2(args[i++]);
+                    } else {
+                        System.err.println("-section2 requires an acacialog.ini sections list wu;cbs");
+                    }   if (isVerbose()) {
+                        System.out.println("-section2 = " + getSection2());
+                    }   break;
+                case "-file1":
+                    if (i < args.length) {
+                        setFile1(args[i++]);
+                    } else {
+                        System.err.println("-file1 requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-file1 = " + getFile1());
+                    }   break;
+                case "-file2":
+                    if (i < args.length) {
+                        setFile2(args[i++]);
+                    } else {
+                        System.err.println("-file2 requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-file2 = " + getFile2());
+                    }   break;
+                case "-incremental":
+                    setIncremental(true);
+                    if (isVerbose()) {
+                        System.out.println("-incremental on");
+                    }   break;
+                case "-checkpoint":
+                    if (i < args.length) {
+                        setCheckpoint(args[i++]);
+                    } else {
+                        System.err.println("-checkpoint requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-checkpoint = " + getCheckpoint());
+                    }   break;
+                case "-serve":
+                    if (i < args.length) {
+                        setServe(Integer.parseInt(args[i++].trim()));
+                    } else {
+                        System.err.println("-serve requires a port");
+                    }   if (isVerbose()) {
+                        System.out.println("-serve = " + getServe());
+                    }   break;
+                case "-intervals":
+                    if (i < args.length) {
+                        setIntervalsFile(args[i++]);
+                    } else {
+                        System.err.println("-intervals requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-intervals = " + getIntervalsFile());
+                    }   break;
+                case "-threshold":
+                    if (i < args.length) {
+                        setThreshold(args[i++]);
+                    } else {
+                        System.err.println("-threshold requires a duration PT1S");
+                    }   if (isVerbose()) {
+                        System.out.println("-threshold = " + getThreshold());
+                    }   break;
+                case "-threads":
+                    if (i < args.length) {
+                        int n = Integer.parseInt(args[i++].trim());
+                        if (n >= 1) {
+                            setThreads(n);
+                        } else {
+                            System.err.println("-threads requires a positive integer");
+                        }
+                    } else {
+                        System.err.println("-threads requires an integer");
+                    }   if (isVerbose()) {
+                        System.out.println("-threads = " + getThreads());
+                    }   break;
+                case "-readahead":
+                    if (i < args.length) {
+                        setReadahead(Integer.parseInt(args[i++].trim()));
+                    } else {
+                        System.err.println("-readahead requires an integer");
+                    }   if (isVerbose()) {
+                        System.out.println("-readahead = " + getReadahead());
+                    }   break;
+                case "-iothreads":
+                    if (i < args.length) {
+                        int n = Integer.parseInt(args[i++].trim());
+                        if (n >= 1) {
+                            setIoThreads(n);
+                        } else {
+                            System.err.println("-iothreads requires a positive integer");
+                        }
+                    } else {
+                        System.err.println("-iothreads requires an integer");
+                    }   if (isVerbose()) {
+                        System.out.println("-iothreads = " + getIoThreads());
+                    }   break;
+                case "-explain":
+                    setExplain(true);
+                    if (isVerbose()) {
+                        System.out.println("-explain on");
+                    }   break;
+                case "-export":
+                    if (i < args.length) {
+                        setExport(args[i++]);
+                    } else {
+                        System.err.println("-export requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-export = " + getExport());
+                    }   break;
+                case "-snapshot":
+                    if (i < args.length) {
+                        setSnapshot(args[i++]);
+                    } else {
+                        System.err.println("-snapshot requires a file path");
+                    }   if (isVerbose()) {
+                        System.out.println("-snapshot = " + getSnapshot());
+                    }   break;
+                case "-histogram":
+                    setHistogram(true);
+                    if (isVerbose()) {
+                        System.out.println("-histogram on");
+                    }   break;
+                case "-timeline":
+                    if (i < args.length) {
+                        setTimeline(args[i++]);
+                    } else {
+                        System.err.println("-timeline requires a duration PT1M");
+                    }   if (isVerbose()) {
+                        System.out.println("-timeline = " + getTimeline());
+                    }   break;
                 default:
                     for (j = 1; j < arg.length(); j++) {
                         flag = arg.charAt(j);
@@ -114,6 +301,24 @@ public class ParseCmdLine {
                                     System.out.println("Option r removeDates");
                                 }
                                 break;
+                            case 'd':
+                                setDiff(true);
+                                if (isVerbose()) {
+                                    System.out.println("Option d diff");
+                                }
+                                break;
+                            case 'j':
+                                setPrintJsonl(true);
+                                if (isVerbose()) {
+                                    System.out.println("Option j printJsonl");
+                                }
+                                break;
+                            case 'f':
+                                setFollow(true);
+                                if (isVerbose()) {
+                                    System.out.println("Option f follow");
+                                }
+                                break;
                                 
                             default:
                                 System.err.println(
@@ -125,17 +330,73 @@ public class ParseCmdLine {
         }
         if (i < args.length) {
             System.err.println(
-                    "Usage: AcaciaLog [-verbose] [-lior] [-from aTime] [-to aTime] [-include sectionsList] [-exclude sectionsList] [-top n]");
+                    "Usage: AcaciaLog [-verbose] [-liorjdf] [-from aTime] [-to aTime] [-include sectionsList] [-exclude sectionsList] [-top n] [-out file] [-threads n]");
+            System.err.println("                 [-from2 aTime] [-to2 aTime] [-section2 sectionsList] [-file1 path] [-file2 path] [-mask] [-threshold duration]");
+            System.err.println("                 [-incremental] [-checkpoint file] [-serve port] [-intervals file] [-readahead n] [-iothreads n] [-explain]");
+            System.err.println("                 [-export file] [-snapshot file] [-histogram] [-timeline duration]");
             System.err.println("-l list last modified log files");
             System.err.println("-i print interval [from,to) log rows");
             System.err.println("-o print top (default 10) longest operations from interval [from,to) log rows");
             System.err.println("-r remove dates to compare intervals with WinMerge");
+            System.err.println("-d diff [from,to) with [from2,to2), -section2 sections or -file1 with -file2, -mask ids");
+            System.err.println("-f follow the last modified log files, flag records slower than -threshold");
+            System.err.println("-incremental update top (default 10) longest operations and histograms with records appended since -checkpoint");
+            System.err.println("-serve answer /interval, /longest, /search and /status queries with JSON on 127.0.0.1:port");
+            System.err.println("-intervals file of 'from to' lines, or repeated -from/-to pairs: -i and -o for every interval, each file scanned once");
+            System.err.println("-readahead read n windows ahead on an I/O thread while -o and -r scan, for slow or network disks");
+            System.err.println("-iothreads n reads from one disk at once (default 2) when -o runs with -threads above 1");
+            System.err.println("-explain report files found and pruned, positions, probes, bytes, records and time per phase to stderr");
+            System.err.println("-export write the records of interval [from,to) to a columnar file, -mask adds template ids");
+            System.err.println("-snapshot answer -o, -histogram and -timeline for [from,to) from an -export file without reading the logs");
+            System.err.println("-j convert interval [from,to) log records to JSON lines, to -out file or stdout");
             System.err.println("java -jar C:\\Work\\log\\Project\\AcaciaLog\\dist\\AcaciaLog.jar -verbose -li -from 2015-02-08T11:52:02.310Z -to 2015-02-09T11:52:02.311Z");
         } else if (isVerbose()) {
             System.out.println("Success!");
         }
     }
 
+    /**
+     * Collect repeated -from/-to pairs, a bound starts a new pair when the
+     * last pair has it already.
+     */
+    private void addInterval(int bound, String time) {
+        String[] last = intervals.isEmpty() ? null : intervals.get(intervals.
+                size() - 1);
+        if (last == null || last[bound] != null) {
+            last = new String[2];
+            intervals.add(last);
+        }
+        last[bound] = time;
+    }
+
+    /**
+     * @return the -from/-to pairs in command line order
+     */
+    public List<String[]> getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * @return true when several intervals are queried together
+     */
+    public boolean isBatch() {
+        return intervalsFile != null || intervals.size() > 1;
+    }
+
+    /**
+     * @return the intervalsFile
+     */
+    public String getIntervalsFile() {
+        return intervalsFile;
+    }
+
+    /**
+     * @param intervalsFile the intervalsFile to set
+     */
+    public void setIntervalsFile(String intervalsFile) {
+        this.intervalsFile = intervalsFile;
+    }
+
     /**
      * @return the verbose
      */
@@ -293,4 +554,316 @@ public class ParseCmdLine {
         this.removeDates = removeDates;
     }
 
+    /**
+     * @return the printJsonl
+     */
+    public boolean isPrintJsonl() {
+        return printJsonl;
+    }
+
+    /**
+     * @param printJsonl the printJsonl to set
+     */
+    public void setPrintJsonl(boolean printJsonl) {
+        this.findInterval = printJsonl;
+        this.printJsonl = printJsonl;
+    }
+
+    /**
+     * @return the out
+     */
+    public String getOut() {
+        return out;
+    }
+
+    /**
+     * @param out the out to set
+     */
+    public void setOut(String out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the threads to set
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the readahead
+     */
+    public int getReadahead() {
+        return readahead;
+    }
+
+    /**
+     * @param readahead the readahead to set
+     */
+    public void setReadahead(int readahead) {
+        this.readahead = readahead;
+    }
+
+    /**
+     * @return the ioThreads
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @param ioThreads the ioThreads to set
+     */
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * @return the explain
+     */
+    public boolean isExplain() {
+        return explain;
+    }
+
+    /**
+     * @param explain the explain to set
+     */
+    public void setExplain(boolean explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * @return the export
+     */
+    public String getExport() {
+        return export;
+    }
+
+    /**
+     * @param export the export to set
+     */
+    public void setExport(String export) {
+        if (export != null) {
+            this.findInterval = true;
+        }
+        this.export = export;
+    }
+
+    /**
+     * @return the snapshot
+     */
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @param snapshot the snapshot to set
+     */
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the histogram
+     */
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param histogram the histogram to set
+     */
+    public void setHistogram(boolean histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * @return the timeline step
+     */
+    public String getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * @param timeline the timeline to set
+     */
+    public void setTimeline(String timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * @return the diff
+     */
+    public boolean isDiff() {
+        return diff;
+    }
+
+    /**
+     * @param diff the diff to set
+     */
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+
+    /**
+     * @return the mask
+     */
+    public boolean isMask() {
+        return mask;
+    }
+
+    /**
+     * @param mask the mask to set
+     */
+    public void setMask(boolean mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * @return the from2
+     */
+    public String getFrom2() {
+        return from2;
+    }
+
+    /**
+     * @param from2 the from2 to set
+     */
+    public void setFrom2(String from2) {
+        this.from2 = from2;
+    }
+
+    /**
+     * @return the to2
+     */
+    public String getTo2() {
+        return to2;
+    }
+
+    /**
+     * @param to2 the to2 to set
+     */
+    public void setTo2(String to2) {
+        this.to2 = to2;
+    }
+
+    /**
+     * @return the section2
+     */
+    public String getSection2() {
+        return section2;
+    }
+
+    /**
+     * @param section2 the section2 to set
+     */
+    public void setSection2(String section2) {
+        this.section2 = section2;
+    }
+
+    /**
+     * @return the file1
+     */
+    public String getFile1() {
+        return file1;
+    }
+
+    /**
+     * @param file1 the file1 to set
+     */
+    public void setFile1(String file1) {
+        this.file1 = file1;
+    }
+
+    /**
+     * @return the file2
+     */
+    public String getFile2() {
+        return file2;
+    }
+
+    /**
+     * @param file2 the file2 to set
+     */
+    public void setFile2(String file2) {
+        this.file2 = file2;
+    }
+
+    /**
+     * @return the follow
+     */
+    public boolean isFollow() {
+        return follow;
+    }
+
+    /**
+     * @param follow the follow to set
+     */
+    public void setFollow(boolean follow) {
+        this.follow = follow;
+    }
+
+    /**
+     * @return the threshold
+     */
+    public String getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold the threshold to set
+     */
+    public void setThreshold(String threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return the incremental
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param incremental the incremental to set
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return the checkpoint
+     */
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @param checkpoint the checkpoint to set
+     */
+    public void setCheckpoint(String checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the serve port, -1 if not serving
+     */
+    public int getServe() {
+        return serve;
+    }
+
+    /**
+     * @param serve the serve to set
+     */
+    public void setServe(int serve) {
+        this.serve = serve;
+    }
+
 }
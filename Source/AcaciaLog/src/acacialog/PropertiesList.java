@@ -27,6 +27,9 @@ public enum PropertiesList {
     DATE,
     INPUT_DATE_FORMAT,
     ZONED_DATE_TIME,
+    ZONE,
+    JSON,
+    CHARSET,
     INCLUDE,
     EXCLUDE
 }
@@ -38,6 +38,10 @@ public class PropertiesManager {
     public PropertiesManager() {
         super();
     }
+
+    public PropertiesManager(Path path) {
+        this.path = path.toAbsolutePath();
+    }
     
     public Path getPath() {
         return path;
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Several intervals queried together. The intervals are sorted, the listing
+ * of files, their first record times and the binary search probes are shared
+ * between them, and the records of every file are scanned once for the
+ * longest operations of all intervals that overlap it.
+ */
+public class BatchQuery {
+
+    private final ConfigSnapshot config;
+    private final List<Interval> intervals;
+    private final LogIndex index = new LogIndex();
+    private final BinarySearch.ProbeCache probes
+            = new BinarySearch.ProbeCache();
+
+    public BatchQuery(ConfigSnapshot config, List<Interval> intervals) {
+        this.config = config;
+        this.intervals = new ArrayList<>(intervals);
+        Collections.sort(this.intervals);
+    }
+
+    /**
+     * Read intervals, one "from to" pair of times per line. Empty lines and
+     * lines starting with # are skipped.
+     */
+    public static List<Interval> readIntervals(Path file) throws IOException {
+        List<Interval> res = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] times = line.split("\\s+");
+            if (times.length != 2) {
+                throw new IllegalArgumentException(
+                        "an interval line needs from and to: " + line);
+            }
+            res.add(new Interval(ConfigSnapshot.parseInstant(times[0]),
+                    ConfigSnapshot.parseInstant(times[1])));
+        }
+        return res;
+    }
+
+    public void findIntervals() {
+        for (Interval iv : intervals) {
+            GetRows gr = new GetRows(config.withInterval(iv.from, iv.to));
+            gr.setIndex(index);
+            gr.setProbes(probes);
+            iv.files = new ArrayList<>();
+            for (int j = 0; j < config.getSections().size(); j++) {
+                iv.files.add(gr.findInterval(config.getLog(config.
+                        getSections().get(j)), j));
+            }
+        }
+    }
+
+    /**
+     * @return the top longest records of every interval, longest first
+     */
+    public List<LogRecord[]> getLongestOperations(int top) {
+        List<PriorityQueue<LogRecord>> heaps = new ArrayList<>();
+        Comparator<LogRecord> order = GetRows.LONGER.reversed();
+        for (int k = 0; k < intervals.size(); k++) {
+            heaps.add(new PriorityQueue<>(Math.max(1, top), order));
+        }
+
+        // the parts of one file in all intervals
+        Map<List<Object>, List<Member>> byFile = new LinkedHashMap<>();
+        for (int k = 0; k < intervals.size(); k++) {
+            for (TreeSet<LogFile> lfts : intervals.get(k).files) {
+                for (LogFile lf : lfts) {
+                    if (lf.isInterval() && lf.getPositionTo() > lf.
+                            getPositionFrom()) {
+                        byFile.computeIfAbsent(Arrays.asList(lf.getLc(), lf.
+                                getPath()), key -> new ArrayList<>()).add(
+                                new Member(k, lf));
+                    }
+                }
+            }
+        }
+
+        for (List<Member> members : byFile.values()) {
+            members.sort(Comparator.comparingLong(mb -> mb.lf.
+                    getPositionFrom()));
+            // overlapping parts are read in one range
+            int i = 0;
+            while (i < members.size()) {
+                long from = members.get(i).lf.getPositionFrom();
+                long to = members.get(i).lf.getPositionTo();
+                int j = i + 1;
+                while (j < members.size() && members.get(j).lf.
+                        getPositionFrom() <= to) {
+                    to = Math.max(to, members.get(j).lf.getPositionTo());
+                    j++;
+                }
+                if (top > 0) {
+                    scan(members.subList(i, j), from, to, heaps, top, order);
+                }
+                i = j;
+            }
+        }
+
+        List<LogRecord[]> res = new ArrayList<>();
+        for (PriorityQueue<LogRecord> q : heaps) {
+            LogRecord[] lrs = q.toArray(new LogRecord[q.size()]);
+            Arrays.sort(lrs, GetRows.LONGER);
+            res.add(lrs);
+        }
+        return res;
+    }
+
+    private void scan(List<Member> members, long from, long to,
+            List<PriorityQueue<LogRecord>> heaps, int top,
+            Comparator<LogRecord> order) {
+        LogFile first = members.get(0).lf;
+        LogFile range = new LogFile(first.getPath(), first.getLc(), first.
+                getLogOrder(), config, first.getFrom());
+        range.setInterval(true);
+        range.setPositionFrom(from);
+        range.setPositionTo(to);
+
+        long prev = -1;
+        Instant prevInstant = null;
+        Iterator<LogRecord> it = LogQuery.records(Collections.singletonList(
+                range), config.getReadahead()).iterator();
+        while (it.hasNext()) {
+            LogRecord lr = it.next();
+            long start = from + lr.getPositionFrom();
+            long end = from + lr.getPositionTo();
+            for (Member mb : members) {
+                LogFile lf = mb.lf;
+                if (start < lf.getPositionFrom()) {
+                    break;
+                }
+                if (start >= lf.getPositionTo()) {
+                    continue;
+                }
+                // as if the interval was scanned alone
+                LogRecord r = new LogRecord(lf, lr.getInstant(), start - lf.
+                        getPositionFrom());
+                r.setPositionTo(Math.min(end, lf.getPositionTo()) - lf.
+                        getPositionFrom());
+                r.setDuration(prev >= lf.getPositionFrom() ? Duration.between(
+                        prevInstant, lr.getInstant()) : Duration.ZERO);
+                GetRows.offer(heaps.get(mb.k), r, top, order);
+            }
+            prev = start;
+            prevInstant = lr.getInstant();
+        }
+    }
+
+    /**
+     * Print the -o and -i output of every interval after an INTERVAL line.
+     */
+    public void print(boolean longest, boolean interval, OutputSink sink)
+            throws IOException {
+        List<LogRecord[]> tops = longest ? getLongestOperations(config.
+                getTop()) : null;
+
+        for (int k = 0; k < intervals.size(); k++) {
+            Interval iv = intervals.get(k);
+            sink.println("INTERVAL " + iv);
+            if (longest) {
+                GetRows.printLongestOperations(tops.get(k), sink);
+                sink.println();
+            }
+            if (interval) {
+                for (int j = 0; j < iv.files.size(); j++) {
+                    LogConfig lc = config.getLog(config.getSections().get(j));
+                    lc.printSection(sink, iv.files.get(j));
+                    for (LogFile lf : iv.files.get(j)) {
+                        lf.printInterval(lf.getPositionFrom(), lf.
+                                getPositionTo(), sink);
+                    }
+                }
+                sink.println();
+            }
+        }
+    }
+
+    /**
+     * @return the intervals, sorted
+     */
+    public List<Interval> getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * @return the index
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the probes
+     */
+    public BinarySearch.ProbeCache getProbes() {
+        return probes;
+    }
+
+    /**
+     * [from, to) of a batch, null for an open end.
+     */
+    public static class Interval implements Comparable<Interval> {
+
+        private static final Comparator<Instant> TIMES = Comparator.
+                nullsFirst(Comparator.naturalOrder());
+
+        private final Instant from;
+        private final Instant to;
+        private List<TreeSet<LogFile>> files = new ArrayList<>();
+
+        public Interval(Instant from, Instant to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int compareTo(Interval o) {
+            int res = TIMES.compare(from, o.from);
+            if (res == 0) {
+                res = Comparator.nullsLast(TIMES).compare(to, o.to);
+            }
+            return res;
+        }
+
+        /**
+         * @return the from
+         */
+        public Instant getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the to
+         */
+        public Instant getTo() {
+            return to;
+        }
+
+        /**
+         * @return the files of the interval by section
+         */
+        public List<TreeSet<LogFile>> getFiles() {
+            return files;
+        }
+
+        @Override
+        public String toString() {
+            return (from != null ? from.toString() : "-") + " "
+                    + (to != null ? to.toString() : "-");
+        }
+
+    }
+
+    private static class Member {
+
+        final int k;
+        final LogFile lf;
+
+        Member(int k, LogFile lf) {
+            this.k = k;
+            this.lf = lf;
+        }
+
+    }
+
+}
@@ -19,78 +19,113 @@
  */
 package loganalysis;
 
-import acacialog.Application;
 import acacialog.ApplicationFactory;
+import acacialog.ConfigSnapshot;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZonedDateTime;
-import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.MatchResult;
 
+/**
+ * Binary search of record positions by time. The search keeps no state
+ * between calls and reads with positional reads, so one instance and one
+ * channel can be used by any number of threads at once.
+ */
 public class BinarySearch {
 
-    Application app = (new ApplicationFactory()).getInstance();
-    private Scanner scanner = null;
+    public static final int PROBE_WINDOW = 4 * 1024;
+    private static final int DATE_MAX_LENGTH = 256;
+
+    private final ConfigSnapshot config;
+    private final ProbeCache probes;
+
+    public BinarySearch() {
+        this((new ApplicationFactory()).getInstance().snapshot());
+    }
+
+    public BinarySearch(ConfigSnapshot config) {
+        this(config, null);
+    }
+
+    /**
+     * @param probes probes shared by the searches of several intervals, or
+     * null
+     */
+    public BinarySearch(ConfigSnapshot config, ProbeCache probes) {
+        this.config = config;
+        this.probes = probes;
+    }
 
     public long getPositionFrom(LogFile lf) {
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            return getPositionFrom(lf, h.channel());
+        } catch (IOException ex) {
+            Logger.getLogger(BinarySearch.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+        return 0;
+    }
+
+    public long getPositionFrom(LogFile lf, FileChannel fc) throws IOException {
         long res;
 
 //<editor-fold defaultstate="collapsed" desc="check input parameters">
-        if (lf.getFrom().isAfter(app.getFrom()) || lf.getFrom().equals(app.
+        if (config.getFrom() == null || !lf.getFrom().isBefore(config.
                 getFrom())) {
-            return 0;
+            return lf.getLc().getCharset(lf.getPath(), fc).getBom();
         }
 //</editor-fold>
 
-        res = searchPosition(lf, app.getFrom(), 0, lf.getFileSize());
+        res = search(lf.getPath(), fc, lf.getLc(), config.getFrom(), 0, lf.
+                getFileSize());
 
         return res;
     }
 
     public long getPositionTo(long positionFrom, LogFile lf, LogFile lfNext) {
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            return getPositionTo(positionFrom, lf, lfNext, h.channel());
+        } catch (IOException ex) {
+            Logger.getLogger(BinarySearch.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+        return lf.getFileSize();
+    }
+
+    public long getPositionTo(long positionFrom, LogFile lf, LogFile lfNext,
+            FileChannel fc) throws IOException {
         long res;
 
 //<editor-fold defaultstate="collapsed" desc="check input parameters">
-        if (lfNext != null && app.getTo().isAfter(lfNext.getFrom())) {
+        if (lfNext != null && config.getTo() != null && config.getTo().
+                isAfter(lfNext.getFrom())) {
             return lf.getFileSize();
         }
 //</editor-fold>
 
-        res = searchPosition(lf, app.getTo(), positionFrom, lf.getFileSize());
+        res = search(lf.getPath(), fc, lf.getLc(), config.getTo(),
+                positionFrom, lf.getFileSize());
 
         return res;
 
     }
 
-    /**
-     * @return the scanner
-     */
-    public Scanner getScanner() {
-        return scanner;
-    }
-
-    /**
-     * @param scanner the scanner to set
-     */
-    public void setScanner(Scanner scanner) {
-        this.scanner = scanner;
-    }
-
     public Instant getZonedDateTime(long positionFrom, LogFile lf) {
 
         Instant res = null;
-        try {
-            lf.getFc().position(positionFrom);
-            scanner = new Scanner(lf.getFc());
-            if (scanner.findWithinHorizon(lf.getLc().getDatePattern(), 0) != null) {
-                CharSequence cs = getZonedDateTime(scanner.match(), lf);
-                ZonedDateTime zdt = ZonedDateTime.parse(cs);
-                if (zdt != null) {
-                    res = zdt.toInstant();
-                }
-            }
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            res = getZonedDateTime(lf.getPath(), h.channel(), lf.getLc(),
+                    positionFrom);
         } catch (IOException ex) {
             Logger.getLogger(BinarySearch.class.getName()).
                     log(Level.SEVERE, null, ex);
@@ -103,6 +138,24 @@ public class BinarySearch {
 
     }
 
+    /**
+     * @return the time of the first date at or after position, or null
+     */
+    public Instant getZonedDateTime(FileChannel fc, LogConfig lc,
+            long position) throws IOException {
+        return getZonedDateTime(null, fc, lc, position);
+    }
+
+    /**
+     * @param path the file of fc, named in the acacialog.Probe event
+     * @return the time of the first date at or after position, or null
+     */
+    public Instant getZonedDateTime(Path path, FileChannel fc, LogConfig lc,
+            long position) throws IOException {
+        Probe p = probe(path, fc, lc, position, fc.size());
+        return p != null ? p.getInstant() : null;
+    }
+
     public Instant getZonedDateTime(CharSequence cs) {
         Instant res;
         ZonedDateTime zdt = ZonedDateTime.parse(cs);
@@ -133,7 +186,103 @@ public class BinarySearch {
         return sb;
     }
 
+    /**
+     * Find the first date match at or after position. Every call reads into
+     * its own buffer, the window grows when a date does not fit in it.
+     *
+     * @return the match, or null when there is none before limit
+     */
+    public static Probe probe(FileChannel fc, LogConfig lc, long position,
+            long limit) throws IOException {
+        return probe(null, fc, lc, position, limit);
+    }
+
+    /**
+     * probe of the file at path, the path names the file in the
+     * acacialog.Probe event.
+     */
+    static Probe probe(Path path, FileChannel fc, LogConfig lc,
+            long position, long limit) throws IOException {
+        EngineEvents.ProbeEvent event = new EngineEvents.ProbeEvent();
+        event.begin();
+        Probe res = null;
+        LogCharset charset = lc.getCharset(path, fc);
+        long start = Math.max(charset.align(position), charset.getBom());
+        int window = PROBE_WINDOW;
+        long read = 0;
+
+        while (start < limit) {
+            // read one code unit before start so that ^ sees the line break
+            long readFrom = charset.lookBehind(start);
+            long readTo = Math.min(limit, start + window);
+            ByteBuffer bb = ByteBuffer.allocate((int) (readTo - readFrom));
+            while (bb.hasRemaining() && fc.read(bb, readFrom + bb.position())
+                    > 0) {
+            }
+            bb.flip();
+            read += bb.limit();
+            boolean last = readTo == limit || bb.limit() < readTo - readFrom;
+
+            ByteCharSequence cs = new ByteCharSequence(bb);
+            DateMatcher m = lc.dateMatcher(cs, charset);
+            m.region((int) Math.min(start - readFrom, cs.length()), cs.
+                    length());
+            if (m.find()) {
+                if (m.end() < cs.length() || last) {
+                    res = new Probe(readFrom + m.start(), m.instant());
+                    break;
+                }
+                // the date may continue after the window
+                if (readFrom + m.start() > start) {
+                    start = readFrom + m.start();
+                } else {
+                    window *= 2;
+                }
+                continue;
+            }
+            if (last) {
+                break;
+            }
+            start = Math.max(start + charset.getUnit(), readTo
+                    - DATE_MAX_LENGTH * charset.getUnit());
+        }
+
+        EngineMetrics.getShared().addProbe(read);
+        if (event.shouldCommit()) {
+            event.set(path, position, read, res != null ? res.getPosition()
+                    : -1, res != null ? res.getInstant() : null);
+            event.commit();
+        }
+        return res;
+    }
+
     public long searchPosition(LogFile lf, Instant inst, long from, long to) {
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            return search(lf.getPath(), h.channel(), lf.getLc(), inst, from,
+                    to);
+        } catch (IOException ex) {
+            Logger.getLogger(BinarySearch.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+        return to;
+    }
+
+    public long searchPosition(FileChannel fc, LogConfig lc, Instant inst,
+            long from, long to) throws IOException {
+        return search(null, fc, lc, inst, from, to);
+    }
+
+    private Probe cachedProbe(Path path, FileChannel fc, LogConfig lc,
+            long position, long limit) throws IOException {
+        if (probes == null || path == null) {
+            return probe(path, fc, lc, position, limit);
+        }
+        return probes.get(path, fc, lc, position, limit);
+    }
+
+    private long search(Path path, FileChannel fc, LogConfig lc, Instant inst,
+            long from, long to) throws IOException {
 
         long imin = from;
         long imax = to;
@@ -142,21 +291,23 @@ public class BinarySearch {
             return imax;
         }
 
+        long size = fc.size();
         while (imin < imax) {
             long imid = (imin + imax) / 2;
 
             // reduce the search
-            Instant instMid = getZonedDateTime(imid, lf);
-            if (instMid != null && instMid.isBefore(inst)) {
+            Probe mid = cachedProbe(path, fc, lc, imid, size);
+            if (mid != null && mid.getInstant() != null && mid.getInstant().
+                    isBefore(inst)) {
                 imin = imid + 1;
             } else {
                 imax = imid;
             }
         }
 
-        Instant instFind = getZonedDateTime(imin, lf);
-        if (null != instFind) {
-            imin = imin + scanner.match().start();
+        Probe find = cachedProbe(path, fc, lc, imin, size);
+        if (find != null && find.getInstant() != null) {
+            imin = find.getPosition();
         } else {
             imin = to;
         }
@@ -165,4 +316,118 @@ public class BinarySearch {
 
     }
 
+    /**
+     * Probes of files that do not change while several intervals are
+     * searched. The searches of sorted intervals start with the same
+     * midpoints, only the probes near the positions are read again.
+     */
+    public static class ProbeCache {
+
+        private static final Probe NONE = new Probe(-1, null);
+
+        private final ConcurrentHashMap<Key, Probe> probes
+                = new ConcurrentHashMap<>();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        Probe get(Path path, FileChannel fc, LogConfig lc, long position,
+                long limit) throws IOException {
+            Key key = new Key(path, lc, position, limit);
+            Probe p = probes.get(key);
+            EngineMetrics.getShared().addProbeCache(p != null);
+            if (p != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                p = probe(path, fc, lc, position, limit);
+                probes.putIfAbsent(key, p != null ? p : NONE);
+            }
+            return p != NONE ? p : null;
+        }
+
+        public int size() {
+            return probes.size();
+        }
+
+        public void clear() {
+            probes.clear();
+        }
+
+        /**
+         * @return the hits
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * @return the misses
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        private static final class Key {
+
+            final Path path;
+            final LogConfig lc;
+            final long position;
+            final long limit;
+
+            Key(Path path, LogConfig lc, long position, long limit) {
+                this.path = path;
+                this.lc = lc;
+                this.position = position;
+                this.limit = limit;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key k = (Key) o;
+                return position == k.position && limit == k.limit
+                        && lc == k.lc && path.equals(k.path);
+            }
+
+            @Override
+            public int hashCode() {
+                return (path.hashCode() * 31 + Long.hashCode(position)) * 31
+                        + Long.hashCode(limit);
+            }
+
+        }
+
+    }
+
+    /**
+     * Date match found by one probe.
+     */
+    public static final class Probe {
+
+        private final long position;
+        private final Instant instant;
+
+        Probe(long position, Instant instant) {
+            this.position = position;
+            this.instant = instant;
+        }
+
+        /**
+         * @return the position of the match in the file
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return the instant, null when the match is not a valid date
+         */
+        public Instant getInstant() {
+            return instant;
+        }
+
+    }
+
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ISO-8859-1 view of a ByteBuffer, one char per byte, so date patterns can be
+ * matched on mapped log bytes without decoding them into a CharBuffer. Char
+ * indexes are byte offsets from the buffer position.
+ */
+public class ByteCharSequence implements CharSequence {
+
+    private final ByteBuffer buf;
+    private final int offset;
+    private final int length;
+
+    public ByteCharSequence(ByteBuffer buf) {
+        this(buf, buf.position(), buf.remaining());
+    }
+
+    public ByteCharSequence(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buf.get(offset + index) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteCharSequence(buf, offset + start, end - start);
+    }
+
+    /**
+     * @return the byte at index, relative to this sequence
+     */
+    public byte byteAt(int index) {
+        return buf.get(offset + index);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * State of incremental runs kept between cron invocations: for every
+ * (section, file key) the processed offset and last record instant, and for
+ * every section the running top-N longest records and a histogram of record
+ * durations. Saved in a small binary file replaced atomically.
+ */
+public class CheckpointStore {
+
+    public static final String DEFAULT_FILE = "acacialog.checkpoint";
+    public static final int HISTOGRAM_BUCKETS = 64;
+
+    private static final int MAGIC = 0x41434b31;
+
+    private final Map<String, FileCheckpoint> files = new LinkedHashMap<>();
+    private final Map<String, long[]> histograms = new LinkedHashMap<>();
+    private final PriorityQueue<Entry> top = new PriorityQueue<>();
+
+    /**
+     * @return the saved store, or an empty one if the file does not exist
+     */
+    public static CheckpointStore load(Path path) throws IOException {
+        CheckpointStore store = new CheckpointStore();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file " + path);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                FileCheckpoint fc = new FileCheckpoint(in.readUTF(), in.
+                        readUTF(), in.readUTF());
+                fc.offset = in.readLong();
+                fc.check = in.readLong();
+                fc.last = readInstant(in);
+                store.files.put(key(fc.section, fc.fileKey), fc);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                String section = in.readUTF();
+                long[] h = new long[HISTOGRAM_BUCKETS];
+                for (int i = 0; i < h.length; i++) {
+                    h[i] = in.readLong();
+                }
+                store.histograms.put(section, h);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                Duration d = Duration.ofSeconds(in.readLong(), in.readInt());
+                String section = in.readUTF();
+                String file = in.readUTF();
+                long offset = in.readLong();
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                store.top.add(new Entry(d, section, file, offset, text));
+            }
+        } catch (NoSuchFileException ex) {
+            // first run
+        }
+        return store;
+    }
+
+    /**
+     * Write to a temporary file and move it over the old checkpoint, so a
+     * run killed meanwhile leaves the previous state.
+     */
+    public void save(Path path) throws IOException {
+        Path abs = path.toAbsolutePath();
+        Path tmp = Files.createTempFile(abs.getParent(), abs.getFileName().
+                toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(files.size());
+                for (FileCheckpoint fc : files.values()) {
+                    out.writeUTF(fc.section);
+                    out.writeUTF(fc.fileKey);
+                    out.writeUTF(fc.path);
+                    out.writeLong(fc.offset);
+                    out.writeLong(fc.check);
+                    writeInstant(out, fc.last);
+                }
+                out.writeInt(histograms.size());
+                for (Map.Entry<String, long[]> e : histograms.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    for (long c : e.getValue()) {
+                        out.writeLong(c);
+                    }
+                }
+                out.writeInt(top.size());
+                for (Entry e : top) {
+                    out.writeLong(e.duration.getSeconds());
+                    out.writeInt(e.duration.getNano());
+                    out.writeUTF(e.section);
+                    out.writeUTF(e.file);
+                    out.writeLong(e.offset);
+                    out.writeInt(e.text.length);
+                    out.write(e.text);
+                }
+            }
+            Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return Instant.ofEpochSecond(in.readLong(), in.readInt());
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant instant)
+            throws IOException {
+        out.writeBoolean(instant != null);
+        if (instant != null) {
+            out.writeLong(instant.getEpochSecond());
+            out.writeInt(instant.getNano());
+        }
+    }
+
+    private static String key(String section, String fileKey) {
+        return section + '\t' + fileKey;
+    }
+
+    /**
+     * @return the checkpoint of the file, created at offset 0 if it is new
+     */
+    public FileCheckpoint getFile(String section, String fileKey, Path path) {
+        FileCheckpoint fc = files.get(key(section, fileKey));
+        if (fc == null) {
+            fc = new FileCheckpoint(section, fileKey, path.toString());
+            files.put(key(section, fileKey), fc);
+        }
+        fc.path = path.toString();
+        return fc;
+    }
+
+    /**
+     * Forget the files of the section that no longer exist.
+     */
+    public void retainFiles(String section, Set<String> fileKeys) {
+        Iterator<FileCheckpoint> it = files.values().iterator();
+        while (it.hasNext()) {
+            FileCheckpoint fc = it.next();
+            if (fc.section.equals(section) && !fileKeys.contains(fc.fileKey)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Count the record in the histogram and keep it if it is one of the n
+     * longest.
+     */
+    public void addRecord(String section, Duration duration, String file,
+            long offset, int n, RecordText text) throws IOException {
+        long[] h = histograms.get(section);
+        if (h == null) {
+            h = new long[HISTOGRAM_BUCKETS];
+            histograms.put(section, h);
+        }
+        h[bucket(duration)]++;
+
+        if (n <= 0) {
+            return;
+        }
+        if (top.size() < n) {
+            top.add(new Entry(duration, section, file, offset, text.get()));
+        } else if (top.peek().duration.compareTo(duration) < 0) {
+            top.poll();
+            top.add(new Entry(duration, section, file, offset, text.get()));
+        }
+    }
+
+    /**
+     * Drop the shortest records over n, e.g. after -top was lowered.
+     */
+    public void trimTop(int n) {
+        while (top.size() > n) {
+            top.poll();
+        }
+    }
+
+    /**
+     * @return histogram bucket b holds durations in [2^(b-1), 2^b) ms
+     */
+    public static int bucket(Duration duration) {
+        return bucket(duration.toMillis());
+    }
+
+    /**
+     * @return the histogram bucket of a duration in ms
+     */
+    public static int bucket(long ms) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(0, ms));
+    }
+
+    /**
+     * @return the top records, longest first
+     */
+    public List<Entry> getTop() {
+        List<Entry> res = new ArrayList<>(top);
+        res.sort((Entry e1, Entry e2) -> e2.duration.compareTo(e1.duration));
+        return res;
+    }
+
+    /**
+     * @return the histograms
+     */
+    public Map<String, long[]> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return the files
+     */
+    public Map<String, FileCheckpoint> getFiles() {
+        return files;
+    }
+
+    /**
+     * Record text read only when the record enters the top.
+     */
+    public interface RecordText {
+
+        byte[] get() throws IOException;
+    }
+
+    /**
+     * Processed part of one file.
+     */
+    public static class FileCheckpoint {
+
+        private final String section;
+        private final String fileKey;
+        private String path;
+        private long offset;
+        private long check;
+        private Instant last;
+
+        FileCheckpoint(String section, String fileKey, String path) {
+            this.section = section;
+            this.fileKey = fileKey;
+            this.path = path;
+        }
+
+        /**
+         * @return the section
+         */
+        public String getSection() {
+            return section;
+        }
+
+        /**
+         * @return the fileKey
+         */
+        public String getFileKey() {
+            return fileKey;
+        }
+
+        /**
+         * @return the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @param offset the offset to set
+         */
+        public void setOffset(long offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * @return the check hash of the bytes before offset
+         */
+        public long getCheck() {
+            return check;
+        }
+
+        /**
+         * @param check the check to set
+         */
+        public void setCheck(long check) {
+            this.check = check;
+        }
+
+        /**
+         * @return the last
+         */
+        public Instant getLast() {
+            return last;
+        }
+
+        /**
+         * @param last the last to set
+         */
+        public void setLast(Instant last) {
+            this.last = last;
+        }
+
+    }
+
+    /**
+     * One of the longest records.
+     */
+    public static class Entry implements Comparable<Entry> {
+
+        private final Duration duration;
+        private final String section;
+        private final String file;
+        private final long offset;
+        private final byte[] text;
+
+        Entry(Duration duration, String section, String file, long offset,
+                byte[] text) {
+            this.duration = duration;
+            this.section = section;
+            this.file = file;
+            this.offset = offset;
+            this.text = text;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return duration.compareTo(o.duration);
+        }
+
+        /**
+         * @return the duration
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the section
+         */
+        public String getSection() {
+            return section;
+        }
+
+        /**
+         * @return the file
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return the offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the text
+         */
+        public byte[] getText() {
+            return text;
+        }
+
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.regex.MatchResult;
+
+/**
+ * Compiled ZONED_DATE_TIME template. The template is expanded from the date
+ * match groups into a char array and ISO-8601 text such as
+ * 2015-02-08T11:52:02.310Z is converted to an Instant directly, anything else
+ * goes through ZonedDateTime.parse. Templates without an offset are local
+ * times of the ZONE of the section, converted with cached ZoneOffsets.
+ * Instances are thread-safe.
+ */
+public class DateExtractor {
+
+    private final char[] literals;
+    private final int[] groups;
+    private final int literalLength;
+    private final ZoneOffsets offsets;
+
+    public DateExtractor(char[] template) {
+        this(template, null);
+    }
+
+    /**
+     * @param zone the zone of dates without an offset, or null
+     */
+    public DateExtractor(char[] template, ZoneId zone) {
+        offsets = zone != null ? new ZoneOffsets(zone) : null;
+        int n = 0;
+        for (int i = 0; i < template.length; i++) {
+            if (template[i] == 'g') {
+                i++;
+            }
+            n++;
+        }
+
+        literals = new char[n];
+        groups = new int[n];
+        int len = 0;
+        for (int i = 0, k = 0; i < template.length; i++, k++) {
+            char c = template[i];
+            if (c == 'g') {
+                i++;
+                groups[k] = template[i] - 48;
+            } else {
+                literals[k] = c;
+                len++;
+            }
+        }
+        literalLength = len;
+    }
+
+    /**
+     * @return the template expanded with the match groups
+     */
+    public CharSequence expand(MatchResult m, CharSequence input) {
+        int len = literalLength;
+        for (int k = 0; k < groups.length; k++) {
+            if (groups[k] > 0) {
+                len += m.end(groups[k]) - m.start(groups[k]);
+            }
+        }
+
+        char[] buf = new char[len];
+        int pos = 0;
+        for (int k = 0; k < groups.length; k++) {
+            int g = groups[k];
+            if (g == 0) {
+                buf[pos++] = literals[k];
+            } else if (input != null) {
+                for (int j = m.start(g), e = m.end(g); j < e; j++) {
+                    buf[pos++] = input.charAt(j);
+                }
+            } else {
+                String s = m.group(g);
+                s.getChars(0, s.length(), buf, pos);
+                pos += s.length();
+            }
+        }
+        return java.nio.CharBuffer.wrap(buf, 0, pos);
+    }
+
+    /**
+     * @param input the matched text, or null to read the groups from m
+     * @return the instant of the date match, or null if it is not a date
+     */
+    public Instant extract(MatchResult m, CharSequence input) {
+        CharSequence cs = expand(m, input);
+        Instant res = parseIso(cs, offsets);
+        if (res == null) {
+            try {
+                res = ZonedDateTime.parse(cs).toInstant();
+            } catch (DateTimeException ex) {
+                res = null;
+            }
+        }
+        if (res == null && offsets != null) {
+            try {
+                res = LocalDateTime.parse(cs).atZone(offsets.getZone()).
+                        toInstant();
+            } catch (DateTimeException ex) {
+                res = null;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the zone of dates without an offset, or null
+     */
+    public ZoneId getZone() {
+        return offsets != null ? offsets.getZone() : null;
+    }
+
+    /**
+     * Parse uuuu-MM-ddTHH:mm:ss[.fraction](Z|+HH:MM|-HH:MM) without a
+     * formatter.
+     *
+     * @return the instant, or null if the text has another layout
+     */
+    public static Instant parseIso(CharSequence cs) {
+        return parseIso(cs, null);
+    }
+
+    /**
+     * Parse uuuu-MM-ddTHH:mm:ss[.fraction][Z|+HH:MM|-HH:MM], the local time
+     * of offsets when there is no offset.
+     *
+     * @param offsets the zone of local times, or null if an offset is
+     * required
+     * @return the instant, or null if the text has another layout
+     */
+    public static Instant parseIso(CharSequence cs, ZoneOffsets offsets) {
+        return parseIso(cs, 0, cs.length(), offsets);
+    }
+
+    /**
+     * parseIso of the text in [from, to) of cs.
+     */
+    static Instant parseIso(CharSequence cs, int from, int to,
+            ZoneOffsets offsets) {
+        if (to - from < 19 || cs.charAt(from + 4) != '-' || cs.charAt(from
+                + 7) != '-' || cs.charAt(from + 10) != 'T' || cs.charAt(from
+                + 13) != ':' || cs.charAt(from + 16) != ':') {
+            return null;
+        }
+
+        int year = digits(cs, from, 4);
+        int month = digits(cs, from + 5, 2);
+        int day = digits(cs, from + 8, 2);
+        int hour = digits(cs, from + 11, 2);
+        int minute = digits(cs, from + 14, 2);
+        int second = digits(cs, from + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0 || hour > 23
+                || minute > 59 || second > 59) {
+            return null;
+        }
+
+        int pos = from + 19;
+        int nanos = 0;
+        if (pos < to && (cs.charAt(pos) == '.' || cs.charAt(pos) == ',')) {
+            pos++;
+            int scale = 100000000;
+            int start = pos;
+            while (pos < to && cs.charAt(pos) >= '0' && cs.charAt(pos) <= '9'
+                    && pos - start < 9) {
+                nanos += (cs.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                return null;
+            }
+        }
+
+        int offset;
+        boolean local = false;
+        if (pos == to && offsets != null) {
+            offset = 0;
+            local = true;
+        } else if (pos == to - 1 && cs.charAt(pos) == 'Z') {
+            offset = 0;
+        } else if (pos == to - 6 && (cs.charAt(pos) == '+' || cs.charAt(pos)
+                == '-') && cs.charAt(pos + 3) == ':') {
+            int oh = digits(cs, pos + 1, 2);
+            int om = digits(cs, pos + 4, 2);
+            if ((oh | om) < 0 || oh > 18 || om > 59) {
+                return null;
+            }
+            offset = (oh * 3600 + om * 60) * (cs.charAt(pos) == '-' ? -1 : 1);
+        } else {
+            return null;
+        }
+
+        long epochDay;
+        try {
+            epochDay = LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException ex) {
+            return null;
+        }
+
+        long seconds = epochDay * 86400 + hour * 3600 + minute * 60 + second;
+        if (local) {
+            seconds = offsets.toEpochSecond(seconds);
+        }
+        return Instant.ofEpochSecond(seconds - offset, nanos);
+    }
+
+    private static int digits(CharSequence cs, int from, int n) {
+        int res = 0;
+        for (int i = from; i < from + n; i++) {
+            char c = cs.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + c - '0';
+        }
+        return res;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.Instant;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the record dates of a section in a text: the DATE pattern of plain
+ * logs, or the time field of the JSON lines of JSON sections. Bounds are
+ * transparent and not anchoring, so a region may start after a line break.
+ * An instance matches one text in one thread.
+ */
+public abstract class DateMatcher {
+
+    /**
+     * Find the next date at or after the end of the last match.
+     *
+     * @return true when a date was found in the region
+     */
+    public abstract boolean find();
+
+    /**
+     * @return the start of the last match, the start of its record
+     */
+    public abstract int start();
+
+    /**
+     * @return the end of the last match, the end of its date
+     */
+    public abstract int end();
+
+    /**
+     * Limit the search to [start, end) and search from start again.
+     */
+    public abstract void region(int start, int end);
+
+    /**
+     * @return the start of the region
+     */
+    public abstract int regionStart();
+
+    /**
+     * @return the time of the last match, or null if it is not a date
+     */
+    public abstract Instant instant();
+
+    /**
+     * DATE pattern match converted with the ZONED_DATE_TIME template.
+     */
+    static final class Regex extends DateMatcher {
+
+        private final Matcher m;
+        private final DateExtractor extractor;
+        private final CharSequence input;
+
+        Regex(Pattern pattern, DateExtractor extractor, CharSequence input) {
+            this.m = pattern.matcher(input);
+            this.extractor = extractor;
+            this.input = input;
+            m.useAnchoringBounds(false);
+            m.useTransparentBounds(true);
+        }
+
+        @Override
+        public boolean find() {
+            return m.find();
+        }
+
+        @Override
+        public int start() {
+            return m.start();
+        }
+
+        @Override
+        public int end() {
+            return m.end();
+        }
+
+        @Override
+        public void region(int start, int end) {
+            m.region(start, end);
+        }
+
+        @Override
+        public int regionStart() {
+            return m.regionStart();
+        }
+
+        @Override
+        public Instant instant() {
+            return extractor.extract(m, input);
+        }
+
+    }
+
+    /**
+     * Match on the UTF-16 view of a ByteCharSequence, with positions and
+     * regions in bytes of the underlying sequence.
+     */
+    static final class Wide extends DateMatcher {
+
+        private final DateMatcher m;
+
+        Wide(DateMatcher m) {
+            this.m = m;
+        }
+
+        @Override
+        public boolean find() {
+            return m.find();
+        }
+
+        @Override
+        public int start() {
+            return m.start() * 2;
+        }
+
+        @Override
+        public int end() {
+            return m.end() * 2;
+        }
+
+        @Override
+        public void region(int start, int end) {
+            m.region(start / 2, end / 2);
+        }
+
+        @Override
+        public int regionStart() {
+            return m.regionStart() * 2;
+        }
+
+        @Override
+        public Instant instant() {
+            return m.instant();
+        }
+
+    }
+
+}
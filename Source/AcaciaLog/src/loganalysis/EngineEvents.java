@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events of the engine. All of them are disabled by default,
+ * an event that is not enabled costs a check of shouldCommit. Enable them in
+ * a recording of a slow run to see which files, probes and windows took the
+ * time, e.g. with a .jfc that sets acacialog.Probe#enabled=true.
+ */
+final class EngineEvents {
+
+    static final String CATEGORY = "AcaciaLog";
+
+    private EngineEvents() {
+    }
+
+    private static String name(Path path) {
+        return path != null ? path.toString() : null;
+    }
+
+    @Name("acacialog.Probe")
+    @Label("Binary Search Probe")
+    @Description("Read of a binary search looking for the first date at or after an offset")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class ProbeEvent extends Event {
+
+        @Label("File")
+        String file;
+
+        @Label("Offset")
+        long offset;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Match Position")
+        @Description("Offset of the date found, -1 when there is none")
+        long position;
+
+        @Label("Result")
+        String result;
+
+        void set(Path path, long offset, long bytesRead, long position,
+                Instant instant) {
+            this.file = name(path);
+            this.offset = offset;
+            this.bytesRead = bytesRead;
+            this.position = position;
+            this.result = instant != null ? instant.toString() : null;
+        }
+
+    }
+
+    @Name("acacialog.FileOpen")
+    @Label("Log File Open")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class FileOpenEvent extends Event {
+
+        @Label("File")
+        String file;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        void set(Path path, long size) {
+            this.file = name(path);
+            this.size = size;
+        }
+
+    }
+
+    @Name("acacialog.ScanWindow")
+    @Label("Scan Window")
+    @Description("Dates matched in one mapped or read window of an interval")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class ScanEvent extends Event {
+
+        @Label("File")
+        String file;
+
+        @Label("Offset")
+        long offset;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Records")
+        long records;
+
+        void set(Path path, long offset, long bytes, long records) {
+            this.file = name(path);
+            this.offset = offset;
+            this.bytes = bytes;
+            this.records = records;
+        }
+
+    }
+
+    @Name("acacialog.OutputFlush")
+    @Label("Output Flush")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static class FlushEvent extends Event {
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+    }
+
+}
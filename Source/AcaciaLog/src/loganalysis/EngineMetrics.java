@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live counters of the engine: files, binary search probes, scanned bytes,
+ * records, parse time, output and cache hits. The counters are LongAdders,
+ * adding to them on the scan and probe paths does not contend between
+ * threads. Application registers the shared instance as an MBean, so long
+ * runs and -serve can be watched with JConsole.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+    public static final String OBJECT_NAME = "acacialog:type=EngineMetrics";
+
+    private static final EngineMetrics shared = new EngineMetrics();
+
+    private final LongAdder filesListed = new LongAdder();
+    private final LongAdder filesPruned = new LongAdder();
+    private final LongAdder filesOpened = new LongAdder();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder probeBytes = new LongAdder();
+    private final LongAdder bytesScanned = new LongAdder();
+    private final LongAdder recordsMatched = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder probeCacheHits = new LongAdder();
+    private final LongAdder probeCacheMisses = new LongAdder();
+    private final LongAdder indexHits = new LongAdder();
+    private final LongAdder indexMisses = new LongAdder();
+    private long channelHits;
+    private long channelMisses;
+
+    /**
+     * @return the metrics of this JVM
+     */
+    public static EngineMetrics getShared() {
+        return shared;
+    }
+
+    /**
+     * Register the shared metrics with the platform MBean server once.
+     */
+    public static synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(shared, name);
+            }
+        } catch (JMException ex) {
+            Logger.getLogger(EngineMetrics.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void addFilesListed(long n) {
+        filesListed.add(n);
+    }
+
+    public void addFilesPruned(long n) {
+        filesPruned.add(n);
+    }
+
+    public void addFileOpened() {
+        filesOpened.increment();
+    }
+
+    /**
+     * One probe of a binary search that read bytes.
+     */
+    public void addProbe(long bytes) {
+        probes.increment();
+        probeBytes.add(bytes);
+    }
+
+    /**
+     * A window of a scan: bytes matched in nanos, records found in it.
+     */
+    public void addScan(long bytes, long records, long nanos) {
+        bytesScanned.add(bytes);
+        recordsMatched.add(records);
+        parseNanos.add(nanos);
+    }
+
+    public void addOutputBytes(long n) {
+        outputBytes.add(n);
+    }
+
+    public void addProbeCache(boolean hit) {
+        (hit ? probeCacheHits : probeCacheMisses).increment();
+    }
+
+    public void addIndex(boolean hit) {
+        (hit ? indexHits : indexMisses).increment();
+    }
+
+    private static double rate(long hits, long misses) {
+        return hits + misses > 0 ? hits / (double) (hits + misses) : 0;
+    }
+
+    @Override
+    public long getFilesListed() {
+        return filesListed.sum();
+    }
+
+    @Override
+    public long getFilesPruned() {
+        return filesPruned.sum();
+    }
+
+    @Override
+    public long getFilesOpened() {
+        return filesOpened.sum();
+    }
+
+    @Override
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    @Override
+    public long getProbeBytes() {
+        return probeBytes.sum();
+    }
+
+    @Override
+    public double getBytesPerProbe() {
+        long n = probes.sum();
+        return n > 0 ? probeBytes.sum() / (double) n : 0;
+    }
+
+    @Override
+    public long getBytesScanned() {
+        return bytesScanned.sum();
+    }
+
+    @Override
+    public long getRecordsMatched() {
+        return recordsMatched.sum();
+    }
+
+    @Override
+    public long getParseMillis() {
+        return parseNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    /**
+     * @return the hit rate of the shared FileChannelCache since the last
+     * reset
+     */
+    @Override
+    public synchronized double getChannelCacheHitRate() {
+        FileChannelCache cache = FileChannelCache.getShared();
+        return rate(cache.getHits() - channelHits, cache.getMisses()
+                - channelMisses);
+    }
+
+    @Override
+    public double getProbeCacheHitRate() {
+        return rate(probeCacheHits.sum(), probeCacheMisses.sum());
+    }
+
+    @Override
+    public double getIndexHitRate() {
+        return rate(indexHits.sum(), indexMisses.sum());
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (LongAdder a : new LongAdder[]{filesListed, filesPruned,
+            filesOpened, probes, probeBytes, bytesScanned, recordsMatched,
+            parseNanos, outputBytes, probeCacheHits, probeCacheMisses,
+            indexHits, indexMisses}) {
+            a.reset();
+        }
+        channelHits = FileChannelCache.getShared().getHits();
+        channelMisses = FileChannelCache.getShared().getMisses();
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+/**
+ * Counters of the engine shown by JConsole under acacialog:type=EngineMetrics.
+ */
+public interface EngineMetricsMBean {
+
+    long getFilesListed();
+
+    long getFilesPruned();
+
+    long getFilesOpened();
+
+    long getProbes();
+
+    long getProbeBytes();
+
+    double getBytesPerProbe();
+
+    long getBytesScanned();
+
+    long getRecordsMatched();
+
+    long getParseMillis();
+
+    long getOutputBytes();
+
+    double getChannelCacheHitRate();
+
+    double getProbeCacheHitRate();
+
+    double getIndexHitRate();
+
+    void reset();
+
+}
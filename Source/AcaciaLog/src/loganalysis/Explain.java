@@ -0,0 +1,374 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The -explain report: per section the files listed and pruned with the
+ * reason, and per file the interval positions, probes, bytes scanned,
+ * records and times. Wall time is split into the list, probe, search, scan,
+ * aggregate and print phases, so a slow query shows whether it waits for the
+ * disk, for the date matching or just reads too much. Files are searched and
+ * scanned one after another while the report is collected, the times of a
+ * file are not mixed with the other files.
+ */
+public class Explain {
+
+    static final int LIST = 0;
+    static final int PROBE = 1;
+    static final int SEARCH = 2;
+    static final int SCAN = 3;
+    static final int AGGREGATE = 4;
+    static final int PRINT = 5;
+    private static final String[] PHASES = {"list", "probe", "search", "scan",
+        "aggregate", "print"};
+
+    private final ConfigSnapshot config;
+    private final long started = System.nanoTime();
+    private final long[] nanos = new long[PHASES.length];
+    private final Map<LogConfig, Section> sections = new LinkedHashMap<>();
+
+    public Explain(ConfigSnapshot config) {
+        this.config = config;
+    }
+
+    /**
+     * Files and phase times of one section.
+     */
+    static class Section {
+
+        private final String name;
+        private int listed;
+        private final long[] nanos = new long[PHASES.length];
+        private final Map<Path, FileStats> files = new TreeMap<>();
+
+        Section(String name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * What the query did with one file.
+     */
+    static class FileStats {
+
+        private final Path path;
+        private Instant first;
+        private String pruned;
+        private long positionFrom;
+        private long positionTo;
+        private long probes;
+        private long bytes;
+        private long records;
+        private long searchNanos;
+        private long scanNanos;
+
+        FileStats(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @return the reason the file is not scanned, or null
+         */
+        String getPruned() {
+            return pruned;
+        }
+
+        long getProbes() {
+            return probes;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getRecords() {
+            return records;
+        }
+
+    }
+
+    private synchronized Section section(LogConfig lc) {
+        return sections.computeIfAbsent(lc, k -> new Section(k.getLogName()));
+    }
+
+    private FileStats file(LogFile lf) {
+        return section(lf.getLc()).files.computeIfAbsent(lf.getPath(),
+                FileStats::new);
+    }
+
+    synchronized void add(int phase, long n) {
+        nanos[phase] += n;
+    }
+
+    private void add(LogConfig lc, int phase, long n) {
+        add(phase, n);
+        Section s = section(lc);
+        s.nanos[phase] += n;
+    }
+
+    /**
+     * The directory of the section was listed.
+     */
+    void list(LogConfig lc, int files, long n) {
+        section(lc).listed += files;
+        add(lc, LIST, n);
+    }
+
+    /**
+     * The first record time of lf was read or taken from the index.
+     */
+    void probe(LogFile lf, long probes, long n) {
+        FileStats fs = file(lf);
+        fs.first = lf.getFrom();
+        fs.probes += probes;
+        add(lf.getLc(), PROBE, n);
+    }
+
+    /**
+     * lf is left out of the interval files.
+     */
+    void pruned(LogFile lf, String reason) {
+        file(lf).pruned = reason;
+    }
+
+    /**
+     * The interval of lf was searched.
+     */
+    void search(LogFile lf, long probes, long n) {
+        FileStats fs = file(lf);
+        fs.positionFrom = lf.getPositionFrom();
+        fs.positionTo = lf.getPositionTo();
+        fs.probes += probes;
+        fs.searchNanos += n;
+        if (lf.getFileSize() == 0) {
+            fs.pruned = "empty file";
+        } else if (fs.positionTo <= fs.positionFrom) {
+            fs.pruned = "no records in [from, to)";
+        }
+        add(lf.getLc(), SEARCH, n);
+    }
+
+    /**
+     * @return the stats of the file at path of section lc, or null
+     */
+    synchronized FileStats getFile(LogConfig lc, Path path) {
+        Section s = sections.get(lc);
+        return s != null ? s.files.get(path) : null;
+    }
+
+    /**
+     * @return the time of phase in nanoseconds
+     */
+    synchronized long getNanos(int phase) {
+        return nanos[phase];
+    }
+
+    /**
+     * @return a consumer counting the bytes, records and time of the scan
+     * per file, it should be the first of the consumers
+     */
+    QueryPlan.Consumer scan() {
+        return new Scan();
+    }
+
+    /**
+     * @return c with the time of its calls added to phase instead of the
+     * scan
+     */
+    QueryPlan.Consumer timed(QueryPlan.Consumer c, int phase) {
+        return new Timed(c, phase);
+    }
+
+    private class Scan implements QueryPlan.Consumer {
+
+        private FileStats fs;
+        private long fileStarted;
+        private long consumersStarted;
+
+        @Override
+        public void startFile(LogFile lf) {
+            fs = lf.isInterval() ? file(lf) : null;
+            fileStarted = System.nanoTime();
+            consumersStarted = getNanos(AGGREGATE) + getNanos(PRINT);
+        }
+
+        @Override
+        public void text(ByteBuffer buf, int from, int to) {
+            fs.bytes += to - from;
+        }
+
+        @Override
+        public void match(ByteBuffer buf, int from, int to, long position,
+                Instant instant) {
+            fs.bytes += to - from;
+            if (instant != null) {
+                fs.records++;
+            }
+        }
+
+        @Override
+        public void endFile(LogFile lf) {
+            if (fs == null) {
+                return;
+            }
+            long n = System.nanoTime() - fileStarted - (getNanos(AGGREGATE)
+                    + getNanos(PRINT) - consumersStarted);
+            fs.scanNanos += n;
+            add(lf.getLc(), SCAN, n);
+        }
+
+    }
+
+    private class Timed implements QueryPlan.Consumer {
+
+        private final QueryPlan.Consumer c;
+        private final int phase;
+
+        Timed(QueryPlan.Consumer c, int phase) {
+            this.c = c;
+            this.phase = phase;
+        }
+
+        @Override
+        public void startSection(LogConfig lc, TreeSet<LogFile> files)
+                throws IOException {
+            long t = System.nanoTime();
+            c.startSection(lc, files);
+            add(phase, System.nanoTime() - t);
+        }
+
+        @Override
+        public void startFile(LogFile lf) throws IOException {
+            long t = System.nanoTime();
+            c.startFile(lf);
+            add(phase, System.nanoTime() - t);
+        }
+
+        @Override
+        public void text(ByteBuffer buf, int from, int to)
+                throws IOException {
+            long t = System.nanoTime();
+            c.text(buf, from, to);
+            add(phase, System.nanoTime() - t);
+        }
+
+        @Override
+        public void match(ByteBuffer buf, int from, int to, long position,
+                Instant instant) throws IOException {
+            long t = System.nanoTime();
+            c.match(buf, from, to, position, instant);
+            add(phase, System.nanoTime() - t);
+        }
+
+        @Override
+        public void endFile(LogFile lf) throws IOException {
+            long t = System.nanoTime();
+            c.endFile(lf);
+            add(phase, System.nanoTime() - t);
+        }
+
+    }
+
+    private String format(Instant instant) {
+        if (instant == null) {
+            return "-";
+        }
+        DateTimeFormatter formatter = config.getOutputDateFormatter();
+        return formatter != null ? formatter.format(instant) : instant.
+                toString();
+    }
+
+    private static String millis(long n) {
+        return String.format(Locale.ROOT, "%.1f ms", n / 1e6);
+    }
+
+    private static String phases(long[] n, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(PHASES[i]).append(' ').append(millis(n[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Print the report.
+     */
+    public synchronized void print(PrintStream out) {
+        long wall = System.nanoTime() - started;
+        long bytes = 0;
+        long records = 0;
+        out.println("EXPLAIN");
+        for (Section s : sections.values()) {
+            int pruned = 0;
+            for (FileStats fs : s.files.values()) {
+                if (fs.pruned != null) {
+                    pruned++;
+                }
+            }
+            out.println(s.name + " listed " + s.listed + ", pruned " + pruned
+                    + ", scanned " + (s.files.size() - pruned));
+            out.println("  " + phases(s.nanos, SCAN + 1));
+            for (FileStats fs : s.files.values()) {
+                String first = format(fs.first);
+                if (fs.pruned != null) {
+                    out.println("  " + fs.path.getFileName() + " first "
+                            + first + " pruned: " + fs.pruned + ", probes "
+                            + fs.probes);
+                    continue;
+                }
+                out.println("  " + fs.path.getFileName() + " first " + first
+                        + " [" + fs.positionFrom + ", " + fs.positionTo
+                        + ") probes " + fs.probes + ", bytes " + fs.bytes
+                        + ", records " + fs.records + ", search "
+                        + millis(fs.searchNanos) + ", scan "
+                        + millis(fs.scanNanos));
+                bytes += fs.bytes;
+                records += fs.records;
+            }
+        }
+
+        out.println("total " + phases(nanos, PHASES.length) + ", wall "
+                + millis(wall));
+        double scan = nanos[SCAN] / 1e9;
+        out.println(String.format(Locale.ROOT,
+                "scanned %d bytes, %d records, %.1f MB/s, %.0f records/s",
+                bytes, records, scan > 0 ? bytes / scan / (1024 * 1024) : 0,
+                scan > 0 ? records / scan : 0));
+        out.println("");
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded LRU cache of open read-only file channels and their mapped regions,
+ * shared by all LogFile phases. Entries are keyed by path and checked against
+ * the file key on every acquire, so a rotated or truncated file is reopened.
+ *
+ * Channels are only used with positional reads and maps, which are safe for
+ * concurrent use. An evicted channel is closed when its last handle is
+ * released.
+ */
+public class FileChannelCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int MAX_REGIONS = 4;
+
+    private static final FileChannelCache shared = new FileChannelCache(
+            DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16,
+            0.75f, true);
+    private long hits;
+    private long misses;
+    private long invalidations;
+    private long mapHits;
+    private long mapMisses;
+
+    public FileChannelCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the cache shared by all log files
+     */
+    public static FileChannelCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Open the file or reuse its cached channel. The handle must be closed
+     * after use.
+     */
+    public Handle acquire(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(key,
+                BasicFileAttributes.class);
+        Object identity = attrs.fileKey() != null ? attrs.fileKey() : attrs.
+                creationTime();
+
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && (!Objects.equals(e.identity, identity) || attrs.
+                    size() < e.size)) {
+                // rotated or truncated since it was opened
+                entries.remove(key);
+                e.evict();
+                invalidations++;
+                e = null;
+            }
+            if (e != null) {
+                e.size = attrs.size();
+                e.refs++;
+                hits++;
+                return new Handle(e);
+            }
+            misses++;
+        }
+
+        EngineEvents.FileOpenEvent event = new EngineEvents.FileOpenEvent();
+        event.begin();
+        FileChannel fc = FileChannel.open(key, StandardOpenOption.READ);
+        EngineMetrics.getShared().addFileOpened();
+        if (event.shouldCommit()) {
+            event.set(key, attrs.size());
+            event.commit();
+        }
+
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && Objects.equals(e.identity, identity)) {
+                // opened by another thread meanwhile
+                close(fc);
+            } else {
+                if (e != null) {
+                    entries.remove(key);
+                    e.evict();
+                }
+                e = new Entry(fc, identity, attrs.size());
+                entries.put(key, e);
+                evictEldest();
+            }
+            e.refs++;
+            return new Handle(e);
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            e.evict();
+        }
+    }
+
+    /**
+     * Drop the cached channel of the path, e.g. after it was rotated.
+     */
+    public synchronized void invalidate(Path path) {
+        Entry e = entries.remove(path.toAbsolutePath().normalize());
+        if (e != null) {
+            e.evict();
+            invalidations++;
+        }
+    }
+
+    /**
+     * Close all channels that are not in use and forget the others.
+     */
+    public synchronized void clear() {
+        for (Entry e : entries.values()) {
+            e.evict();
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the invalidations
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the mapHits
+     */
+    public synchronized long getMapHits() {
+        return mapHits;
+    }
+
+    /**
+     * @return the mapMisses
+     */
+    public synchronized long getMapMisses() {
+        return mapMisses;
+    }
+
+    private static void close(FileChannel fc) {
+        try {
+            fc.close();
+        } catch (IOException ex) {
+            Logger.getLogger(FileChannelCache.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private class Entry {
+
+        final FileChannel fc;
+        final Object identity;
+        long size;
+        int refs;
+        boolean evicted;
+        final List<Region> regions = new ArrayList<>();
+
+        Entry(FileChannel fc, Object identity, long size) {
+            this.fc = fc;
+            this.identity = identity;
+            this.size = size;
+        }
+
+        // called with the cache lock held
+        void evict() {
+            evicted = true;
+            regions.clear();
+            if (refs == 0) {
+                close(fc);
+            }
+        }
+
+        void release() {
+            synchronized (FileChannelCache.this) {
+                refs--;
+                if (evicted && refs == 0) {
+                    close(fc);
+                }
+            }
+        }
+
+        ByteBuffer map(long position, long length) throws IOException {
+            synchronized (FileChannelCache.this) {
+                for (int i = 0; i < regions.size(); i++) {
+                    Region r = regions.get(i);
+                    if (r.position == position && r.length == length) {
+                        regions.remove(i);
+                        regions.add(r);
+                        mapHits++;
+                        return r.buf.duplicate();
+                    }
+                }
+                mapMisses++;
+            }
+
+            ByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, position,
+                    length);
+
+            synchronized (FileChannelCache.this) {
+                if (!evicted) {
+                    regions.add(new Region(position, length, buf));
+                    if (regions.size() > MAX_REGIONS) {
+                        regions.remove(0);
+                    }
+                }
+            }
+            return buf.duplicate();
+        }
+
+    }
+
+    private static class Region {
+
+        final long position;
+        final long length;
+        final ByteBuffer buf;
+
+        Region(long position, long length, ByteBuffer buf) {
+            this.position = position;
+            this.length = length;
+            this.buf = buf;
+        }
+
+    }
+
+    /**
+     * A use of a cached channel, released by close.
+     */
+    public static class Handle implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean closed;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        public FileChannel channel() {
+            return entry.fc;
+        }
+
+        /**
+         * @return the file size seen when the handle was acquired
+         */
+        public long size() {
+            return entry.size;
+        }
+
+        /**
+         * Map the region read-only, or reuse the mapping of a previous phase.
+         */
+        public ByteBuffer map(long position, long length) throws IOException {
+            return entry.map(position, length);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+
+    }
+
+}
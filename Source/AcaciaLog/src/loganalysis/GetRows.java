@@ -19,64 +19,170 @@
  */
 package loganalysis;
 
-import acacialog.Application;
 import acacialog.ApplicationFactory;
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class GetRows {
 
-    Application app = (new ApplicationFactory()).getInstance();
+    static final Comparator<LogRecord> LONGER = Comparator.comparing(
+            LogRecord::getDuration).reversed().thenComparingInt(lr -> lr.
+                    getLf().getLogOrder()).thenComparing(lr -> lr.getLf().
+                    getFrom()).thenComparing(lr -> lr.getLf().getPath()).
+            thenComparingLong(LogRecord::getPositionFrom);
+
+    private final ConfigSnapshot config;
+    private boolean intervalFound = false;
+    private LogIndex index;
+    private BinarySearch.ProbeCache probes;
+    private Explain explain;
+
+    public GetRows() {
+        this((new ApplicationFactory()).getInstance().snapshot());
+    }
+
+    public GetRows(ConfigSnapshot config) {
+        this.config = config;
+    }
 
     public void findInterval() {
-        for (int j = 0; j < app.getSections().size(); j++) {
-            String s = app.getSections().get(j);
-            LogConfig lc = app.logs.get(s);
-            ListFiles listFiles = new ListFiles();
-            lc.setLogFiles(listFiles.getIntervalFiles(lc, j));
+        intervalFound = true;
+        range(config.getSections().size()).forEach(j -> {
+            String s = config.getSections().get(j);
+            LogConfig lc = config.getLog(s);
+            lc.setLogFiles(findInterval(lc, j));
+        });
+    }
 
-            TreeSet<LogFile> lfts = lc.getLogFiles();
+    public TreeSet<LogFile> findInterval(LogConfig lc, int logOrder) {
+        ListFiles listFiles = new ListFiles(config);
+        listFiles.setIndex(index);
+        listFiles.setExplain(explain);
+        TreeSet<LogFile> lfts = listFiles.getIntervalFiles(lc, logOrder);
 
-            List<LogFile> arr = new ArrayList<>();
-            for (LogFile lf : lfts) {
-                arr.add(lf);
+        List<LogFile> arr = new ArrayList<>();
+        for (LogFile lf : lfts) {
+            arr.add(lf);
+        }
+
+        // the searches keep no state and share the cached channels
+        range(arr.size()).forEach(i -> {
+            LogFile lf = arr.get(i);
+            LogFile lfNext = null;
+            if (i + 1 < arr.size()) {
+                lfNext = arr.get(i + 1);
+            }
+            long started = System.nanoTime();
+            long probed = EngineMetrics.getShared().getProbes();
+            lf.findInterval(lfNext, probes);
+            if (explain != null) {
+                explain.search(lf, EngineMetrics.getShared().getProbes()
+                        - probed, System.nanoTime() - started);
             }
+        });
 
-            for (int i = 0; i < arr.size(); i++) {
-                LogFile lf = arr.get(i);
-                LogFile lfNext = null;
-                if (i + 1 < arr.size()) {
-                    lfNext = arr.get(i + 1);
-                }
-                lf.findInterval(lfNext);
+        return lfts;
+    }
 
-            }
-        }
+    /**
+     * @return indexes 0 to n, parallel when more threads are allowed and
+     * nothing is explained
+     */
+    private IntStream range(int n) {
+        IntStream res = IntStream.range(0, n);
+        return config.getThreads() > 1 && explain == null ? res.parallel()
+                : res;
+    }
+
+    /**
+     * @return the index
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @param index the index of first record times to use, or null
+     */
+    public void setIndex(LogIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the probes
+     */
+    public BinarySearch.ProbeCache getProbes() {
+        return probes;
+    }
+
+    /**
+     * @param probes the probes shared with other intervals, or null
+     */
+    public void setProbes(BinarySearch.ProbeCache probes) {
+        this.probes = probes;
+    }
+
+    /**
+     * @return the explain
+     */
+    public Explain getExplain() {
+        return explain;
+    }
+
+    /**
+     * @param explain the report of the interval search, or null
+     */
+    public void setExplain(Explain explain) {
+        this.explain = explain;
     }
 
     public void printInterval() {
 
-        for (String s : app.getSections()) {
-            LogConfig lc = app.logs.get(s);
-            lc.printSection();
-            TreeSet<LogFile> lfts = lc.getLogFiles();
+        OutputSink sink = OutputSink.stdout();
+        try {
+            for (String s : config.getSections()) {
+                LogConfig lc = config.getLog(s);
+                lc.printSection(sink);
+                TreeSet<LogFile> lfts = lc.getLogFiles();
 
-            for (LogFile lf : lfts) {
-                lf.printInterval(lf.getPositionFrom(), lf.getPositionTo());
+                for (LogFile lf : lfts) {
+                    lf.printInterval(lf.getPositionFrom(), lf.getPositionTo(),
+                            sink);
+                }
             }
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
         }
 
     }
 
     public void findLogRecords() {
 
-        for (int i = 0; i < app.getSections().size(); i++) {
-            String s = app.getSections().get(i);
-            LogConfig lc = app.logs.get(s);
+        for (int i = 0; i < config.getSections().size(); i++) {
+            String s = config.getSections().get(i);
+            LogConfig lc = config.getLog(s);
             TreeSet<LogFile> lfts = lc.getLogFiles();
 
             for (LogFile lf : lfts) {
@@ -87,67 +193,138 @@ public class GetRows {
 
     }
 
-    public void printLongestOperations() {
-        int top = app.cmd.getTop();
-
-        PriorityQueue<LogRecord> longest = new PriorityQueue<>(top,
-                (LogRecord record1, LogRecord record2) -> record1.getDuration().
-                compareTo(record2.getDuration()));
+    /**
+     * @return the top records of the stream with the longest durations,
+     * longest first, earlier records first on equal durations
+     */
+    public static LogRecord[] getLongestOperations(Stream<LogRecord> records,
+            int top) {
+        if (top <= 0) {
+            return new LogRecord[0];
+        }
+        // the shortest and latest record is at the head to be replaced
+        Comparator<LogRecord> order = LONGER.reversed();
+        PriorityQueue<LogRecord> longest = records.collect(
+                () -> new PriorityQueue<>(top, order),
+                (q, lr) -> offer(q, lr, top, order),
+                (q, other) -> other.forEach(lr -> offer(q, lr, top, order)));
 
-        for (String s : app.getSections()) {
-            LogConfig lc = app.logs.get(s);
-            TreeSet<LogFile> lfts = lc.getLogFiles();
-            for (LogFile lf : lfts) {
-                //go through log records and add to the Priority Queue
-                LogRecord prev = null;
-                for (LogRecord lr : lf.getRecords()) {
-                    if (prev != null) {
-                        lr.setDuration(Duration.between(prev.getInstant(), lr.
-                                getInstant()));
-                    } else {
-                        lr.setDuration(Duration.between(lr.getInstant(), lr.
-                                getInstant()));
-                    }
+        LogRecord[] lrs = longest.toArray(new LogRecord[longest.size()]);
+        Arrays.sort(lrs, LONGER);
+        return lrs;
+    }
 
-                    if (longest.size() < top) {
-                        longest.add(lr);
-                    } else {
-                        if (longest.peek().getDuration().compareTo(lr.
-                                getDuration()) < 0) {
-                            longest.poll();
-                            longest.add(lr);
-                        }
-                    }
+    static void offer(PriorityQueue<LogRecord> q, LogRecord lr,
+            int top, Comparator<LogRecord> order) {
+        if (q.size() < top) {
+            q.add(lr);
+        } else if (order.compare(q.peek(), lr) < 0) {
+            q.poll();
+            q.add(lr);
+        }
+    }
 
-                    prev = lr;
-                }
+    /**
+     * @return the top records of the intervals of all sections, with more
+     * than one thread the IoScheduler reads the files by disk
+     */
+    static LogRecord[] getLongestOperations(ConfigSnapshot config)
+            throws IOException {
+        List<LogFile> files = new ArrayList<>();
+        for (String s : config.getSections()) {
+            files.addAll(config.getLog(s).getLogFiles());
+        }
+        if (config.getThreads() > 1) {
+            try (IoScheduler scheduler = new IoScheduler(config.getThreads(),
+                    config.getIoThreads(), Math.max(2, config.getReadahead()))) {
+                return scheduler.getLongestOperations(files, config.getTop());
             }
         }
+        return getLongestOperations(LogQuery.records(files, config.
+                getReadahead()), config.getTop());
+    }
 
-        /*while (longest.size() != 0)
-         {
-         System.out.println(longest.remove().getDuration().toString());
-         }*/
-        LogRecord[] lrs = longest.toArray(new LogRecord[longest.size()]);
-        //System.out.println("size " + lrs.length);
+    public void printLongestOperations() {
+        OutputSink sink = OutputSink.stdout();
+        try {
+            LogRecord[] lrs = getLongestOperations(config);
+            printLongestOperations(lrs, sink);
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
 
-        Arrays.sort(lrs, (LogRecord record1, LogRecord record2) -> record2.
-                getDuration().
-                compareTo(record1.getDuration()));
+    }
 
-        for (LogRecord lr : lrs) {
-            LogFile lf = lr.getLf();
-            System.out.print(lr.getDuration().toString() + " " + lf.
+    static void printLongestOperations(LogRecord[] lrs, OutputSink sink)
+            throws IOException {
+        byte[][] texts = readRecords(lrs);
+
+        for (int k = 0; k < lrs.length; k++) {
+            LogRecord lr = lrs[k];
+            sink.print(lr.getDuration().toString() + " " + lr.getLf().
                     getLc().getLogName() + " ");
-            lf.printInterval(lf.getPositionFrom() + lr.getPositionFrom(), lf.
-                    getPositionFrom() + lr.getPositionTo());
-            System.out.println("");
+            sink.write(texts[k], 0, texts[k].length);
+            sink.println();
         }
 
         if (lrs.length == 0) {
-            System.out.println("NO_LOG_RECORDS_FOUND");
+            sink.println("NO_LOG_RECORDS_FOUND");
         }
+    }
 
+    /**
+     * Read the texts of the records in (file, offset) order, so the files are
+     * read sequentially whatever order the records are printed in.
+     */
+    static byte[][] readRecords(LogRecord[] lrs) throws IOException {
+        Integer[] order = new Integer[lrs.length];
+        for (int k = 0; k < lrs.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparing((Integer k) -> lrs[k].getLf().
+                getPath()).thenComparingLong(k -> lrs[k].getPositionFrom()));
+
+        byte[][] texts = new byte[lrs.length][];
+        LogFile opened = null;
+        FileChannelCache.Handle h = null;
+        try {
+            for (int k : order) {
+                LogRecord lr = lrs[k];
+                LogFile lf = lr.getLf();
+                if (!lf.isInterval()) {
+                    texts[k] = new byte[0];
+                    continue;
+                }
+                if (lf != opened) {
+                    if (h != null) {
+                        h.close();
+                    }
+                    h = FileChannelCache.getShared().acquire(lf.getPath());
+                    opened = lf;
+                }
+
+                long start = lf.getPositionFrom() + lr.getPositionFrom();
+                ByteBuffer bb = ByteBuffer.allocate((int) (lr.getPositionTo()
+                        - lr.getPositionFrom()));
+                while (bb.hasRemaining() && h.channel().read(bb, start + bb.
+                        position()) >= 0) {
+                }
+                texts[k] = Arrays.copyOf(bb.array(), bb.position());
+                if (lf.getCharset().getUnit() > 1) {
+                    // UTF-16 records are printed as UTF-8
+                    texts[k] = new String(texts[k], lf.getCharset().
+                            getCharset()).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+        } finally {
+            if (h != null) {
+                h.close();
+            }
+        }
+
+        return texts;
     }
 
     public void removeDates() {
@@ -155,18 +332,315 @@ public class GetRows {
         // find dates and remove them
         // print to output
 
-        for (int i = 0; i < app.getSections().size(); i++) {
-            String s = app.getSections().get(i);
-            LogConfig lc = app.logs.get(s);
-            lc.printSection();
-            TreeSet<LogFile> lfts = lc.getLogFiles();
+        OutputSink sink = OutputSink.stdout();
+        try {
+            for (int i = 0; i < config.getSections().size(); i++) {
+                String s = config.getSections().get(i);
+                LogConfig lc = config.getLog(s);
+                lc.printSection(sink);
+                TreeSet<LogFile> lfts = lc.getLogFiles();
 
-            for (LogFile lf : lfts) {
-                lf.removeDates();
+                for (LogFile lf : lfts) {
+                    lf.removeDates(sink);
+                }
+
+            }
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+
+    }
+
+    public void printJsonl() {
+        OutputSink sink = null;
+        try {
+            if (config.getCmd().getOut() != null) {
+                sink = OutputSink.open(Paths.get(config.getCmd().getOut()));
+            } else {
+                sink = OutputSink.stdout();
+            }
+
+            JsonlWriter writer = new JsonlWriter(sink, config.getThreads(),
+                    JsonlWriter.DEFAULT_CHUNK_SIZE);
+            try {
+                for (String s : config.getSections()) {
+                    LogConfig lc = config.getLog(s);
+                    for (LogFile lf : lc.getLogFiles()) {
+                        writer.convert(lf);
+                    }
+                }
+            } finally {
+                writer.finish();
+            }
+
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        } finally {
+            if (sink != null) {
+                try {
+                    if (config.getCmd().getOut() != null) {
+                        sink.close();
+                    } else {
+                        sink.flush();
+                    }
+                } catch (IOException ex) {
+                    Logger.getLogger(GetRows.class.getName()).
+                            log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+
+    }
+
+    public void diff() {
+        LogDiff logDiff = new LogDiff(config.getCmd().isMask());
+
+        try (RecordSequence a = logDiff.fingerprint(getDiffSide(true));
+                RecordSequence b = logDiff.fingerprint(getDiffSide(false))) {
+            OutputSink sink = OutputSink.stdout();
+            logDiff.printDiff(a, b, sink);
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+
+    }
+
+    public void follow() {
+        Duration threshold = null;
+        if (config.getCmd().getThreshold() != null) {
+            threshold = Duration.parse(config.getCmd().getThreshold());
+        }
+        LogFollower follower = new LogFollower(config, OutputSink.stdout(),
+                threshold);
+        follower.run();
+    }
+
+    public void printIncremental() {
+        Path path = Paths.get(config.getCmd().getCheckpoint() != null
+                ? config.getCmd().getCheckpoint() : CheckpointStore.DEFAULT_FILE);
+
+        OutputSink sink = OutputSink.stdout();
+        try {
+            CheckpointStore store = CheckpointStore.load(path);
+            IncrementalAnalysis analysis = new IncrementalAnalysis(config);
+            analysis.update(store);
+            store.save(path);
+
+            List<CheckpointStore.Entry> top = store.getTop();
+            for (CheckpointStore.Entry e : top) {
+                sink.print(e.getDuration().toString() + " " + e.getSection()
+                        + " ");
+                sink.write(e.getText(), 0, e.getText().length);
+                sink.println();
+            }
+            if (top.isEmpty()) {
+                sink.println("NO_LOG_RECORDS_FOUND");
+            }
+
+            for (String s : config.getSections()) {
+                long[] h = store.getHistograms().get(s);
+                if (h == null) {
+                    continue;
+                }
+                printHistogram(s, h, sink);
+            }
+            sink.println("NEW_RECORDS " + analysis.getNewRecords()
+                    + " NEW_BYTES " + analysis.getNewBytes());
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+
+    }
+
+    private static void printHistogram(String section, long[] h,
+            OutputSink sink) throws IOException {
+        for (int b = 0; b < h.length; b++) {
+            if (h[b] > 0) {
+                String range = b == 0 ? "0ms" : (1L << (b - 1)) + "ms-"
+                        + ((1L << b) - 1) + "ms";
+                sink.println(section + " HISTOGRAM " + range + " " + h[b]);
             }
+        }
+    }
+
+    /**
+     * Write the records of the intervals to the -export file in one scan.
+     */
+    public void export() {
+        Path path = Paths.get(config.getCmd().getExport());
+        LogDiff templates = config.getCmd().isMask() ? new LogDiff(true)
+                : null;
+        try (RecordSnapshot.Writer writer = new RecordSnapshot.Writer(path,
+                templates)) {
+            QueryPlan plan = new QueryPlan(config, false, false, false);
+            plan.setExplain(explain);
+            plan.scan(Arrays.asList(writer));
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
 
+    /**
+     * Print -o, -histogram and -timeline of [from, to) from the -snapshot
+     * file, each followed by an empty line.
+     */
+    public void printSnapshot() {
+        OutputSink sink = OutputSink.stdout();
+        try (RecordSnapshot snapshot = RecordSnapshot.open(Paths.get(config.
+                getCmd().getSnapshot()))) {
+            Instant from = config.getFrom();
+            Instant to = config.getTo();
+
+            if (config.getCmd().isPrintLongestOperations()) {
+                RecordSnapshot.Entry[] top = snapshot.top(config.getTop(), from,
+                        to);
+                for (RecordSnapshot.Entry e : top) {
+                    sink.println(e.getDuration().toString() + " " + e.
+                            getSection() + " " + format(e.getInstant()) + " "
+                            + e.getFile() + " " + e.getPositionFrom() + " " + e.
+                            getPositionTo());
+                }
+                if (top.length == 0) {
+                    sink.println("NO_LOG_RECORDS_FOUND");
+                }
+                sink.println();
+            }
+
+            if (config.getCmd().isHistogram()) {
+                for (Map.Entry<String, long[]> e : snapshot.histogram(from, to).
+                        entrySet()) {
+                    printHistogram(e.getKey(), e.getValue(), sink);
+                }
+                sink.println();
+            }
+
+            if (config.getCmd().getTimeline() != null) {
+                Duration step = Duration.parse(config.getCmd().getTimeline());
+                for (Map.Entry<String, TreeMap<Long, Long>> e : snapshot.
+                        timeline(from, to, step).entrySet()) {
+                    for (Map.Entry<Long, Long> c : e.getValue().entrySet()) {
+                        sink.println(e.getKey() + " TIMELINE " + format(Instant.
+                                ofEpochMilli(c.getKey())) + " " + c.getValue());
+                    }
+                }
+                sink.println();
+            }
+            sink.flush();
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private String format(Instant instant) {
+        DateTimeFormatter formatter = config.getOutputDateFormatter();
+        return formatter != null ? formatter.format(instant) : instant.
+                toString();
+    }
+
+    public void printBatch() {
+        OutputSink sink = OutputSink.stdout();
+        try {
+            List<BatchQuery.Interval> intervals = new ArrayList<>();
+            if (config.getCmd().getIntervalsFile() != null) {
+                intervals.addAll(BatchQuery.readIntervals(Paths.get(config.
+                        getCmd().getIntervalsFile())));
+            }
+            for (String[] pair : config.getCmd().getIntervals()) {
+                intervals.add(new BatchQuery.Interval(ConfigSnapshot.
+                        parseInstant(pair[0]), ConfigSnapshot.parseInstant(
+                        pair[1])));
+            }
+
+            BatchQuery batch = new BatchQuery(config, intervals);
+            batch.findIntervals();
+            batch.print(config.getCmd().isPrintLongestOperations(), config.
+                    getCmd().isPrintInterval(), sink);
+            sink.flush();
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void serve() {
+        QueryServer server = new QueryServer(
+                () -> (new ApplicationFactory()).getInstance().snapshot(),
+                config.getThreads());
+        try {
+            server.start(config.getCmd().getServe());
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.out.println("SERVING http://127.0.0.1:" + server.getPort()
+                    + "/");
+            server.join();
+        } catch (IOException ex) {
+            Logger.getLogger(GetRows.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            server.stop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<LogFile> getDiffSide(boolean first) throws IOException {
+        List<LogFile> res = new ArrayList<>();
+
+        String file = first ? config.getCmd().getFile1() : config.getCmd().
+                getFile2();
+        if (file != null) {
+            // whole file, dates are matched with the first section config
+            Path p = Paths.get(file);
+            LogFile lf = new LogFile(p, config.getLog(config.getSections().
+                    get(0)), 0, config);
+            lf.setInterval(true);
+            lf.setPositionTo(Files.size(p));
+            res.add(lf);
+            return res;
+        }
+
+        if (first) {
+            if (!intervalFound) {
+                findInterval();
+            }
+            for (String s : config.getSections()) {
+                res.addAll(config.getLog(s).getLogFiles());
+            }
+            return res;
+        }
+
+        List<String> sections = new ArrayList<>();
+        if (config.getCmd().getSection2() != null) {
+            for (String s : config.getCmd().getSection2().split(";")) {
+                sections.add("[" + s.trim() + "]");
+            }
+        } else {
+            sections.addAll(config.getSections());
+        }
+
+        // second interval is searched with from2/to2 in place of from/to
+        Instant from = config.getFrom();
+        Instant to = config.getTo();
+        if (config.getCmd().getFrom2() != null) {
+            from = ConfigSnapshot.parseInstant(config.getCmd().getFrom2());
+        }
+        if (config.getCmd().getTo2() != null) {
+            to = ConfigSnapshot.parseInstant(config.getCmd().getTo2());
+        }
+        GetRows second = new GetRows(config.withInterval(from, to));
+        for (int j = 0; j < sections.size(); j++) {
+            LogConfig lc = new LogConfig(sections.get(j), config.getIniFile());
+            res.addAll(second.findInterval(lc, j));
         }
 
+        return res;
     }
 
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Updates a CheckpointStore with the records appended since the previous run.
+ * Only bytes after the checkpoint offset of each file are mapped, the last
+ * record of the newest file is left for the next run because it may still be
+ * written.
+ */
+public class IncrementalAnalysis {
+
+    public static final int WINDOW = 16 * 1024 * 1024;
+    public static final int MAX_WINDOW = 1024 * 1024 * 1024;
+    private static final int CHECK_LENGTH = 64;
+
+    private final ConfigSnapshot config;
+    private final ListFiles listFiles;
+    private int window = WINDOW;
+    private int maxWindow = MAX_WINDOW;
+    private long newRecords;
+    private long newBytes;
+
+    public IncrementalAnalysis(ConfigSnapshot config) {
+        this.config = config;
+        this.listFiles = new ListFiles(config);
+    }
+
+    public void update(CheckpointStore store) throws IOException {
+        store.trimTop(config.getTop());
+
+        for (String s : config.getSections()) {
+            LogConfig lc = config.getLog(s);
+
+            Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+            for (Path p : listFiles.listFiles(lc)) {
+                attrs.put(p, Files.readAttributes(p,
+                        BasicFileAttributes.class));
+            }
+            // oldest first, the last one is still written
+            List<Path> paths = new ArrayList<>(attrs.keySet());
+            paths.sort(Comparator.comparing((Path p) -> attrs.get(p).
+                    lastModifiedTime()).thenComparing(p -> p));
+
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < paths.size(); i++) {
+                Path p = paths.get(i);
+                BasicFileAttributes a = attrs.get(p);
+                String fileKey = a.fileKey() != null ? a.fileKey().toString()
+                        : p.toAbsolutePath() + " " + a.creationTime();
+                keys.add(fileKey);
+
+                CheckpointStore.FileCheckpoint fcp = store.getFile(s, fileKey,
+                        p);
+                if (a.size() < fcp.getOffset() || (fcp.getOffset() > 0
+                        && check(p, fcp.getOffset()) != fcp.getCheck())) {
+                    // truncated or rewritten in place
+                    fcp.setOffset(0);
+                    fcp.setLast(null);
+                }
+                if (a.size() > fcp.getOffset()) {
+                    process(store, lc, p, fcp, a.size(), i + 1 < paths.size());
+                }
+            }
+            store.retainFiles(s, keys);
+        }
+    }
+
+    private void process(CheckpointStore store, LogConfig lc, Path p,
+            CheckpointStore.FileCheckpoint fcp, long size, boolean complete)
+            throws IOException {
+        int top = config.getTop();
+        long pos = fcp.getOffset();
+        Instant prev = fcp.getLast();
+        int window = this.window;
+
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(p)) {
+            lc.getCharset(p, h.channel()).requireBytes(p,
+                    "incremental analysis");
+            while (pos < size) {
+                long end = Math.min(size, pos + window);
+                boolean lastWindow = end == size;
+                ByteBuffer buf = h.map(pos, end - pos);
+                ByteCharSequence cs = new ByteCharSequence(buf);
+                Matcher m = lc.getDatePattern().matcher(cs);
+
+                int recStart = -1;
+                int cut = buf.limit();
+                Instant recInstant = null;
+                Instant windowPrev = prev;
+                while (m.find()) {
+                    if (m.end() == cs.length() && !lastWindow) {
+                        // the date may continue in the next window
+                        cut = m.start();
+                        break;
+                    }
+                    Instant instant = lc.getDateExtractor().extract(m, cs);
+                    if (instant == null) {
+                        continue;
+                    }
+                    if (recStart >= 0) {
+                        add(store, lc, p, buf, pos, recStart, m.start(),
+                                recInstant, windowPrev, top);
+                        windowPrev = recInstant;
+                    }
+                    recStart = m.start();
+                    recInstant = instant;
+                }
+
+                if (!lastWindow && recStart <= 0 && window < maxWindow) {
+                    // a single record longer than the window
+                    window = (int) Math.min(2L * window, maxWindow);
+                    continue;
+                }
+                prev = windowPrev;
+                window = this.window;
+
+                if (!lastWindow && recStart <= 0) {
+                    // no date up to the cap, the window is part of the
+                    // current record which is kept up to the cap
+                    cut = cut > 0 ? cut : buf.limit();
+                    if (recStart == 0) {
+                        add(store, lc, p, buf, pos, 0, cut, recInstant, prev,
+                                top);
+                        prev = recInstant;
+                    }
+                    pos += cut;
+                    continue;
+                }
+
+                if (recStart < 0) {
+                    // no record starts in the rest of the file
+                    pos = complete ? size : pos;
+                    break;
+                }
+                if (lastWindow) {
+                    if (complete) {
+                        add(store, lc, p, buf, pos, recStart, buf.limit(),
+                                recInstant, prev, top);
+                        prev = recInstant;
+                        pos = size;
+                    } else {
+                        pos += recStart;
+                    }
+                    break;
+                }
+                pos += recStart;
+            }
+        }
+
+        newBytes += pos - fcp.getOffset();
+        fcp.setOffset(pos);
+        fcp.setCheck(check(p, pos));
+        fcp.setLast(prev);
+    }
+
+    /**
+     * @return hash of the bytes before position, to notice a file rewritten
+     * with the same key
+     */
+    private long check(Path p, long position) throws IOException {
+        long from = Math.max(0, position - CHECK_LENGTH);
+        ByteBuffer bb = ByteBuffer.allocate((int) (position - from));
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(p)) {
+            while (bb.hasRemaining() && h.channel().read(bb, from + bb.
+                    position()) > 0) {
+            }
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < bb.position(); i++) {
+            hash = (hash ^ (bb.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void add(CheckpointStore store, LogConfig lc, Path p,
+            ByteBuffer buf, long base, int from, int to, Instant instant,
+            Instant prev, int top) throws IOException {
+        Duration duration = prev != null ? Duration.between(prev, instant)
+                : Duration.ZERO;
+        store.addRecord(lc.getLogName(), duration, p.toString(), base + from,
+                top, () -> {
+                    byte[] text = new byte[to - from];
+                    ByteBuffer src = buf.duplicate();
+                    src.limit(to).position(from);
+                    src.get(text);
+                    return text;
+                });
+        newRecords++;
+    }
+
+    /**
+     * @param window the first window mapped, doubled up to the maximum
+     * window while a single record fills it
+     */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * @param maxWindow the largest window, longer records are cut there
+     */
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = maxWindow;
+    }
+
+    /**
+     * @return the newRecords
+     */
+    public long getNewRecords() {
+        return newRecords;
+    }
+
+    /**
+     * @return the newBytes
+     */
+    public long getNewBytes() {
+        return newBytes;
+    }
+
+}
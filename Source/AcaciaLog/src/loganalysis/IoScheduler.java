@@ -0,0 +1,296 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the scan of log files by disk. Files are grouped by FileStore and
+ * every store has its own small pool of I/O threads, so many parsing threads
+ * do not turn one disk into random reads. The I/O threads fill read ahead
+ * buffers of segments, the parsing runs on a separate CPU pool. The number of
+ * segments parsed at once follows the observed throughput: it grows while
+ * bytes per second grow and backs off when they fall.
+ */
+public class IoScheduler implements AutoCloseable {
+
+    /**
+     * Files are split on record starts into segments of about this size.
+     */
+    static final long SEGMENT = 32L * 1024 * 1024;
+    private static final double STEP = 0.05;
+
+    private final int cpuThreads;
+    private final int ioThreads;
+    private final int readahead;
+    private final long segment;
+    private final ExecutorService cpu;
+    private final Map<Object, ExecutorService> stores = new LinkedHashMap<>();
+    private int parallelism;
+    private int maxParallelism;
+    private long bytes;
+
+    /**
+     * @param cpuThreads the threads parsing segments
+     * @param ioThreads the threads reading from one disk
+     * @param readahead the buffers read ahead for a segment
+     */
+    public IoScheduler(int cpuThreads, int ioThreads, int readahead) {
+        this(cpuThreads, ioThreads, readahead, SEGMENT);
+    }
+
+    IoScheduler(int cpuThreads, int ioThreads, int readahead, long segment) {
+        this.segment = segment;
+        this.cpuThreads = Math.max(1, cpuThreads);
+        this.ioThreads = Math.max(1, ioThreads);
+        this.readahead = Math.max(1, readahead);
+        this.cpu = Executors.newFixedThreadPool(this.cpuThreads, threads(
+                "acacialog-parse"));
+    }
+
+    private static ThreadFactory threads(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * A part of the interval of a file, parsed by one task.
+     */
+    private static class Segment {
+
+        private final LogFile lf;
+        private final long from;
+        private final long to;
+        private final ExecutorService io;
+
+        Segment(LogFile lf, long from, long to, ExecutorService io) {
+            this.lf = lf;
+            this.from = from;
+            this.to = to;
+            this.io = io;
+        }
+
+    }
+
+    private static class Result {
+
+        private final PriorityQueue<LogRecord> longest;
+        private final long bytes;
+
+        Result(PriorityQueue<LogRecord> longest, long bytes) {
+            this.longest = longest;
+            this.bytes = bytes;
+        }
+
+    }
+
+    /**
+     * @return the top records of the files with the longest durations,
+     * longest first, the same as GetRows.getLongestOperations of their
+     * records
+     */
+    public LogRecord[] getLongestOperations(List<LogFile> files, int top)
+            throws IOException {
+        if (top <= 0) {
+            return new LogRecord[0];
+        }
+        Comparator<LogRecord> order = GetRows.LONGER.reversed();
+        PriorityQueue<LogRecord> longest = new PriorityQueue<>(top, order);
+
+        List<Segment> segments = segments(files);
+        CompletionService<Result> done = new ExecutorCompletionService<>(cpu);
+        parallelism = Math.max(1, Math.min(cpuThreads, stores.size()
+                * ioThreads));
+        int next = 0;
+        int active = 0;
+        int completed = 0;
+        long since = System.nanoTime();
+        long sinceBytes = 0;
+        double lastRate = 0;
+        boolean growing = true;
+
+        try {
+            while (next < segments.size() || active > 0) {
+                while (active < parallelism && next < segments.size()) {
+                    Segment sg = segments.get(next++);
+                    done.submit(() -> parse(sg, top, order));
+                    active++;
+                }
+
+                Result r = done.take().get();
+                active--;
+                r.longest.forEach(lr -> GetRows.offer(longest, lr, top, order));
+                bytes += r.bytes;
+                sinceBytes += r.bytes;
+
+                if (++completed >= parallelism) {
+                    long now = System.nanoTime();
+                    double rate = sinceBytes / (double) Math.max(1, now - since);
+                    if (rate < lastRate * (1 - STEP)) {
+                        growing = !growing;
+                    }
+                    if (rate < lastRate * (1 - STEP) || rate > lastRate * (1
+                            + STEP)) {
+                        parallelism = Math.max(1, Math.min(cpuThreads,
+                                parallelism + (growing ? 1 : -1)));
+                    }
+                    maxParallelism = Math.max(maxParallelism, parallelism);
+                    lastRate = rate;
+                    since = now;
+                    sinceBytes = 0;
+                    completed = 0;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+
+        LogRecord[] lrs = longest.toArray(new LogRecord[longest.size()]);
+        Arrays.sort(lrs, GetRows.LONGER);
+        return lrs;
+    }
+
+    private Result parse(Segment sg, int top, Comparator<LogRecord> order) {
+        PriorityQueue<LogRecord> q = new PriorityQueue<>(top, order);
+        try (PrefetchReader reader = new PrefetchReader(readahead, sg.io)) {
+            new RecordSpliterator(sg.lf, sg.from, sg.to, reader).
+                    forEachRemaining(lr -> GetRows.offer(q, lr, top, order));
+        }
+        return new Result(q, sg.to - sg.from);
+    }
+
+    /**
+     * @return segments of the intervals, taken in turn from every disk
+     */
+    private List<Segment> segments(List<LogFile> files) throws IOException {
+        Map<Object, ArrayDeque<Segment>> byStore = new LinkedHashMap<>();
+        for (LogFile lf : files) {
+            if (!lf.isInterval() || lf.getPositionTo() <= lf.getPositionFrom()) {
+                continue;
+            }
+            Object store = store(lf);
+            ExecutorService io = stores.computeIfAbsent(store,
+                    s -> Executors.newFixedThreadPool(ioThreads, threads(
+                            "acacialog-io")));
+            ArrayDeque<Segment> queue = byStore.computeIfAbsent(store,
+                    s -> new ArrayDeque<>());
+
+            long from = lf.getPositionFrom();
+            long end = lf.getPositionTo();
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(lf.getPath())) {
+                while (end - from > 2 * segment) {
+                    long split = lf.findRecordStart(h.channel(), from
+                            + segment, end);
+                    if (split <= from || split >= end) {
+                        break;
+                    }
+                    queue.add(new Segment(lf, from, split, io));
+                    from = split;
+                }
+            }
+            queue.add(new Segment(lf, from, end, io));
+        }
+
+        List<Segment> res = new ArrayList<>();
+        while (!byStore.isEmpty()) {
+            byStore.values().removeIf(q -> {
+                res.add(q.poll());
+                return q.isEmpty();
+            });
+        }
+        return res;
+    }
+
+    /**
+     * @return the FileStore of the file, or its root when it is not known
+     */
+    private static Object store(LogFile lf) {
+        try {
+            return Files.getFileStore(lf.getPath());
+        } catch (IOException ex) {
+            return String.valueOf(lf.getPath().toAbsolutePath().getRoot());
+        }
+    }
+
+    @Override
+    public void close() {
+        cpu.shutdown();
+        stores.values().forEach(ExecutorService::shutdown);
+        stores.clear();
+    }
+
+    /**
+     * @return the disks seen
+     */
+    public int getStores() {
+        return stores.size();
+    }
+
+    /**
+     * @return the segments parsed at once at the end of the last scan
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the most segments parsed at once
+     */
+    public int getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    /**
+     * @return the bytes parsed
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.regex.MatchResult;
+
+/**
+ * Finds the time field of JSON lines without parsing them. Every line that
+ * starts with '{' is scanned for the keys of the path, keeping only the
+ * nesting depth, and the value is converted to an Instant: ISO-8601 text, or
+ * epoch seconds, ms, µs or ns told apart by the number of digits. A match
+ * starts at the line and ends after the value. A line cut by the end of the
+ * region before its value is a match without a date that ends at the region
+ * end, so scans read the line again in their next window.
+ */
+public class JsonDateMatcher extends DateMatcher {
+
+    private static final int FOUND = 0;
+    private static final int NO_DATE = 1;
+    private static final int CUT = 2;
+    private static final int MAX_DEPTH = 63;
+
+    private final CharSequence cs;
+    private final char[][] keys;
+    private final Extractor extractor;
+    private int regionStart;
+    private int regionEnd;
+    private int pos;
+    private int start = -1;
+    private int end = -1;
+    private int valueStart = -1;
+    private int valueEnd = -1;
+    private int lineEnd;
+
+    /**
+     * @param keys the keys of the path to the time field
+     */
+    JsonDateMatcher(CharSequence cs, char[][] keys, Extractor extractor) {
+        this.cs = cs;
+        this.keys = keys;
+        this.extractor = extractor;
+        region(0, cs.length());
+    }
+
+    /**
+     * @return the keys of a dotted path, e.g. event.time
+     */
+    static char[][] keys(String path) {
+        String[] names = path.split("\\.");
+        char[][] res = new char[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            res[i] = names[i].trim().toCharArray();
+        }
+        return res;
+    }
+
+    @Override
+    public boolean find() {
+        int i = pos;
+        // a match starts a line, the char before the region counts
+        if (i > 0 && cs.charAt(i - 1) != '\n') {
+            i = lineEnd(i) + 1;
+        }
+
+        while (i < regionEnd) {
+            int status = scanLine(i);
+            if (status == FOUND) {
+                start = i;
+                pos = end;
+                return true;
+            }
+            if (status == CUT) {
+                start = i;
+                end = regionEnd;
+                valueStart = -1;
+                pos = regionEnd;
+                return true;
+            }
+            i = lineEnd + 1;
+        }
+
+        start = -1;
+        end = -1;
+        pos = regionEnd;
+        return false;
+    }
+
+    /**
+     * Scan the line at i for the value of the path.
+     *
+     * @return FOUND with the value and end set, CUT, or NO_DATE with lineEnd
+     * set
+     */
+    private int scanLine(int i) {
+        while (i < regionEnd && (cs.charAt(i) == ' ' || cs.charAt(i) == '\t')) {
+            i++;
+        }
+        if (i == regionEnd) {
+            return CUT;
+        }
+        if (cs.charAt(i) != '{') {
+            lineEnd = lineEnd(i);
+            return NO_DATE;
+        }
+
+        int depth = 0;
+        long arrays = 0;
+        int matched = 0;
+        while (i < regionEnd) {
+            char c = cs.charAt(i);
+            if (c == '\n') {
+                lineEnd = i;
+                return NO_DATE;
+            } else if (c == '{' || c == '[') {
+                depth++;
+                if (depth <= MAX_DEPTH) {
+                    arrays = c == '[' ? arrays | (1L << depth) : arrays & ~(1L
+                            << depth);
+                }
+                i++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+                if (depth <= 0) {
+                    // the record has no time field
+                    lineEnd = lineEnd(i);
+                    return NO_DATE;
+                }
+                i++;
+            } else if (c == '"') {
+                int close = closeQuote(i + 1);
+                if (close < 0) {
+                    return close == -1 ? CUT : NO_DATE;
+                }
+                int k = skipSpace(close + 1);
+                if (k == regionEnd) {
+                    return CUT;
+                }
+                boolean key = cs.charAt(k) == ':' && (depth > MAX_DEPTH
+                        || (arrays & (1L << depth)) == 0);
+                if (key) {
+                    if (depth <= matched) {
+                        // a sibling of a matched key, or a parent closed
+                        matched = depth - 1;
+                    }
+                    if (depth == matched + 1 && matched < keys.length
+                            && equals(i + 1, close, keys[matched])) {
+                        matched++;
+                        if (matched == keys.length) {
+                            return value(skipSpace(k + 1));
+                        }
+                    }
+                    i = k + 1;
+                } else {
+                    i = k;
+                }
+            } else {
+                i++;
+            }
+        }
+        return CUT;
+    }
+
+    private int value(int v) {
+        if (v >= regionEnd) {
+            return CUT;
+        }
+        if (cs.charAt(v) == '"') {
+            int close = closeQuote(v + 1);
+            if (close < 0) {
+                return close == -1 ? CUT : NO_DATE;
+            }
+            valueStart = v + 1;
+            valueEnd = close;
+            end = close + 1;
+            return FOUND;
+        }
+
+        int e = v;
+        while (e < regionEnd && isNumber(cs.charAt(e))) {
+            e++;
+        }
+        if (e == regionEnd) {
+            // the number may continue
+            return CUT;
+        }
+        // null, true or an object is a match without a date
+        valueStart = v;
+        valueEnd = e;
+        end = e;
+        return FOUND;
+    }
+
+    private static boolean isNumber(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.'
+                || c == 'e' || c == 'E';
+    }
+
+    /**
+     * @return the index of the quote closing the string at i, -1 at the
+     * region end, -2 at the line end with lineEnd set
+     */
+    private int closeQuote(int i) {
+        while (i < regionEnd) {
+            char c = cs.charAt(i);
+            if (c == '"') {
+                return i;
+            } else if (c == '\\') {
+                i += 2;
+            } else if (c == '\n') {
+                lineEnd = i;
+                return -2;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private int skipSpace(int i) {
+        while (i < regionEnd) {
+            char c = cs.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index of the line break at or after i, or the region end
+     */
+    private int lineEnd(int i) {
+        while (i < regionEnd && cs.charAt(i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private boolean equals(int from, int to, char[] key) {
+        if (to - from != key.length) {
+            return false;
+        }
+        for (int j = 0; j < key.length; j++) {
+            if (cs.charAt(from + j) != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int start() {
+        return start;
+    }
+
+    @Override
+    public int end() {
+        return end;
+    }
+
+    @Override
+    public void region(int start, int end) {
+        this.regionStart = start;
+        this.regionEnd = end;
+        this.pos = start;
+        this.start = -1;
+        this.end = -1;
+    }
+
+    @Override
+    public int regionStart() {
+        return regionStart;
+    }
+
+    @Override
+    public Instant instant() {
+        if (start < 0 || valueStart < 0) {
+            return null;
+        }
+        return extractor.parse(cs, valueStart, valueEnd);
+    }
+
+    /**
+     * Converts the time field values of a JSON section. The scans that
+     * match the generated DATE pattern pass group 1, the value.
+     */
+    static final class Extractor extends DateExtractor {
+
+        private static final long SECONDS_DIGITS = 11;
+        private static final long MILLIS_DIGITS = 14;
+        private static final long MICROS_DIGITS = 17;
+
+        private final ZoneOffsets offsets;
+
+        /**
+         * @param zone the zone of ISO-8601 times without an offset, or null
+         */
+        Extractor(ZoneId zone) {
+            super(new char[]{'g', '1'}, zone);
+            offsets = zone != null ? new ZoneOffsets(zone) : null;
+        }
+
+        @Override
+        public Instant extract(MatchResult m, CharSequence input) {
+            if (input == null) {
+                String s = m.group(1);
+                return parse(s, 0, s.length());
+            }
+            return parse(input, m.start(1), m.end(1));
+        }
+
+        /**
+         * @return the instant of the value in [from, to), or null if it is
+         * not a time
+         */
+        Instant parse(CharSequence cs, int from, int to) {
+            if (to - from >= 19 && cs.charAt(from + 4) == '-') {
+                return parseText(cs, from, to);
+            }
+            return parseEpoch(cs, from, to);
+        }
+
+        private Instant parseText(CharSequence cs, int from, int to) {
+            Instant res = parseIso(cs, from, to, offsets);
+            if (res != null) {
+                return res;
+            }
+            CharSequence text = cs.subSequence(from, to);
+            try {
+                return ZonedDateTime.parse(text).toInstant();
+            } catch (DateTimeException ex) {
+                res = null;
+            }
+            if (offsets != null) {
+                try {
+                    res = LocalDateTime.parse(text).atZone(offsets.getZone()).
+                            toInstant();
+                } catch (DateTimeException ex) {
+                    res = null;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * Epoch time with up to 11 integer digits is seconds and may have a
+         * fraction, up to 14 digits ms, up to 17 µs and more ns.
+         */
+        private static Instant parseEpoch(CharSequence cs, int from, int to) {
+            int i = from;
+            boolean negative = i < to && cs.charAt(i) == '-';
+            if (negative) {
+                i++;
+            }
+            long value = 0;
+            int digits = 0;
+            try {
+                while (i < to && cs.charAt(i) >= '0' && cs.charAt(i) <= '9') {
+                    value = Math.addExact(Math.multiplyExact(value, 10), cs.
+                            charAt(i++) - '0');
+                    digits++;
+                }
+            } catch (ArithmeticException ex) {
+                return null;
+            }
+            if (digits == 0) {
+                return null;
+            }
+
+            long nanos = 0;
+            boolean fraction = i < to && cs.charAt(i) == '.';
+            if (fraction) {
+                i++;
+                long scale = 100000000;
+                while (i < to && cs.charAt(i) >= '0' && cs.charAt(i) <= '9') {
+                    nanos += (cs.charAt(i++) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+            if (i != to || (fraction && digits > SECONDS_DIGITS)) {
+                return null;
+            }
+            if (negative) {
+                value = -value;
+                nanos = -nanos;
+            }
+
+            try {
+                if (fraction || digits <= SECONDS_DIGITS) {
+                    return Instant.ofEpochSecond(value, nanos);
+                } else if (digits <= MILLIS_DIGITS) {
+                    return Instant.ofEpochMilli(value);
+                } else if (digits <= MICROS_DIGITS) {
+                    return Instant.ofEpochSecond(Math.floorDiv(value,
+                            1000000L), Math.floorMod(value, 1000000L) * 1000);
+                }
+                return Instant.ofEpochSecond(Math.floorDiv(value, 1000000000L),
+                        Math.floorMod(value, 1000000000L));
+            } catch (DateTimeException ex) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+/**
+ * Converts interval [positionFrom, positionTo) log records to JSON lines.
+ * Intervals are cut into chunks on record boundaries, chunks are encoded in
+ * parallel into pooled direct buffers and written to the output in file order.
+ */
+public class JsonlWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int LEVEL_HORIZON = 128;
+    private static final byte[][] LEVELS = {
+        bytes("FATAL"), bytes("ERROR"), bytes("WARNING"), bytes("WARN"),
+        bytes("INFO"), bytes("DEBUG"), bytes("TRACE")};
+    private static final byte[] HEX = bytes("0123456789abcdef");
+
+    private final OutputSink out;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+
+    public JsonlWriter(OutputSink out, int threads, int chunkSize) {
+        this.out = out;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.buffers = new ArrayBlockingQueue<>(maxInFlight);
+    }
+
+    /**
+     * Queue the interval of the log file for conversion. Output of previously
+     * queued files is written first.
+     */
+    public void convert(LogFile lf) throws IOException {
+
+        if (!lf.isInterval() || lf.getPositionTo() <= lf.getPositionFrom()) {
+            return;
+        }
+
+        lf.getCharset().requireBytes(lf.getPath(), "JSON Lines export");
+        byte[] section = jsonString(lf.getLc().getLogName());
+        byte[] file = jsonString(lf.getPath().toString());
+
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            FileChannel fc = h.channel();
+            long chunkStart = lf.getPositionFrom();
+            long end = lf.getPositionTo();
+
+            while (chunkStart < end) {
+                long chunkEnd = chunkStart + chunkSize < end ? lf.
+                        findRecordStart(fc, chunkStart + chunkSize, end) : end;
+                // mapped buffers stay valid after the handle is released
+                MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY,
+                        chunkStart, chunkEnd - chunkStart);
+                long base = chunkStart;
+
+                awaitSlot();
+                pending.add(executor.submit(() -> new ChunkEncoder(lf,
+                        section, file, borrow()).encode(buf, base)));
+
+                chunkStart = chunkEnd;
+            }
+        }
+    }
+
+    /**
+     * Write all queued chunks and stop the workers.
+     */
+    public void finish() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeFirst();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void awaitSlot() throws IOException {
+        while (pending.size() >= maxInFlight) {
+            writeFirst();
+        }
+    }
+
+    private void writeFirst() throws IOException {
+        ByteBuffer buf;
+        try {
+            buf = pending.removeFirst().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+
+        buf.flip();
+        out.write(buf);
+        buf.clear();
+        buffers.offer(buf);
+    }
+
+    private ByteBuffer borrow() {
+        ByteBuffer buf = buffers.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(chunkSize + chunkSize / 2);
+        }
+        return buf;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] jsonString(String s) {
+        byte[] raw = s.getBytes(StandardCharsets.UTF_8);
+        return jsonString(raw, 0, raw.length);
+    }
+
+    /**
+     * @return the bytes as a quoted JSON string, escaped like the messages
+     */
+    static byte[] jsonString(byte[] raw, int off, int len) {
+        ChunkEncoder enc = new ChunkEncoder(null, null, null,
+                ByteBuffer.allocate(len * 6 + 2));
+        enc.dst.put((byte) '"');
+        enc.escape(ByteBuffer.wrap(raw), off, off + len);
+        enc.dst.put((byte) '"');
+        enc.dst.flip();
+        byte[] res = new byte[enc.dst.remaining()];
+        enc.dst.get(res);
+        return res;
+    }
+
+    /**
+     * Encodes the records of one chunk into a pooled output buffer.
+     */
+    static class ChunkEncoder {
+
+        private final LogFile lf;
+        private final byte[] section;
+        private final byte[] file;
+        private final byte[] digits = new byte[20];
+        ByteBuffer dst;
+
+        ChunkEncoder(LogFile lf, byte[] section, byte[] file, ByteBuffer dst) {
+            this.lf = lf;
+            this.section = section;
+            this.file = file;
+            this.dst = dst;
+        }
+
+        ByteBuffer encode(ByteBuffer in, long base) {
+            ByteCharSequence cs = new ByteCharSequence(in);
+            Matcher m = lf.getLc().getDatePattern().matcher(cs);
+            char[] zoned = lf.getLc().getZonedCharArray();
+
+            boolean found = m.find();
+            while (found) {
+                int recStart = m.start();
+                int dateEnd = m.end();
+
+                put("{\"timestamp\":\"");
+                for (int i = 0, n = zoned.length; i < n; i++) {
+                    char c = zoned[i];
+                    if (c == 'g') {
+                        i++;
+                        int num = zoned[i] - 48;
+                        for (int j = m.start(num), e = m.end(num); j < e; j++) {
+                            put(in.get(j));
+                        }
+                    } else {
+                        put((byte) c);
+                    }
+                }
+                put("\",\"section\":");
+                put(section);
+                put(",\"file\":");
+                put(file);
+                put(",\"offset\":");
+                putLong(base + recStart);
+                put(",\"level\":");
+                byte[] level = findLevel(in, dateEnd, in.limit());
+                if (level == null) {
+                    put("null");
+                } else {
+                    put((byte) '"');
+                    put(level);
+                    put((byte) '"');
+                }
+
+                found = m.find();
+                int recEnd = found ? m.start() : in.limit();
+                while (recEnd > dateEnd && (in.get(recEnd - 1) == '\n'
+                        || in.get(recEnd - 1) == '\r')) {
+                    recEnd--;
+                }
+
+                put(",\"message\":\"");
+                escape(in, dateEnd, recEnd);
+                put("\"}\n");
+            }
+
+            return dst;
+        }
+
+        private byte[] findLevel(ByteBuffer in, int from, int limit) {
+            int end = Math.min(limit, from + LEVEL_HORIZON);
+            for (int i = from; i < end; i++) {
+                byte b = in.get(i);
+                if (b == '\n') {
+                    break;
+                }
+                if (i > from && isLetter(in.get(i - 1))) {
+                    continue;
+                }
+                for (byte[] level : LEVELS) {
+                    if (b == level[0] && matches(in, i, end, level)) {
+                        return level;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static boolean matches(ByteBuffer in, int at, int end,
+                byte[] word) {
+            if (at + word.length > end) {
+                return false;
+            }
+            for (int k = 1; k < word.length; k++) {
+                if (in.get(at + k) != word[k]) {
+                    return false;
+                }
+            }
+            return at + word.length == end || !isLetter(in.get(at
+                    + word.length));
+        }
+
+        private static boolean isLetter(byte b) {
+            return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+        }
+
+        /**
+         * Copy bytes [from, to) as a JSON string body. Valid UTF-8 sequences
+         * are copied unchanged, any other high byte is taken as ISO-8859-1.
+         */
+        void escape(ByteBuffer in, int from, int to) {
+            ensure((to - from) * 2 + 16);
+            int i = from;
+            while (i < to) {
+                int b = in.get(i) & 0xff;
+                if (b >= 0x20 && b < 0x80) {
+                    if (b == '"' || b == '\\') {
+                        ensure(2);
+                        dst.put((byte) '\\');
+                    }
+                    ensure(1);
+                    dst.put((byte) b);
+                    i++;
+                } else if (b < 0x20) {
+                    ensure(6);
+                    dst.put((byte) '\\');
+                    switch (b) {
+                        case '\n':
+                            dst.put((byte) 'n');
+                            break;
+                        case '\r':
+                            dst.put((byte) 'r');
+                            break;
+                        case '\t':
+                            dst.put((byte) 't');
+                            break;
+                        default:
+                            dst.put((byte) 'u').put((byte) '0').put((byte) '0').
+                                    put(HEX[b >> 4]).put(HEX[b & 0xf]);
+                            break;
+                    }
+                    i++;
+                } else {
+                    int n = utf8Length(in, i, to);
+                    ensure(Math.max(n, 2));
+                    if (n > 0) {
+                        for (int k = 0; k < n; k++) {
+                            dst.put(in.get(i + k));
+                        }
+                        i += n;
+                    } else {
+                        dst.put((byte) (0xc0 | (b >> 6))).put((byte) (0x80
+                                | (b & 0x3f)));
+                        i++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return length of the valid UTF-8 sequence at i, or 0
+         */
+        private static int utf8Length(ByteBuffer in, int i, int to) {
+            int b = in.get(i) & 0xff;
+            int n;
+            int lo = 0x80;
+            int hi = 0xbf;
+            if (b >= 0xc2 && b <= 0xdf) {
+                n = 2;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                n = 3;
+                lo = b == 0xe0 ? 0xa0 : 0x80;
+                hi = b == 0xed ? 0x9f : 0xbf;
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                n = 4;
+                lo = b == 0xf0 ? 0x90 : 0x80;
+                hi = b == 0xf4 ? 0x8f : 0xbf;
+            } else {
+                return 0;
+            }
+            if (i + n > to) {
+                return 0;
+            }
+            for (int k = 1; k < n; k++) {
+                int c = in.get(i + k) & 0xff;
+                if (c < lo || c > hi) {
+                    return 0;
+                }
+                lo = 0x80;
+                hi = 0xbf;
+            }
+            return n;
+        }
+
+        private void put(String ascii) {
+            ensure(ascii.length());
+            for (int i = 0, n = ascii.length(); i < n; i++) {
+                dst.put((byte) ascii.charAt(i));
+            }
+        }
+
+        private void put(byte[] b) {
+            ensure(b.length);
+            dst.put(b);
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            dst.put(b);
+        }
+
+        private void putLong(long v) {
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v > 0);
+            ensure(n);
+            while (n > 0) {
+                dst.put(digits[--n]);
+            }
+        }
+
+        private void ensure(int n) {
+            if (dst.remaining() < n) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(dst.
+                        capacity() * 2, dst.position() + n));
+                dst.flip();
+                bigger.put(dst);
+                dst = bigger;
+            }
+        }
+
+    }
+
+}
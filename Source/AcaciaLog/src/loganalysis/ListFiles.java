@@ -19,23 +19,31 @@
  */ 
 package loganalysis;
 
-import acacialog.Application;
 import acacialog.ApplicationFactory;
-import acacialog.PropertiesList;
+import acacialog.ConfigSnapshot;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
 
 public class ListFiles {
 
-    Application app = (new ApplicationFactory()).getInstance();
+    private final ConfigSnapshot config;
+    private LogIndex index;
+    private Explain explain;
+
+    public ListFiles() {
+        this((new ApplicationFactory()).getInstance().snapshot());
+    }
+
+    public ListFiles(ConfigSnapshot config) {
+        this.config = config;
+    }
 
     public Set<Path> listFiles(LogConfig lc) {
         Set<Path> result = new HashSet<>();
@@ -52,6 +60,7 @@ public class ListFiles {
             System.err.println(lc.getLogName() + " " + x);
         }
 
+        EngineMetrics.getShared().addFilesListed(result.size());
         return result;
     }
 
@@ -61,34 +70,17 @@ public class ListFiles {
         // find files and sout last found file
         // section + last modified time + file path
         // else not found dir, not found file
-        for (String s : app.getSections()) {
-            LogConfig lc = app.logs.get(s);
+        for (String s : config.getSections()) {
+            LogConfig lc = config.getLog(s);
 
-            Path lastModified = null;
             try {
-                for (Path entry : listFiles(lc)) {
-                    //System.out.println(entry.getFileName());
-                    if (lastModified == null) {
-                        lastModified = entry;
-                    } else if (Files.getLastModifiedTime(lastModified).
-                            compareTo(Files.getLastModifiedTime(entry)) < 0) {
-                        lastModified = entry;
-                    } else if (Files.getLastModifiedTime(lastModified).
-                            compareTo(Files.getLastModifiedTime(entry)) == 0) {
-                        if (lastModified.compareTo(entry) < 0) {
-                            lastModified = entry;
-                        }
-                    }
-
-                }
+                Path lastModified = getLastFile(lc);
 
                 if (lastModified != null) {
                     Instant instant = Files.getLastModifiedTime(lastModified).
                             toInstant();
-                    String format = DateTimeFormatter.ofPattern(app.
-                            getProperties().getProperty(
-                                    PropertiesList.OUTPUT_DATE_FORMAT.name())).
-                            withZone(ZoneId.systemDefault()).format(instant);
+                    String format = config.getOutputDateFormatter().format(
+                            instant);
                     System.out.println(s + " " + format + " " + lastModified.
                             getFileName() + " " + lastModified.getParent().
                             toString());
@@ -107,21 +99,83 @@ public class ListFiles {
 
     }
 
+    /**
+     * @return the index
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @param index the index of first record times to use, or null
+     */
+    public void setIndex(LogIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the explain
+     */
+    public Explain getExplain() {
+        return explain;
+    }
+
+    /**
+     * @param explain the report of the files found, or null
+     */
+    public void setExplain(Explain explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * @return the last modified file of the section, the greatest path of
+     * files modified at the same time, or null if there is none
+     */
+    public Path getLastFile(LogConfig lc) throws IOException {
+        Path lastModified = null;
+        FileTime lastTime = null;
+        for (Path entry : listFiles(lc)) {
+            FileTime time = Files.getLastModifiedTime(entry);
+            if (lastModified == null || lastTime.compareTo(time) < 0
+                    || (lastTime.compareTo(time) == 0 && lastModified.
+                    compareTo(entry) < 0)) {
+                lastModified = entry;
+                lastTime = time;
+            }
+        }
+        return lastModified;
+    }
+
     public TreeSet<LogFile> getIntervalFiles(LogConfig lc, int logOrder) {
         TreeSet<LogFile> lfts = new TreeSet<>();
 
-        for (Path entry : listFiles(lc)) {
-            LogFile lf = new LogFile(entry, lc, logOrder);
+        long started = System.nanoTime();
+        Set<Path> entries = listFiles(lc);
+        if (explain != null) {
+            explain.list(lc, entries.size(), System.nanoTime() - started);
+        }
+        for (Path entry : entries) {
+            started = System.nanoTime();
+            long probes = EngineMetrics.getShared().getProbes();
+            Instant first = index != null ? index.getFirstTime(entry, lc,
+                    config) : null;
+            LogFile lf = new LogFile(entry, lc, logOrder, config, first);
             lfts.add(lf);
+            if (explain != null) {
+                explain.probe(lf, EngineMetrics.getShared().getProbes()
+                        - probes, System.nanoTime() - started);
+            }
         }
         
         for(LogFile lf:lfts) {
             lf.checkContainsInterval();
-            if(!lf.isInterval()) {
-                lfts.remove(lf);
+            if (explain != null && !lf.isInterval()) {
+                explain.pruned(lf, "first record after -to");
             }
-                
         }
+        int listed = lfts.size();
+        lfts.removeIf(lf -> !lf.isInterval());
+        EngineMetrics.getShared().addFilesPruned(listed - lfts.size());
         
         return lfts;
     }
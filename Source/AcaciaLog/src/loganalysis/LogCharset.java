@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Text layout of a log file: the size of a code unit, its byte order and the
+ * length of the byte order mark. Single byte files (ISO-8859-1, ASCII,
+ * UTF-8) are matched byte by byte, UTF-16 files through a UTF16CharSequence
+ * view of the same bytes, so no interval is decoded. Positions stay byte
+ * offsets and are aligned to code units.
+ */
+public final class LogCharset {
+
+    public static final LogCharset BYTES = new LogCharset(
+            StandardCharsets.ISO_8859_1, 1, false, 0);
+    public static final LogCharset UTF_8_BOM = new LogCharset(
+            StandardCharsets.UTF_8, 1, false, 3);
+    public static final LogCharset UTF_16LE = new LogCharset(
+            StandardCharsets.UTF_16LE, 2, true, 2);
+    public static final LogCharset UTF_16BE = new LogCharset(
+            StandardCharsets.UTF_16BE, 2, false, 2);
+    public static final LogCharset UTF_16LE_NO_BOM = new LogCharset(
+            StandardCharsets.UTF_16LE, 2, true, 0);
+    public static final LogCharset UTF_16BE_NO_BOM = new LogCharset(
+            StandardCharsets.UTF_16BE, 2, false, 0);
+
+    private final Charset charset;
+    private final int unit;
+    private final boolean littleEndian;
+    private final int bom;
+
+    private LogCharset(Charset charset, int unit, boolean littleEndian,
+            int bom) {
+        this.charset = charset;
+        this.unit = unit;
+        this.littleEndian = littleEndian;
+        this.bom = bom;
+    }
+
+    /**
+     * @param name the CHARSET of the section, UTF-16LE, UTF-16BE or UTF-16,
+     * or null to tell UTF-16 by its byte order mark
+     * @return the layout of the file of fc
+     */
+    public static LogCharset detect(FileChannel fc, String name)
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(3);
+        while (bb.hasRemaining() && fc.read(bb, bb.position()) > 0) {
+        }
+        int b0 = bb.position() > 0 ? bb.get(0) & 0xff : -1;
+        int b1 = bb.position() > 1 ? bb.get(1) & 0xff : -1;
+        int b2 = bb.position() > 2 ? bb.get(2) & 0xff : -1;
+        boolean le = b0 == 0xff && b1 == 0xfe;
+        boolean be = b0 == 0xfe && b1 == 0xff;
+
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("UTF-16")) {
+            if (le) {
+                return UTF_16LE;
+            } else if (be) {
+                return UTF_16BE;
+            } else if (name != null && !name.isEmpty()) {
+                // UTF-16 without a byte order mark is big-endian
+                return UTF_16BE_NO_BOM;
+            }
+        } else if (name.equalsIgnoreCase("UTF-16LE")) {
+            return le ? UTF_16LE : UTF_16LE_NO_BOM;
+        } else if (name.equalsIgnoreCase("UTF-16BE")) {
+            return be ? UTF_16BE : UTF_16BE_NO_BOM;
+        }
+        return b0 == 0xef && b1 == 0xbb && b2 == 0xbf ? UTF_8_BOM : BYTES;
+    }
+
+    /**
+     * @return the view of bytes in code units
+     */
+    public CharSequence view(ByteCharSequence bytes) {
+        return unit == 1 ? bytes : new UTF16CharSequence(bytes, littleEndian);
+    }
+
+    /**
+     * @return position rounded up to the start of a code unit
+     */
+    public long align(long position) {
+        return unit == 1 ? position : (position + 1) & ~1L;
+    }
+
+    /**
+     * @return the position to read from so that ^ sees the line break before
+     * position, or position itself at the start of the text
+     */
+    public long lookBehind(long position) {
+        return position > bom ? position - unit : position;
+    }
+
+    /**
+     * @return the charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the bytes of a code unit
+     */
+    public int getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the length of the byte order mark
+     */
+    public int getBom() {
+        return bom;
+    }
+
+    /**
+     * Fail for a scan that still reads one byte per character, until it is
+     * ported to wider code units.
+     *
+     * @throws IOException if the code unit of the file is wider than a byte
+     */
+    public void requireBytes(Path path, String scan) throws IOException {
+        if (unit > 1) {
+            throw new IOException(path + ": " + scan + " does not support "
+                    + this + " logs yet");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom > 0 ? " BOM" : "");
+    }
+
+}
@@ -21,9 +21,16 @@ package loganalysis;
 
 import acacialog.IniFile;
 import acacialog.PropertiesList;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 public class LogConfig {
@@ -35,6 +42,13 @@ public class LogConfig {
     private Pattern datePattern;
     private String zonedDateTime;
     private char[] zonedCharArray;
+    private ZoneId zone;
+    private DateExtractor dateExtractor;
+    private String jsonPath;
+    private char[][] jsonKeys;
+    private String charsetName;
+    private final ConcurrentHashMap<Path, LogCharset> charsets
+            = new ConcurrentHashMap<>();
     private TreeSet<LogFile> logFiles = new TreeSet<>();
 
     public LogConfig(String section, IniFile iniFile) {
@@ -43,10 +57,28 @@ public class LogConfig {
                 name(), null));
         this.filePattern = iniFile.
                 getString(section, PropertiesList.FILE.name(), null);
-        this.setDateFormat(iniFile.
-                getString(section, PropertiesList.DATE.name(), null));
-        this.setZonedDateTime(iniFile.getString(section,
-                PropertiesList.ZONED_DATE_TIME.name(), null));
+        String zoneId = iniFile.getString(section, PropertiesList.ZONE.name(),
+                null);
+        if (zoneId != null && !zoneId.isEmpty()) {
+            try {
+                this.zone = ZoneId.of(zoneId);
+            } catch (DateTimeException ex) {
+                Logger.getLogger(LogConfig.class.getName()).
+                        log(Level.SEVERE, null, ex);
+            }
+        }
+        String json = iniFile.getString(section, PropertiesList.JSON.name(),
+                null);
+        if (json != null && !json.isEmpty()) {
+            this.setJsonPath(json);
+        } else {
+            this.setDateFormat(iniFile.
+                    getString(section, PropertiesList.DATE.name(), null));
+            this.setZonedDateTime(iniFile.getString(section,
+                    PropertiesList.ZONED_DATE_TIME.name(), null));
+        }
+        this.charsetName = iniFile.getString(section, PropertiesList.CHARSET.
+                name(), null);
     }
 
     /**
@@ -123,6 +155,27 @@ public class LogConfig {
     public void setZonedDateTime(String zonedDateTime) {
         this.zonedDateTime = zonedDateTime;
         this.zonedCharArray = zonedDateTime.toCharArray();
+        this.dateExtractor = new DateExtractor(zonedCharArray, zone);
+    }
+
+    /**
+     * @return the zone of dates without an offset, or null
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @param zone the zone of ZONED_DATE_TIME dates without an offset, or
+     * null
+     */
+    public void setZone(ZoneId zone) {
+        this.zone = zone;
+        if (jsonKeys != null) {
+            this.dateExtractor = new JsonDateMatcher.Extractor(zone);
+        } else if (zonedCharArray != null) {
+            this.dateExtractor = new DateExtractor(zonedCharArray, zone);
+        }
     }
 
     /**
@@ -132,6 +185,92 @@ public class LogConfig {
         return zonedCharArray;
     }
 
+    /**
+     * @return the dateExtractor compiled from zonedDateTime
+     */
+    public DateExtractor getDateExtractor() {
+        return dateExtractor;
+    }
+
+    /**
+     * @return the jsonPath, or null for DATE sections
+     */
+    public String getJsonPath() {
+        return jsonPath;
+    }
+
+    /**
+     * Make the section a JSON lines section. The scans that do not use
+     * dateMatcher match DATE generated from the last key of the path.
+     *
+     * @param jsonPath the dotted path of the time field, e.g. ts or
+     * event.time
+     */
+    public void setJsonPath(String jsonPath) {
+        this.jsonPath = jsonPath;
+        this.jsonKeys = JsonDateMatcher.keys(jsonPath);
+        String key = new String(jsonKeys[jsonKeys.length - 1]);
+        this.setDateFormat("(?m)^[ \\t]*\\{[^\\n]*?\"" + Pattern.quote(key)
+                + "\"[ \\t]*:[ \\t]*\"?([^\",}\\s]+)");
+        this.zonedDateTime = "g1";
+        this.zonedCharArray = zonedDateTime.toCharArray();
+        this.dateExtractor = new JsonDateMatcher.Extractor(zone);
+    }
+
+    /**
+     * @return matcher of the record dates in cs, a key search in JSON
+     * sections
+     */
+    public DateMatcher dateMatcher(CharSequence cs) {
+        if (jsonKeys != null) {
+            return new JsonDateMatcher(cs, jsonKeys,
+                    (JsonDateMatcher.Extractor) dateExtractor);
+        }
+        return new DateMatcher.Regex(datePattern, dateExtractor, cs);
+    }
+
+    /**
+     * @return matcher of the record dates in the bytes of a file with the
+     * charset, positions and regions are in bytes
+     */
+    public DateMatcher dateMatcher(ByteCharSequence bytes, LogCharset charset) {
+        if (charset.getUnit() == 1) {
+            return dateMatcher(bytes);
+        }
+        return new DateMatcher.Wide(dateMatcher(charset.view(bytes)));
+    }
+
+    /**
+     * @return the CHARSET of the section, or null to tell UTF-16 files by
+     * their byte order mark
+     */
+    public String getCharsetName() {
+        return charsetName;
+    }
+
+    /**
+     * @param charsetName the charsetName to set
+     */
+    public void setCharsetName(String charsetName) {
+        this.charsetName = charsetName;
+        charsets.clear();
+    }
+
+    /**
+     * @return the charset of the file of fc, detected once per path
+     */
+    public LogCharset getCharset(Path path, FileChannel fc) throws IOException {
+        if (path == null) {
+            return LogCharset.detect(fc, charsetName);
+        }
+        LogCharset charset = charsets.get(path);
+        if (charset == null) {
+            charset = LogCharset.detect(fc, charsetName);
+            charsets.put(path, charset);
+        }
+        return charset;
+    }
+
     /**
      * @return the logFiles
      */
@@ -147,14 +286,33 @@ public class LogConfig {
     }
 
     public void printSection() {
-        System.out.print(getLogName() + " ");
+        OutputSink sink = OutputSink.stdout();
+        try {
+            printSection(sink);
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(LogConfig.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void printSection(OutputSink sink) throws IOException {
+        printSection(sink, logFiles);
+    }
+
+    /**
+     * Print the section with the files of an interval other than logFiles.
+     */
+    public void printSection(OutputSink sink, TreeSet<LogFile> logFiles)
+            throws IOException {
+        sink.print(getLogName() + " ");
 
         if (logFiles.isEmpty()) {
-            System.out.println("NO_FILES_IN_INTERVAL");
+            sink.println("NO_FILES_IN_INTERVAL");
         } else if (logFiles.size() == 1) {
-            System.out.println(logFiles.first().getPath().getFileName());
+            sink.println(logFiles.first().getPath().getFileName().toString());
         } else {
-            System.out.println(
+            sink.println(
                     logFiles.first().getPath().getFileName() + " ... " + logFiles.
                     last().getPath().getFileName());
         }
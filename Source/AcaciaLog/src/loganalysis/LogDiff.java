@@ -0,0 +1,610 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Compares the records of two log intervals. Each record is normalised (date
+ * match dropped, ids optionally masked) and hashed to a 64-bit fingerprint,
+ * then the fingerprint sequences are compared with a histogram diff. Only
+ * removed, added and changed blocks are reported.
+ *
+ * The diff runs over a sliding window of WINDOW records per side, so memory
+ * stays bounded for multi-GB inputs. When the windows have little or nothing
+ * in common, both sides are scanned ahead for the next record they share, so
+ * insertions and deletions longer than the window line up again.
+ */
+public class LogDiff {
+
+    public static final int WINDOW = 1 << 17;
+
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_CHAIN = 64;
+    private static final int RESYNC_WINDOWS = 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final boolean mask;
+    private int window = WINDOW;
+
+    private long blocks;
+    private long removed;
+    private long added;
+
+    public LogDiff(boolean mask) {
+        this.mask = mask;
+    }
+
+    /**
+     * Fingerprint the interval [positionFrom, positionTo) records of the log
+     * files, in the given order.
+     */
+    public RecordSequence fingerprint(Collection<LogFile> lfs)
+            throws IOException {
+        RecordSequence seq = new RecordSequence();
+
+        for (LogFile lf : lfs) {
+            if (!lf.isInterval() || lf.getPositionTo() <= lf.
+                    getPositionFrom()) {
+                continue;
+            }
+            lf.getCharset().requireBytes(lf.getPath(), "diff");
+            int file = seq.addFile(lf);
+
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(lf.getPath())) {
+                FileChannel fc = h.channel();
+                long chunkStart = lf.getPositionFrom();
+                long end = lf.getPositionTo();
+
+                while (chunkStart < end) {
+                    long chunkEnd = chunkStart + CHUNK_SIZE < end ? lf.
+                            findRecordStart(fc, chunkStart + CHUNK_SIZE, end)
+                            : end;
+                    MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY,
+                            chunkStart, chunkEnd - chunkStart);
+                    Matcher m = lf.getLc().getDatePattern().matcher(
+                            new ByteCharSequence(buf));
+
+                    boolean found = m.find();
+                    while (found) {
+                        int recStart = m.start();
+                        int dateEnd = m.end();
+                        found = m.find();
+                        int recEnd = found ? m.start() : buf.limit();
+                        seq.add(hash(buf, dateEnd, trimEnd(buf, dateEnd,
+                                recEnd)), file, chunkStart + recStart,
+                                chunkStart + recEnd);
+                    }
+
+                    chunkStart = chunkEnd;
+                }
+            }
+        }
+
+        seq.seal();
+        return seq;
+    }
+
+    static int trimEnd(ByteBuffer buf, int from, int to) {
+        while (to > from && (buf.get(to - 1) == '\n' || buf.get(to - 1)
+                == '\r')) {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * 64-bit FNV-1a of bytes [from, to) finished with the murmur3 mixer. With
+     * masking on, hex and decimal tokens containing a digit hash as one '#'.
+     */
+    long hash(ByteBuffer buf, int from, int to) {
+        long h = FNV_OFFSET;
+        int i = from;
+
+        while (i < to) {
+            int b = buf.get(i) & 0xff;
+
+            if (mask && isHex(b) && (i == from || !isAlnum(buf.get(i - 1)
+                    & 0xff))) {
+                int j = i;
+                if (b == '0' && j + 1 < to && buf.get(j + 1) == 'x') {
+                    j += 2;
+                }
+                boolean digit = false;
+                while (j < to && isHex(buf.get(j) & 0xff)) {
+                    digit |= buf.get(j) <= '9';
+                    j++;
+                }
+                if (digit && (j == to || !isAlnum(buf.get(j) & 0xff))) {
+                    h = (h ^ '#') * FNV_PRIME;
+                    i = j;
+                    continue;
+                }
+            }
+
+            h = (h ^ b) * FNV_PRIME;
+            i++;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static boolean isHex(int b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f')
+                || (b >= 'A' && b <= 'F');
+    }
+
+    private static boolean isAlnum(int b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z')
+                || (b >= 'A' && b <= 'Z');
+    }
+
+    /**
+     * Report the blocks of a that were removed, added or changed in b.
+     */
+    public void diff(RecordSequence a, RecordSequence b, BlockListener out)
+            throws IOException {
+        long ai = 0;
+        long bi = 0;
+        long n = a.size();
+        long m = b.size();
+
+        while (ai < n && bi < m && a.hash(ai) == b.hash(bi)) {
+            ai++;
+            bi++;
+        }
+        while (n > ai && m > bi && a.hash(n - 1) == b.hash(m - 1)) {
+            n--;
+            m--;
+        }
+
+        Coalescer pending = new Coalescer(out);
+
+        while (ai < n || bi < m) {
+            long ae = Math.min(n, ai + window);
+            long be = Math.min(m, bi + window);
+            boolean last = ae == n && be == m;
+
+            long[] matches = matchWindow(a, b, ai, (int) (ae - ai), bi,
+                    (int) (be - bi));
+            int count = matches.length / 3;
+
+            long pa = ai;
+            long pb = bi;
+            for (int k = 0; k < count; k++) {
+                long ma = ai + matches[3 * k];
+                long mb = bi + matches[3 * k + 1];
+                if (ma > pa || mb > pb) {
+                    pending.add(pa, ma, pb, mb);
+                }
+                pa = ma + matches[3 * k + 2];
+                pb = mb + matches[3 * k + 2];
+            }
+
+            if (last && count > 0) {
+                if (pa < n || pb < m) {
+                    pending.add(pa, n, pb, m);
+                }
+                break;
+            }
+            if (count > 0 && (pa - ai >= window / 2 || pb - bi >= window / 2)) {
+                // only commit up to the last match, the rest of the window is
+                // aligned again together with the next records
+                ai = pa;
+                bi = pb;
+                continue;
+            }
+
+            // the rest of the windows has nothing in common, realigning it
+            // with a few more records would repeat the same work
+            long[] anchor = resync(a, b, pa, pb, ae, be, n, m);
+            if (anchor == null) {
+                long limit = (long) window * RESYNC_WINDOWS;
+                anchor = new long[]{Math.min(n, pa + limit), Math.min(m, pb
+                    + limit)};
+            }
+            pending.add(pa, anchor[0], pb, anchor[1]);
+            ai = anchor[0];
+            bi = anchor[1];
+        }
+
+        pending.flush();
+    }
+
+    /**
+     * Scan a from pa and b from pb side by side for a record of one side that
+     * occurs once in the records read so far of the other side. Up to
+     * RESYNC_WINDOWS windows per side are indexed, the later records are only
+     * looked up, so a long insertion on one side still finds the first records
+     * of the other. Matches inside both [pa, ae) and [pb, be) are left out,
+     * the window diff did not align them.
+     *
+     * @return the positions {a, b} of the first common record found, or null
+     * when the first RESYNC_WINDOWS windows of each side do not occur later on
+     * the other side
+     */
+    private long[] resync(RecordSequence a, RecordSequence b, long pa,
+            long pb, long ae, long be, long n, long m) {
+        int limit = window * RESYNC_WINDOWS;
+        HashIndex ia = new HashIndex((int) Math.min(limit, n - pa));
+        HashIndex ib = new HashIndex((int) Math.min(limit, m - pb));
+
+        for (long t = 0; pa + t < n || pb + t < m; t++) {
+            if (pa + t < n) {
+                long h = a.hash(pa + t);
+                int j = ib.get(h);
+                if (j >= 0 && (pa + t >= ae || pb + j >= be)) {
+                    return new long[]{pa + t, pb + j};
+                }
+                if (t < limit) {
+                    ia.add(h, (int) t);
+                }
+            }
+            if (pb + t < m) {
+                long h = b.hash(pb + t);
+                int i = ia.get(h);
+                if (i >= 0 && (pa + i >= ae || pb + t >= be)) {
+                    return new long[]{pa + i, pb + t};
+                }
+                if (t < limit) {
+                    ib.add(h, (int) t);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Histogram diff of one window.
+     *
+     * @return matching runs as (a offset, b offset, length) triples, in order
+     */
+    private long[] matchWindow(RecordSequence a, RecordSequence b, long aBase,
+            int aLen, long bBase, int bLen) {
+        long[] ha = new long[aLen];
+        long[] hb = new long[bLen];
+        for (int i = 0; i < aLen; i++) {
+            ha[i] = a.hash(aBase + i);
+        }
+        for (int i = 0; i < bLen; i++) {
+            hb[i] = b.hash(bBase + i);
+        }
+
+        long[] res = new long[48];
+        int resLen = 0;
+
+        // regions are popped left to right, a negative as marks a match
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, aLen, 0, bLen});
+
+        while (!stack.isEmpty()) {
+            int[] r = stack.pop();
+
+            if (r[0] < 0) {
+                if (resLen + 3 > res.length) {
+                    res = Arrays.copyOf(res, res.length * 2);
+                }
+                res[resLen++] = -r[0] - 1;
+                res[resLen++] = r[1];
+                res[resLen++] = r[2];
+                continue;
+            }
+
+            int as = r[0];
+            int ae = r[1];
+            int bs = r[2];
+            int be = r[3];
+
+            int[] best = longestRare(ha, as, ae, hb, bs, be);
+            if (best == null) {
+                continue;
+            }
+
+            stack.push(new int[]{best[1], ae, best[3], be});
+            stack.push(new int[]{-best[0] - 1, best[2], best[1] - best[0]});
+            stack.push(new int[]{as, best[0], bs, best[2]});
+        }
+
+        return Arrays.copyOf(res, resLen);
+    }
+
+    /**
+     * Find the common run seeded by the element with the lowest occurrence
+     * count in a, preferring longer runs on equal counts.
+     *
+     * @return {aStart, aEnd, bStart, bEnd} or null when nothing is common
+     */
+    private static int[] longestRare(long[] ha, int as, int ae, long[] hb,
+            int bs, int be) {
+        int len = ae - as;
+        if (len == 0 || be == bs) {
+            return null;
+        }
+
+        int cap = Integer.highestOneBit(len) << 2;
+        int mask = cap - 1;
+        long[] keys = new long[cap];
+        int[] heads = new int[cap];
+        int[] counts = new int[cap];
+        int[] next = new int[len];
+        Arrays.fill(heads, -1);
+
+        for (int i = ae - 1; i >= as; i--) {
+            int slot = slot(keys, heads, mask, ha[i]);
+            keys[slot] = ha[i];
+            next[i - as] = heads[slot];
+            heads[slot] = i - as;
+            counts[slot]++;
+        }
+
+        int[] best = null;
+        int bestCount = MAX_CHAIN;
+        int bestLen = 0;
+
+        int bi = bs;
+        while (bi < be) {
+            int slot = slot(keys, heads, mask, hb[bi]);
+            int c = counts[slot];
+            if (heads[slot] < 0 || c > bestCount) {
+                bi++;
+                continue;
+            }
+
+            int nextBi = bi + 1;
+            for (int ai = heads[slot]; ai >= 0; ai = next[ai]) {
+                int sa = as + ai;
+                int sb = bi;
+                while (sa > as && sb > bs && ha[sa - 1] == hb[sb - 1]) {
+                    sa--;
+                    sb--;
+                }
+                int ea = as + ai + 1;
+                int eb = bi + 1;
+                while (ea < ae && eb < be && ha[ea] == hb[eb]) {
+                    ea++;
+                    eb++;
+                }
+
+                if (c < bestCount || eb - sb > bestLen) {
+                    best = new int[]{sa, ea, sb, eb};
+                    bestCount = c;
+                    bestLen = eb - sb;
+                }
+                if (nextBi < eb) {
+                    nextBi = eb;
+                }
+            }
+            bi = nextBi;
+        }
+
+        return best;
+    }
+
+    /**
+     * Open addressing map of record hashes to the offset of their only
+     * occurrence.
+     */
+    private static class HashIndex {
+
+        private final long[] keys;
+        // offset + 1, 0 for a free slot, -1 for a repeated hash
+        private final int[] offsets;
+        private final int mask;
+
+        HashIndex(int size) {
+            int cap = Integer.highestOneBit(Math.max(1, size)) << 2;
+            keys = new long[cap];
+            offsets = new int[cap];
+            mask = cap - 1;
+        }
+
+        private int slot(long key) {
+            int slot = (int) (key ^ (key >>> 32)) & mask;
+            while (offsets[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void add(long key, int offset) {
+            int slot = slot(key);
+            keys[slot] = key;
+            offsets[slot] = offsets[slot] == 0 ? offset + 1 : -1;
+        }
+
+        /**
+         * @return the offset of key, or -1 when it is missing or repeated
+         */
+        int get(long key) {
+            int o = offsets[slot(key)];
+            return o > 0 ? o - 1 : -1;
+        }
+
+    }
+
+    private static int slot(long[] keys, int[] heads, int mask, long key) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (heads[slot] >= 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Print the diff blocks of a against b, with the original records.
+     */
+    public void printDiff(RecordSequence a, RecordSequence b, OutputSink sink)
+            throws IOException {
+        blocks = 0;
+        removed = 0;
+        added = 0;
+
+        Map<LogFile, FileChannelCache.Handle> channels = new HashMap<>();
+        try {
+            diff(a, b, (aFrom, aTo, bFrom, bTo) -> {
+                String kind = aFrom == aTo ? "added" : bFrom == bTo
+                        ? "removed" : "changed";
+                sink.println("@@ -" + (aFrom + 1) + "," + (aTo - aFrom) + " +"
+                        + (bFrom + 1) + "," + (bTo - bFrom) + " @@ " + kind
+                        + location(a, aFrom, aTo) + location(b, bFrom, bTo));
+                for (long i = aFrom; i < aTo; i++) {
+                    printRecord(a, i, "- ", channels, sink);
+                }
+                for (long i = bFrom; i < bTo; i++) {
+                    printRecord(b, i, "+ ", channels, sink);
+                }
+                blocks++;
+                removed += aTo - aFrom;
+                added += bTo - bFrom;
+            });
+        } finally {
+            for (FileChannelCache.Handle h : channels.values()) {
+                h.close();
+            }
+        }
+
+        if (blocks == 0) {
+            sink.println("NO_DIFFERENCES_FOUND");
+        } else {
+            sink.println("DIFF_BLOCKS " + blocks + " REMOVED_RECORDS " + removed
+                    + " ADDED_RECORDS " + added);
+        }
+    }
+
+    private static String location(RecordSequence seq, long from, long to) {
+        if (from == to) {
+            return "";
+        }
+        return " " + seq.file(from).getPath().getFileName() + ":" + seq.
+                start(from);
+    }
+
+    private static void printRecord(RecordSequence seq, long i, String prefix,
+            Map<LogFile, FileChannelCache.Handle> channels, OutputSink sink)
+            throws IOException {
+        LogFile lf = seq.file(i);
+        FileChannelCache.Handle h = channels.get(lf);
+        if (h == null) {
+            h = FileChannelCache.getShared().acquire(lf.getPath());
+            channels.put(lf, h);
+        }
+        FileChannel fc = h.channel();
+
+        long start = seq.start(i);
+        ByteBuffer buf = ByteBuffer.allocate((int) (seq.end(i) - start));
+        while (buf.hasRemaining() && fc.read(buf, start + buf.position())
+                >= 0) {
+        }
+        buf.flip();
+        int end = trimEnd(buf, 0, buf.limit());
+
+        byte[] pre = prefix.getBytes(StandardCharsets.ISO_8859_1);
+        int lineStart = 0;
+        for (int k = 0; k <= end; k++) {
+            if (k == end || buf.get(k) == '\n') {
+                sink.write(pre, 0, pre.length);
+                sink.write(buf.array(), lineStart, k - lineStart);
+                sink.write('\n');
+                lineStart = k + 1;
+            }
+        }
+    }
+
+    /**
+     * @param window the number of records per side aligned at once
+     */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * @return the number of blocks printed by the last printDiff
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Receives the diff blocks [aFrom, aTo) of a replaced by [bFrom, bTo) of
+     * b, in record order.
+     */
+    public interface BlockListener {
+
+        void block(long aFrom, long aTo, long bFrom, long bTo)
+                throws IOException;
+    }
+
+    /**
+     * Joins adjacent blocks, so a change split by window ends is reported
+     * once.
+     */
+    private static class Coalescer {
+
+        private final BlockListener out;
+        private long aFrom = -1;
+        private long aTo;
+        private long bFrom;
+        private long bTo;
+
+        Coalescer(BlockListener out) {
+            this.out = out;
+        }
+
+        void add(long af, long at, long bf, long bt) throws IOException {
+            if (aFrom >= 0 && af == aTo && bf == bTo) {
+                aTo = at;
+                bTo = bt;
+                return;
+            }
+            flush();
+            aFrom = af;
+            aTo = at;
+            bFrom = bf;
+            bTo = bt;
+        }
+
+        void flush() throws IOException {
+            if (aFrom >= 0 && (aTo > aFrom || bTo > bFrom)) {
+                out.block(aFrom, aTo, bFrom, bTo);
+            }
+            aFrom = -1;
+        }
+
+    }
+
+}
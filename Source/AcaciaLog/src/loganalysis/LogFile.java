@@ -19,53 +19,65 @@
  */
 package loganalysis;
 
-import acacialog.Application;
 import acacialog.ApplicationFactory;
+import acacialog.ConfigSnapshot;
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
-import java.nio.charset.Charset;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
 
 public class LogFile implements Comparable<LogFile> {
 
-    Application app = (new ApplicationFactory()).getInstance();
+    private static final int RECORD_START_WINDOW = 64 * 1024;
+    private static final int DATE_MAX_LENGTH = 256;
+
+    private final ConfigSnapshot config;
 
     private Instant from = ZonedDateTime.now().toInstant();
     private Path path;
     private LogConfig lc;
     private long fileSize;
-    private FileChannel fc;
 
     private long positionFrom = 0;
     private long positionTo = 0;
     private boolean interval = false;
     private List<LogRecord> records = new ArrayList();
     private int logOrder;
+    private LogCharset charset;
 
     public LogFile(Path path, LogConfig lc, int logOrder) {
+        this(path, lc, logOrder, (new ApplicationFactory()).getInstance().
+                snapshot());
+    }
+
+    public LogFile(Path path, LogConfig lc, int logOrder,
+            ConfigSnapshot config) {
+        this(path, lc, logOrder, config, null);
+    }
+
+    /**
+     * @param first the known first record time, or null to read it
+     */
+    public LogFile(Path path, LogConfig lc, int logOrder,
+            ConfigSnapshot config, Instant first) {
+        this.config = config;
         this.path = path;
         this.lc = lc;
-        from = getFirstTime();
+        from = first != null ? first : getFirstTime();
         this.logOrder = logOrder;
     }
 
     public void checkContainsInterval() {
         interval = true;
 
-        if (from.isAfter(app.getTo())) {
+        if (config.getTo() != null && from.isAfter(config.getTo())) {
             interval = false;
         }
 
@@ -113,6 +125,26 @@ public class LogFile implements Comparable<LogFile> {
         this.lc = lc;
     }
 
+    /**
+     * @return the charset of the file, detected on first use
+     */
+    public LogCharset getCharset() throws IOException {
+        if (charset == null) {
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(path)) {
+                charset = lc.getCharset(path, h.channel());
+            }
+        }
+        return charset;
+    }
+
+    /**
+     * @return the config the file is searched with
+     */
+    public ConfigSnapshot getConfig() {
+        return config;
+    }
+
     @Override
     public int compareTo(LogFile o) {
         return getFrom().compareTo(o.getFrom());
@@ -120,11 +152,10 @@ public class LogFile implements Comparable<LogFile> {
 
     public Instant getFirstTime() {
         Instant res = null;
-        try (FileChannel fcOpen = FileChannel.
-                open(path, StandardOpenOption.READ)) {
-            setFc(fcOpen);
-            BinarySearch bs = new BinarySearch();
-            res = bs.getZonedDateTime(0, this);
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
+            BinarySearch bs = new BinarySearch(config);
+            res = bs.getZonedDateTime(path, h.channel(), lc, 0);
             if (res == null) {
                 res = ZonedDateTime.now().toInstant();
             }
@@ -137,25 +168,33 @@ public class LogFile implements Comparable<LogFile> {
     }
 
     public void findInterval(LogFile lfNext) {
+        findInterval(lfNext, null);
+    }
+
+    /**
+     * @param probes probes shared with the searches of other intervals, or
+     * null
+     */
+    public void findInterval(LogFile lfNext, BinarySearch.ProbeCache probes) {
 
         if (!interval) {
             return;
         }
 
-        try (FileChannel fcOpen = FileChannel.
-                open(path, StandardOpenOption.READ)) {
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
 
-            setFc(fcOpen);
-            setFileSize();
+            FileChannel fc = h.channel();
+            setFileSize(fc.size());
 
             if (getFileSize() == 0) {
                 return;
             }
 
-            BinarySearch bs = new BinarySearch();
+            BinarySearch bs = new BinarySearch(config, probes);
 
-            positionFrom = bs.getPositionFrom(this);
-            positionTo = bs.getPositionTo(positionFrom, this, lfNext);
+            positionFrom = bs.getPositionFrom(this, fc);
+            positionTo = bs.getPositionTo(positionFrom, this, lfNext, fc);
 
         } catch (IOException ex) {
             Logger.getLogger(LogFile.class.getName()).
@@ -165,19 +204,41 @@ public class LogFile implements Comparable<LogFile> {
     }
 
     public void printInterval(long intervalStart, long intervalEnd) {
+        OutputSink sink = OutputSink.stdout();
+        printInterval(intervalStart, intervalEnd, sink);
+        try {
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(LogFile.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public void printInterval(long intervalStart, long intervalEnd,
+            OutputSink sink) {
 
         if (!interval) {
             return;
         }
 
-        try (FileChannel fcOpen = FileChannel.
-                open(path, StandardOpenOption.READ)) {
-
-            setFc(fcOpen);
-
-            WritableByteChannel wbc = Channels.newChannel(System.out);
-
-            fc.transferTo(intervalStart, intervalEnd - intervalStart, wbc);
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
+
+            LogCharset charset = lc.getCharset(path, h.channel());
+            if (charset.getUnit() > 1) {
+                // UTF-16 intervals are printed as UTF-8 like the records
+                OutputSink.Transcoder t = sink.utf8(charset.getCharset());
+                for (long p = intervalStart; p < intervalEnd;
+                        p += RecordSpliterator.WINDOW) {
+                    ByteBuffer buf = h.map(p, Math.min(intervalEnd - p,
+                            RecordSpliterator.WINDOW));
+                    t.write(buf, 0, buf.limit());
+                }
+                t.finish();
+                return;
+            }
+            sink.transferFrom(h.channel(), intervalStart, intervalEnd
+                    - intervalStart);
 
         } catch (IOException ex) {
             Logger.getLogger(LogFile.class.getName()).
@@ -193,30 +254,10 @@ public class LogFile implements Comparable<LogFile> {
     }
 
     /**
+     * @param fileSize the fileSize to set
      */
-    public void setFileSize() {
-
-        try {
-            this.fileSize = fc.size();
-        } catch (IOException ex) {
-            Logger.getLogger(LogFile.class.getName()).
-                    log(Level.SEVERE, null, ex);
-        }
-
-    }
-
-    /**
-     * @return the fc
-     */
-    public FileChannel getFc() {
-        return fc;
-    }
-
-    /**
-     * @param fc the fc to set
-     */
-    public void setFc(FileChannel fc) {
-        this.fc = fc;
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
     }
 
     /**
@@ -279,25 +320,24 @@ public class LogFile implements Comparable<LogFile> {
 
         //Make scanner
         //Iterate through dates until is reached positionTo
-        try (FileChannel fcOpen = FileChannel.
-                open(path, StandardOpenOption.READ);) {
-
-            setFc(fcOpen);
-            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY,
-                    positionFrom, positionTo - positionFrom);
-            // Decode ByteBuffer into CharBuffer
-            CharBuffer cbuf
-                    = Charset.forName("ISO-8859-1").newDecoder().decode(buf);
-            Matcher m = lc.getDatePattern().matcher(cbuf);
-            BinarySearch bs = new BinarySearch();
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
+
+            EngineEvents.ScanEvent event = new EngineEvents.ScanEvent();
+            event.begin();
+            long started = System.nanoTime();
+            ByteBuffer buf = h.map(positionFrom, positionTo - positionFrom);
+            // Match dates on the bytes, UTF-16 files in code units
+            DateMatcher m = lc.dateMatcher(new ByteCharSequence(buf), lc.
+                    getCharset(path, h.channel()));
             LogRecord prev = null;
 
             while (m.find()) {
-                MatchResult match = m.toMatchResult();
-                //System.out.println(match.start() + " " + recFrom);
-
-                CharSequence cs = bs.getZonedDateTime(match, this);
-                Instant instant = bs.getZonedDateTime(cs);
+                Instant instant = m.instant();
+                if (instant == null) {
+                    // not a date, the text belongs to the previous record
+                    continue;
+                }
                 LogRecord lr = new LogRecord(this, instant, m.start());
                 records.add(lr);
                 if (prev != null) {
@@ -311,6 +351,13 @@ public class LogFile implements Comparable<LogFile> {
             if (prev != null) {
                 prev.setPositionTo(positionTo - positionFrom);
             }
+            EngineMetrics.getShared().addScan(positionTo - positionFrom,
+                    records.size(), System.nanoTime() - started);
+            if (event.shouldCommit()) {
+                event.set(path, positionFrom, positionTo - positionFrom,
+                        records.size());
+                event.commit();
+            }
 
         } catch (IOException ex) {
             Logger.getLogger(BinarySearch.class.getName()).
@@ -322,6 +369,39 @@ public class LogFile implements Comparable<LogFile> {
 
     }
 
+    /**
+     * Find the first date match starting at or after position, so the
+     * interval can be cut on record boundaries.
+     *
+     * @return start of the next record, or limit when there is none
+     */
+    public long findRecordStart(FileChannel fcOpen, long position, long limit)
+            throws IOException {
+
+        LogCharset layout = lc.getCharset(path, fcOpen);
+        position = Math.max(layout.align(position), layout.getBom());
+        while (position < limit) {
+            // map one code unit before position so that ^ sees the line break
+            long mapFrom = layout.lookBehind(position);
+            long mapTo = Math.min(limit, position + RECORD_START_WINDOW);
+            MappedByteBuffer buf = fcOpen.map(FileChannel.MapMode.READ_ONLY,
+                    mapFrom, mapTo - mapFrom);
+            ByteCharSequence cs = new ByteCharSequence(buf);
+            DateMatcher m = lc.dateMatcher(cs, layout);
+            m.region((int) (position - mapFrom), cs.length());
+            if (m.find()) {
+                return mapFrom + m.start();
+            }
+            if (mapTo == limit) {
+                break;
+            }
+            position = Math.max(position + layout.getUnit(), mapTo
+                    - DATE_MAX_LENGTH * layout.getUnit());
+        }
+
+        return limit;
+    }
+
     /**
      * @return the logOrder
      */
@@ -336,31 +416,50 @@ public class LogFile implements Comparable<LogFile> {
         this.logOrder = logOrder;
     }
 
-    public void removeDates() {
+    public void removeDates(OutputSink sink) {
 
         //Make scanner
         //Iterate through dates until is reached positionTo
-        try (FileChannel fcOpen = FileChannel.
-                open(path, StandardOpenOption.READ);) {
-
-            setFc(fcOpen);
-            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY,
-                    positionFrom, positionTo - positionFrom);
-            // Decode ByteBuffer into CharBuffer
-            CharBuffer cbuf
-                    = Charset.forName("UTF-8").newDecoder().decode(buf);
-            Matcher m = lc.getDatePattern().matcher(cbuf);
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
+
+            EngineEvents.ScanEvent event = new EngineEvents.ScanEvent();
+            event.begin();
+            long started = System.nanoTime();
+            ByteBuffer buf = h.map(positionFrom, positionTo - positionFrom);
+            // Match dates on the bytes and copy the rest unchanged
+            LogCharset charset = lc.getCharset(path, h.channel());
+            DateMatcher m = lc.dateMatcher(new ByteCharSequence(buf), charset);
+            // UTF-16 text is printed as UTF-8 like the records
+            OutputSink.Transcoder t = charset.getUnit() > 1 ? sink.utf8(
+                    charset.getCharset()) : null;
             int mEnd = 0;
             int mStart;
 
             while (m.find()) {
                 mStart = m.start();
-                System.out.print(cbuf.subSequence(mEnd, mStart));
+                if (t != null) {
+                    t.write(buf, mEnd, mStart);
+                } else {
+                    sink.write(buf, mEnd, mStart);
+                }
                 mEnd = m.end();
 
             }
 
-            System.out.println(cbuf.subSequence(mEnd, cbuf.length()));
+            if (t != null) {
+                t.write(buf, mEnd, buf.limit());
+                t.finish();
+            } else {
+                sink.write(buf, mEnd, buf.limit());
+            }
+            sink.println();
+            EngineMetrics.getShared().addScan(positionTo - positionFrom, 0,
+                    System.nanoTime() - started);
+            if (event.shouldCommit()) {
+                event.set(path, positionFrom, positionTo - positionFrom, 0);
+                event.commit();
+            }
 
         } catch (IOException ex) {
             Logger.getLogger(BinarySearch.class.getName()).
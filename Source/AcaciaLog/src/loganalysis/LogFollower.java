@@ -0,0 +1,514 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+
+/**
+ * Follows the last modified file of each section like tail -f. Only bytes
+ * appended since the last poll are read, a record is emitted when the date of
+ * the next record arrives, so half-written records stay buffered. Records of
+ * all sections are merged by time, records that came later than threshold
+ * after the previous record of their section are flagged.
+ *
+ * Growth is detected with a WatchService on the log directories, the files are
+ * checked at least every poll interval in case events are not delivered.
+ */
+public class LogFollower implements Runnable {
+
+    public static final long DEFAULT_POLL_MILLIS = 1000;
+    public static final int MAX_PENDING = 16 * 1024 * 1024;
+    private static final int READ_SIZE = 64 * 1024;
+    private static final int DATE_MAX_LENGTH = 256;
+
+    private final ConfigSnapshot config;
+    private final OutputSink sink;
+    private final Duration threshold;
+    private final ListFiles listFiles;
+    private final List<Followed> followed = new ArrayList<>();
+    private long pollMillis = DEFAULT_POLL_MILLIS;
+
+    public LogFollower(ConfigSnapshot config, OutputSink sink,
+            Duration threshold) {
+        this.config = config;
+        this.sink = sink;
+        this.threshold = threshold;
+        this.listFiles = new ListFiles(config);
+        for (String s : config.getSections()) {
+            followed.add(new Followed(config.getLog(s)));
+        }
+    }
+
+    /**
+     * Open the last files of the sections at their current end.
+     */
+    public void start() throws IOException {
+        for (Followed f : followed) {
+            f.open(listFiles.getLastFile(f.lc), true);
+        }
+    }
+
+    @Override
+    public void run() {
+        WatchService ws = null;
+        try {
+            start();
+            ws = watch();
+            while (!Thread.currentThread().isInterrupted()) {
+                await(ws);
+                poll();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            Logger.getLogger(LogFollower.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        } finally {
+            close();
+            close(ws);
+        }
+    }
+
+    /**
+     * Wait for a change of the log directories, at most the poll interval.
+     */
+    private void await(WatchService ws) throws InterruptedException {
+        if (ws != null) {
+            WatchKey key = ws.poll(pollMillis, TimeUnit.MILLISECONDS);
+            while (key != null) {
+                key.pollEvents();
+                key.reset();
+                key = ws.poll();
+            }
+        } else {
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    private static void close(WatchService ws) {
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException ex) {
+                Logger.getLogger(LogFollower.class.getName()).
+                        log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private WatchService watch() {
+        WatchService ws = null;
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+            Set<Path> dirs = new HashSet<>();
+            for (Followed f : followed) {
+                Path dir = f.lc.getDirPath().toAbsolutePath();
+                if (Files.isDirectory(dir) && dirs.add(dir)) {
+                    dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+            return ws;
+        } catch (IOException | UnsupportedOperationException ex) {
+            // poll only
+            close(ws);
+            return null;
+        }
+    }
+
+    /**
+     * Read what was appended, switch to rotated files and print the complete
+     * records merged by time.
+     *
+     * @return the number of records printed
+     */
+    public int poll() throws IOException {
+        List<Record> records = pollRecords();
+        for (Record r : records) {
+            print(r);
+        }
+        sink.flush();
+
+        return records.size();
+    }
+
+    /**
+     * Read what was appended and switch to rotated files.
+     *
+     * @return the complete records merged by time
+     */
+    public List<Record> pollRecords() throws IOException {
+        List<List<Record>> ready = new ArrayList<>();
+        int n = 0;
+        for (Followed f : followed) {
+            List<Record> records = new ArrayList<>();
+            f.poll(records);
+            ready.add(records);
+            n += records.size();
+        }
+
+        List<Record> res = new ArrayList<>(n);
+        int[] next = new int[ready.size()];
+        for (int k = 0; k < n; k++) {
+            int min = -1;
+            for (int i = 0; i < ready.size(); i++) {
+                if (next[i] < ready.get(i).size() && (min < 0 || ready.get(i).
+                        get(next[i]).key.isBefore(ready.get(min).get(next[min]).
+                                key))) {
+                    min = i;
+                }
+            }
+            res.add(ready.get(min).get(next[min]++));
+        }
+
+        return res;
+    }
+
+    /**
+     * Publisher of the records appended from the time of subscription. Each
+     * subscriber follows the files with its own LogFollower, the files are
+     * read only while the subscriber has requested batches.
+     */
+    public Flow.Publisher<List<Record>> publisher(int batchSize,
+            Executor executor) {
+        return new RecordPublisher<>(() -> {
+            LogFollower f = new LogFollower(config, null, threshold);
+            f.setPollMillis(pollMillis);
+            return f.new FollowSource();
+        }, batchSize, executor);
+    }
+
+    private void print(Record r) throws IOException {
+        if (threshold != null && r.duration != null && r.duration.compareTo(
+                threshold) > 0) {
+            sink.print("THRESHOLD_EXCEEDED " + r.duration.toString() + " ");
+        }
+        sink.print(r.section + " ");
+        sink.write(r.text, 0, r.text.length);
+        if (r.text.length == 0 || r.text[r.text.length - 1] != '\n') {
+            sink.println();
+        }
+    }
+
+    public void close() {
+        for (Followed f : followed) {
+            f.close();
+        }
+    }
+
+    /**
+     * @return the pollMillis
+     */
+    public long getPollMillis() {
+        return pollMillis;
+    }
+
+    /**
+     * @param pollMillis the pollMillis to set
+     */
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    private static Object identity(Path p) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(p,
+                BasicFileAttributes.class);
+        return attrs.fileKey() != null ? attrs.fileKey() : attrs.
+                creationTime();
+    }
+
+    /**
+     * Complete record of a followed file.
+     */
+    public static class Record {
+
+        final String section;
+        final Instant key;
+        final Duration duration;
+        final byte[] text;
+
+        Record(String section, Instant key, Duration duration, byte[] text) {
+            this.section = section;
+            this.key = key;
+            this.duration = duration;
+            this.text = text;
+        }
+
+        /**
+         * @return the section
+         */
+        public String getSection() {
+            return section;
+        }
+
+        /**
+         * @return the time of the record, or of the previous one when the
+         * record has no date
+         */
+        public Instant getInstant() {
+            return key;
+        }
+
+        /**
+         * @return the time since the previous record of the section, or null
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the text
+         */
+        public byte[] getText() {
+            return text;
+        }
+
+    }
+
+    /**
+     * Records of a publisher subscription, waits at most the poll interval
+     * for new ones.
+     */
+    private class FollowSource implements RecordPublisher.Source<Record> {
+
+        private final WatchService ws;
+        private List<Record> ready = new ArrayList<>();
+        private int next;
+
+        FollowSource() {
+            try {
+                start();
+            } catch (IOException ex) {
+                LogFollower.this.close();
+                throw new UncheckedIOException(ex);
+            }
+            ws = watch();
+        }
+
+        @Override
+        public List<Record> next(int max) throws IOException,
+                InterruptedException {
+            if (next == ready.size()) {
+                ready = pollRecords();
+                next = 0;
+                if (ready.isEmpty()) {
+                    await(ws);
+                    ready = pollRecords();
+                }
+            }
+            int to = Math.min(ready.size(), next + max);
+            List<Record> batch = new ArrayList<>(ready.subList(next, to));
+            next = to;
+            return batch;
+        }
+
+        @Override
+        public void close() {
+            LogFollower.this.close();
+            LogFollower.close(ws);
+        }
+
+    }
+
+    /**
+     * Followed file of one section.
+     */
+    private class Followed {
+
+        final LogConfig lc;
+        Path path;
+        FileChannel fc;
+        Object identity;
+        long offset;
+        ByteBuffer pending = ByteBuffer.allocate(READ_SIZE);
+        int scanned;
+        Instant last;
+
+        Followed(LogConfig lc) {
+            this.lc = lc;
+        }
+
+        void open(Path p, boolean atEnd) throws IOException {
+            close();
+            if (p == null) {
+                return;
+            }
+            path = p;
+            fc = FileChannel.open(p, StandardOpenOption.READ);
+            lc.getCharset(p, fc).requireBytes(p, "follow");
+            identity = identity(p);
+            offset = atEnd ? fc.size() : 0;
+        }
+
+        void poll(List<Record> ready) throws IOException {
+            Path newest = listFiles.getLastFile(lc);
+            if (fc == null) {
+                if (newest != null) {
+                    open(newest, false);
+                    read(ready);
+                }
+                return;
+            }
+
+            boolean rotated = false;
+            if (newest != null) {
+                try {
+                    rotated = !newest.equals(path) || !Objects.equals(identity(
+                            newest), identity);
+                } catch (IOException ex) {
+                    // being rotated, check again next time
+                }
+            }
+
+            if (fc.size() < offset) {
+                // truncated in place
+                extract(ready, true);
+                offset = 0;
+            }
+            read(ready);
+
+            if (rotated) {
+                // the rest of the old file is complete
+                extract(ready, true);
+                open(newest, false);
+                read(ready);
+            }
+        }
+
+        void read(List<Record> ready) throws IOException {
+            while (true) {
+                if (pending.remaining() < READ_SIZE) {
+                    ByteBuffer bigger = ByteBuffer.allocate(pending.capacity()
+                            * 2);
+                    pending.flip();
+                    bigger.put(pending);
+                    pending = bigger;
+                }
+                int n = fc.read(pending, offset);
+                if (n <= 0) {
+                    break;
+                }
+                offset += n;
+                extract(ready, false);
+            }
+        }
+
+        /**
+         * Emit the records followed by a date match, or all when end is set.
+         */
+        void extract(List<Record> ready, boolean end) {
+            ByteBuffer view = pending.duplicate();
+            view.flip();
+            int limit = view.limit();
+            ByteCharSequence cs = new ByteCharSequence(view);
+            Matcher m = lc.getDatePattern().matcher(cs);
+            m.useTransparentBounds(true);
+            m.useAnchoringBounds(false);
+            m.region(Math.max(1, scanned - DATE_MAX_LENGTH), limit);
+            Matcher head = lc.getDatePattern().matcher(cs);
+            head.useTransparentBounds(true);
+            head.useAnchoringBounds(false);
+
+            int recStart = 0;
+            while (m.find()) {
+                if (m.end() == limit && !end) {
+                    // the date may still be written
+                    break;
+                }
+                emit(ready, view, cs, head, recStart, m.start());
+                recStart = m.start();
+            }
+
+            if (end || limit - recStart > MAX_PENDING) {
+                if (limit > recStart) {
+                    emit(ready, view, cs, head, recStart, limit);
+                }
+                recStart = limit;
+            }
+
+            pending.flip();
+            pending.position(recStart);
+            pending.compact();
+            scanned = limit - recStart;
+        }
+
+        void emit(List<Record> ready, ByteBuffer view, ByteCharSequence cs,
+                Matcher head, int from, int to) {
+            Instant instant = null;
+            head.region(from, to);
+            if (head.lookingAt()) {
+                instant = lc.getDateExtractor().extract(head, cs);
+            }
+            Duration duration = null;
+            if (instant != null) {
+                if (last != null) {
+                    duration = Duration.between(last, instant);
+                }
+                last = instant;
+            }
+
+            byte[] text = new byte[to - from];
+            ByteBuffer src = view.duplicate();
+            src.limit(to).position(from);
+            src.get(text);
+            ready.add(new Record(lc.getLogName(), last != null ? last
+                    : Instant.MIN, duration, text));
+        }
+
+        void close() {
+            if (fc != null) {
+                try {
+                    fc.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(LogFollower.class.getName()).
+                            log(Level.SEVERE, null, ex);
+                }
+                fc = null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,675 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.IniFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes reproducible log files for a section: the same seed and settings
+ * give the same bytes. Dates are written so that the DATE pattern of the
+ * section matches them and ZONED_DATE_TIME gives the time back. Records come
+ * at rate per second with jitter, burst gaps, stack traces and out of order
+ * dates, and are rotated into files of rotate bytes. Records are assembled in
+ * a large buffer and written with sequential channel writes.
+ *
+ * java -cp AcaciaLog.jar loganalysis.LogGenerator -ini acacialog.ini -section
+ * wu -out generated -size 2G -rotate 256M -seed 1
+ */
+public class LogGenerator {
+
+    private static final int BUFFER = 8 * 1024 * 1024;
+    private static final int RECORD_MAX = 64 * 1024;
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG",
+        "DEBUG", "WARN", "ERROR"};
+
+    private long seed = 1;
+    private long size = 64L * 1024 * 1024;
+    private long rotate = 0;
+    private double rate = 100;
+    private double jitter = 0.5;
+    private double burst = 0.001;
+    private Duration burstGap = Duration.ofSeconds(10);
+    private double stackTrace = 0.01;
+    private double outOfOrder = 0;
+    private int recordLength = 120;
+    private Instant start = Instant.parse("2015-02-08T11:00:00Z");
+
+    private long records;
+    private Instant first;
+    private Instant last;
+
+    /**
+     * Write the files of the section into dir.
+     *
+     * @return the files written, oldest first
+     */
+    public List<Path> generate(LogConfig lc, Path dir) throws IOException {
+        DateWriter dates = new DateWriter(lc.getDateFormat(), lc.
+                getZonedDateTime(), lc.getZone());
+        Random rnd = new Random(seed ^ lc.getLogName().hashCode());
+        byte[] filler = new byte[RECORD_MAX];
+        for (int i = 0; i < filler.length; i++) {
+            int c = rnd.nextInt(32);
+            filler[i] = (byte) (c < 26 ? 'a' + c : ' ');
+        }
+
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        byte[] buf = new byte[BUFFER];
+        int pos = 0;
+        long written = 0;
+        long fileBytes = 0;
+        FileChannel fc = null;
+        records = 0;
+        first = null;
+        double micros = start.toEpochMilli() * 1000.0;
+        double gap = 1_000_000.0 / rate;
+
+        try {
+            while (written + pos < size) {
+                if (fc == null || rotate > 0 && fileBytes >= rotate
+                        && canRotate(lc)) {
+                    written += flush(fc, buf, pos);
+                    pos = 0;
+                    if (fc != null) {
+                        fc.close();
+                    }
+                    Path p = dir.resolve(fileName(lc, files.size() + 1));
+                    files.add(p);
+                    fc = FileChannel.open(p, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                    fileBytes = 0;
+                }
+
+                long millis = (long) (micros / 1000);
+                if (outOfOrder > 0 && rnd.nextDouble() < outOfOrder) {
+                    // a late line with an earlier date
+                    millis -= (long) (rnd.nextDouble() * 20 * gap / 1000);
+                }
+                Instant t = Instant.ofEpochMilli(millis);
+                if (first == null) {
+                    first = t;
+                }
+                last = t;
+
+                int before = pos;
+                pos = dates.write(millis, buf, pos);
+                pos = record(buf, pos, rnd, filler);
+                if (stackTrace > 0 && rnd.nextDouble() < stackTrace) {
+                    pos = stackTrace(buf, pos, rnd);
+                }
+                fileBytes += pos - before;
+                records++;
+
+                if (pos > buf.length - RECORD_MAX) {
+                    written += flush(fc, buf, pos);
+                    pos = 0;
+                }
+
+                micros += gap * (1 + jitter * (2 * rnd.nextDouble() - 1));
+                if (burst > 0 && rnd.nextDouble() < burst) {
+                    micros += burstGap.toMillis() * 1000.0;
+                }
+            }
+            flush(fc, buf, pos);
+        } finally {
+            if (fc != null) {
+                fc.close();
+            }
+        }
+        return files;
+    }
+
+    private int record(byte[] buf, int pos, Random rnd, byte[] filler) {
+        pos = put(buf, pos, LEVELS[rnd.nextInt(LEVELS.length)]);
+        pos = put(buf, pos, " [worker-");
+        pos = put(buf, pos, Integer.toString(rnd.nextInt(16)));
+        pos = put(buf, pos, "] id=");
+        pos = put(buf, pos, Long.toString(records));
+        buf[pos++] = ' ';
+        int n = Math.max(1, Math.min(RECORD_MAX / 2, recordLength / 2 + rnd.
+                nextInt(Math.max(1, recordLength))) - 40);
+        int from = rnd.nextInt(filler.length - n);
+        System.arraycopy(filler, from, buf, pos, n);
+        pos += n;
+        buf[pos++] = '\n';
+        return pos;
+    }
+
+    private int stackTrace(byte[] buf, int pos, Random rnd) {
+        pos = put(buf, pos, "java.lang.IllegalStateException: failed id=");
+        pos = put(buf, pos, Long.toString(records));
+        buf[pos++] = '\n';
+        int frames = 3 + rnd.nextInt(10);
+        for (int i = 0; i < frames; i++) {
+            String cls = "Service" + rnd.nextInt(20);
+            pos = put(buf, pos, "\tat loganalysis." + cls + ".call" + i + "("
+                    + cls + ".java:" + (10 + rnd.nextInt(900)) + ")\n");
+        }
+        return pos;
+    }
+
+    private static int put(byte[] buf, int pos, String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            buf[pos + i] = (byte) s.charAt(i);
+        }
+        return pos + n;
+    }
+
+    private static long flush(FileChannel fc, byte[] buf, int pos)
+            throws IOException {
+        if (fc == null || pos == 0) {
+            return 0;
+        }
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, pos);
+        while (b.hasRemaining()) {
+            fc.write(b);
+        }
+        return pos;
+    }
+
+    /**
+     * @return true when FILE has a * for the number of a rotated file
+     */
+    private static boolean canRotate(LogConfig lc) {
+        return lc.getFilePattern().contains("*");
+    }
+
+    /**
+     * @return the FILE pattern with * replaced by the number of the file
+     */
+    static String fileName(LogConfig lc, int n) {
+        String pattern = lc.getFilePattern();
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return pattern;
+        }
+        return (pattern.substring(0, star) + String.format("%05d", n)
+                + pattern.substring(star + 1)).replace("*", "").replace('?',
+                        '0');
+    }
+
+    /**
+     * Writes dates for a simple DATE pattern: literals, escapes and one group
+     * of digits per ZONED_DATE_TIME field. Date fields are computed from the
+     * epoch milliseconds, the calendar date only when the day changes. With a
+     * ZONE the local time of the zone is written.
+     */
+    static class DateWriter {
+
+        private static final Pattern WIDTH = Pattern.compile("\\{(\\d+)");
+
+        // token i is literal[i] when field[i] < 0, else a number
+        private final byte[][] literal;
+        private final int[] field;
+        private final int[] width;
+
+        private long day = Long.MIN_VALUE;
+        private final int[] values = new int[7];
+        private final ZoneOffsets offsets;
+
+        DateWriter(String date, String zoned) {
+            this(date, zoned, null);
+        }
+
+        /**
+         * @param zone the zone of the local time written, or null for UTC
+         */
+        DateWriter(String date, String zoned, ZoneId zone) {
+            offsets = zone != null ? new ZoneOffsets(zone) : null;
+            int[] fields = fields(zoned);
+            List<byte[]> lits = new ArrayList<>();
+            List<int[]> numbers = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            int group = 0;
+            for (int i = 0; i < date.length(); i++) {
+                char c = date.charAt(i);
+                if (c == '(' && date.startsWith("(?", i)) {
+                    i = date.indexOf(')', i);
+                } else if (c == '(') {
+                    int end = date.indexOf(')', i);
+                    Matcher m = WIDTH.matcher(date.substring(i, end));
+                    int w = m.find() ? Integer.parseInt(m.group(1)) : 1;
+                    group++;
+                    lits.add(sb.toString().getBytes(
+                            StandardCharsets.ISO_8859_1));
+                    numbers.add(new int[]{group < fields.length
+                        ? fields[group] : -1, w});
+                    sb.setLength(0);
+                    i = end;
+                } else if (c == '\\') {
+                    char e = date.charAt(++i);
+                    sb.append(e == 't' ? '\t' : e == 's' ? ' ' : e == 'd'
+                            ? '0' : e);
+                } else if (c == '[') {
+                    sb.append(date.charAt(i + 1));
+                    i = date.indexOf(']', i);
+                } else if (c == '{') {
+                    i = date.indexOf('}', i);
+                } else if (c == '.') {
+                    sb.append(' ');
+                } else if ("^$+*?".indexOf(c) < 0) {
+                    sb.append(c);
+                }
+            }
+            lits.add(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+            literal = lits.toArray(new byte[lits.size()][]);
+            field = new int[numbers.size()];
+            width = new int[numbers.size()];
+            for (int k = 0; k < numbers.size(); k++) {
+                field[k] = numbers.get(k)[0];
+                width[k] = numbers.get(k)[1];
+            }
+        }
+
+        /**
+         * @return the ISO field (0 year ... 6 milliseconds) of every group
+         * of the template, by group number
+         */
+        private static int[] fields(String zoned) {
+            int[] res = new int[10];
+            Arrays.fill(res, -1);
+            int k = 0;
+            boolean inField = false;
+            for (int i = 0; i < zoned.length() && k < 7; i++) {
+                char c = zoned.charAt(i);
+                if (c == 'g') {
+                    res[zoned.charAt(++i) - '0'] = k;
+                    inField = true;
+                } else if (Character.isDigit(c)) {
+                    inField = true;
+                } else if (inField) {
+                    k++;
+                    inField = false;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * @return the position after the date of epochMilli written at pos
+         */
+        int write(long epochMilli, byte[] buf, int pos) {
+            if (offsets != null) {
+                epochMilli += offsets.getOffset(Math.floorDiv(epochMilli,
+                        1000)) * 1000L;
+            }
+            long d = Math.floorDiv(epochMilli, 86_400_000L);
+            if (d != day) {
+                LocalDate date = LocalDate.ofEpochDay(d);
+                values[0] = date.getYear();
+                values[1] = date.getMonthValue();
+                values[2] = date.getDayOfMonth();
+                day = d;
+            }
+            int ms = (int) Math.floorMod(epochMilli, 86_400_000L);
+            values[3] = ms / 3_600_000;
+            values[4] = ms / 60_000 % 60;
+            values[5] = ms / 1000 % 60;
+            values[6] = ms % 1000;
+
+            for (int k = 0; k < field.length; k++) {
+                System.arraycopy(literal[k], 0, buf, pos, literal[k].length);
+                pos += literal[k].length;
+                int v = field[k] >= 0 ? values[field[k]] : 0;
+                int digits = 1;
+                for (int x = v; x >= 10; x /= 10) {
+                    digits++;
+                }
+                for (int z = digits; z < width[k]; z++) {
+                    buf[pos++] = '0';
+                }
+                for (int j = digits - 1; j >= 0; j--) {
+                    buf[pos + j] = (byte) ('0' + v % 10);
+                    v /= 10;
+                }
+                pos += digits;
+            }
+            byte[] tail = literal[field.length];
+            System.arraycopy(tail, 0, buf, pos, tail.length);
+            return pos + tail.length;
+        }
+
+    }
+
+    /**
+     * @return the lines of an ini section for the files of lc written to dir
+     */
+    static List<String> iniSection(LogConfig lc, Path dir) {
+        List<String> res = new ArrayList<>(Arrays.asList(lc.getLogName(),
+                "DIR=" + dir.toAbsolutePath(), "FILE=" + lc.getFilePattern(),
+                "DATE=" + lc.getDateFormat(), "ZONED_DATE_TIME=" + lc.
+                getZonedDateTime()));
+        if (lc.getZone() != null) {
+            res.add("ZONE=" + lc.getZone());
+        }
+        res.add("");
+        return res;
+    }
+
+    /**
+     * @return bytes of a size like 64K, 256M or 2G
+     */
+    static long parseSize(String s) {
+        s = s.trim().toUpperCase();
+        long unit = 1;
+        char c = s.charAt(s.length() - 1);
+        if (c == 'K' || c == 'M' || c == 'G') {
+            unit = c == 'K' ? 1L << 10 : c == 'M' ? 1L << 20 : 1L << 30;
+            s = s.substring(0, s.length() - 1);
+        }
+        return (long) (Double.parseDouble(s) * unit);
+    }
+
+    public static void main(String[] args) {
+        LogGenerator gen = new LogGenerator();
+        String ini = "acacialog.ini";
+        String sections = null;
+        Path out = Paths.get("generated");
+
+        int i = 0;
+        while (i + 1 < args.length && args[i].startsWith("-")) {
+            String arg = args[i++];
+            String value = args[i++];
+            switch (arg) {
+                case "-ini":
+                    ini = value;
+                    break;
+                case "-section":
+                    sections = value;
+                    break;
+                case "-out":
+                    out = Paths.get(value);
+                    break;
+                case "-seed":
+                    gen.setSeed(Long.parseLong(value));
+                    break;
+                case "-size":
+                    gen.setSize(parseSize(value));
+                    break;
+                case "-rotate":
+                    gen.setRotate(parseSize(value));
+                    break;
+                case "-rate":
+                    gen.setRate(Double.parseDouble(value));
+                    break;
+                case "-jitter":
+                    gen.setJitter(Double.parseDouble(value));
+                    break;
+                case "-burst":
+                    gen.setBurst(Double.parseDouble(value));
+                    break;
+                case "-gap":
+                    gen.setBurstGap(Duration.parse(value));
+                    break;
+                case "-stack":
+                    gen.setStackTrace(Double.parseDouble(value));
+                    break;
+                case "-disorder":
+                    gen.setOutOfOrder(Double.parseDouble(value));
+                    break;
+                case "-length":
+                    gen.setRecordLength(Integer.parseInt(value));
+                    break;
+                case "-start":
+                    gen.setStart(Instant.parse(value));
+                    break;
+                default:
+                    i = args.length + 1;
+                    break;
+            }
+        }
+        if (i != args.length) {
+            System.err.println("Usage: LogGenerator [-ini file] [-section sectionsList] [-out dir] [-seed n] [-size 2G] [-rotate 256M]");
+            System.err.println("                    [-rate perSecond] [-jitter 0.5] [-burst p] [-gap PT10S] [-stack p] [-disorder p] [-length n] [-start aTime]");
+            System.err.println("Writes the sections of the ini to out/<section> and out/acacialog.ini to run AcaciaLog on them");
+            return;
+        }
+
+        try {
+            IniFile iniFile = new IniFile(ini);
+            List<String> names = sections == null ? iniFile.getSections()
+                    : new ArrayList<>();
+            if (sections != null) {
+                for (String s : sections.split(",")) {
+                    s = s.trim();
+                    names.add(s.startsWith("[") ? s : "[" + s + "]");
+                }
+            }
+
+            List<String> lines = new ArrayList<>();
+            for (String s : names) {
+                LogConfig lc = new LogConfig(s, iniFile);
+                Path dir = out.resolve(s.substring(1, s.length() - 1));
+                long t = System.nanoTime();
+                List<Path> files = gen.generate(lc, dir);
+                System.out.println(s + " " + files.size() + " files "
+                        + gen.getRecords() + " records " + gen.getFirst()
+                        + " ... " + gen.getLast() + " in " + Duration.ofNanos(
+                        System.nanoTime() - t));
+
+                lines.addAll(iniSection(lc, dir));
+            }
+            Files.write(out.resolve("acacialog.ini"), lines);
+        } catch (IOException ex) {
+            Logger.getLogger(LogGenerator.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed the seed to set
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @param size the size to set
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the rotate
+     */
+    public long getRotate() {
+        return rotate;
+    }
+
+    /**
+     * @param rotate the rotate to set
+     */
+    public void setRotate(long rotate) {
+        this.rotate = rotate;
+    }
+
+    /**
+     * @return the rate
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate the rate to set
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * @return the jitter
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter the jitter to set
+     */
+    public void setJitter(double jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * @return the burst
+     */
+    public double getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param burst the burst to set
+     */
+    public void setBurst(double burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * @return the burstGap
+     */
+    public Duration getBurstGap() {
+        return burstGap;
+    }
+
+    /**
+     * @param burstGap the burstGap to set
+     */
+    public void setBurstGap(Duration burstGap) {
+        this.burstGap = burstGap;
+    }
+
+    /**
+     * @return the stackTrace
+     */
+    public double getStackTrace() {
+        return stackTrace;
+    }
+
+    /**
+     * @param stackTrace the stackTrace to set
+     */
+    public void setStackTrace(double stackTrace) {
+        this.stackTrace = stackTrace;
+    }
+
+    /**
+     * @return the outOfOrder
+     */
+    public double getOutOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * @param outOfOrder the outOfOrder to set
+     */
+    public void setOutOfOrder(double outOfOrder) {
+        this.outOfOrder = outOfOrder;
+    }
+
+    /**
+     * @return the recordLength
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * @param recordLength the recordLength to set
+     */
+    public void setRecordLength(int recordLength) {
+        this.recordLength = recordLength;
+    }
+
+    /**
+     * @return the start
+     */
+    public Instant getStart() {
+        return start;
+    }
+
+    /**
+     * @param start the start to set
+     */
+    public void setStart(Instant start) {
+        this.start = start;
+    }
+
+    /**
+     * @return the records of the last generate
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the first of the last generate
+     */
+    public Instant getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the last of the last generate
+     */
+    public Instant getLast() {
+        return last;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * First record times of log files kept between queries of a long running
+ * process. A file is probed again only when its file key changed or it
+ * shrank, appending does not change the first record.
+ */
+public class LogIndex {
+
+    private final ConcurrentHashMap<Path, Entry> entries
+            = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return the first record time of the file, read once per file
+     */
+    public Instant getFirstTime(Path path, LogConfig lc, ConfigSnapshot config) {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            // let LogFile report it
+            return null;
+        }
+        Object identity = attrs.fileKey() != null ? attrs.fileKey() : attrs.
+                creationTime();
+
+        Entry e = entries.get(key);
+        if (e != null && e.lc == lc && Objects.equals(e.identity, identity)
+                && attrs.size() >= e.size) {
+            hits.incrementAndGet();
+            EngineMetrics.getShared().addIndex(true);
+            return e.first;
+        }
+
+        misses.incrementAndGet();
+        EngineMetrics.getShared().addIndex(false);
+        Instant first = new LogFile(path, lc, 0, config).getFrom();
+        if (attrs.size() > 0) {
+            entries.put(key, new Entry(lc, identity, attrs.size(), first));
+        }
+        return first;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class Entry {
+
+        final LogConfig lc;
+        final Object identity;
+        final long size;
+        final Instant first;
+
+        Entry(LogConfig lc, Object identity, long size, Instant first) {
+            this.lc = lc;
+            this.identity = identity;
+            this.size = size;
+            this.first = first;
+        }
+
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ApplicationFactory;
+import acacialog.ConfigSnapshot;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Log queries for Java code, e.g.
+ * LogQuery.sections("app").between(from, to).records().parallel(). A query
+ * is immutable, the files are searched when the stream is used.
+ */
+public class LogQuery {
+
+    private final ConfigSnapshot config;
+    private final LogIndex index;
+
+    private LogQuery(ConfigSnapshot config, LogIndex index) {
+        this.config = config;
+        this.index = index;
+    }
+
+    /**
+     * @return query of all sections of the config
+     */
+    public static LogQuery of(ConfigSnapshot config) {
+        return new LogQuery(config, null);
+    }
+
+    /**
+     * @param sections section names with or without brackets, all sections of
+     * acacialog.properties when none is given
+     * @return query of the sections
+     */
+    public static LogQuery sections(String... sections) {
+        return of((new ApplicationFactory()).getInstance().snapshot()).include(
+                sections);
+    }
+
+    /**
+     * @return query of the given sections of this query only
+     */
+    public LogQuery include(String... sections) {
+        if (sections.length == 0) {
+            return this;
+        }
+        List<String> names = new ArrayList<>();
+        for (String s : sections) {
+            String name = s.trim();
+            names.add(name.startsWith("[") ? name : "[" + name + "]");
+        }
+        return new LogQuery(config.withSections(names), index);
+    }
+
+    /**
+     * @return query of the records from from to to, null for an open end
+     */
+    public LogQuery between(Instant from, Instant to) {
+        return new LogQuery(config.withInterval(from, to), index);
+    }
+
+    /**
+     * @param index the index of first record times to use, or null
+     * @return query using the index
+     */
+    public LogQuery withIndex(LogIndex index) {
+        return new LogQuery(config, index);
+    }
+
+    /**
+     * @return the config
+     */
+    public ConfigSnapshot getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the files with the interval found, by section and time
+     */
+    public List<LogFile> files() {
+        GetRows gr = new GetRows(config);
+        gr.setIndex(index);
+        List<LogFile> res = new ArrayList<>();
+        for (int j = 0; j < config.getSections().size(); j++) {
+            res.addAll(gr.findInterval(config.getLog(config.getSections().
+                    get(j)), j));
+        }
+        return res;
+    }
+
+    /**
+     * @return lazy stream of the records of the interval, in file order
+     */
+    public Stream<LogRecord> records() {
+        return StreamSupport.stream(() -> new RecordSpliterator(files(),
+                config.getReadahead()), RecordSpliterator.CHARACTERISTICS, false);
+    }
+
+    /**
+     * @return publisher of the records of the interval in batches of up to
+     * batchSize, the files are read on the executor as batches are requested
+     */
+    public Flow.Publisher<List<LogRecord>> publisher(int batchSize,
+            Executor executor) {
+        return new RecordPublisher<>(() -> RecordPublisher.source(
+                () -> new RecordSpliterator(files(), config.getReadahead())),
+                batchSize, executor);
+    }
+
+    /**
+     * @return lazy stream of the records of files with the interval found
+     */
+    public static Stream<LogRecord> records(Iterable<LogFile> files) {
+        return records(files, 0);
+    }
+
+    /**
+     * @param readahead the number of windows read ahead on an I/O thread, 0
+     * maps the windows
+     * @return lazy stream of the records of files with the interval found
+     */
+    public static Stream<LogRecord> records(Iterable<LogFile> files,
+            int readahead) {
+        return StreamSupport.stream(new RecordSpliterator(files, readahead),
+                false);
+    }
+
+}
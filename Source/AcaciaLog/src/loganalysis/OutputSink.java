@@ -0,0 +1,289 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered output over a channel. Writes are collected in one large reusable
+ * direct buffer and written when it is full or on flush, file ranges are
+ * transferred without copying through the heap.
+ */
+public class OutputSink implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static OutputSink stdout;
+
+    private final WritableByteChannel out;
+    private final boolean closeOut;
+    private final ByteBuffer buf;
+    private final CharsetEncoder encoder = Charset.defaultCharset().
+            newEncoder().onMalformedInput(CodingErrorAction.REPLACE).
+            onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder().
+            onMalformedInput(CodingErrorAction.REPLACE).
+            onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    public OutputSink(WritableByteChannel out, int capacity, boolean closeOut) {
+        this.out = out;
+        this.closeOut = closeOut;
+        this.buf = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * The shared standard output sink. System.out is flushed first, so text
+     * printed there before stays in front.
+     */
+    public static synchronized OutputSink stdout() {
+        System.out.flush();
+        if (stdout == null) {
+            stdout = new OutputSink(new FileOutputStream(FileDescriptor.out).
+                    getChannel(), DEFAULT_CAPACITY, false);
+        }
+        return stdout;
+    }
+
+    /**
+     * Sink writing to a new or truncated file, closed with the sink.
+     */
+    public static OutputSink open(Path path) throws IOException {
+        return new OutputSink(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                DEFAULT_CAPACITY, true);
+    }
+
+    public OutputSink write(ByteBuffer src) throws IOException {
+        if (src.remaining() > buf.remaining()) {
+            flush();
+            if (src.remaining() >= buf.capacity()) {
+                EngineMetrics.getShared().addOutputBytes(src.remaining());
+                while (src.hasRemaining()) {
+                    out.write(src);
+                }
+                return this;
+            }
+        }
+        buf.put(src);
+        return this;
+    }
+
+    /**
+     * Write bytes [from, to) of src, src position is left unchanged.
+     */
+    public OutputSink write(ByteBuffer src, int from, int to)
+            throws IOException {
+        ByteBuffer dup = src.duplicate();
+        dup.limit(to).position(from);
+        return write(dup);
+    }
+
+    public OutputSink write(byte[] src, int off, int len) throws IOException {
+        return write(ByteBuffer.wrap(src, off, len));
+    }
+
+    public OutputSink write(int b) throws IOException {
+        if (!buf.hasRemaining()) {
+            flush();
+        }
+        buf.put((byte) b);
+        return this;
+    }
+
+    public OutputSink print(CharSequence cs) throws IOException {
+        int n = cs.length();
+        for (int i = 0; i < n; i++) {
+            char c = cs.charAt(i);
+            if (c >= 0x80) {
+                encode(CharBuffer.wrap(cs, i, n));
+                return this;
+            }
+            if (!buf.hasRemaining()) {
+                flush();
+            }
+            buf.put((byte) c);
+        }
+        return this;
+    }
+
+    public OutputSink println(CharSequence cs) throws IOException {
+        return print(cs).write('\n');
+    }
+
+    public OutputSink println() throws IOException {
+        return write('\n');
+    }
+
+    private void encode(CharBuffer cb) throws IOException {
+        encode(encoder, cb);
+    }
+
+    private void encode(CharsetEncoder enc, CharBuffer cb) throws IOException {
+        enc.reset();
+        while (enc.encode(cb, buf, true).isOverflow()) {
+            flush();
+        }
+        while (enc.flush(buf).isOverflow()) {
+            flush();
+        }
+    }
+
+    /**
+     * @return writer of text in charset as UTF-8, like the -o records
+     */
+    public Transcoder utf8(Charset charset) {
+        return new Transcoder(charset);
+    }
+
+    /**
+     * Writes the bytes of a text in another charset as UTF-8. The bytes of a
+     * character split between two writes are kept until the next one.
+     */
+    public class Transcoder {
+
+        private final CharsetDecoder decoder;
+        private final CharBuffer chars = CharBuffer.allocate(8 * 1024);
+        private final ByteBuffer carry = ByteBuffer.allocate(16);
+
+        private Transcoder(Charset charset) {
+            decoder = charset.newDecoder().onMalformedInput(
+                    CodingErrorAction.REPLACE).onUnmappableCharacter(
+                    CodingErrorAction.REPLACE);
+        }
+
+        /**
+         * Write bytes [from, to) of src, src position is left unchanged.
+         */
+        public void write(ByteBuffer src, int from, int to)
+                throws IOException {
+            ByteBuffer in = src.duplicate();
+            in.limit(to).position(from);
+            if (carry.position() > 0) {
+                carry.flip();
+                ByteBuffer joined = ByteBuffer.allocate(carry.remaining()
+                        + in.remaining());
+                joined.put(carry).put(in).flip();
+                carry.clear();
+                in = joined;
+            }
+            decode(in, false);
+            carry.put(in);
+        }
+
+        /**
+         * Write the bytes kept of a last incomplete character.
+         */
+        public void finish() throws IOException {
+            carry.flip();
+            decode(carry, true);
+            carry.clear();
+            while (decoder.flush(chars).isOverflow()) {
+                drain();
+            }
+            drain();
+            decoder.reset();
+        }
+
+        private void decode(ByteBuffer in, boolean last) throws IOException {
+            CoderResult r;
+            do {
+                r = decoder.decode(in, chars, last);
+                drain();
+            } while (r.isOverflow());
+        }
+
+        private void drain() throws IOException {
+            chars.flip();
+            encode(utf8, chars);
+            chars.clear();
+        }
+
+    }
+
+    /**
+     * Copy bytes [position, position + count) of the file channel.
+     */
+    public OutputSink transferFrom(FileChannel fc, long position, long count)
+            throws IOException {
+        if (count <= buf.remaining()) {
+            ByteBuffer dst = buf.duplicate();
+            dst.limit(buf.position() + (int) count);
+            while (dst.hasRemaining()) {
+                if (fc.read(dst, position + dst.position() - buf.position())
+                        < 0) {
+                    break;
+                }
+            }
+            buf.position(dst.position());
+            return this;
+        }
+
+        flush();
+        long done = 0;
+        while (done < count) {
+            long n = fc.transferTo(position + done, count - done, out);
+            if (n <= 0) {
+                break;
+            }
+            done += n;
+        }
+        EngineMetrics.getShared().addOutputBytes(done);
+        return this;
+    }
+
+    public void flush() throws IOException {
+        EngineEvents.FlushEvent event = new EngineEvents.FlushEvent();
+        event.begin();
+        buf.flip();
+        int bytes = buf.remaining();
+        EngineMetrics.getShared().addOutputBytes(bytes);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeOut) {
+            out.close();
+        }
+    }
+
+}
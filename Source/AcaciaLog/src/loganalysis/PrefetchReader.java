@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the windows of a sequential scan into buffers on a dedicated I/O
+ * thread, up to readahead windows in front of the one being parsed, so disk
+ * reads and date matching overlap on slow or network volumes. A window
+ * requested outside the read ahead range is read at once and the read ahead
+ * restarts from it. All reads run on the I/O executor, which IoScheduler
+ * shares between the readers of one disk.
+ */
+public class PrefetchReader implements WindowReader {
+
+    /**
+     * Windows of a scan overlap by the date length and the byte before, a
+     * read ahead buffer starts this much before the end of the last one.
+     */
+    static final int OVERLAP = 64 * 1024;
+
+    private final int readahead;
+    private final Executor io;
+    private final boolean ownsExecutor;
+    private final ArrayDeque<Read> pending = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private ByteBuffer current;
+    private long reads;
+    private long hits;
+
+    /**
+     * @param readahead the number of windows read ahead
+     */
+    public PrefetchReader(int readahead) {
+        if (readahead <= 0) {
+            throw new IllegalArgumentException("readahead must be positive");
+        }
+        this.readahead = readahead;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "acacialog-readahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.io = executor;
+        this.ownsExecutor = true;
+    }
+
+    /**
+     * @param readahead the number of windows read ahead
+     * @param io runs the reads, it is not shut down on close
+     */
+    public PrefetchReader(int readahead, Executor io) {
+        if (readahead <= 0) {
+            throw new IllegalArgumentException("readahead must be positive");
+        }
+        this.readahead = readahead;
+        this.io = io;
+        this.ownsExecutor = false;
+    }
+
+    private static class Read {
+
+        private final Path path;
+        private final long from;
+        private final long to;
+        private final CompletableFuture<ByteBuffer> buf;
+
+        Read(Path path, long from, long to, CompletableFuture<ByteBuffer> buf) {
+            this.path = path;
+            this.from = from;
+            this.to = to;
+            this.buf = buf;
+        }
+
+        boolean covers(Path path, long from, long to) {
+            return this.path.equals(path) && this.from <= from && to
+                    <= this.to;
+        }
+
+    }
+
+    @Override
+    public ByteBuffer read(Path path, long from, long to, long limit)
+            throws IOException {
+        reads++;
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+
+        Read r = pending.poll();
+        while (r != null && !r.covers(path, from, to)) {
+            // the scan left the read ahead range, the buffer is dropped
+            r.buf.cancel(false);
+            r = pending.poll();
+        }
+
+        ByteBuffer buf;
+        long start;
+        if (r != null) {
+            hits++;
+            buf = join(r.buf);
+            start = r.from;
+        } else {
+            pending.forEach(p -> p.buf.cancel(false));
+            pending.clear();
+            buf = join(submit(path, from, buffer((int) (to - from))));
+            start = from;
+        }
+        current = buf;
+
+        long size = to - from;
+        long end = pending.isEmpty() ? (r != null ? r.to : to) : pending.
+                peekLast().to;
+        while (pending.size() < readahead && end < limit) {
+            long next = Math.max(from, end - OVERLAP);
+            long nextTo = Math.min(limit, next + size + OVERLAP);
+            pending.add(new Read(path, next, nextTo, submit(path, next,
+                    buffer((int) (nextTo - next)))));
+            end = nextTo;
+        }
+
+        ByteBuffer window = buf.duplicate();
+        window.limit((int) (to - start));
+        window.position((int) (from - start));
+        return window.slice();
+    }
+
+    private ByteBuffer buffer(int capacity) {
+        ByteBuffer b = free.poll();
+        if (b == null || b.capacity() < capacity) {
+            b = ByteBuffer.allocateDirect(Math.max(capacity,
+                    RecordSpliterator.WINDOW + OVERLAP));
+        }
+        b.clear();
+        b.limit(capacity);
+        return b;
+    }
+
+    private CompletableFuture<ByteBuffer> submit(Path path, long position,
+            ByteBuffer b) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fill(path, position, b);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, io);
+    }
+
+    private static ByteBuffer fill(Path path, long position, ByteBuffer b)
+            throws IOException {
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(path)) {
+            FileChannel fc = h.channel();
+            long pos = position;
+            while (b.hasRemaining()) {
+                int n = fc.read(b, pos);
+                if (n < 0) {
+                    throw new EOFException(path + " ends before " + (position
+                            + b.limit()));
+                }
+                pos += n;
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    private static ByteBuffer join(CompletableFuture<ByteBuffer> f)
+            throws IOException {
+        try {
+            return f.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() {
+        pending.forEach(p -> p.buf.cancel(false));
+        pending.clear();
+        free.clear();
+        current = null;
+        if (ownsExecutor) {
+            ((ExecutorService) io).shutdown();
+        }
+    }
+
+    /**
+     * @return the readahead
+     */
+    public int getReadahead() {
+        return readahead;
+    }
+
+    /**
+     * @return the windows read
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return the windows found read ahead
+     */
+    public long getHits() {
+        return hits;
+    }
+
+}
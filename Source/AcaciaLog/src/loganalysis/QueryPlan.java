@@ -0,0 +1,417 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the -o, -i and -r actions of one command line with at most one scan of
+ * every interval. The scan reports each date match and the text between the
+ * matches to all consumers at once. Output keeps the order of the actions:
+ * -o, -i, -r, each followed by an empty line. Output that is ready before
+ * the output in front of it is finished is spilled to a temporary file.
+ */
+public class QueryPlan {
+
+    private static final int DATE_MAX_LENGTH = 256;
+
+    private final ConfigSnapshot config;
+    private final boolean longest;
+    private final boolean interval;
+    private final boolean removeDates;
+    private Explain explain;
+
+    public QueryPlan(ConfigSnapshot config, boolean longest, boolean interval,
+            boolean removeDates) {
+        this.config = config;
+        this.longest = longest;
+        this.interval = interval;
+        this.removeDates = removeDates;
+    }
+
+    /**
+     * @return the explain
+     */
+    public Explain getExplain() {
+        return explain;
+    }
+
+    /**
+     * @param explain the report of the scan, or null
+     */
+    public void setExplain(Explain explain) {
+        this.explain = explain;
+    }
+
+    /**
+     * Receives the text of a scan, every byte of an interval once, either as
+     * text or as a date match.
+     */
+    interface Consumer {
+
+        default void startSection(LogConfig lc, TreeSet<LogFile> files)
+                throws IOException {
+        }
+
+        default void startFile(LogFile lf) throws IOException {
+        }
+
+        default void text(ByteBuffer buf, int from, int to)
+                throws IOException {
+        }
+
+        /**
+         * @param position the position of the match in the file
+         * @param instant the time of the match, null when it is not a date
+         */
+        default void match(ByteBuffer buf, int from, int to, long position,
+                Instant instant) throws IOException {
+        }
+
+        default void endFile(LogFile lf) throws IOException {
+        }
+
+    }
+
+    public void run() {
+        OutputSink sink = OutputSink.stdout();
+        try {
+            run(sink);
+            sink.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(QueryPlan.class.getName()).
+                    log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Print the requested actions of the intervals found by GetRows.
+     */
+    void run(OutputSink sink) throws IOException {
+        if (!removeDates && (!longest || explain == null)) {
+            // records only, files can be scanned in parallel
+            print(longest ? GetRows.getLongestOperations(config) : null, sink);
+            return;
+        }
+
+        if (!removeDates) {
+            // explained, the records are found in one scan of the files
+            TopRecords topRecords = new TopRecords(config.getTop());
+            scan(Arrays.asList(timed(topRecords, Explain.AGGREGATE)));
+            print(top(topRecords), sink);
+            return;
+        }
+
+        if (!longest) {
+            // nothing waits for the scan, date removal is written directly
+            print(null, sink);
+            scan(Arrays.asList(timed(new RemoveDates(sink), Explain.PRINT)));
+            sink.println();
+            return;
+        }
+
+        // -o is printed first, so date removal is spilled until the scan ends
+        Path spill = Files.createTempFile("acacialog", ".r");
+        try (FileChannel fc = FileChannel.open(spill, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            TopRecords topRecords = new TopRecords(config.getTop());
+            OutputSink spilled = new OutputSink(fc, OutputSink.DEFAULT_CAPACITY,
+                    false);
+            scan(Arrays.asList(timed(topRecords, Explain.AGGREGATE), timed(
+                    new RemoveDates(spilled), Explain.PRINT)));
+            spilled.flush();
+
+            print(top(topRecords), sink);
+            long started = System.nanoTime();
+            sink.transferFrom(fc, 0, fc.size());
+            sink.println();
+            if (explain != null) {
+                explain.add(Explain.PRINT, System.nanoTime() - started);
+            }
+        }
+    }
+
+    private Consumer timed(Consumer c, int phase) {
+        return explain != null ? explain.timed(c, phase) : c;
+    }
+
+    /**
+     * @return the records of topRecords, longest first
+     */
+    private LogRecord[] top(TopRecords topRecords) {
+        long started = System.nanoTime();
+        LogRecord[] res = topRecords.get();
+        if (explain != null) {
+            explain.add(Explain.AGGREGATE, System.nanoTime() - started);
+        }
+        return res;
+    }
+
+    private void print(LogRecord[] top, OutputSink sink) throws IOException {
+        long started = System.nanoTime();
+        if (longest) {
+            GetRows.printLongestOperations(top, sink);
+            sink.println();
+        }
+        if (interval) {
+            for (String s : config.getSections()) {
+                LogConfig lc = config.getLog(s);
+                lc.printSection(sink);
+                for (LogFile lf : lc.getLogFiles()) {
+                    lf.printInterval(lf.getPositionFrom(), lf.getPositionTo(),
+                            sink);
+                }
+            }
+            sink.println();
+        }
+        if (explain != null) {
+            explain.add(Explain.PRINT, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Scan the intervals of all sections once in mapped windows.
+     */
+    void scan(List<Consumer> consumers) throws IOException {
+        if (explain != null) {
+            consumers = new ArrayList<>(consumers);
+            consumers.add(0, explain.scan());
+        }
+        try (WindowReader reader = WindowReader.create(config.getReadahead())) {
+            scan(consumers, reader);
+        }
+    }
+
+    private void scan(List<Consumer> consumers, WindowReader reader)
+            throws IOException {
+        for (String s : config.getSections()) {
+            LogConfig lc = config.getLog(s);
+            for (Consumer c : consumers) {
+                c.startSection(lc, lc.getLogFiles());
+            }
+            for (LogFile lf : lc.getLogFiles()) {
+                for (Consumer c : consumers) {
+                    c.startFile(lf);
+                }
+                if (lf.isInterval()) {
+                    scan(lf, consumers, reader);
+                }
+                for (Consumer c : consumers) {
+                    c.endFile(lf);
+                }
+            }
+        }
+    }
+
+    private void scan(LogFile lf, List<Consumer> consumers,
+            WindowReader reader) throws IOException {
+        LogConfig lc = lf.getLc();
+        long end = lf.getPositionTo();
+        long next = lf.getPositionFrom();
+        long emitted = next;
+        LogCharset charset = lf.getCharset();
+        int dateMaxLength = DATE_MAX_LENGTH * charset.getUnit();
+
+        while (next < end) {
+            EngineEvents.ScanEvent event = new EngineEvents.ScanEvent();
+            event.begin();
+            // map one code unit before next so that ^ sees the line break
+            long mapFrom = charset.lookBehind(next);
+            long mapTo = Math.min(end, next + RecordSpliterator.WINDOW);
+            boolean lastWindow = mapTo == end;
+            ByteBuffer buf = reader.read(lf.getPath(), mapFrom, mapTo, end);
+            ByteCharSequence cs = new ByteCharSequence(buf);
+            DateMatcher m = lc.dateMatcher(cs, charset);
+            m.region((int) (next - mapFrom), cs.length());
+            long started = System.nanoTime();
+            long records = 0;
+
+            long resume = lastWindow ? end : Math.max(emitted, mapTo
+                    - dateMaxLength);
+            while (m.find()) {
+                long start = mapFrom + m.start();
+                if (m.end() == cs.length() && !lastWindow && start > next) {
+                    // the date may continue in the next window
+                    resume = start;
+                    break;
+                }
+                int from = (int) (emitted - mapFrom);
+                for (Consumer c : consumers) {
+                    c.text(buf, from, m.start());
+                }
+                Instant instant = m.instant();
+                if (instant != null) {
+                    records++;
+                }
+                for (Consumer c : consumers) {
+                    c.match(buf, m.start(), m.end(), start, instant);
+                }
+                emitted = mapFrom + m.end();
+                resume = lastWindow ? end : Math.max(emitted, mapTo
+                        - dateMaxLength);
+            }
+
+            if (resume > emitted) {
+                for (Consumer c : consumers) {
+                    c.text(buf, (int) (emitted - mapFrom), (int) (resume
+                            - mapFrom));
+                }
+                emitted = resume;
+            }
+            EngineMetrics.getShared().addScan(resume - next, records, System.
+                    nanoTime() - started);
+            if (event.shouldCommit()) {
+                event.set(lf.getPath(), next, resume - next, records);
+                event.commit();
+            }
+            next = resume;
+        }
+    }
+
+    /**
+     * The -r output: the text of the intervals without the dates.
+     */
+    static class RemoveDates implements Consumer {
+
+        private final OutputSink sink;
+        private OutputSink.Transcoder transcoder;
+
+        RemoveDates(OutputSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startSection(LogConfig lc, TreeSet<LogFile> files)
+                throws IOException {
+            lc.printSection(sink, files);
+        }
+
+        @Override
+        public void startFile(LogFile lf) throws IOException {
+            // UTF-16 text is printed as UTF-8 like the records
+            LogCharset charset = lf.getCharset();
+            transcoder = charset.getUnit() > 1 ? sink.utf8(charset.
+                    getCharset()) : null;
+        }
+
+        @Override
+        public void text(ByteBuffer buf, int from, int to) throws IOException {
+            if (transcoder != null) {
+                transcoder.write(buf, from, to);
+            } else {
+                sink.write(buf, from, to);
+            }
+        }
+
+        @Override
+        public void endFile(LogFile lf) throws IOException {
+            if (transcoder != null) {
+                transcoder.finish();
+            }
+            sink.println();
+        }
+
+    }
+
+    /**
+     * The -o records: durations as LogQuery.records gives them, kept in a
+     * bounded heap.
+     */
+    static class TopRecords implements Consumer {
+
+        private final int top;
+        private final Comparator<LogRecord> order = GetRows.LONGER.reversed();
+        private final PriorityQueue<LogRecord> heap;
+        private LogFile lf;
+        private long pendingFrom = -1;
+        private Instant pendingInstant;
+        private Instant prev;
+
+        TopRecords(int top) {
+            this.top = top;
+            this.heap = new PriorityQueue<>(Math.max(1, top), order);
+        }
+
+        @Override
+        public void startFile(LogFile lf) {
+            this.lf = lf;
+            pendingFrom = -1;
+            prev = null;
+        }
+
+        @Override
+        public void match(ByteBuffer buf, int from, int to, long position,
+                Instant instant) {
+            if (instant == null) {
+                // not a date, the text belongs to the previous record
+                return;
+            }
+            add(position);
+            pendingFrom = position;
+            pendingInstant = instant;
+        }
+
+        @Override
+        public void endFile(LogFile lf) {
+            add(lf.getPositionTo());
+        }
+
+        private void add(long to) {
+            if (pendingFrom < 0 || top <= 0) {
+                return;
+            }
+            LogRecord lr = new LogRecord(lf, pendingInstant, pendingFrom - lf.
+                    getPositionFrom());
+            lr.setPositionTo(to - lf.getPositionFrom());
+            lr.setDuration(prev != null ? Duration.between(prev,
+                    pendingInstant) : Duration.ZERO);
+            prev = pendingInstant;
+            pendingFrom = -1;
+            GetRows.offer(heap, lr, top, order);
+        }
+
+        /**
+         * @return the records, longest first
+         */
+        LogRecord[] get() {
+            LogRecord[] lrs = heap.toArray(new LogRecord[heap.size()]);
+            Arrays.sort(lrs, GetRows.LONGER);
+            return lrs;
+        }
+
+    }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Resident query server on the loopback interface. Configuration, first
+ * record times of the files and open channels stay warm between queries, so
+ * a query costs only the binary searches and the reads of its interval.
+ *
+ * GET /interval, /longest and /search take from, to and include (sections
+ * list wu;cbs) parameters, /longest also top, /search pattern and limit.
+ * GET /status reports counters. Responses are JSON.
+ */
+public class QueryServer {
+
+    public static final int QUEUE = 64;
+    public static final int DEFAULT_LIMIT = 100;
+
+    private final Supplier<ConfigSnapshot> snapshots;
+    private final int threads;
+    private final LogIndex index = new LogIndex();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server;
+    private ThreadPoolExecutor pool;
+
+    /**
+     * @param snapshots the current configuration, asked for every query so a
+     * reloaded configuration is used
+     */
+    public QueryServer(Supplier<ConfigSnapshot> snapshots, int threads) {
+        this.snapshots = snapshots;
+        // -threads is checked on the command line, snapshots built in code
+        // still get one query thread
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Listen on the loopback port, 0 for any free port.
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.
+                getLoopbackAddress(), port), QUEUE);
+        // a full queue makes the dispatcher run the query, so accepting
+        // new connections slows down instead of queueing without bound
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(pool);
+        server.createContext("/interval", ex -> handle(ex, this::interval));
+        server.createContext("/longest", ex -> handle(ex, this::longest));
+        server.createContext("/search", ex -> handle(ex, this::search));
+        server.createContext("/status", ex -> handle(ex, this::status));
+        server.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdown();
+        }
+        stopped.countDown();
+    }
+
+    /**
+     * Wait until the server is stopped.
+     */
+    public void join() throws InterruptedException {
+        stopped.await();
+    }
+
+    private interface Query {
+
+        void run(ConfigSnapshot config, Map<String, String> params, Json out)
+                throws IOException;
+    }
+
+    private void handle(HttpExchange ex, Query query) throws IOException {
+        queries.incrementAndGet();
+        int status = 200;
+        Json out = new Json();
+        try {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                status = 405;
+                out.error("GET only");
+            } else {
+                Map<String, String> params = params(ex.getRequestURI());
+                query.run(config(params), params, out);
+            }
+        } catch (DateTimeException | IllegalArgumentException e) {
+            status = 400;
+            out = new Json();
+            out.error(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            Logger.getLogger(QueryServer.class.getName()).
+                    log(Level.SEVERE, null, e);
+            status = 500;
+            out = new Json();
+            out.error(e.toString());
+        }
+        if (status != 200) {
+            errors.incrementAndGet();
+        }
+
+        byte[] body = out.toByteArray();
+        ex.getResponseHeaders().set("Content-Type",
+                "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static Map<String, String> params(URI uri)
+            throws UnsupportedEncodingException {
+        Map<String, String> res = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return res;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                res.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return res;
+    }
+
+    private ConfigSnapshot config(Map<String, String> params) {
+        ConfigSnapshot config = snapshots.get();
+        Instant from = params.containsKey("from") ? ConfigSnapshot.
+                parseInstant(params.get("from")) : config.getFrom();
+        Instant to = params.containsKey("to") ? ConfigSnapshot.parseInstant(
+                params.get("to")) : config.getTo();
+        config = config.withInterval(from, to);
+
+        if (params.containsKey("include")) {
+            List<String> sections = new ArrayList<>();
+            for (String s : params.get("include").split(";")) {
+                sections.add("[" + s.trim() + "]");
+            }
+            config = config.withSections(sections);
+        }
+        return config;
+    }
+
+    private List<LogFile> findInterval(ConfigSnapshot config) {
+        if (config.getFrom() == null || config.getTo() == null) {
+            throw new IllegalArgumentException("from and to are required");
+        }
+        return LogQuery.of(config).withIndex(index).files();
+    }
+
+    private static int intParam(Map<String, String> params, String name,
+            int def) {
+        String v = params.get(name);
+        return v != null ? Integer.parseInt(v.trim()) : def;
+    }
+
+    private void interval(ConfigSnapshot config, Map<String, String> params,
+            Json out) {
+        out.raw("{\"files\":[");
+        boolean first = true;
+        for (LogFile lf : findInterval(config)) {
+            if (!first) {
+                out.raw(",");
+            }
+            first = false;
+            out.raw("{\"section\":").string(lf.getLc().getLogName()).
+                    raw(",\"file\":").string(lf.getPath().toString()).
+                    raw(",\"positionFrom\":").number(lf.getPositionFrom()).
+                    raw(",\"positionTo\":").number(lf.getPositionTo()).
+                    raw("}");
+        }
+        out.raw("]}");
+    }
+
+    private void longest(ConfigSnapshot config, Map<String, String> params,
+            Json out) throws IOException {
+        int top = intParam(params, "top", config.getTop());
+        if (top <= 0) {
+            throw new IllegalArgumentException("top must be positive");
+        }
+        LogRecord[] lrs = GetRows.getLongestOperations(LogQuery.records(
+                findInterval(config)), top);
+        byte[][] texts = GetRows.readRecords(lrs);
+
+        out.raw("{\"records\":[");
+        for (int k = 0; k < lrs.length; k++) {
+            LogRecord lr = lrs[k];
+            if (k > 0) {
+                out.raw(",");
+            }
+            out.raw("{\"duration\":").string(lr.getDuration().toString()).
+                    raw(",\"timestamp\":").string(lr.getInstant().toString()).
+                    raw(",\"section\":").string(lr.getLf().getLc().
+                    getLogName()).
+                    raw(",\"file\":").string(lr.getLf().getPath().toString()).
+                    raw(",\"offset\":").number(lr.getLf().getPositionFrom()
+                    + lr.getPositionFrom()).
+                    raw(",\"text\":").bytes(texts[k], 0, texts[k].length).
+                    raw("}");
+        }
+        out.raw("]}");
+    }
+
+    private void search(ConfigSnapshot config, Map<String, String> params,
+            Json out) throws IOException {
+        String regex = params.get("pattern");
+        if (regex == null) {
+            throw new IllegalArgumentException("pattern is required");
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        int limit = intParam(params, "limit", DEFAULT_LIMIT);
+
+        out.raw("{\"matches\":[");
+        int n = 0;
+        boolean truncated = false;
+        for (LogFile lf : findInterval(config)) {
+            if (n >= limit || lf.getPositionTo() <= lf.getPositionFrom()) {
+                truncated |= n >= limit;
+                continue;
+            }
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(lf.getPath())) {
+                lf.getCharset().requireBytes(lf.getPath(), "grep");
+                ByteBuffer buf = h.map(lf.getPositionFrom(), lf.
+                        getPositionTo() - lf.getPositionFrom());
+                ByteCharSequence cs = new ByteCharSequence(buf);
+                Matcher dates = lf.getLc().getDatePattern().matcher(cs);
+                Matcher m = pattern.matcher(cs);
+
+                boolean found = dates.find();
+                while (found) {
+                    int recStart = dates.start();
+                    found = dates.find();
+                    int recEnd = found ? dates.start() : cs.length();
+                    m.region(recStart, recEnd);
+                    if (!m.find()) {
+                        continue;
+                    }
+                    if (n >= limit) {
+                        truncated = true;
+                        break;
+                    }
+                    byte[] text = new byte[recEnd - recStart];
+                    ByteBuffer src = buf.duplicate();
+                    src.limit(recEnd).position(recStart);
+                    src.get(text);
+                    out.raw(n > 0 ? "," : "").raw("{\"section\":").string(lf.
+                            getLc().getLogName()).
+                            raw(",\"file\":").string(lf.getPath().toString()).
+                            raw(",\"offset\":").number(lf.getPositionFrom()
+                            + recStart).
+                            raw(",\"text\":").bytes(text, 0, text.length).
+                            raw("}");
+                    n++;
+                }
+            }
+        }
+        out.raw("],\"truncated\":").raw(truncated ? "true" : "false").raw("}");
+    }
+
+    private void status(ConfigSnapshot config, Map<String, String> params,
+            Json out) {
+        FileChannelCache cache = FileChannelCache.getShared();
+        out.raw("{\"sections\":").number(config.getSections().size()).
+                raw(",\"queries\":").number(queries.get()).
+                raw(",\"errors\":").number(errors.get()).
+                raw(",\"indexedFiles\":").number(index.size()).
+                raw(",\"indexHits\":").number(index.getHits()).
+                raw(",\"indexMisses\":").number(index.getMisses()).
+                raw(",\"channelHits\":").number(cache.getHits()).
+                raw(",\"channelMisses\":").number(cache.getMisses()).
+                raw("}");
+    }
+
+    /**
+     * @return the index
+     */
+    public LogIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * JSON response body.
+     */
+    private static class Json extends ByteArrayOutputStream {
+
+        Json raw(String ascii) {
+            byte[] b = ascii.getBytes(StandardCharsets.US_ASCII);
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Json string(String s) {
+            byte[] b = JsonlWriter.jsonString(s);
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Json bytes(byte[] text, int off, int len) {
+            byte[] b = JsonlWriter.jsonString(text, off, len);
+            write(b, 0, b.length);
+            return this;
+        }
+
+        Json number(long v) {
+            return raw(Long.toString(v));
+        }
+
+        void error(String message) {
+            raw("{\"error\":").string(message != null ? message : "").raw("}");
+        }
+
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes batches of records with demand driven backpressure. Every
+ * subscriber gets its own source, which is read only while there is demand,
+ * so a slow subscriber pauses the reading of the files. One request is one
+ * batch of up to batchSize records.
+ *
+ * @param <T> the record type
+ */
+public class RecordPublisher<T> implements Flow.Publisher<List<T>> {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Records of one subscription, used from one thread at a time.
+     *
+     * @param <T> the record type
+     */
+    public interface Source<T> extends AutoCloseable {
+
+        /**
+         * @return up to max records, empty when none is ready yet, null at
+         * the end
+         */
+        List<T> next(int max) throws Exception;
+
+        @Override
+        void close();
+
+    }
+
+    private final Supplier<? extends Source<T>> sources;
+    private final int batchSize;
+    private final Executor executor;
+
+    /**
+     * @param sources creates the source of a subscriber when it subscribes
+     * @param executor runs the reading, a source that waits for new records
+     * keeps its thread while there is demand
+     */
+    public RecordPublisher(Supplier<? extends Source<T>> sources,
+            int batchSize, Executor executor) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.sources = Objects.requireNonNull(sources);
+        this.batchSize = batchSize;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * @return source reading the spliterator, created at the first request
+     */
+    public static <T> Source<T> source(
+            Supplier<? extends Spliterator<T>> spliterator) {
+        return new Source<T>() {
+
+            private Spliterator<T> s;
+
+            @Override
+            public List<T> next(int max) {
+                if (s == null) {
+                    s = spliterator.get();
+                }
+                List<T> batch = new ArrayList<>(Math.min(max, 1024));
+                while (batch.size() < max && s.tryAdvance(batch::add)) {
+                }
+                return batch.isEmpty() ? null : batch;
+            }
+
+            @Override
+            public void close() {
+                s = null;
+            }
+
+        };
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+        Objects.requireNonNull(subscriber);
+        Source<T> source;
+        try {
+            source = sources.get();
+        } catch (RuntimeException ex) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(ex);
+            return;
+        }
+        subscriber.onSubscribe(new RecordSubscription(subscriber, source));
+    }
+
+    /**
+     * @return the batchSize
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private class RecordSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super List<T>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalid;
+        private Source<T> source;
+
+        RecordSubscription(Flow.Subscriber<? super List<T>> subscriber,
+                Source<T> source) {
+            this.subscriber = subscriber;
+            this.source = source;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalid = new IllegalArgumentException(
+                        "request must be positive, was " + n);
+            } else {
+                demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (source != null) {
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+                if (invalid != null) {
+                    finish();
+                    subscriber.onError(invalid);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    return;
+                }
+
+                List<T> batch;
+                try {
+                    batch = source.next(batchSize);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    finish();
+                    subscriber.onError(ex);
+                    return;
+                } catch (Exception ex) {
+                    finish();
+                    subscriber.onError(ex);
+                    return;
+                }
+
+                if (batch == null) {
+                    finish();
+                    if (!cancelled) {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (!batch.isEmpty() && !cancelled) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(batch);
+                }
+            }
+        }
+
+        private void finish() {
+            source.close();
+            source = null;
+        }
+
+    }
+
+}
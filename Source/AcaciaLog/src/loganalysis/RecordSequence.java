@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Record fingerprints (hash, file, start, end) of one diff side. Entries are
+ * spilled to a temporary file and read back memory mapped, so the heap does
+ * not grow with the number of records.
+ */
+public class RecordSequence implements AutoCloseable {
+
+    private static final int ENTRY = 24;
+    private static final int SEGMENT_SHIFT = 25;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int FILE_SHIFT = 48;
+    private static final long OFFSET_MASK = (1L << FILE_SHIFT) - 1;
+
+    private final List<LogFile> files = new ArrayList<>();
+    private final Path spill;
+    private FileChannel fc;
+    private final ByteBuffer writeBuf = ByteBuffer.allocateDirect(ENTRY
+            * 64 * 1024);
+    private MappedByteBuffer[] segments;
+    private long size;
+
+    public RecordSequence() throws IOException {
+        spill = Files.createTempFile("acacialog", ".diff");
+        fc = FileChannel.open(spill, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return the file index to be used in add
+     */
+    public int addFile(LogFile lf) {
+        files.add(lf);
+        return files.size() - 1;
+    }
+
+    public void add(long hash, int file, long start, long end)
+            throws IOException {
+        if (writeBuf.remaining() < ENTRY) {
+            flush();
+        }
+        writeBuf.putLong(hash).putLong(((long) file << FILE_SHIFT) | start).
+                putLong(end);
+        size++;
+    }
+
+    /**
+     * Finish writing and map the entries for reading.
+     */
+    public void seal() throws IOException {
+        flush();
+        int n = (int) ((size + SEGMENT_MASK) >> SEGMENT_SHIFT);
+        segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long from = ((long) i << SEGMENT_SHIFT) * ENTRY;
+            long len = Math.min(fc.size() - from, (SEGMENT_MASK + 1) * ENTRY);
+            segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, from, len);
+        }
+    }
+
+    private void flush() throws IOException {
+        writeBuf.flip();
+        while (writeBuf.hasRemaining()) {
+            fc.write(writeBuf);
+        }
+        writeBuf.clear();
+    }
+
+    private long get(long i, int field) {
+        return segments[(int) (i >> SEGMENT_SHIFT)].getLong((int) ((i
+                & SEGMENT_MASK) * ENTRY) + field);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long hash(long i) {
+        return get(i, 0);
+    }
+
+    public LogFile file(long i) {
+        return files.get((int) (get(i, 8) >>> FILE_SHIFT));
+    }
+
+    public long start(long i) {
+        return get(i, 8) & OFFSET_MASK;
+    }
+
+    public long end(long i) {
+        return get(i, 16);
+    }
+
+    /**
+     * @return the files
+     */
+    public List<LogFile> getFiles() {
+        return files;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        fc.close();
+    }
+
+}
@@ -0,0 +1,738 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Parsed records of the intervals saved by -export and queried by -snapshot
+ * without reading the logs again. The records are kept in blocks of BLOCK
+ * records and every column of a block is varint encoded on its own: epoch
+ * millis and file offsets as zigzag deltas from the previous record, the
+ * section, file, length and template ids as varints, durations in ms as
+ * zigzag varints. A query decodes only the columns it needs.
+ *
+ * The file holds MAGIC, the blocks, then the sections, files, template
+ * fingerprints and for every block its position, records, min and max time
+ * and longest duration. The last long is the position of the sections. The
+ * blocks are read memory mapped, the block times let queries skip the blocks
+ * outside the interval.
+ */
+public class RecordSnapshot implements AutoCloseable {
+
+    public static final int BLOCK = 16 * 1024;
+
+    static final int TIME = 0;
+    static final int SECTION = 1;
+    static final int FILE = 2;
+    static final int FROM = 3;
+    static final int LENGTH = 4;
+    static final int DURATION = 5;
+    static final int TEMPLATE = 6;
+    static final int COLUMNS = 7;
+
+    private static final int MAGIC = 0x41435331;
+    private static final long SEGMENT = 1L << 30;
+
+    private final FileChannel fc;
+    private final List<String> sections = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+    private long[] templates;
+    private Block[] blocks;
+    private MappedByteBuffer[] segments;
+    private long records;
+
+    private RecordSnapshot(FileChannel fc) {
+        this.fc = fc;
+    }
+
+    /**
+     * Map the blocks of a snapshot written by -export.
+     */
+    public static RecordSnapshot open(Path path) throws IOException {
+        FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+        RecordSnapshot snapshot = new RecordSnapshot(fc);
+        try {
+            snapshot.load(path);
+        } catch (IOException | RuntimeException ex) {
+            fc.close();
+            throw ex;
+        }
+        return snapshot;
+    }
+
+    private void load(Path path) throws IOException {
+        long size = fc.size();
+        ByteBuffer head = ByteBuffer.allocate(4);
+        ByteBuffer tail = ByteBuffer.allocate(8);
+        if (size < 12 || !readFully(head, 0) || head.getInt(0) != MAGIC
+                || !readFully(tail, size - 8)) {
+            throw new IOException("Not a snapshot file " + path);
+        }
+        long footer = tail.getLong(0);
+        if (footer < 4 || footer > size - 8) {
+            throw new IOException("Not a snapshot file " + path);
+        }
+        ByteBuffer bb = ByteBuffer.allocate((int) (size - 8 - footer));
+        readFully(bb, footer);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bb.array()))) {
+            for (int n = in.readInt(); n > 0; n--) {
+                sections.add(in.readUTF());
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                // the section of the file is in the section column too
+                in.readInt();
+                files.add(in.readUTF());
+            }
+            templates = new long[in.readInt()];
+            for (int i = 0; i < templates.length; i++) {
+                templates[i] = in.readLong();
+            }
+            blocks = new Block[in.readInt()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = new Block(in.readLong(), in.readInt(), in.
+                        readLong(), in.readLong(), in.readLong());
+                records += blocks[i].records;
+            }
+        }
+
+        // whole blocks are mapped together in segments of up to SEGMENT
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        int first = 0;
+        while (first < blocks.length) {
+            long from = blocks[first].position;
+            int last = first;
+            while (last + 1 < blocks.length && end(last + 1, footer) - from
+                    <= SEGMENT) {
+                last++;
+            }
+            MappedByteBuffer segment = fc.map(FileChannel.MapMode.READ_ONLY,
+                    from, end(last, footer) - from);
+            for (int i = first; i <= last; i++) {
+                blocks[i].segment = mapped.size();
+                blocks[i].offset = (int) (blocks[i].position - from);
+            }
+            mapped.add(segment);
+            first = last + 1;
+        }
+        segments = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+    }
+
+    private long end(int block, long footer) {
+        return block + 1 < blocks.length ? blocks[block + 1].position : footer;
+    }
+
+    private boolean readFully(ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, position + bb.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the section names, in export order
+     */
+    public List<String> getSections() {
+        return sections;
+    }
+
+    /**
+     * @return the file paths, in export order
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the fingerprints of the template ids, empty when the snapshot
+     * was exported without -mask
+     */
+    public long[] getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @return the number of records
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return the number of blocks
+     */
+    public int getBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * @return true when a record at epoch ms time is in [from, to)
+     */
+    private static boolean contains(long time, Instant from, Instant to) {
+        return (from == null || time >= from.toEpochMilli()) && (to == null
+                || time < to.toEpochMilli());
+    }
+
+    /**
+     * @return true when the block may hold records of [from, to)
+     */
+    private static boolean overlaps(Block blk, Instant from, Instant to) {
+        return (from == null || blk.maxTime >= from.toEpochMilli())
+                && (to == null || blk.minTime < to.toEpochMilli());
+    }
+
+    /**
+     * Decode one column of a block into values, -1 for template ids that
+     * were not exported.
+     */
+    void decode(int block, int column, long[] values) {
+        Block blk = blocks[block];
+        ByteBuffer seg = segments[blk.segment];
+        int pos = blk.offset + COLUMNS * 4;
+        for (int c = 0; c < column; c++) {
+            pos += seg.getInt(blk.offset + c * 4);
+        }
+        if (seg.getInt(blk.offset + column * 4) == 0) {
+            Arrays.fill(values, 0, blk.records, -1);
+            return;
+        }
+
+        boolean delta = column == TIME || column == FROM;
+        boolean zigzag = delta || column == DURATION;
+        long prev = 0;
+        for (int i = 0; i < blk.records; i++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = seg.get(pos++);
+                v |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (zigzag) {
+                v = (v >>> 1) ^ -(v & 1);
+            }
+            if (delta) {
+                v += prev;
+                prev = v;
+            }
+            values[i] = v;
+        }
+    }
+
+    /**
+     * @return the n records of [from, to) with the longest durations, longest
+     * first, earlier records first on equal durations
+     */
+    public Entry[] top(int n, Instant from, Instant to) {
+        if (n <= 0) {
+            return new Entry[0];
+        }
+        // the shortest and latest record is at the head to be replaced
+        Comparator<long[]> order = Comparator.comparingLong((long[] r) -> r[1]).
+                thenComparing(Comparator.comparingLong((long[] r) -> r[0]).
+                reversed());
+        PriorityQueue<long[]> heap = new PriorityQueue<>(n, order);
+        long[] times = new long[BLOCK];
+        long[] durations = new long[BLOCK];
+
+        for (int b = 0; b < blocks.length; b++) {
+            Block blk = blocks[b];
+            if (!overlaps(blk, from, to) || (heap.size() == n && blk.maxDuration
+                    <= heap.peek()[1])) {
+                continue;
+            }
+            decode(b, TIME, times);
+            decode(b, DURATION, durations);
+            for (int i = 0; i < blk.records; i++) {
+                if (!contains(times[i], from, to)) {
+                    continue;
+                }
+                if (heap.size() < n) {
+                    heap.add(new long[]{(long) b * BLOCK + i, durations[i]});
+                } else if (heap.peek()[1] < durations[i]) {
+                    heap.poll();
+                    heap.add(new long[]{(long) b * BLOCK + i, durations[i]});
+                }
+            }
+        }
+
+        long[][] found = heap.toArray(new long[heap.size()][]);
+        Arrays.sort(found, order.reversed());
+        return entries(found);
+    }
+
+    /**
+     * @param found record numbers and durations
+     */
+    private Entry[] entries(long[][] found) {
+        Entry[] res = new Entry[found.length];
+        long[][] columns = new long[COLUMNS][BLOCK];
+        int decoded = -1;
+        Integer[] order = new Integer[found.length];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        // decode every block once
+        Arrays.sort(order, Comparator.comparingLong(k -> found[k][0]));
+        for (int k : order) {
+            int b = (int) (found[k][0] / BLOCK);
+            int i = (int) (found[k][0] % BLOCK);
+            if (b != decoded) {
+                for (int c = 0; c < COLUMNS; c++) {
+                    decode(b, c, columns[c]);
+                }
+                decoded = b;
+            }
+            res[k] = new Entry(Instant.ofEpochMilli(columns[TIME][i]),
+                    sections.get((int) columns[SECTION][i]), files.get(
+                    (int) columns[FILE][i]), columns[FROM][i], columns[FROM][i]
+                    + columns[LENGTH][i], Duration.ofMillis(
+                    columns[DURATION][i]), (int) columns[TEMPLATE][i]);
+        }
+        return res;
+    }
+
+    /**
+     * @return for every section the counts of the records of [from, to) in
+     * the CheckpointStore.bucket duration buckets
+     */
+    public Map<String, long[]> histogram(Instant from, Instant to) {
+        long[][] counts = new long[sections.size()][CheckpointStore.
+                HISTOGRAM_BUCKETS];
+        long[] times = new long[BLOCK];
+        long[] ids = new long[BLOCK];
+        long[] durations = new long[BLOCK];
+
+        for (int b = 0; b < blocks.length; b++) {
+            Block blk = blocks[b];
+            if (!overlaps(blk, from, to)) {
+                continue;
+            }
+            decode(b, TIME, times);
+            decode(b, SECTION, ids);
+            decode(b, DURATION, durations);
+            for (int i = 0; i < blk.records; i++) {
+                if (contains(times[i], from, to)) {
+                    counts[(int) ids[i]][CheckpointStore.bucket(
+                            durations[i])]++;
+                }
+            }
+        }
+
+        Map<String, long[]> res = new LinkedHashMap<>();
+        for (int s = 0; s < counts.length; s++) {
+            res.put(sections.get(s), counts[s]);
+        }
+        return res;
+    }
+
+    /**
+     * @return for every section the counts of the records of [from, to) by
+     * the epoch ms start of their step long bucket
+     */
+    public Map<String, TreeMap<Long, Long>> timeline(Instant from,
+            Instant to, Duration step) {
+        long ms = Math.max(1, step.toMillis());
+        List<TreeMap<Long, Long>> counts = new ArrayList<>();
+        for (int s = 0; s < sections.size(); s++) {
+            counts.add(new TreeMap<>());
+        }
+        long[] times = new long[BLOCK];
+        long[] ids = new long[BLOCK];
+
+        for (int b = 0; b < blocks.length; b++) {
+            Block blk = blocks[b];
+            if (!overlaps(blk, from, to)) {
+                continue;
+            }
+            decode(b, TIME, times);
+            decode(b, SECTION, ids);
+            for (int i = 0; i < blk.records; i++) {
+                if (contains(times[i], from, to)) {
+                    counts.get((int) ids[i]).merge(Math.floorDiv(times[i], ms)
+                            * ms, 1L, Long::sum);
+                }
+            }
+        }
+
+        Map<String, TreeMap<Long, Long>> res = new LinkedHashMap<>();
+        for (int s = 0; s < counts.size(); s++) {
+            res.put(sections.get(s), counts.get(s));
+        }
+        return res;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments = null;
+        fc.close();
+    }
+
+    /**
+     * Position and summary of one block.
+     */
+    private static final class Block {
+
+        final long position;
+        final int records;
+        final long minTime;
+        final long maxTime;
+        final long maxDuration;
+        int segment;
+        int offset;
+
+        Block(long position, int records, long minTime, long maxTime,
+                long maxDuration) {
+            this.position = position;
+            this.records = records;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.maxDuration = maxDuration;
+        }
+
+    }
+
+    /**
+     * One record of the snapshot.
+     */
+    public static class Entry {
+
+        private final Instant instant;
+        private final String section;
+        private final String file;
+        private final long positionFrom;
+        private final long positionTo;
+        private final Duration duration;
+        private final int template;
+
+        Entry(Instant instant, String section, String file, long positionFrom,
+                long positionTo, Duration duration, int template) {
+            this.instant = instant;
+            this.section = section;
+            this.file = file;
+            this.positionFrom = positionFrom;
+            this.positionTo = positionTo;
+            this.duration = duration;
+            this.template = template;
+        }
+
+        /**
+         * @return the instant, in ms
+         */
+        public Instant getInstant() {
+            return instant;
+        }
+
+        /**
+         * @return the section
+         */
+        public String getSection() {
+            return section;
+        }
+
+        /**
+         * @return the file
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * @return the positionFrom in the file
+         */
+        public long getPositionFrom() {
+            return positionFrom;
+        }
+
+        /**
+         * @return the positionTo in the file
+         */
+        public long getPositionTo() {
+            return positionTo;
+        }
+
+        /**
+         * @return the duration, in ms
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the template id, -1 when it was not exported
+         */
+        public int getTemplate() {
+            return template;
+        }
+
+    }
+
+    /**
+     * Writes the records of a QueryPlan scan. Durations are the ones of -o:
+     * from the previous record of the same file, zero for the first one of
+     * the interval. With a LogDiff the record texts are fingerprinted as -d
+     * compares them and every fingerprint gets a template id.
+     */
+    static class Writer implements QueryPlan.Consumer, AutoCloseable {
+
+        private final FileChannel fc;
+        private final LogDiff templates;
+        private final ByteBuffer encoded = ByteBuffer.allocate(COLUMNS * 4
+                + COLUMNS * BLOCK * 10);
+        private final long[][] columns = new long[COLUMNS][BLOCK];
+        private int size;
+
+        private final Map<String, Integer> sectionIds = new LinkedHashMap<>();
+        private final List<Integer> fileSections = new ArrayList<>();
+        private final List<String> files = new ArrayList<>();
+        private final Map<Long, Integer> templateIds = new HashMap<>();
+        private final List<Long> fingerprints = new ArrayList<>();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private int blockCount;
+
+        private int section;
+        private int file;
+        private long pendingFrom = -1;
+        private Instant pendingInstant;
+        private Instant prev;
+        private byte[] text = new byte[1024];
+        private int textLength;
+
+        /**
+         * @param templates the fingerprint of template ids, or null
+         */
+        Writer(Path path, LogDiff templates) throws IOException {
+            this.fc = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.templates = templates;
+            write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+        }
+
+        @Override
+        public void startSection(LogConfig lc, TreeSet<LogFile> files) {
+            Integer id = sectionIds.get(lc.getLogName());
+            if (id == null) {
+                id = sectionIds.size();
+                sectionIds.put(lc.getLogName(), id);
+            }
+            section = id;
+        }
+
+        @Override
+        public void startFile(LogFile lf) {
+            file = files.size();
+            files.add(lf.getPath().toString());
+            fileSections.add(section);
+            pendingFrom = -1;
+            prev = null;
+        }
+
+        @Override
+        public void text(ByteBuffer buf, int from, int to) {
+            if (templates == null || pendingFrom < 0) {
+                return;
+            }
+            if (textLength + to - from > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, textLength
+                        + to - from));
+            }
+            for (int i = from; i < to; i++) {
+                text[textLength++] = buf.get(i);
+            }
+        }
+
+        @Override
+        public void match(ByteBuffer buf, int from, int to, long position,
+                Instant instant) throws IOException {
+            if (instant == null) {
+                // not a date, the text belongs to the previous record
+                text(buf, from, to);
+                return;
+            }
+            add(position);
+            pendingFrom = position;
+            pendingInstant = instant;
+            textLength = 0;
+        }
+
+        @Override
+        public void endFile(LogFile lf) throws IOException {
+            add(lf.getPositionTo());
+        }
+
+        private void add(long to) throws IOException {
+            if (pendingFrom < 0) {
+                return;
+            }
+            columns[TIME][size] = pendingInstant.toEpochMilli();
+            columns[SECTION][size] = section;
+            columns[FILE][size] = file;
+            columns[FROM][size] = pendingFrom;
+            columns[LENGTH][size] = to - pendingFrom;
+            columns[DURATION][size] = prev != null ? Duration.between(prev,
+                    pendingInstant).toMillis() : 0;
+            columns[TEMPLATE][size] = templates != null ? template() : -1;
+            prev = pendingInstant;
+            pendingFrom = -1;
+            if (++size == BLOCK) {
+                flushBlock();
+            }
+        }
+
+        private int template() {
+            ByteBuffer buf = ByteBuffer.wrap(text, 0, textLength);
+            long hash = templates.hash(buf, 0, LogDiff.trimEnd(buf, 0,
+                    textLength));
+            Integer id = templateIds.get(hash);
+            if (id == null) {
+                id = fingerprints.size();
+                templateIds.put(hash, id);
+                fingerprints.add(hash);
+            }
+            return id;
+        }
+
+        private void flushBlock() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            long maxDuration = Long.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                minTime = Math.min(minTime, columns[TIME][i]);
+                maxTime = Math.max(maxTime, columns[TIME][i]);
+                maxDuration = Math.max(maxDuration, columns[DURATION][i]);
+            }
+
+            encoded.clear();
+            encoded.position(COLUMNS * 4);
+            for (int c = 0; c < COLUMNS; c++) {
+                int start = encoded.position();
+                if (c != TEMPLATE || templates != null) {
+                    encode(c);
+                }
+                encoded.putInt(c * 4, encoded.position() - start);
+            }
+            encoded.flip();
+
+            indexOut.writeLong(fc.position());
+            indexOut.writeInt(size);
+            indexOut.writeLong(minTime);
+            indexOut.writeLong(maxTime);
+            indexOut.writeLong(maxDuration);
+            blockCount++;
+            write(encoded);
+            size = 0;
+        }
+
+        private void encode(int column) {
+            boolean delta = column == TIME || column == FROM;
+            boolean zigzag = delta || column == DURATION;
+            long prevValue = 0;
+            for (int i = 0; i < size; i++) {
+                long v = columns[column][i];
+                if (delta) {
+                    long d = v - prevValue;
+                    prevValue = v;
+                    v = d;
+                }
+                if (zigzag) {
+                    v = (v << 1) ^ (v >> 63);
+                }
+                while ((v & ~0x7fL) != 0) {
+                    encoded.put((byte) ((v & 0x7f) | 0x80));
+                    v >>>= 7;
+                }
+                encoded.put((byte) v);
+            }
+        }
+
+        private void write(ByteBuffer bb) throws IOException {
+            while (bb.hasRemaining()) {
+                fc.write(bb);
+            }
+        }
+
+        /**
+         * Write the last block and the index.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                long footer = fc.position();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    out.writeInt(sectionIds.size());
+                    for (String s : sectionIds.keySet()) {
+                        out.writeUTF(s);
+                    }
+                    out.writeInt(files.size());
+                    for (int f = 0; f < files.size(); f++) {
+                        out.writeInt(fileSections.get(f));
+                        out.writeUTF(files.get(f));
+                    }
+                    out.writeInt(fingerprints.size());
+                    for (long hash : fingerprints) {
+                        out.writeLong(hash);
+                    }
+                    out.writeInt(blockCount);
+                    indexOut.flush();
+                    index.writeTo(out);
+                    out.writeLong(footer);
+                }
+                write(ByteBuffer.wrap(bytes.toByteArray()));
+            } finally {
+                fc.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Records of the intervals of log files, found in mapped windows while the
+ * stream is traversed. Splits on file boundaries first and then inside a file
+ * on a record start, so a parallel stream shares big files too. Durations are
+ * the same as LogFile.findRecords gives: from the previous record of the same
+ * file, zero for the first one of the interval.
+ */
+public class RecordSpliterator implements Spliterator<LogRecord> {
+
+    public static final int CHARACTERISTICS = Spliterator.ORDERED
+            | Spliterator.NONNULL;
+    public static final int WINDOW = 4 * 1024 * 1024;
+    private static final int MIN_SPLIT = 256 * 1024;
+    private static final int DATE_MAX_LENGTH = 256;
+    private static final int AVERAGE_RECORD = 128;
+
+    private final List<LogFile> files;
+    private int file;
+    private final int fileTo;
+    private long next;
+    private final long end;
+    private boolean lookBack;
+    private final int readahead;
+    private WindowReader reader;
+
+    private ByteCharSequence cs;
+    private DateMatcher m;
+    private long mapFrom;
+    private boolean lastWindow;
+    private long lastEnd;
+    private long windowStart;
+    private long windowRecords;
+    private EngineEvents.ScanEvent window;
+
+    private long pendingFrom = -1;
+    private Instant pendingInstant;
+    private Instant prev;
+
+    /**
+     * @param files files with the interval found, in output order
+     */
+    public RecordSpliterator(Iterable<LogFile> files) {
+        this(files, 0);
+    }
+
+    /**
+     * @param files files with the interval found, in output order
+     * @param readahead the number of windows read ahead on an I/O thread, 0
+     * maps the windows
+     */
+    public RecordSpliterator(Iterable<LogFile> files, int readahead) {
+        this.readahead = readahead;
+        this.files = new ArrayList<>();
+        for (LogFile lf : files) {
+            if (lf.isInterval() && lf.getPositionTo() > lf.getPositionFrom()) {
+                this.files.add(lf);
+            }
+        }
+        this.file = 0;
+        this.fileTo = this.files.size();
+        this.next = fileTo > 0 ? this.files.get(0).getPositionFrom() : 0;
+        this.end = fileTo > 0 ? this.files.get(fileTo - 1).getPositionTo() : 0;
+    }
+
+    /**
+     * Records of [from, to) of one file, read with reader. from and to are
+     * record starts or the interval bounds.
+     */
+    RecordSpliterator(LogFile lf, long from, long to, WindowReader reader) {
+        this(Collections.singletonList(lf), 0, 1, from, to, from > lf.
+                getPositionFrom(), 0);
+        this.reader = reader;
+    }
+
+    private RecordSpliterator(List<LogFile> files, int file, int fileTo,
+            long next, long end, boolean lookBack, int readahead) {
+        this.files = files;
+        this.file = file;
+        this.fileTo = fileTo;
+        this.next = next;
+        this.end = end;
+        this.lookBack = lookBack;
+        this.readahead = readahead;
+    }
+
+    private long fileEnd(int i) {
+        return i == fileTo - 1 ? end : files.get(i).getPositionTo();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super LogRecord> action) {
+        LogRecord lr;
+        try {
+            lr = nextRecord();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (lr == null) {
+            return false;
+        }
+        action.accept(lr);
+        return true;
+    }
+
+    private LogRecord nextRecord() throws IOException {
+        while (file < fileTo) {
+            LogFile lf = files.get(file);
+            long limit = fileEnd(file);
+
+            if (m == null) {
+                if (lookBack) {
+                    prev = previousInstant(lf, next);
+                    lookBack = false;
+                }
+                if (next >= limit) {
+                    LogRecord lr = pendingFrom >= 0 ? emit(lf, limit) : null;
+                    nextFile();
+                    if (lr != null) {
+                        return lr;
+                    }
+                    continue;
+                }
+                map(lf, limit);
+            }
+
+            if (!m.find()) {
+                next = lastWindow ? limit : Math.max(lastEnd, mapFrom + cs.
+                        length() - DATE_MAX_LENGTH * lf.getCharset().getUnit());
+                endWindow();
+                continue;
+            }
+
+            long start = mapFrom + m.start();
+            if (m.end() == cs.length() && !lastWindow && start > next) {
+                // the date may continue in the next window
+                next = start;
+                endWindow();
+                continue;
+            }
+            lastEnd = mapFrom + m.end();
+            Instant instant = m.instant();
+            if (instant == null) {
+                // not a date, the text belongs to the previous record
+                continue;
+            }
+            LogRecord lr = pendingFrom >= 0 ? emit(lf, start) : null;
+            pendingFrom = start;
+            pendingInstant = instant;
+            if (lr != null) {
+                return lr;
+            }
+        }
+        return null;
+    }
+
+    private void map(LogFile lf, long limit) throws IOException {
+        // map one code unit before next so that ^ sees the line break
+        LogCharset charset = lf.getCharset();
+        mapFrom = charset.lookBehind(next);
+        long mapTo = Math.min(limit, next + WINDOW);
+        lastWindow = mapTo == limit;
+        window = new EngineEvents.ScanEvent();
+        window.begin();
+        if (reader == null) {
+            reader = WindowReader.create(readahead);
+        }
+        ByteBuffer buf = reader.read(lf.getPath(), mapFrom, mapTo, limit);
+        cs = new ByteCharSequence(buf);
+        m = lf.getLc().dateMatcher(cs, charset);
+        m.region((int) (next - mapFrom), cs.length());
+        lastEnd = next;
+        windowStart = System.nanoTime();
+    }
+
+    private void endWindow() {
+        long from = mapFrom + m.regionStart();
+        EngineMetrics.getShared().addScan(next - from, windowRecords, System.
+                nanoTime() - windowStart);
+        if (window.shouldCommit()) {
+            window.set(files.get(file).getPath(), from, next - from,
+                    windowRecords);
+            window.commit();
+        }
+        window = null;
+        windowRecords = 0;
+        m = null;
+    }
+
+    private LogRecord emit(LogFile lf, long to) {
+        LogRecord lr = new LogRecord(lf, pendingInstant, pendingFrom - lf.
+                getPositionFrom());
+        lr.setPositionTo(to - lf.getPositionFrom());
+        lr.setDuration(prev != null ? Duration.between(prev, pendingInstant)
+                : Duration.ZERO);
+        prev = pendingInstant;
+        pendingFrom = -1;
+        windowRecords++;
+        return lr;
+    }
+
+    private void nextFile() {
+        file++;
+        m = null;
+        cs = null;
+        pendingFrom = -1;
+        prev = null;
+        if (file < fileTo) {
+            next = files.get(file).getPositionFrom();
+        } else {
+            // the last record of a file is emitted after its window
+            EngineMetrics.getShared().addScan(0, windowRecords, 0);
+            windowRecords = 0;
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * @return the time of the last record of the interval before position,
+     * or null when position is the first record
+     */
+    private Instant previousInstant(LogFile lf, long position)
+            throws IOException {
+        long floor = lf.getPositionFrom();
+        for (long window = MIN_SPLIT; position > floor; window *= 2) {
+            long from = Math.max(floor, position - window);
+            long mapStart = lf.getCharset().lookBehind(from);
+            ByteBuffer buf;
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(lf.getPath())) {
+                buf = h.map(mapStart, position - mapStart);
+            }
+            ByteCharSequence seq = new ByteCharSequence(buf);
+            DateMatcher pm = lf.getLc().dateMatcher(seq, lf.getCharset());
+            pm.region((int) (from - mapStart), seq.length());
+            Instant res = null;
+            while (pm.find()) {
+                Instant instant = pm.instant();
+                if (instant != null) {
+                    res = instant;
+                }
+            }
+            if (res != null || from == floor) {
+                return res;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Spliterator<LogRecord> trySplit() {
+        if (m != null || pendingFrom >= 0 || file >= fileTo) {
+            // traversal has started
+            return null;
+        }
+
+        if (fileTo - file > 1) {
+            int mid = (file + fileTo) >>> 1;
+            RecordSpliterator prefix = new RecordSpliterator(files, file, mid,
+                    next, files.get(mid - 1).getPositionTo(), lookBack,
+                    readahead);
+            file = mid;
+            next = files.get(mid).getPositionFrom();
+            lookBack = false;
+            return prefix;
+        }
+
+        if (end - next < 2L * MIN_SPLIT) {
+            return null;
+        }
+        LogFile lf = files.get(file);
+        long split;
+        try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                acquire(lf.getPath())) {
+            split = lf.findRecordStart(h.channel(), next + (end - next) / 2,
+                    end);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (split <= next || split >= end) {
+            return null;
+        }
+        RecordSpliterator prefix = new RecordSpliterator(files, file, file + 1,
+                next, split, lookBack, readahead);
+        next = split;
+        lookBack = true;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        long bytes = 0;
+        for (int i = file; i < fileTo; i++) {
+            long from = i == file ? next : files.get(i).getPositionFrom();
+            bytes += Math.max(0, fileEnd(i) - from);
+        }
+        return bytes == 0 && pendingFrom < 0 ? 0 : bytes / AVERAGE_RECORD + 1;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+}
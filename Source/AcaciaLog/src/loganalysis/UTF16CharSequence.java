@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+/**
+ * UTF-16 view of the bytes of a ByteCharSequence, one char per code unit, so
+ * date patterns can be matched on mapped UTF-16 log bytes without decoding
+ * them. Char index i is byte offset 2 * i, an odd last byte is left out.
+ */
+public class UTF16CharSequence implements CharSequence {
+
+    private final ByteCharSequence bytes;
+    private final boolean littleEndian;
+    private final int offset;
+    private final int length;
+
+    public UTF16CharSequence(ByteCharSequence bytes, boolean littleEndian) {
+        this(bytes, littleEndian, 0, bytes.length() / 2);
+    }
+
+    private UTF16CharSequence(ByteCharSequence bytes, boolean littleEndian,
+            int offset, int length) {
+        this.bytes = bytes;
+        this.littleEndian = littleEndian;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        int i = (offset + index) * 2;
+        int b0 = bytes.byteAt(i) & 0xff;
+        int b1 = bytes.byteAt(i + 1) & 0xff;
+        return (char) (littleEndian ? b0 | b1 << 8 : b0 << 8 | b1);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new UTF16CharSequence(bytes, littleEndian, offset + start, end
+                - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Reads the windows of a sequential scan of log files. A window is valid
+ * until the next read or close, so an implementation may reuse its buffers.
+ */
+public interface WindowReader extends AutoCloseable {
+
+    /**
+     * Windows mapped from the shared FileChannelCache, the page cache does
+     * the reading.
+     */
+    WindowReader MAPPED = new WindowReader() {
+
+        @Override
+        public ByteBuffer read(Path path, long from, long to, long limit)
+                throws IOException {
+            try (FileChannelCache.Handle h = FileChannelCache.getShared().
+                    acquire(path)) {
+                return h.map(from, to - from);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+    };
+
+    /**
+     * @param from the first position of the window
+     * @param to the end of the window
+     * @param limit the end of the scan, windows up to it may be read ahead
+     * @return the bytes [from, to) with position 0
+     */
+    ByteBuffer read(Path path, long from, long to, long limit)
+            throws IOException;
+
+    @Override
+    void close();
+
+    /**
+     * @param readahead the number of windows read ahead, 0 maps the windows
+     * @return reader of one scan
+     */
+    static WindowReader create(int readahead) {
+        return readahead > 0 ? new PrefetchReader(readahead) : MAPPED;
+    }
+
+}
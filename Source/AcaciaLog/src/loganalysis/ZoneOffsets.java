@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * UTC offsets of a zone cached per interval between two zone transitions.
+ * Log dates come in time order, so almost every conversion is a range check
+ * of the last interval and an add. The zone rules are only asked again when
+ * a date falls outside of it. Local times in a DST gap or overlap are never
+ * cached, they are resolved as ZonedDateTime.of resolves them: a time in a
+ * gap is moved later by the length of the gap, a time in an overlap takes the
+ * earlier offset. The intervals are immutable, instances are thread-safe.
+ */
+public class ZoneOffsets {
+
+    private static final Range NONE = new Range(0, 0, 0);
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    private volatile Range local = NONE;
+    private volatile Range utc = NONE;
+
+    /**
+     * Seconds [from, to) with the same offset.
+     */
+    private static final class Range {
+
+        private final long from;
+        private final long to;
+        private final int offset;
+
+        Range(long from, long to, int offset) {
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+        }
+
+    }
+
+    public ZoneOffsets(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * @return the zone
+     */
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * @param localSecond seconds of a local date-time from 1970-01-01T00:00
+     * @return the epoch second of the local date-time in the zone
+     */
+    public long toEpochSecond(long localSecond) {
+        Range r = local;
+        if (localSecond >= r.from && localSecond < r.to) {
+            return localSecond - r.offset;
+        }
+
+        LocalDateTime ldt = LocalDateTime.ofEpochSecond(localSecond, 0,
+                ZoneOffset.UTC);
+        ZoneOffsetTransition gap = rules.getTransition(ldt);
+        if (gap != null) {
+            // in a gap or an overlap, both resolve to the offset before
+            return localSecond - gap.getOffsetBefore().getTotalSeconds();
+        }
+        int offset = rules.getOffset(ldt).getTotalSeconds();
+        long epochSecond = localSecond - offset;
+
+        // local times between the transitions have one valid offset
+        Instant instant = Instant.ofEpochSecond(epochSecond);
+        ZoneOffsetTransition prev = rules.previousTransition(instant.
+                plusSeconds(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        long from = prev == null ? Long.MIN_VALUE : prev.toEpochSecond()
+                + Math.max(prev.getOffsetBefore().getTotalSeconds(), prev.
+                        getOffsetAfter().getTotalSeconds());
+        long to = next == null ? Long.MAX_VALUE : next.toEpochSecond()
+                + Math.min(next.getOffsetBefore().getTotalSeconds(), next.
+                        getOffsetAfter().getTotalSeconds());
+        if (localSecond >= from && localSecond < to) {
+            local = new Range(from, to, offset);
+        }
+        return epochSecond;
+    }
+
+    /**
+     * @return the offset in seconds of the zone at epochSecond
+     */
+    public int getOffset(long epochSecond) {
+        Range r = utc;
+        if (epochSecond >= r.from && epochSecond < r.to) {
+            return r.offset;
+        }
+
+        Instant instant = Instant.ofEpochSecond(epochSecond);
+        int offset = rules.getOffset(instant).getTotalSeconds();
+        ZoneOffsetTransition prev = rules.previousTransition(instant.
+                plusSeconds(1));
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        utc = new Range(prev == null ? Long.MIN_VALUE : prev.toEpochSecond(),
+                next == null ? Long.MAX_VALUE : next.toEpochSecond(), offset);
+        return offset;
+    }
+
+}
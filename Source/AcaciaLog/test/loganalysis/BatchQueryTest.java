@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchQueryTest {
+
+    private Path dir;
+    private ConfigSnapshot config;
+
+    public BatchQueryTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+        StringBuilder sb = new StringBuilder();
+        long t = 11 * 3600 * 1000;
+        for (int i = 0; i < 3000; i++) {
+            // a pause of up to 17 seconds before every record
+            t += i * 7919 % 17001;
+            sb.append(String.format("2015-02-08 %02d:%02d:%02d.%03d record %d\n",
+                    t / 3600000, t / 60000 % 60, t / 1000 % 60, t % 1000, i));
+        }
+        Files.write(dir.resolve("app1.log"), sb.toString().getBytes(
+                StandardCharsets.ISO_8859_1));
+
+        config = TestLogs.config(lc, null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private static String key(LogRecord lr) {
+        return lr.getDuration() + " " + (lr.getLf().getPositionFrom() + lr.
+                getPositionFrom()) + " " + (lr.getLf().getPositionFrom() + lr.
+                getPositionTo());
+    }
+
+    /**
+     * Test of getLongestOperations method, of class BatchQuery.
+     */
+    @Test
+    public void testGetLongestOperationsAsSeparateQueries() throws IOException {
+        System.out.println("getLongestOperations");
+        Path file = dir.resolve("intervals.txt");
+        Files.write(file, Arrays.asList("# overlapping and disjoint",
+                "2015-02-08T12:00:00.000Z 2015-02-08T13:30:00.000Z", "",
+                "2015-02-08T11:10:00.000Z 2015-02-08T12:10:00.000Z",
+                "2015-02-08T11:20:00.000Z 2015-02-08T11:30:00.000Z",
+                "2015-02-08T23:00:00.000Z 2015-02-08T23:30:00.000Z"));
+        BatchQuery instance = new BatchQuery(config, BatchQuery.readIntervals(
+                file));
+        instance.findIntervals();
+        List<LogRecord[]> result = instance.getLongestOperations(4);
+
+        List<BatchQuery.Interval> intervals = instance.getIntervals();
+        assertEquals(Instant.parse("2015-02-08T11:10:00Z"), intervals.get(0).
+                getFrom());
+        assertEquals(4, result.size());
+        assertEquals(0, result.get(3).length);
+        for (int k = 0; k < 3; k++) {
+            BatchQuery.Interval iv = intervals.get(k);
+            LogRecord[] expected = GetRows.getLongestOperations(LogQuery.of(
+                    config).between(iv.getFrom(), iv.getTo()).records(), 4);
+            assertEquals(4, expected.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(key(expected[i]), key(result.get(k)[i]));
+            }
+        }
+        assertTrue(instance.getProbes().getHits() > 0);
+    }
+
+}
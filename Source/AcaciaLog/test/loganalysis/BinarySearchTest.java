@@ -23,10 +23,17 @@ import acacialog.Application;
 import acacialog.ApplicationFactory;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.MatchResult;
@@ -141,7 +148,6 @@ public class BinarySearchTest {
         
         try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
         
-        lf.setFc(fc);
         Instant inst = app.getFrom();
         long from = 0L;
         long to = fc.size();
@@ -157,5 +163,44 @@ public class BinarySearchTest {
                     log(Level.SEVERE, null, ex);
         }
     }
-    
+
+    /**
+     * Test of searchPosition method on one channel from many threads, of
+     * class BinarySearch.
+     */
+    @Test
+    public void testConcurrentSearchPosition() throws Exception {
+        System.out.println("concurrent searchPosition");
+        Path dir = TestLogs.createDir();
+        Path log = dir.resolve("app.log");
+        LogConfig lc = TestLogs.section(dir);
+        StringBuilder sb = new StringBuilder();
+        List<Long> starts = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            starts.add((long) sb.length());
+            sb.append(String.format("2015-02-08 %02d:%02d:%02d.000 record %d%s\n",
+                    i / 3600, i / 60 % 60, i % 60, i, i % 5 == 0
+                    ? "\n  continued" : ""));
+        }
+        Files.write(log, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        BinarySearch instance = new BinarySearch(null);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (FileChannel fc = FileChannel.open(log, StandardOpenOption.READ)) {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < 20000; i += 97) {
+                Instant inst = Instant.parse("2015-02-08T00:00:00Z").
+                        plusSeconds(i);
+                results.add(executor.submit(() -> instance.searchPosition(fc,
+                        lc, inst, 0, fc.size())));
+            }
+            for (int k = 0; k < results.size(); k++) {
+                assertEquals(starts.get(k * 97), results.get(k).get());
+            }
+        } finally {
+            executor.shutdown();
+            TestLogs.delete(dir);
+        }
+    }
+
 }
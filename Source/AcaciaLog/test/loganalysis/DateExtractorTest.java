@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DateExtractorTest {
+
+    private static final Pattern DATE = Pattern.compile(
+            "(\\d{4})-(\\d{2})-(\\d{2}) (\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{3})");
+
+    public DateExtractorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private Instant extract(String template, String text) {
+        DateExtractor instance = new DateExtractor(template.toCharArray());
+        Matcher m = DATE.matcher(text);
+        assertTrue(m.find());
+        return instance.extract(m, text);
+    }
+
+    /**
+     * Test of extract method, of class DateExtractor.
+     */
+    @Test
+    public void testExtract() {
+        System.out.println("extract");
+        Instant result = extract("g1-g2-g3Tg4:g5:g6.g7Z",
+                "x 2015-02-08 11:52:02.310 record");
+        assertEquals(Instant.parse("2015-02-08T11:52:02.310Z"), result);
+
+        result = extract("g1-g2-g3Tg4:g5:g6.g7+02:00",
+                "2015-02-08 11:52:02.310 record");
+        assertEquals(ZonedDateTime.parse("2015-02-08T11:52:02.310+02:00").
+                toInstant(), result);
+    }
+
+    @Test
+    public void testExtractFallsBackToZonedDateTime() {
+        System.out.println("extract zone id");
+        Instant result = extract("g1-g2-g3Tg4:g5:g6.g7+01:00[Europe/Paris]",
+                "2015-02-08 11:52:02.310 record");
+        assertEquals(ZonedDateTime.parse(
+                "2015-02-08T11:52:02.310+01:00[Europe/Paris]").toInstant(),
+                result);
+    }
+
+    @Test
+    public void testExtractInvalidDate() {
+        System.out.println("extract invalid");
+        assertNull(extract("g1-g2-g3Tg4:g5:g6.g7Z",
+                "2015-02-30 11:52:02.310 record"));
+    }
+
+    /**
+     * Test of parseIso method, of class DateExtractor.
+     */
+    @Test
+    public void testParseIso() {
+        System.out.println("parseIso");
+        String[] dates = {"1970-01-01T00:00:00Z", "2015-02-08T11:52:02.3Z",
+            "2016-02-29T23:59:59.123456789-05:30", "1969-12-31T23:59:59.999Z"};
+        for (String s : dates) {
+            assertEquals(s, ZonedDateTime.parse(s).toInstant(), DateExtractor.
+                    parseIso(s));
+        }
+        assertNull(DateExtractor.parseIso("2015-02-08 11:52:02.310Z"));
+        assertNull(DateExtractor.parseIso("2015-02-08T11:52:02.310"));
+    }
+
+    /**
+     * Test of extract method with a zone, of class DateExtractor.
+     */
+    @Test
+    public void testExtractLocalTime() {
+        System.out.println("extract local time");
+        ZoneId zone = ZoneId.of("Europe/Helsinki");
+        DateExtractor instance = new DateExtractor("g1-g2-g3Tg4:g5:g6.g7".
+                toCharArray(), zone);
+        // winter, the gap at 03:00 and the overlap at 03:00 of 2015
+        String[] texts = {"2015-02-08 11:52:02.310", "2015-03-29 02:59:59.999",
+            "2015-03-29 03:30:00.000", "2015-03-29 04:00:00.000",
+            "2015-10-25 03:30:00.000", "2015-10-25 04:00:00.000"};
+        for (String text : texts) {
+            Matcher m = DATE.matcher(text);
+            assertTrue(m.find());
+            Instant expected = LocalDateTime.parse(text.replace(' ', 'T')).
+                    atZone(zone).toInstant();
+            assertEquals(text, expected, instance.extract(m, text));
+        }
+
+        // an offset in the text wins over the zone
+        instance = new DateExtractor("g1-g2-g3Tg4:g5:g6.g7Z".toCharArray(),
+                zone);
+        Matcher m = DATE.matcher(texts[0]);
+        assertTrue(m.find());
+        assertEquals(Instant.parse("2015-02-08T11:52:02.310Z"), instance.
+                extract(m, texts[0]));
+    }
+
+}
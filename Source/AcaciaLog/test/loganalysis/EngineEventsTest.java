@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EngineEventsTest {
+
+    private static final String[] EVENTS = {"acacialog.Probe",
+        "acacialog.FileOpen", "acacialog.ScanWindow", "acacialog.OutputFlush"};
+
+    private Path dir;
+    private ConfigSnapshot config;
+
+    public EngineEventsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 60000; i++) {
+            sb.append(String.format("2015-02-08 11:%02d:%02d.%03d INFO record %d%n",
+                    i / 1000, (i / 17) % 60, i % 1000, i));
+        }
+        Files.write(dir.resolve("app1.log"), sb.toString().getBytes(
+                StandardCharsets.ISO_8859_1));
+
+        config = TestLogs.config(lc, Instant.parse("2015-02-08T11:10:00Z"),
+                Instant.parse("2015-02-08T11:20:00Z"));
+        FileChannelCache.getShared().clear();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    /**
+     * Search the interval, scan it and write -r output while recording.
+     *
+     * @return the number of recorded events by name
+     */
+    private Map<String, Integer> record(boolean enable) throws IOException {
+        Path jfr = dir.resolve("engine.jfr");
+        try (Recording r = new Recording()) {
+            if (enable) {
+                for (String name : EVENTS) {
+                    r.enable(name).withThreshold(Duration.ZERO);
+                }
+            }
+            r.start();
+            new GetRows(config).findInterval();
+            LogFile lf = config.getLog("[app]").getLogFiles().iterator().next();
+            LogQuery.records(Collections.singletonList(lf)).forEach(lr -> {
+            });
+            try (OutputSink sink = OutputSink.open(dir.resolve("r.out"))) {
+                lf.removeDates(sink);
+            }
+            r.stop();
+            r.dump(jfr);
+        }
+        Map<String, Integer> res = new HashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(jfr)) {
+            String name = e.getEventType().getName();
+            if (name.startsWith("acacialog.")) {
+                res.merge(name, 1, Integer::sum);
+            }
+            if (name.equals("acacialog.Probe")) {
+                assertEquals(lf(), e.getString("file"));
+                assertTrue(e.getLong("bytesRead") > 0);
+            }
+        }
+        return res;
+    }
+
+    private String lf() {
+        return dir.resolve("app1.log").toString();
+    }
+
+    /**
+     * Test of the events when they are enabled in a recording.
+     */
+    @Test
+    public void testEnabled() throws IOException {
+        System.out.println("enabled");
+        Map<String, Integer> events = record(true);
+        for (String name : EVENTS) {
+            assertTrue(name, events.getOrDefault(name, 0) > 0);
+        }
+        assertEquals(Integer.valueOf(1), events.get("acacialog.FileOpen"));
+    }
+
+    /**
+     * Test that the events are disabled by default.
+     */
+    @Test
+    public void testDisabledByDefault() throws IOException {
+        System.out.println("disabled");
+        assertTrue(record(false).isEmpty());
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class EngineMetricsTest {
+
+    private Path dir;
+    private ConfigSnapshot config;
+
+    public EngineMetricsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 60000; i++) {
+            sb.append(String.format("2015-02-08 11:%02d:%02d.%03d INFO record %d%n",
+                    i / 1000, (i / 17) % 60, i % 1000, i));
+        }
+        Files.write(dir.resolve("app1.log"), sb.toString().getBytes(
+                StandardCharsets.ISO_8859_1));
+
+        config = TestLogs.config(lc, Instant.parse("2015-02-08T11:10:00Z"),
+                Instant.parse("2015-02-08T11:20:00Z"));
+        EngineMetrics.getShared().reset();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    /**
+     * Test of the counters of a search and a scan, of class EngineMetrics.
+     */
+    @Test
+    public void testCounters() throws IOException {
+        System.out.println("counters");
+        EngineMetrics metrics = EngineMetrics.getShared();
+        new GetRows(config).findInterval();
+        LogFile lf = config.getLog("[app]").getLogFiles().iterator().next();
+        assertEquals(1, metrics.getFilesListed());
+        assertEquals(1, metrics.getFilesOpened());
+        assertTrue(metrics.getProbes() > 0);
+        assertTrue(metrics.getBytesPerProbe() > 0);
+        assertEquals(0, metrics.getBytesScanned());
+
+        long[] records = new long[1];
+        LogQuery.records(Collections.singletonList(lf)).forEach(
+                lr -> records[0]++);
+        assertEquals(10000, records[0]);
+        assertEquals(records[0], metrics.getRecordsMatched());
+        assertEquals(lf.getPositionTo() - lf.getPositionFrom(),
+                metrics.getBytesScanned());
+
+        metrics.reset();
+        assertEquals(0, metrics.getProbes());
+        assertEquals(0, metrics.getRecordsMatched());
+        assertEquals(0, metrics.getChannelCacheHitRate(), 0);
+    }
+
+    /**
+     * Test of register method, of class EngineMetrics.
+     */
+    @Test
+    public void testRegister() throws JMException {
+        System.out.println("register");
+        EngineMetrics.register();
+        EngineMetrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(EngineMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        EngineMetrics.getShared().addOutputBytes(42);
+        assertEquals(42L, server.getAttribute(name, "OutputBytes"));
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, server.getAttribute(name, "OutputBytes"));
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ExplainTest {
+
+    private Path dir;
+    private ConfigSnapshot config;
+
+    public ExplainTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        // app1 holds the interval, app2 starts after it
+        for (int f = 1; f <= 2; f++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 6000; i++) {
+                sb.append(String.format("2015-02-08 %02d:%02d:%02d.%03d INFO record %d%n",
+                        10 + f, i / 100, (i / 2) % 60, i % 1000, i));
+            }
+            Files.write(dir.resolve("app" + f + ".log"), sb.toString().
+                    getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        config = TestLogs.config(lc, Instant.parse("2015-02-08T11:10:00Z"),
+                Instant.parse("2015-02-08T11:20:00Z"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private String run(Explain explain) throws IOException {
+        GetRows gr = new GetRows(config);
+        gr.setExplain(explain);
+        gr.findInterval();
+        Path out = dir.resolve("plan.out");
+        try (OutputSink sink = OutputSink.open(out)) {
+            QueryPlan plan = new QueryPlan(config, true, false, true);
+            plan.setExplain(explain);
+            plan.run(sink);
+        }
+        return new String(Files.readAllBytes(out), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Test of the files, positions and counts, of class Explain.
+     */
+    @Test
+    public void testFiles() throws IOException {
+        System.out.println("files");
+        Explain explain = new Explain(config);
+        String expected = run(null);
+        assertEquals(expected, run(explain));
+
+        LogConfig lc = config.getLog("[app]");
+        Explain.FileStats second = explain.getFile(lc, dir.resolve(
+                "app2.log"));
+        assertEquals("first record after -to", second.getPruned());
+
+        LogFile lf = lc.getLogFiles().iterator().next();
+        Explain.FileStats first = explain.getFile(lc, lf.getPath());
+        assertNull(first.getPruned());
+        assertTrue(first.getProbes() > 1);
+        assertEquals(lf.getPositionTo() - lf.getPositionFrom(), first.
+                getBytes());
+        long[] records = new long[1];
+        LogQuery.records(lc.getLogFiles()).forEach(lr -> records[0]++);
+        assertEquals(1000, records[0]);
+        assertEquals(records[0], first.getRecords());
+        assertTrue(explain.getNanos(Explain.SCAN) > 0);
+        assertTrue(explain.getNanos(Explain.PRINT) > 0);
+    }
+
+    /**
+     * Test of print method, of class Explain.
+     */
+    @Test
+    public void testPrint() throws IOException {
+        System.out.println("print");
+        Explain explain = new Explain(config);
+        run(explain);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        explain.print(new PrintStream(bytes, true, "ISO-8859-1"));
+        String report = bytes.toString("ISO-8859-1");
+        assertTrue(report, report.startsWith("EXPLAIN"));
+        assertTrue(report, report.contains("[app] listed 2, pruned 1, scanned 1"));
+        assertTrue(report, report.contains("app2.log first 2015-02-08"));
+        assertTrue(report, report.contains("pruned: first record after -to"));
+        assertTrue(report, report.contains("records 1000, search "));
+        assertTrue(report, report.contains(", aggregate "));
+    }
+
+}
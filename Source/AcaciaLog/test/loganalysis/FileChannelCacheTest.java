@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FileChannelCacheTest {
+
+    private Path dir;
+
+    public FileChannelCacheTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(dir.resolve(name), content.getBytes(
+                StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Test of acquire method, of class FileChannelCache.
+     */
+    @Test
+    public void testAcquireReusesChannel() throws IOException {
+        System.out.println("acquire");
+        Path p = write("a.log", "2015-02-08 11:52:02.310 a\n");
+        FileChannelCache instance = new FileChannelCache(2);
+
+        FileChannel first;
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            first = h.channel();
+        }
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            assertSame(first, h.channel());
+            assertTrue(h.channel().isOpen());
+        }
+        assertEquals(1, instance.getHits());
+        assertEquals(1, instance.getMisses());
+        instance.clear();
+        assertFalse(first.isOpen());
+    }
+
+    @Test
+    public void testEvictionClosesAfterRelease() throws IOException {
+        System.out.println("eviction");
+        Path a = write("a.log", "a\n");
+        Path b = write("b.log", "b\n");
+        FileChannelCache instance = new FileChannelCache(1);
+
+        FileChannelCache.Handle ha = instance.acquire(a);
+        try (FileChannelCache.Handle hb = instance.acquire(b)) {
+            // a is evicted but still in use
+            assertTrue(ha.channel().isOpen());
+            assertTrue(hb.channel().isOpen());
+            assertEquals(1, instance.size());
+        }
+        ha.close();
+        assertFalse(ha.channel().isOpen());
+        instance.clear();
+    }
+
+    @Test
+    public void testTruncatedAndRotatedFilesAreReopened() throws IOException {
+        System.out.println("truncate and rotate");
+        Path p = write("a.log", "2015-02-08 11:52:02.310 first record\n");
+        FileChannelCache instance = new FileChannelCache(4);
+
+        FileChannel first;
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            first = h.channel();
+        }
+
+        write("a.log", "short\n");
+        FileChannel truncated;
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            truncated = h.channel();
+            assertNotSame(first, truncated);
+            assertFalse(first.isOpen());
+        }
+
+        Files.move(p, dir.resolve("a.log.1"));
+        write("a.log", "rotated file\n");
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            assertNotSame(truncated, h.channel());
+            assertEquals(13, h.size());
+        }
+        assertEquals(2, instance.getInvalidations());
+        instance.clear();
+    }
+
+    @Test
+    public void testMapReusesRegion() throws IOException {
+        System.out.println("map");
+        Path p = write("a.log", "0123456789");
+        FileChannelCache instance = new FileChannelCache(4);
+
+        try (FileChannelCache.Handle h = instance.acquire(p)) {
+            ByteBuffer first = h.map(2, 5);
+            first.get();
+            ByteBuffer second = h.map(2, 5);
+            assertEquals(0, second.position());
+            assertEquals('2', second.get(0));
+            assertEquals(5, second.limit());
+        }
+        assertEquals(1, instance.getMapHits());
+        assertEquals(1, instance.getMapMisses());
+        instance.clear();
+    }
+
+}
@@ -21,6 +21,16 @@ package loganalysis;
 
 import acacialog.Application;
 import acacialog.ApplicationFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -145,4 +155,56 @@ public class GetRowsTest {
 
     }
 
+    /**
+     * Test that the records are read in (file, offset) order but printed in
+     * the requested order.
+     */
+    @Test
+    public void testPrintLongestOperationsOrder() throws IOException {
+        System.out.println("printLongestOperations order");
+        Path dir = TestLogs.createDir();
+        try {
+            LogConfig lc = TestLogs.section(dir);
+            for (int f = 1; f <= 2; f++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 4; i++) {
+                    sb.append("2015-02-08 11:0").append(f).append(":0").
+                            append(i).append(".000 ").append((char) ('a' + f
+                            - 1)).append(i).append('\n');
+                }
+                Files.write(dir.resolve("app" + f + ".log"), sb.toString().
+                        getBytes(StandardCharsets.ISO_8859_1));
+            }
+            new GetRows(TestLogs.config(lc, Instant.parse(
+                    "2015-02-08T10:00:00Z"), Instant.parse(
+                    "2015-02-08T12:00:00Z"))).findInterval();
+            List<LogRecord> records = new ArrayList<>();
+            LogQuery.records(lc.getLogFiles()).forEach(records::add);
+            assertEquals(8, records.size());
+
+            LogRecord[] lrs = {records.get(5), records.get(2), records.get(4),
+                records.get(0)};
+            for (int k = 0; k < lrs.length; k++) {
+                lrs[k].setDuration(Duration.ofSeconds(lrs.length - k));
+            }
+            FileChannelCache cache = FileChannelCache.getShared();
+            long acquired = cache.getHits() + cache.getMisses();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputSink sink = new OutputSink(Channels.newChannel(bytes),
+                    OutputSink.DEFAULT_CAPACITY, true)) {
+                GetRows.printLongestOperations(lrs, sink);
+            }
+            // one pass over each file
+            assertEquals(2, cache.getHits() + cache.getMisses() - acquired);
+            assertEquals("PT4S [app] 2015-02-08 11:02:01.000 b1\n\n"
+                    + "PT3S [app] 2015-02-08 11:01:02.000 a2\n\n"
+                    + "PT2S [app] 2015-02-08 11:02:00.000 b0\n\n"
+                    + "PT1S [app] 2015-02-08 11:01:00.000 a0\n\n",
+                    new String(bytes.toByteArray(),
+                            StandardCharsets.ISO_8859_1));
+        } finally {
+            TestLogs.delete(dir);
+        }
+    }
+
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.ParseCmdLine;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IncrementalAnalysisTest {
+
+    private Path dir;
+    private Path log;
+    private Path checkpoint;
+    private ConfigSnapshot config;
+
+    public IncrementalAnalysisTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+        ParseCmdLine cmd = new ParseCmdLine();
+        cmd.setTop(2);
+        config = TestLogs.config(cmd, lc, null, null);
+        log = dir.resolve("app.log");
+        checkpoint = dir.resolve("acacialog.checkpoint");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private void append(String s) throws IOException {
+        Files.write(log, s.getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private IncrementalAnalysis run() throws IOException {
+        return run(IncrementalAnalysis.WINDOW, IncrementalAnalysis.MAX_WINDOW);
+    }
+
+    private IncrementalAnalysis run(int window, int maxWindow)
+            throws IOException {
+        CheckpointStore store = CheckpointStore.load(checkpoint);
+        IncrementalAnalysis instance = new IncrementalAnalysis(config);
+        instance.setWindow(window);
+        instance.setMaxWindow(maxWindow);
+        instance.update(store);
+        store.save(checkpoint);
+        return instance;
+    }
+
+    /**
+     * Test of update method, of class IncrementalAnalysis.
+     */
+    @Test
+    public void testUpdateProcessesAppendedRecordsOnly() throws IOException {
+        System.out.println("update");
+        append("2015-02-08 11:00:00.000 a\n2015-02-08 11:00:02.000 b\n"
+                + "2015-02-08 11:00:02.500 c\n");
+        IncrementalAnalysis first = run();
+        // the last record may still be written
+        assertEquals(2, first.getNewRecords());
+
+        append("2015-02-08 11:00:07.500 d\n");
+        IncrementalAnalysis second = run();
+        assertEquals(1, second.getNewRecords());
+        assertEquals(26, second.getNewBytes());
+
+        IncrementalAnalysis third = run();
+        assertEquals(0, third.getNewRecords());
+        assertEquals(0, third.getNewBytes());
+
+        CheckpointStore store = CheckpointStore.load(checkpoint);
+        List<CheckpointStore.Entry> top = store.getTop();
+        assertEquals(2, top.size());
+        assertEquals(Duration.ofSeconds(2), top.get(0).getDuration());
+        assertEquals("2015-02-08 11:00:02.000 b\n", new String(top.get(0).
+                getText(), StandardCharsets.ISO_8859_1));
+        assertEquals(Duration.ofMillis(500), top.get(1).getDuration());
+
+        long[] h = store.getHistograms().get("[app]");
+        assertEquals(1, h[0]);
+        assertEquals(1, h[CheckpointStore.bucket(Duration.ofMillis(500))]);
+        assertEquals(1, h[CheckpointStore.bucket(Duration.ofSeconds(2))]);
+    }
+
+    @Test
+    public void testUpdateRestartsTruncatedFile() throws IOException {
+        System.out.println("update truncated");
+        append("2015-02-08 11:00:00.000 a\n2015-02-08 11:00:01.000 b\n"
+                + "2015-02-08 11:00:02.000 c\n");
+        run();
+
+        Files.write(log, "2015-02-08 12:00:00.000 x\n2015-02-08 12:00:09.000 y\n".
+                getBytes(StandardCharsets.ISO_8859_1));
+        IncrementalAnalysis instance = run();
+        assertEquals(1, instance.getNewRecords());
+        assertEquals(Duration.ofSeconds(1), CheckpointStore.load(checkpoint).
+                getTop().get(0).getDuration());
+    }
+
+    @Test
+    public void testUpdateCutsRecordAtMaxWindow() throws IOException {
+        System.out.println("update max window");
+        StringBuilder sb = new StringBuilder();
+        sb.append("2015-02-08 11:00:00.000 a\n2015-02-08 11:00:01.000 b\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append("continued line without a date\n");
+        }
+        String c = "2015-02-08 11:00:05.000 c\n";
+        String d = "2015-02-08 11:00:06.000 d\n";
+        sb.append(c).append(d);
+        append(sb.toString());
+
+        IncrementalAnalysis instance = run(64, 256);
+        assertEquals(3, instance.getNewRecords());
+        // the last record may still be written
+        assertEquals(sb.length() - d.length(), instance.getNewBytes());
+
+        List<CheckpointStore.Entry> top = CheckpointStore.load(checkpoint).
+                getTop();
+        assertEquals(2, top.size());
+        assertEquals(c, new String(top.get(0).getText(),
+                StandardCharsets.ISO_8859_1));
+        assertEquals(Duration.ofSeconds(1), top.get(1).getDuration());
+        assertEquals(26, top.get(1).getOffset());
+        assertEquals(256, top.get(1).getText().length);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IoSchedulerTest {
+
+    private Path dir;
+    private List<LogFile> files;
+
+    public IoSchedulerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        for (int f = 1; f <= 3; f++) {
+            t = TestLogs.writeRecords(dir.resolve("app" + f + ".log"), t,
+                    30000, 7919, 1009, i -> "INFO record " + i, 5,
+                    "  continued");
+        }
+
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+        files = LogQuery.of(config).between(Instant.parse(
+                "2015-02-08T11:05:00Z"), Instant.parse("2015-02-09T11:00:00Z")).
+                files();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private static String key(LogRecord lr) {
+        return lr.getLf().getPath().getFileName() + " " + lr.getPositionFrom()
+                + " " + lr.getPositionTo() + " " + lr.getDuration();
+    }
+
+    /**
+     * Test of getLongestOperations method, of class IoScheduler.
+     */
+    @Test
+    public void testGetLongestOperations() throws IOException {
+        System.out.println("getLongestOperations");
+        assertEquals(3, files.size());
+        LogRecord[] expected = GetRows.getLongestOperations(LogQuery.records(
+                files), 50);
+
+        try (IoScheduler scheduler = new IoScheduler(4, 1, 2, 64 * 1024)) {
+            LogRecord[] lrs = scheduler.getLongestOperations(files, 50);
+            assertEquals(1, scheduler.getStores());
+            assertEquals(50, lrs.length);
+            for (int i = 0; i < lrs.length; i++) {
+                assertEquals(key(expected[i]), key(lrs[i]));
+            }
+
+            long bytes = 0;
+            for (LogFile lf : files) {
+                bytes += lf.getPositionTo() - lf.getPositionFrom();
+            }
+            assertEquals(bytes, scheduler.getBytes());
+            assertTrue(scheduler.getParallelism() >= 1);
+            assertTrue(scheduler.getMaxParallelism() <= 4);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.ParseCmdLine;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JsonDateMatcherTest {
+
+    private Path dir;
+
+    public JsonDateMatcherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private LogConfig section(String path) throws IOException {
+        return TestLogs.ini(dir, "[json]", "DIR=" + dir.toString(),
+                "FILE=app*.jsonl", "JSON=" + path);
+    }
+
+    /**
+     * Test of find method, of class JsonDateMatcher.
+     */
+    @Test
+    public void testFind() throws IOException {
+        System.out.println("find");
+        String text = "{\"ts\":\"2015-02-08T11:00:00.100Z\",\"msg\":\"a\"}\n"
+                + "  at continuation line\n"
+                + "{\"msg\":\"\\\"ts\\\":1\",\"ts\":1423393200200}\n"
+                + "{\"a\":{\"ts\":5},\"ts\" : 1423393200.3}\n"
+                + "{\"msg\":\"no time\"}\n"
+                + "{\"ts\":null}\n"
+                + "{\"ts\":\"2015-02-08T11:00:0";
+        LogConfig lc = section("ts");
+        DateMatcher m = lc.dateMatcher(text);
+
+        assertTrue(m.find());
+        assertEquals(0, m.start());
+        assertEquals(Instant.parse("2015-02-08T11:00:00.100Z"), m.instant());
+        assertTrue(m.find());
+        assertEquals(text.indexOf("{\"msg\":\"\\\""), m.start());
+        assertEquals(Instant.parse("2015-02-08T11:00:00.200Z"), m.instant());
+        assertTrue(m.find());
+        assertEquals(text.indexOf("{\"a\""), m.start());
+        assertEquals(Instant.parse("2015-02-08T11:00:00.300Z"), m.instant());
+        assertTrue(m.find());
+        assertEquals(text.indexOf("{\"ts\":null"), m.start());
+        assertNull(m.instant());
+        // cut before the end of the value
+        assertTrue(m.find());
+        assertEquals(text.lastIndexOf('{'), m.start());
+        assertEquals(text.length(), m.end());
+        assertNull(m.instant());
+        assertFalse(m.find());
+
+        // a region starting inside a line matches from the next line
+        m.region(2, text.length());
+        assertTrue(m.find());
+        assertEquals(text.indexOf("{\"msg\":\"\\\""), m.start());
+    }
+
+    /**
+     * Test of find method with a nested path, of class JsonDateMatcher.
+     */
+    @Test
+    public void testFindPath() throws IOException {
+        System.out.println("findPath");
+        String text = "{\"time\":1,\"event\":{\"id\":{\"time\":2},\"time\":1423393200}}\n"
+                + "{\"x\":{\"time\":1},\"event\":[{\"time\":2}]}\n"
+                + "{\"event\":{\"time\":1423393200123456}}\n";
+        DateMatcher m = section("event.time").dateMatcher(text);
+        assertTrue(m.find());
+        assertEquals(0, m.start());
+        assertEquals(Instant.parse("2015-02-08T11:00:00Z"), m.instant());
+        assertTrue(m.find());
+        assertEquals(text.lastIndexOf("{\"event\""), m.start());
+        assertEquals(Instant.parse("2015-02-08T11:00:00.123456Z"), m.
+                instant());
+        assertFalse(m.find());
+    }
+
+    /**
+     * Test of the DATE pattern of JSON sections, of class LogConfig.
+     */
+    @Test
+    public void testRegexMatchesKeySearch() throws IOException {
+        System.out.println("regex");
+        StringBuilder sb = new StringBuilder();
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        for (int i = 0; i < 1000; i++) {
+            t = t.plusMillis(i % 7 * 13);
+            sb.append("{\"level\":\"INFO\",\"ts\":");
+            if (i % 2 == 0) {
+                sb.append('"').append(t).append('"');
+            } else {
+                sb.append(t.toEpochMilli());
+            }
+            sb.append(",\"msg\":\"record ").append(i).append("\"}\n");
+            if (i % 10 == 0) {
+                sb.append("\tat stack.Trace(Trace.java:1)\n");
+            }
+        }
+        String text = sb.toString();
+        LogConfig lc = section("ts");
+
+        DateMatcher m = lc.dateMatcher(text);
+        Matcher r = lc.getDatePattern().matcher(text);
+        int n = 0;
+        while (m.find()) {
+            assertTrue(r.find());
+            assertEquals(r.start(), m.start());
+            assertEquals(lc.getDateExtractor().extract(r, text), m.instant());
+            assertNotNull(m.instant());
+            n++;
+        }
+        assertFalse(r.find());
+        assertEquals(1000, n);
+    }
+
+    /**
+     * Test of the interval search and scan of JSON sections.
+     */
+    @Test
+    public void testIntervalRecords() throws IOException {
+        System.out.println("interval");
+        LogConfig lc = section("ts");
+        StringBuilder sb = new StringBuilder();
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        List<Instant> times = new ArrayList<>();
+        for (int i = 0; i < 60000; i++) {
+            t = t.plusMillis(i % 11 * 7);
+            times.add(t);
+            sb.append("{\"ts\":\"").append(t).append("\",\"msg\":\"record ").
+                    append(i).append("\"}\n");
+        }
+        Path file = dir.resolve("app1.jsonl");
+        Files.write(file, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        Instant from = times.get(20000).plusNanos(1);
+        Instant to = times.get(50000);
+        ConfigSnapshot config = new ConfigSnapshot(new ParseCmdLine(), from,
+                to, Collections.singletonList("[json]"), Collections.
+                singletonMap("[json]", lc), null, null);
+        new GetRows(config).findInterval();
+
+        LogFile lf = lc.getLogFiles().first();
+        int first = 0;
+        while (times.get(first).isBefore(from)) {
+            first++;
+        }
+        int last = first;
+        while (times.get(last).isBefore(to)) {
+            last++;
+        }
+        String s = sb.toString();
+        int pos = 0;
+        for (int i = 0; i < first; i++) {
+            pos = s.indexOf('\n', pos) + 1;
+        }
+        assertEquals(pos, lf.getPositionFrom());
+
+        List<LogRecord> records = new ArrayList<>();
+        LogQuery.records(lc.getLogFiles()).forEach(records::add);
+        assertEquals(last - first, records.size());
+        assertEquals(times.get(first), records.get(0).getInstant());
+        assertEquals(times.get(last - 1), records.get(records.size() - 1).
+                getInstant());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JsonlWriterTest {
+
+    private static final Instant FROM = Instant.parse("2015-02-08T10:00:00Z");
+    private static final Instant TO = Instant.parse("2015-02-08T13:00:00Z");
+
+    private Path dir;
+    private Path log;
+
+    public JsonlWriterTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        log = dir.resolve("app1.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private byte[] convert(int threads, int chunkSize) throws IOException {
+        LogConfig lc = TestLogs.section(dir);
+        new GetRows(TestLogs.config(lc, FROM, TO)).findInterval();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputSink sink = new OutputSink(Channels.newChannel(bytes),
+                OutputSink.DEFAULT_CAPACITY, true)) {
+            JsonlWriter instance = new JsonlWriter(sink, threads, chunkSize);
+            try {
+                for (LogFile lf : lc.getLogFiles()) {
+                    instance.convert(lf);
+                }
+            } finally {
+                instance.finish();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private String line(String timestamp, long offset, String level,
+            String message) {
+        return "{\"timestamp\":\"" + timestamp + "\",\"section\":\"[app]\","
+                + "\"file\":" + new String(JsonlWriter.jsonString(log.
+                        toString()), StandardCharsets.UTF_8) + ",\"offset\":"
+                + offset + ",\"level\":" + (level != null ? "\"" + level
+                        + "\"" : "null") + ",\"message\":\"" + message
+                + "\"}\n";
+    }
+
+    /**
+     * Test of convert method, of class JsonlWriter.
+     */
+    @Test
+    public void testEscape() throws IOException {
+        System.out.println("escape");
+        String first = "2015-02-08 11:00:00.000 INFO say \"hi\" \\ C:\\tmp\t"
+                + "\u0001 end\r\n";
+        Files.write(log, (first + "2015-02-08 11:00:01.000 done\n").getBytes(
+                StandardCharsets.ISO_8859_1));
+        String expected = line("2015-02-08T11:00:00.000Z", 0, "INFO",
+                " INFO say \\\"hi\\\" \\\\ C:\\\\tmp\\t\\u0001 end")
+                + line("2015-02-08T11:00:01.000Z", first.length(), null,
+                        " done");
+        assertEquals(expected, new String(convert(1,
+                JsonlWriter.DEFAULT_CHUNK_SIZE), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test that UTF-8 sequences are copied and Latin-1 bytes are kept as
+     * their characters.
+     */
+    @Test
+    public void testUtf8AndLatin1() throws IOException {
+        System.out.println("UTF-8 and Latin-1");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write("2015-02-08 11:00:00.000 WARN caf".getBytes(
+                StandardCharsets.US_ASCII));
+        bytes.write("é €".getBytes(StandardCharsets.UTF_8));
+        bytes.write(" na".getBytes(StandardCharsets.US_ASCII));
+        bytes.write(0xef);
+        bytes.write("ve\n".getBytes(StandardCharsets.US_ASCII));
+        Files.write(log, bytes.toByteArray());
+        assertEquals(line("2015-02-08T11:00:00.000Z", 0, "WARN",
+                " WARN café € naïve"), new String(convert(1,
+                        JsonlWriter.DEFAULT_CHUNK_SIZE),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test of a record continued on more lines across a chunk boundary.
+     */
+    @Test
+    public void testContinuationAcrossChunks() throws IOException {
+        System.out.println("continuation");
+        Instant t = TestLogs.writeRecords(log, Instant.parse(
+                "2015-02-08T11:00:00Z"), 200, 37, 10,
+                i -> "ERROR record " + i, 3, "  at line\n  at line");
+        byte[] expected = convert(1, JsonlWriter.DEFAULT_CHUNK_SIZE);
+        String text = new String(expected, StandardCharsets.UTF_8);
+        assertEquals(200, text.split("\n").length);
+        assertTrue(text, text.contains("\"message\":\" ERROR record 0\\n"
+                + "  at line\\n  at line\"}\n"));
+        assertTrue(text, text.contains(TestLogs.format(t).replace(' ', 'T')
+                + "Z"));
+
+        // chunks of 100 bytes start in the lines after most records
+        byte[] chunked = convert(1, 100);
+        assertArrayEquals(expected, chunked);
+    }
+
+    /**
+     * Test that the output of parallel chunks is the sequential output.
+     */
+    @Test
+    public void testThreads() throws IOException {
+        System.out.println("threads");
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        for (int f = 1; f <= 3; f++) {
+            t = TestLogs.writeRecords(dir.resolve("app" + f + ".log"), t,
+                    5000, 37, 10, i -> "INFO record \"" + i + "\"", 7,
+                    "\tat line");
+        }
+        byte[] expected = convert(1, JsonlWriter.DEFAULT_CHUNK_SIZE);
+        assertTrue(expected.length > 3 * 5000 * 100);
+        byte[] parallel = convert(4, 4096);
+        assertArrayEquals(expected, parallel);
+    }
+
+}
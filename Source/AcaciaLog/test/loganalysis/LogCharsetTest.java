@@ -0,0 +1,324 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogCharsetTest {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.
+            ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private Path dir;
+
+    public LogCharsetTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private LogConfig section(String file, String charset) throws IOException {
+        return TestLogs.ini(dir, "[app]", "DIR=" + dir.toString(), "FILE="
+                + file, TestLogs.DATE, TestLogs.ZONED_DATE_TIME, "CHARSET="
+                + (charset != null ? charset : ""));
+    }
+
+    private LogCharset detect(byte[] bytes, String name) throws IOException {
+        Path file = dir.resolve("detect.log");
+        Files.write(file, bytes);
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            return LogCharset.detect(fc, name);
+        }
+    }
+
+    /**
+     * Test of detect method, of class LogCharset.
+     */
+    @Test
+    public void testDetect() throws IOException {
+        System.out.println("detect");
+        byte[] le = {(byte) 0xff, (byte) 0xfe, '2', 0};
+        byte[] be = {(byte) 0xfe, (byte) 0xff, 0, '2'};
+        byte[] utf8 = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf, '2'};
+        byte[] plain = {'2', '0'};
+        assertSame(LogCharset.UTF_16LE, detect(le, null));
+        assertSame(LogCharset.UTF_16BE, detect(be, null));
+        assertSame(LogCharset.UTF_8_BOM, detect(utf8, null));
+        assertSame(LogCharset.BYTES, detect(plain, null));
+        assertSame(LogCharset.BYTES, detect(new byte[0], null));
+        assertSame(LogCharset.UTF_16LE_NO_BOM, detect(plain, "UTF-16LE"));
+        assertSame(LogCharset.UTF_16LE, detect(le, "UTF-16LE"));
+        assertSame(LogCharset.UTF_16BE_NO_BOM, detect(plain, "UTF-16"));
+        assertSame(LogCharset.BYTES, detect(plain, "UTF-8"));
+
+        assertEquals(4, LogCharset.UTF_16LE.align(3));
+        assertEquals(4, LogCharset.UTF_16LE.align(4));
+        assertEquals(2, LogCharset.UTF_16LE.lookBehind(2));
+        assertEquals(2, LogCharset.UTF_16LE.lookBehind(4));
+        assertEquals(0, LogCharset.BYTES.lookBehind(0));
+        assertEquals(3, LogCharset.BYTES.lookBehind(4));
+    }
+
+    /**
+     * Test of charAt method, of class UTF16CharSequence.
+     */
+    @Test
+    public void testView() {
+        System.out.println("view");
+        String s = "2015-02-08 é€\n";
+        for (Charset c : Arrays.asList(StandardCharsets.UTF_16LE,
+                StandardCharsets.UTF_16BE)) {
+            ByteCharSequence bytes = new ByteCharSequence(ByteBuffer.wrap(s.
+                    getBytes(c)));
+            CharSequence view = new UTF16CharSequence(bytes, c.equals(
+                    StandardCharsets.UTF_16LE));
+            assertEquals(s.length(), view.length());
+            assertEquals(s, view.toString());
+            assertEquals("02-08", view.subSequence(5, 10).toString());
+        }
+    }
+
+    /**
+     * Test of the interval search and scan of UTF-16 files, positions are
+     * those of the same text in a single byte file, doubled after the byte
+     * order mark.
+     */
+    @Test
+    public void testIntervalRecords() throws IOException {
+        System.out.println("interval");
+        StringBuilder sb = new StringBuilder();
+        LocalDateTime t = LocalDateTime.parse("2015-02-08T11:00:00");
+        List<Instant> times = new ArrayList<>();
+        for (int i = 0; i < 60000; i++) {
+            t = t.plusNanos(i % 11 * 7000000L);
+            times.add(t.toInstant(ZoneOffset.UTC));
+            sb.append(FORMAT.format(t)).append(" INFO record é ").
+                    append(i).append('\n');
+            if (i % 7 == 0) {
+                sb.append("\tat stack.Trace(Trace.java:1)\n");
+            }
+        }
+        String text = sb.toString();
+        Instant from = times.get(20000).plusNanos(1);
+        Instant to = times.get(50000);
+
+        Files.write(dir.resolve("app1.log"), text.getBytes(
+                StandardCharsets.ISO_8859_1));
+        LogConfig plain = section("app1.log", null);
+        new GetRows(TestLogs.config(plain, from, to)).findInterval();
+        LogFile single = plain.getLogFiles().first();
+        List<LogRecord> expected = new ArrayList<>();
+        LogQuery.records(plain.getLogFiles()).forEach(expected::add);
+        assertSame(LogCharset.BYTES, single.getCharset());
+
+        byte[] utf16 = text.getBytes(StandardCharsets.UTF_16LE);
+        byte[] bom = {(byte) 0xff, (byte) 0xfe};
+        Path file = dir.resolve("app2.log");
+        Files.write(file, bom);
+        Files.write(file, utf16, StandardOpenOption.APPEND);
+        LogConfig lc = section("app2.log", null);
+        new GetRows(TestLogs.config(lc, from, to)).findInterval();
+        LogFile lf = lc.getLogFiles().first();
+        assertSame(LogCharset.UTF_16LE, lf.getCharset());
+        assertEquals(times.get(0), lf.getFrom());
+        assertEquals(2 + 2 * single.getPositionFrom(), lf.getPositionFrom());
+        assertEquals(2 + 2 * single.getPositionTo(), lf.getPositionTo());
+
+        List<LogRecord> records = new ArrayList<>();
+        LogQuery.records(lc.getLogFiles()).forEach(records::add);
+        assertEquals(expected.size(), records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(expected.get(i).getInstant(), records.get(i).
+                    getInstant());
+            assertEquals(2 * expected.get(i).getPositionFrom(), records.get(
+                    i).getPositionFrom());
+            assertEquals(2 * expected.get(i).getPositionTo(), records.get(i).
+                    getPositionTo());
+        }
+
+        lf.findRecords();
+        assertEquals(records.size(), lf.getRecords().size());
+        byte[][] texts = GetRows.readRecords(new LogRecord[]{records.get(0)});
+        assertEquals(FORMAT.format(LocalDateTime.ofInstant(records.get(0).
+                getInstant(), ZoneOffset.UTC)) + " INFO record é 20001\n",
+                new String(texts[0], StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test of a UTF-16 section without byte order marks.
+     */
+    @Test
+    public void testCharsetOverride() throws IOException {
+        System.out.println("charset");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("2015-02-08 11:00:").append(String.format("%02d", i
+                    % 60)).append(".000 record ").append(i).append('\n');
+        }
+        Files.write(dir.resolve("app1.log"), sb.toString().getBytes(
+                StandardCharsets.UTF_16BE));
+        LogConfig lc = section("app1.log", "UTF-16BE");
+        new GetRows(TestLogs.config(lc, null, Instant.parse(
+                "2015-02-08T11:01:00Z"))).findInterval();
+        LogFile lf = lc.getLogFiles().first();
+        assertSame(LogCharset.UTF_16BE_NO_BOM, lf.getCharset());
+        assertEquals(Instant.parse("2015-02-08T11:00:00Z"), lf.getFrom());
+        assertEquals(0, lf.getPositionFrom());
+
+        List<LogRecord> records = new ArrayList<>();
+        LogQuery.records(lc.getLogFiles()).forEach(records::add);
+        assertEquals(100, records.size());
+        assertEquals(Instant.parse("2015-02-08T11:00:39Z"), records.get(99).
+                getInstant());
+    }
+
+    /**
+     * Test that -i and -r print the text of a UTF-16LE log as UTF-8, like
+     * the same log in UTF-8.
+     */
+    @Test
+    public void testPrintAsUtf8() throws IOException {
+        System.out.println("print as UTF-8");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("2015-02-08 11:00:").append(String.format("%02d", i)).
+                    append(".000 INFO café \uD83D\uDE00 ").append(i).
+                    append('\n');
+            if (i % 3 == 0) {
+                sb.append("\tat naïve.Trace\n");
+            }
+        }
+        byte[] utf8 = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] utf16 = ("\uFEFF" + sb).getBytes(StandardCharsets.UTF_16LE);
+
+        List<String> outputs = new ArrayList<>();
+        for (byte[] bytes : Arrays.asList(utf8, utf16)) {
+            Path sub = Files.createDirectory(dir.resolve("log"
+                    + outputs.size()));
+            Files.write(sub.resolve("app1.log"), bytes);
+            LogConfig lc = TestLogs.ini(sub, "[app]", "DIR=" + sub,
+                    "FILE=app1.log", TestLogs.DATE, TestLogs.ZONED_DATE_TIME);
+            ConfigSnapshot config = TestLogs.config(lc, Instant.parse(
+                    "2015-02-08T11:00:10Z"), Instant.parse(
+                    "2015-02-08T11:00:40Z"));
+            new GetRows(config).findInterval();
+            LogFile lf = lc.getLogFiles().first();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OutputSink sink = new OutputSink(Channels.newChannel(out),
+                    OutputSink.DEFAULT_CAPACITY, true)) {
+                new QueryPlan(config, false, true, true).run(sink);
+                lf.printInterval(lf.getPositionFrom(), lf.getPositionTo(),
+                        sink);
+                lf.removeDates(sink);
+            }
+            outputs.add(new String(out.toByteArray(),
+                    StandardCharsets.UTF_8));
+        }
+        assertTrue(outputs.get(0), outputs.get(0).startsWith("[app] app1.log\n"
+                + "2015-02-08 11:00:10.000 INFO café \uD83D\uDE00 10\n"));
+        assertTrue(outputs.get(0), outputs.get(0).contains(
+                " INFO café \uD83D\uDE00 39\n\tat naïve.Trace\n\n"));
+        assertEquals(outputs.get(0), outputs.get(1));
+    }
+
+    /**
+     * Test that the scans not ported to UTF-16 reject UTF-16 files.
+     */
+    @Test
+    public void testRequireBytes() throws IOException {
+        System.out.println("requireBytes");
+        Files.write(dir.resolve("app1.log"), ("2015-02-08 11:00:00.000 a\n"
+                + "2015-02-08 11:00:01.000 b\n").getBytes(
+                        StandardCharsets.UTF_16BE));
+        LogConfig lc = section("app1.log", "UTF-16BE");
+        ConfigSnapshot config = TestLogs.config(lc, null, Instant.parse(
+                "2015-02-08T11:01:00Z"));
+        new GetRows(config).findInterval();
+        LogFile lf = lc.getLogFiles().first();
+
+        try {
+            new LogDiff(false).fingerprint(Collections.singletonList(lf));
+            fail("diff of a UTF-16 file");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(
+                    "diff does not support UTF-16BE logs"));
+        }
+        try (OutputSink sink = new OutputSink(Channels.newChannel(
+                new ByteArrayOutputStream()), OutputSink.DEFAULT_CAPACITY,
+                true)) {
+            new JsonlWriter(sink, 1, JsonlWriter.DEFAULT_CHUNK_SIZE).
+                    convert(lf);
+            fail("JSON Lines export of a UTF-16 file");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith(lf.
+                    getPath().toString()));
+        }
+        try {
+            new IncrementalAnalysis(config).update(CheckpointStore.load(
+                    dir.resolve("acacialog.checkpoint")));
+            fail("incremental analysis of a UTF-16 file");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(
+                    "incremental analysis"));
+        }
+        LogCharset.BYTES.requireBytes(lf.getPath(), "diff");
+    }
+
+}
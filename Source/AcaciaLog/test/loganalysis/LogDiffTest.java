@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogDiffTest {
+
+    private Path dir;
+
+    public LogDiffTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    /**
+     * @return a sequence of the record hashes
+     */
+    private static RecordSequence sequence(long... hashes) throws IOException {
+        RecordSequence seq = new RecordSequence();
+        int file = seq.addFile(null);
+        for (int i = 0; i < hashes.length; i++) {
+            seq.add(hashes[i], file, i, i + 1);
+        }
+        seq.seal();
+        return seq;
+    }
+
+    private static long[] range(int from, int to) {
+        long[] res = new long[to - from];
+        for (int i = from; i < to; i++) {
+            res[i - from] = i;
+        }
+        return res;
+    }
+
+    private static long[] concat(long[]... parts) {
+        int len = 0;
+        for (long[] p : parts) {
+            len += p.length;
+        }
+        long[] res = new long[len];
+        int k = 0;
+        for (long[] p : parts) {
+            System.arraycopy(p, 0, res, k, p.length);
+            k += p.length;
+        }
+        return res;
+    }
+
+    /**
+     * @return the blocks as "aFrom aTo bFrom bTo"
+     */
+    private static List<String> diff(LogDiff instance, long[] a, long[] b)
+            throws IOException {
+        List<String> blocks = new ArrayList<>();
+        try (RecordSequence sa = sequence(a); RecordSequence sb = sequence(b)) {
+            instance.diff(sa, sb, (aFrom, aTo, bFrom, bTo) -> blocks.add(aFrom
+                    + " " + aTo + " " + bFrom + " " + bTo));
+        }
+        return blocks;
+    }
+
+    /**
+     * Test of diff method with added records, of class LogDiff.
+     */
+    @Test
+    public void testInsert() throws IOException {
+        System.out.println("insert");
+        long[] a = range(0, 10);
+        long[] b = concat(range(0, 5), range(100, 102), range(5, 10));
+        assertEquals(Collections.singletonList("5 5 5 7"), diff(new LogDiff(
+                false), a, b));
+    }
+
+    /**
+     * Test of diff method with removed records, of class LogDiff.
+     */
+    @Test
+    public void testDelete() throws IOException {
+        System.out.println("delete");
+        long[] a = range(0, 10);
+        long[] b = concat(range(0, 3), range(6, 10));
+        assertEquals(Collections.singletonList("3 6 3 3"), diff(new LogDiff(
+                false), a, b));
+    }
+
+    /**
+     * Test of diff method with changed records, of class LogDiff.
+     */
+    @Test
+    public void testChange() throws IOException {
+        System.out.println("change");
+        long[] a = range(0, 10);
+        long[] b = concat(range(0, 4), range(50, 51), range(5, 8), range(60,
+                62), range(9, 10));
+        List<String> expected = new ArrayList<>();
+        expected.add("4 5 4 5");
+        expected.add("8 9 8 10");
+        assertEquals(expected, diff(new LogDiff(false), a, b));
+        assertTrue(diff(new LogDiff(false), a, a).isEmpty());
+    }
+
+    /**
+     * Test of hash method with masking, of class LogDiff.
+     */
+    @Test
+    public void testMask() {
+        System.out.println("mask");
+        ByteBuffer x = ByteBuffer.wrap("request id=0x1f3a user 1234 done".
+                getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer y = ByteBuffer.wrap("request id=0x9b user 7 done".
+                getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer z = ByteBuffer.wrap("request id=0x9b user 7 failed".
+                getBytes(StandardCharsets.ISO_8859_1));
+        ByteBuffer words = ByteBuffer.wrap("cafe".getBytes(
+                StandardCharsets.ISO_8859_1));
+        ByteBuffer other = ByteBuffer.wrap("face".getBytes(
+                StandardCharsets.ISO_8859_1));
+
+        LogDiff masked = new LogDiff(true);
+        LogDiff plain = new LogDiff(false);
+        assertEquals(masked.hash(x, 0, x.limit()), masked.hash(y, 0, y.
+                limit()));
+        assertNotEquals(masked.hash(y, 0, y.limit()), masked.hash(z, 0, z.
+                limit()));
+        assertNotEquals(plain.hash(x, 0, x.limit()), plain.hash(y, 0, y.
+                limit()));
+        // hex words without a digit are kept
+        assertNotEquals(masked.hash(words, 0, words.limit()), masked.hash(
+                other, 0, other.limit()));
+    }
+
+    /**
+     * Test of diff method with differences longer than the window, of class
+     * LogDiff.
+     */
+    @Test
+    public void testLongerThanWindow() throws IOException {
+        System.out.println("longerThanWindow");
+        LogDiff instance = new LogDiff(false);
+        instance.setWindow(8);
+        // the last records differ, so the common end is aligned by the scan
+        long[] a = concat(range(0, 1000), range(-1, 0));
+
+        long[] inserted = concat(range(0, 100), range(10000, 10500), range(100,
+                1000), range(-2, -1));
+        assertEquals(Arrays.asList("100 100 100 600", "1000 1001 1500 1501"),
+                diff(instance, a, inserted));
+
+        long[] deleted = concat(range(0, 100), range(400, 1000), range(-2,
+                -1));
+        assertEquals(Arrays.asList("100 400 100 100", "1000 1001 700 701"),
+                diff(instance, a, deleted));
+
+        long[] x = concat(range(0, 100), range(20000, 20300), range(100,
+                1000), range(-1, 0));
+        long[] y = concat(range(0, 100), range(30000, 30700), range(100,
+                1000), range(-2, -1));
+        assertEquals(Arrays.asList("100 400 100 800", "1300 1301 1700 1701"),
+                diff(instance, x, y));
+
+        // a record repeated in the inserted block is no anchor
+        long[] repeated = concat(range(0, 100), range(150, 151), range(150,
+                151), range(40000, 40200), range(100, 1000), range(-2, -1));
+        assertEquals(Arrays.asList("100 100 100 302", "1000 1001 1202 1203"),
+                diff(instance, a, repeated));
+    }
+
+    /**
+     * Test of printDiff method, of class LogDiff.
+     */
+    @Test
+    public void testPrintDiff() throws IOException {
+        System.out.println("printDiff");
+        LogConfig lc = TestLogs.section(dir);
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+        Files.write(dir.resolve("app1.log"), ("2015-02-08 11:00:00.000 start\n"
+                + "2015-02-08 11:00:01.000 request id=17\n"
+                + "2015-02-08 11:00:02.000 done\n").getBytes(
+                        StandardCharsets.ISO_8859_1));
+        Files.write(dir.resolve("app2.log"), ("2015-02-08 12:00:00.000 start\n"
+                + "2015-02-08 12:00:01.000 request id=42\n"
+                + "2015-02-08 12:00:01.500 retry\n  at line\n"
+                + "2015-02-08 12:00:02.000 done\n").getBytes(
+                        StandardCharsets.ISO_8859_1));
+
+        List<String> out = new ArrayList<>();
+        for (boolean mask : new boolean[]{false, true}) {
+            LogDiff instance = new LogDiff(mask);
+            List<RecordSequence> sides = new ArrayList<>();
+            for (String name : new String[]{"app1.log", "app2.log"}) {
+                Path p = dir.resolve(name);
+                LogFile lf = new LogFile(p, lc, 0, config);
+                lf.checkContainsInterval();
+                lf.setPositionTo(Files.size(p));
+                sides.add(instance.fingerprint(Collections.singletonList(lf)));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (RecordSequence a = sides.get(0);
+                    RecordSequence b = sides.get(1)) {
+                OutputSink sink = new OutputSink(Channels.newChannel(bytes),
+                        1024, false);
+                instance.printDiff(a, b, sink);
+                sink.flush();
+            }
+            out.add(new String(bytes.toByteArray(),
+                    StandardCharsets.ISO_8859_1));
+        }
+
+        assertEquals("@@ -2,1 +2,2 @@ changed app1.log:30 app2.log:30\n"
+                + "- 2015-02-08 11:00:01.000 request id=17\n"
+                + "+ 2015-02-08 12:00:01.000 request id=42\n"
+                + "+ 2015-02-08 12:00:01.500 retry\n"
+                + "+   at line\n"
+                + "DIFF_BLOCKS 1 REMOVED_RECORDS 1 ADDED_RECORDS 2\n", out.
+                get(0));
+        assertEquals("@@ -3,0 +3,1 @@ added app2.log:68\n"
+                + "+ 2015-02-08 12:00:01.500 retry\n"
+                + "+   at line\n"
+                + "DIFF_BLOCKS 1 REMOVED_RECORDS 0 ADDED_RECORDS 1\n", out.
+                get(1));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogFollowerTest {
+
+    private Path dir;
+    private Path log;
+    private ByteArrayOutputStream out;
+    private LogFollower instance;
+
+    public LogFollowerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+
+        log = dir.resolve("app.log");
+        append("2015-02-08 11:00:00.000 before follow\n");
+        out = new ByteArrayOutputStream();
+        instance = new LogFollower(config, new OutputSink(Channels.
+                newChannel(out), 1024, false), Duration.ofSeconds(1));
+        instance.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        instance.close();
+        TestLogs.delete(dir);
+    }
+
+    private void append(String s) throws IOException {
+        Files.write(log, s.getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private String output() {
+        String res = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        out.reset();
+        return res;
+    }
+
+    /**
+     * Test of poll method, of class LogFollower.
+     */
+    @Test
+    public void testPollBuffersHalfWrittenRecords() throws IOException {
+        System.out.println("poll");
+        append("2015-02-08 11:00:01.000 first\n2015-02-08 11:00:01.5");
+        assertEquals(0, instance.poll());
+        assertEquals("", output());
+
+        append("00 second\n  at line\n2015-02-08 11:00:03.000 third\n");
+        assertEquals(2, instance.poll());
+        assertEquals("[app] 2015-02-08 11:00:01.000 first\n"
+                + "[app] 2015-02-08 11:00:01.500 second\n  at line\n",
+                output());
+
+        append("2015-02-08 11:00:03.100 fourth\n");
+        assertEquals(1, instance.poll());
+        assertEquals("THRESHOLD_EXCEEDED PT1.5S [app] 2015-02-08 11:00:03.000 third\n",
+                output());
+    }
+
+    @Test
+    public void testPollFollowsRotatedFile() throws IOException {
+        System.out.println("poll rotated");
+        append("2015-02-08 11:00:01.000 last of old file\n");
+        Files.move(log, dir.resolve("app.log.1"));
+        append("2015-02-08 11:00:01.200 new file\n2015-02-08 11:00:01.300 x\n");
+
+        assertEquals(2, instance.poll());
+        assertEquals("[app] 2015-02-08 11:00:01.000 last of old file\n"
+                + "[app] 2015-02-08 11:00:01.200 new file\n", output());
+    }
+
+}
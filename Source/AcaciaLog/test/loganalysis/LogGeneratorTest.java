@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogGeneratorTest {
+
+    private Path dir;
+    private LogConfig lc;
+
+    public LogGeneratorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        lc = TestLogs.ini(dir, "[app]", "DIR=" + dir.resolve("app"),
+                "FILE=app*.log", TestLogs.DATE, TestLogs.ZONED_DATE_TIME);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private LogGenerator generator(long seed) {
+        LogGenerator gen = new LogGenerator();
+        gen.setSeed(seed);
+        gen.setSize(2 * 1024 * 1024);
+        gen.setRotate(512 * 1024);
+        gen.setStackTrace(0.05);
+        return gen;
+    }
+
+    /**
+     * Test of generate method, of class LogGenerator.
+     */
+    @Test
+    public void testGenerateIsReproducible() throws IOException {
+        System.out.println("generate");
+        List<Path> a = generator(5).generate(lc, dir.resolve("a"));
+        List<Path> b = generator(5).generate(lc, dir.resolve("b"));
+        List<Path> c = generator(6).generate(lc, dir.resolve("c"));
+        assertTrue(a.size() >= 4);
+        assertEquals("app00001.log", a.get(0).getFileName().toString());
+        assertEquals(a.size(), b.size());
+        long size = 0;
+        for (int i = 0; i < a.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(a.get(i)), Files.readAllBytes(
+                    b.get(i)));
+            size += Files.size(a.get(i));
+        }
+        assertTrue(size >= 2 * 1024 * 1024);
+        assertFalse(Arrays.equals(Files.readAllBytes(a.get(0)), Files.
+                readAllBytes(c.get(0))));
+    }
+
+    /**
+     * Test of generate method, the records are read back by LogQuery.
+     */
+    @Test
+    public void testRecordsAreFound() throws IOException {
+        System.out.println("generate records");
+        LogGenerator gen = generator(7);
+        gen.setOutOfOrder(0.01);
+        gen.generate(lc, dir.resolve("app"));
+
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+        List<LogFile> files = LogQuery.of(config).between(null, null).files();
+        assertTrue(files.size() >= 4);
+        assertEquals(gen.getRecords(), LogQuery.records(files).count());
+        assertEquals(gen.getFirst(), LogQuery.records(files).findFirst().get().
+                getInstant());
+    }
+
+    /**
+     * Test of write method, of class LogGenerator.DateWriter.
+     */
+    @Test
+    public void testDateWriter() {
+        System.out.println("DateWriter");
+        String[][] sections = {
+            {"(?m)^(\\d{4})-(\\d{2})-(\\d{2})\\t(\\d{2}):(\\d{2}):(\\d{2}):(\\d{3})\\t",
+                "g1-g2-g3Tg4:g5:g6.g7Z", "2015-02-08\t09:05:03:007\t"},
+            {"(?m)^(\\d{4})-(\\d{2})-(\\d{2}) (\\d{2}):(\\d{2}):(\\d{2}),",
+                "g1-g2-g3Tg4:g5:g6.000Z", "2015-02-08 09:05:03,"},
+            {"^\\[(\\d{2})/(\\d{2})/(\\d{4}) (\\d{2}):(\\d{2}):(\\d{2})\\]",
+                "g3-g2-g1Tg4:g5:g6.000Z", "[08/02/2015 09:05:03]"}};
+        Instant t = Instant.parse("2015-02-08T09:05:03.007Z");
+        for (String[] s : sections) {
+            byte[] buf = new byte[64];
+            int n = new LogGenerator.DateWriter(s[0], s[1]).write(t.
+                    toEpochMilli(), buf, 0);
+            String text = new String(buf, 0, n, StandardCharsets.ISO_8859_1);
+            assertEquals(s[2], text);
+
+            Matcher m = Pattern.compile(s[0]).matcher(text);
+            assertTrue(m.find());
+            Instant res = new DateExtractor(s[1].toCharArray()).extract(m,
+                    text);
+            assertEquals(s[1].contains("g7") ? t : t.minusMillis(7), res);
+        }
+
+        // local time of a ZONE, also in the hour repeated at the end of DST
+        String date = "(?m)^(\\d{4})-(\\d{2})-(\\d{2}) (\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{3}) ";
+        String zoned = "g1-g2-g3Tg4:g5:g6.g7";
+        ZoneId zone = ZoneId.of("Europe/Helsinki");
+        String[][] times = {{"2015-02-08T09:05:03.007Z",
+            "2015-02-08 11:05:03.007 "}, {"2015-10-25T00:30:00.000Z",
+            "2015-10-25 03:30:00.000 "}, {"2015-10-25T01:30:00.000Z",
+            "2015-10-25 03:30:00.000 "}};
+        for (String[] time : times) {
+            byte[] buf = new byte[64];
+            int n = new LogGenerator.DateWriter(date, zoned, zone).write(
+                    Instant.parse(time[0]).toEpochMilli(), buf, 0);
+            assertEquals(time[1], new String(buf, 0, n,
+                    StandardCharsets.ISO_8859_1));
+        }
+        Matcher m = Pattern.compile(date).matcher(times[0][1]);
+        assertTrue(m.find());
+        assertEquals(Instant.parse(times[0][0]), new DateExtractor(zoned.
+                toCharArray(), zone).extract(m, times[0][1]));
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class LogQueryTest {
+
+    private Path dir;
+    private LogQuery query;
+
+    public LogQueryTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        // two files of 40000 records, every 7th one with a second line
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        for (int f = 1; f <= 2; f++) {
+            t = TestLogs.writeRecords(dir.resolve("app" + f + ".log"), t,
+                    40000, 37, 10, i -> "INFO record " + i, 7,
+                    "  at 2015-01-01 line");
+        }
+
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+        query = LogQuery.of(config).include("app").between(Instant.parse(
+                "2015-02-08T11:00:30Z"), Instant.parse("2015-02-08T13:00:00Z"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private static String key(LogRecord lr) {
+        return lr.getLf().getPath().getFileName() + " " + lr.getPositionFrom()
+                + " " + lr.getPositionTo() + " " + lr.getInstant() + " " + lr.
+                getDuration();
+    }
+
+    /**
+     * Test of records method, of class LogQuery.
+     */
+    @Test
+    public void testRecordsMatchFindRecords() {
+        System.out.println("records");
+        List<String> expected = new ArrayList<>();
+        for (LogFile lf : query.files()) {
+            lf.findRecords();
+            LogRecord prev = null;
+            for (LogRecord lr : lf.getRecords()) {
+                lr.setDuration(prev != null ? Duration.between(prev.
+                        getInstant(), lr.getInstant()) : Duration.ZERO);
+                expected.add(key(lr));
+                prev = lr;
+            }
+        }
+        assertTrue(expected.size() > 20000);
+
+        List<String> sequential = query.records().map(LogQueryTest::key).
+                collect(Collectors.toList());
+        assertEquals(expected, sequential);
+
+        List<String> parallel = query.records().parallel().map(
+                LogQueryTest::key).collect(Collectors.toList());
+        assertEquals(expected, parallel);
+    }
+
+    /**
+     * Test of trySplit method, of class RecordSpliterator.
+     */
+    @Test
+    public void testTrySplitOnRecordStarts() {
+        System.out.println("trySplit");
+        List<LogFile> files = query.files();
+        long whole = LogQuery.records(files).count();
+
+        List<Spliterator<LogRecord>> parts = new ArrayList<>();
+        parts.add(new RecordSpliterator(files));
+        for (int round = 0; round < 3; round++) {
+            List<Spliterator<LogRecord>> split = new ArrayList<>();
+            for (Spliterator<LogRecord> s : parts) {
+                Spliterator<LogRecord> prefix = s.trySplit();
+                if (prefix != null) {
+                    split.add(prefix);
+                }
+                split.add(s);
+            }
+            parts = split;
+        }
+        assertEquals(8, parts.size());
+
+        long n = 0;
+        for (Spliterator<LogRecord> s : parts) {
+            long[] count = new long[1];
+            s.forEachRemaining(lr -> count[0]++);
+            assertTrue(count[0] > 0);
+            n += count[0];
+        }
+        assertEquals(whole, n);
+    }
+
+    @Test
+    public void testLongestOperations() {
+        System.out.println("getLongestOperations");
+        LogRecord[] sequential = GetRows.getLongestOperations(query.records(),
+                5);
+        LogRecord[] parallel = GetRows.getLongestOperations(query.records().
+                parallel(), 5);
+        assertEquals(5, sequential.length);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(key(sequential[i]), key(parallel[i]));
+        }
+        assertTrue(sequential[0].getDuration().compareTo(sequential[4].
+                getDuration()) >= 0);
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OutputSinkTest {
+
+    private Chunks out;
+
+    public OutputSinkTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+        out = new Chunks();
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Channel remembering the length of every write.
+     */
+    private static class Chunks implements WritableByteChannel {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Integer> writes = new ArrayList<>();
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] b = new byte[n];
+            src.get(b);
+            bytes.write(b, 0, n);
+            writes.add(n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+    }
+
+    /**
+     * Test that the buffer is written when it is full.
+     */
+    @Test
+    public void testFlushOnBufferSize() throws IOException {
+        System.out.println("flush on buffer size");
+        OutputSink instance = new OutputSink(out, 8, true);
+        instance.print("abcdefgh");
+        assertEquals(Arrays.asList(), out.writes);
+        instance.println("ij");
+        assertEquals(Arrays.asList(8), out.writes);
+        instance.write(bytes("klmn"), 0, 4);
+        assertEquals(Arrays.asList(8), out.writes);
+        instance.write(bytes("opq"), 0, 3);
+        assertEquals(Arrays.asList(8, 7), out.writes);
+        instance.close();
+        assertEquals(Arrays.asList(8, 7, 3), out.writes);
+        assertEquals("abcdefghij\nklmnopq", out.text());
+        assertFalse(out.isOpen());
+    }
+
+    /**
+     * Test that a write larger than the buffer goes to the channel directly
+     * after the buffered bytes.
+     */
+    @Test
+    public void testLargeWrite() throws IOException {
+        System.out.println("large write");
+        OutputSink instance = new OutputSink(out, 8, false);
+        instance.print("ab");
+        instance.write(bytes("0123456789abcdefghij"), 0, 20);
+        assertEquals(Arrays.asList(2, 20), out.writes);
+        ByteBuffer src = ByteBuffer.wrap(bytes("xx01234567yy"));
+        instance.write(src, 2, 10);
+        assertEquals(0, src.position());
+        // as large as the empty buffer, still buffered
+        assertEquals(Arrays.asList(2, 20), out.writes);
+        instance.close();
+        assertEquals(Arrays.asList(2, 20, 8), out.writes);
+        assertEquals("ab0123456789abcdefghij01234567", out.text());
+        assertTrue(out.isOpen());
+    }
+
+    /**
+     * Test of transferFrom method, of class OutputSink.
+     */
+    @Test
+    public void testTransferFrom() throws IOException {
+        System.out.println("transferFrom");
+        Path dir = TestLogs.createDir();
+        try {
+            Path file = dir.resolve("app.log");
+            Files.write(file, bytes("0123456789abcdefghijklmnopqrstuvwxyz"));
+            try (FileChannel fc = FileChannel.open(file,
+                    StandardOpenOption.READ)) {
+                OutputSink instance = new OutputSink(out, 8, true);
+                instance.print("<");
+                // fits the buffer, copied there
+                instance.transferFrom(fc, 10, 5);
+                assertEquals(Arrays.asList(), out.writes);
+                // larger than the rest of the buffer, transferred
+                instance.transferFrom(fc, 0, 30);
+                assertEquals(Integer.valueOf(6), out.writes.get(0));
+                instance.print(">");
+                instance.close();
+            }
+            assertEquals("<abcde0123456789abcdefghijklmnopqrst>", out.text());
+        } finally {
+            TestLogs.delete(dir);
+        }
+    }
+
+    /**
+     * Test of utf8 method, of class OutputSink.
+     */
+    @Test
+    public void testUtf8() throws IOException {
+        System.out.println("utf8");
+        byte[] utf16 = "a\uD83D\uDE00é b".getBytes(StandardCharsets.UTF_16LE);
+        OutputSink instance = new OutputSink(out, 8, true);
+        OutputSink.Transcoder t = instance.utf8(StandardCharsets.UTF_16LE);
+        // cut inside a code unit and between the surrogates
+        ByteBuffer src = ByteBuffer.wrap(utf16);
+        t.write(src, 0, 3);
+        t.write(src, 3, 4);
+        t.write(src, 4, 9);
+        t.write(src, 9, utf16.length);
+        t.finish();
+        instance.close();
+        assertArrayEquals("a\uD83D\uDE00é b".getBytes(StandardCharsets.UTF_8),
+                out.bytes.toByteArray());
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PrefetchReaderTest {
+
+    private Path dir;
+    private Path log;
+    private byte[] bytes;
+
+    public PrefetchReaderTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        log = dir.resolve("app.log");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            sb.append(String.format("2015-02-08 11:%02d:%02d.%03d record %d\n",
+                    i / 60000 % 60, i / 1000 % 60, i % 1000, i));
+        }
+        bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        Files.write(log, bytes);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private void assertWindow(ByteBuffer buf, long from, long to) {
+        assertEquals(0, buf.position());
+        assertEquals(to - from, buf.remaining());
+        byte[] b = new byte[buf.remaining()];
+        buf.get(b);
+        assertArrayEquals(Arrays.copyOfRange(bytes, (int) from, (int) to), b);
+    }
+
+    /**
+     * Test of read method, of class PrefetchReader.
+     */
+    @Test
+    public void testSequentialWindowsAreReadAhead() throws IOException {
+        System.out.println("read");
+        int window = 1024 * 1024;
+        try (PrefetchReader reader = new PrefetchReader(2)) {
+            long next = 0;
+            int windows = 0;
+            while (next < bytes.length) {
+                // windows overlap like the scans of RecordSpliterator
+                long from = next > 0 ? next - 1 : 0;
+                long to = Math.min(bytes.length, next + window);
+                assertWindow(reader.read(log, from, to, bytes.length), from,
+                        to);
+                windows++;
+                next = to == bytes.length ? to : to - 200;
+            }
+            assertTrue(windows > 4);
+            assertEquals(windows, reader.getReads());
+            assertEquals(windows - 1, reader.getHits());
+
+            // a jump back is read at once
+            assertWindow(reader.read(log, 1000, 5000, bytes.length), 1000,
+                    5000);
+            assertEquals(windows - 1, reader.getHits());
+        }
+    }
+
+    /**
+     * Test of records method with readahead, of class LogQuery.
+     */
+    @Test
+    public void testRecordsWithReadahead() throws IOException {
+        System.out.println("records readahead");
+        LogConfig lc = TestLogs.section(dir);
+        LogFile lf = new LogFile(log, lc, 0, null, null);
+        lf.setInterval(true);
+        lf.setPositionFrom(0);
+        lf.setPositionTo(bytes.length);
+        List<LogFile> files = Arrays.asList(lf);
+
+        List<String> mapped = LogQuery.records(files, 0).map(
+                lr -> lr.getPositionFrom() + " " + lr.getInstant()).collect(
+                        Collectors.toList());
+        List<String> prefetched = LogQuery.records(files, 3).map(
+                lr -> lr.getPositionFrom() + " " + lr.getInstant()).collect(
+                        Collectors.toList());
+        assertEquals(300000, mapped.size());
+        assertEquals(mapped, prefetched);
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class QueryPlanTest {
+
+    private Path dir;
+    private ConfigSnapshot config;
+
+    public QueryPlanTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        // the second file is longer than one scan window
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        int[] records = {20000, 140000};
+        for (int f = 1; f <= 2; f++) {
+            t = TestLogs.writeRecords(dir.resolve("app" + f + ".log"), t,
+                    records[f - 1], 37, 11, i -> "INFO record " + i, 13,
+                    "2015-19-39 99:99:99.000 not a date");
+            t = t.plusSeconds(60);
+        }
+
+        config = TestLogs.config(lc, Instant.parse("2015-02-08T11:00:10Z"),
+                Instant.parse("2015-02-08T11:30:00Z"));
+        new GetRows(config).findInterval();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private String run(boolean longest, boolean interval, boolean removeDates)
+            throws IOException {
+        Path out = dir.resolve("plan.out");
+        try (OutputSink sink = OutputSink.open(out)) {
+            new QueryPlan(config, longest, interval, removeDates).run(sink);
+        }
+        return new String(Files.readAllBytes(out), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return the output of the separate -o, -i and -r actions
+     */
+    private String separate(boolean longest, boolean interval,
+            boolean removeDates) throws IOException {
+        Path out = dir.resolve("separate.out");
+        LogConfig lc = config.getLog("[app]");
+        List<LogFile> files = new ArrayList<>(lc.getLogFiles());
+        try (OutputSink sink = OutputSink.open(out)) {
+            if (longest) {
+                GetRows.printLongestOperations(GetRows.getLongestOperations(
+                        LogQuery.records(files), config.getTop()), sink);
+                sink.println();
+            }
+            if (interval) {
+                lc.printSection(sink);
+                for (LogFile lf : files) {
+                    lf.printInterval(lf.getPositionFrom(), lf.getPositionTo(),
+                            sink);
+                }
+                sink.println();
+            }
+            if (removeDates) {
+                lc.printSection(sink);
+                for (LogFile lf : files) {
+                    lf.removeDates(sink);
+                }
+                sink.println();
+            }
+        }
+        return new String(Files.readAllBytes(out), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Test of run method, of class QueryPlan.
+     */
+    @Test
+    public void testRunMatchesSeparateActions() throws IOException {
+        System.out.println("run");
+        assertEquals(2, config.getLog("[app]").getLogFiles().size());
+        boolean[][] actions = {{true, true, true}, {true, false, true},
+            {false, true, true}, {false, false, true}, {true, true, false}};
+        for (boolean[] a : actions) {
+            String expected = separate(a[0], a[1], a[2]);
+            assertTrue(expected.length() > 1000);
+            assertEquals(Arrays.toString(a), expected, run(a[0], a[1], a[2]));
+        }
+    }
+
+    /**
+     * Test of scan method, of class QueryPlan.
+     */
+    @Test
+    public void testScanCoversIntervals() throws IOException {
+        System.out.println("scan");
+        long[] bytes = new long[1];
+        QueryPlan.Consumer count = new QueryPlan.Consumer() {
+            @Override
+            public void text(ByteBuffer buf, int from, int to) {
+                bytes[0] += to - from;
+            }
+
+            @Override
+            public void match(ByteBuffer buf, int from, int to,
+                    long position, Instant instant) {
+                bytes[0] += to - from;
+            }
+        };
+        new QueryPlan(config, false, false, true).scan(Arrays.asList(count));
+
+        long expected = 0;
+        for (LogFile lf : config.getLog("[app]").getLogFiles()) {
+            expected += lf.getPositionTo() - lf.getPositionFrom();
+        }
+        assertTrue(expected > RecordSpliterator.WINDOW);
+        assertEquals(expected, bytes[0]);
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.Application;
+import acacialog.ApplicationFactory;
+import acacialog.ConfigSnapshot;
+import acacialog.PropertiesList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class QueryServerTest {
+
+    private Path dir;
+    private QueryServer instance;
+
+    public QueryServerTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+        Files.write(dir.resolve("app.log"), ("2015-02-08 11:00:00.000 start\n"
+                + "2015-02-08 11:00:01.000 INFO \"a\"\n"
+                + "2015-02-08 11:00:05.000 ERROR slow\n  at line\n"
+                + "2015-02-08 11:00:05.500 done\n").getBytes(
+                        StandardCharsets.ISO_8859_1));
+        ConfigSnapshot config = TestLogs.config(lc, null, null);
+
+        instance = new QueryServer(() -> config, 2);
+        instance.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        instance.stop();
+        TestLogs.delete(dir);
+    }
+
+    private String get(String pathAndQuery, int expectedStatus)
+            throws IOException {
+        URL url = new URL("http://127.0.0.1:" + instance.getPort()
+                + pathAndQuery);
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        assertEquals(expectedStatus, con.getResponseCode());
+        assertEquals("application/json; charset=utf-8", con.getContentType());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = expectedStatus == 200 ? con.getInputStream()
+                : con.getErrorStream()) {
+            byte[] b = new byte[4096];
+            for (int n; (n = in.read(b)) > 0;) {
+                out.write(b, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test of the /longest query, of class QueryServer.
+     */
+    @Test
+    public void testLongest() throws IOException {
+        System.out.println("longest");
+        String result = get("/longest?from=2015-02-08T11:00:00.000Z"
+                + "&to=2015-02-08T12:00:00.000Z&top=1", 200);
+        assertTrue(result, result.startsWith("{\"records\":[{\"duration\":"
+                + "\"PT4S\",\"timestamp\":\"2015-02-08T11:00:05Z\","
+                + "\"section\":\"[app]\""));
+        assertTrue(result, result.endsWith("\"text\":"
+                + "\"2015-02-08 11:00:05.000 ERROR slow\\n  at line\\n\"}]}"));
+    }
+
+    @Test
+    public void testIntervalAndSearch() throws IOException {
+        System.out.println("interval and search");
+        String result = get("/interval?from=2015-02-08T11:00:01.000Z"
+                + "&to=2015-02-08T11:00:05.500Z", 200);
+        assertTrue(result, result.contains("\"positionFrom\":30,"
+                + "\"positionTo\":108}"));
+
+        result = get("/search?from=2015-02-08T11:00:00.000Z"
+                + "&to=2015-02-08T12:00:00.000Z&pattern=%22a%22", 200);
+        assertTrue(result, result.contains("\"offset\":30,\"text\":"
+                + "\"2015-02-08 11:00:01.000 INFO \\\"a\\\"\\n\"}"));
+        assertTrue(result, result.endsWith("],\"truncated\":false}"));
+    }
+
+    @Test
+    public void testErrorsAndStatus() throws IOException {
+        System.out.println("errors and status");
+        assertEquals("{\"error\":\"from and to are required\"}", get(
+                "/longest", 400));
+        get("/interval?from=2015-02-08T11:00:00.000Z"
+                + "&to=2015-02-08T12:00:00.000Z", 200);
+        get("/interval?from=2015-02-08T11:00:00.000Z"
+                + "&to=2015-02-08T12:00:00.000Z", 200);
+        String result = get("/status", 200);
+        assertTrue(result, result.contains("\"errors\":1,\"indexedFiles\":1,"
+                + "\"indexHits\":1,\"indexMisses\":1"));
+    }
+
+    @Test
+    public void testNoThreads() throws IOException {
+        System.out.println("no threads");
+        ConfigSnapshot config = TestLogs.config(TestLogs.section(dir), null,
+                null);
+        instance.stop();
+        instance = new QueryServer(() -> config, 0);
+        instance.start(0);
+        assertTrue(get("/status", 200).startsWith("{"));
+    }
+
+    /**
+     * Test that the command line still applies after the ini file changed.
+     */
+    @Test
+    public void testReloadKeepsCommandLine() throws IOException,
+            InterruptedException {
+        System.out.println("reload");
+        String[] other = {"[other]", "DIR=" + dir.toString(),
+            "FILE=other*.log", TestLogs.DATE, TestLogs.ZONED_DATE_TIME};
+        TestLogs.section(dir, other);
+        Files.copy(dir.resolve("app.log"), dir.resolve("other.log"));
+        Path props = dir.resolve("acacialog.properties");
+        Properties p = new Properties();
+        p.setProperty(PropertiesList.INI_FILE.name(), dir.resolve(
+                "acacialog.ini").toString());
+        try (Writer w = Files.newBufferedWriter(props)) {
+            p.store(w, null);
+        }
+
+        ApplicationFactory factory = new ApplicationFactory();
+        Application app = factory.getInstance(props);
+        try {
+            app.cmd.setInclude("app");
+            app.load();
+            instance.stop();
+            instance = new QueryServer(() -> factory.getInstance(props).
+                    snapshot(), 2);
+            instance.start(0);
+            String interval = "/interval?from=2015-02-08T11:00:00.000Z"
+                    + "&to=2015-02-08T12:00:00.000Z";
+            String result = get(interval, 200);
+            assertTrue(result, result.contains("app.log"));
+            assertFalse(result, result.contains("other.log"));
+
+            TestLogs.section(dir, other);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (factory.getInstance(props) == app) {
+                assertTrue("ini change not noticed", System.
+                        currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            result = get(interval, 200);
+            assertTrue(result, result.contains("app.log"));
+            assertFalse(result, result.contains("other.log"));
+        } finally {
+            ApplicationFactory.apps.remove(props.toAbsolutePath().toString()).
+                    setStale(true);
+        }
+    }
+
+}
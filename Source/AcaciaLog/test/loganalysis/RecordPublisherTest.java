@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ *
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RecordPublisherTest {
+
+    private Path dir;
+    private Path log;
+    private ConfigSnapshot config;
+
+    public RecordPublisherTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+        log = dir.resolve("app.log");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(String.format("2015-02-08 11:%02d:%02d.000 record %d\n",
+                    i / 60, i % 60, i));
+        }
+        append(sb.toString());
+
+        config = TestLogs.config(lc, null, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private void append(String s) throws IOException {
+        Files.write(log, s.getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static class Collector<T> implements Flow.Subscriber<List<T>> {
+
+        final LinkedBlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<T> item) {
+            signals.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+
+    }
+
+    /**
+     * Test of publisher method, of class LogQuery.
+     */
+    @Test
+    public void testIntervalBatchesOnDemand() {
+        System.out.println("interval publisher");
+        Collector<LogRecord> c = new Collector<>();
+        LogQuery.of(config).between(null, null).publisher(300, Runnable::run).
+                subscribe(c);
+        assertTrue(c.signals.isEmpty());
+
+        c.subscription.request(1);
+        assertEquals(1, c.signals.size());
+        assertEquals(300, ((List<?>) c.signals.poll()).size());
+        assertTrue(c.signals.isEmpty());
+
+        c.subscription.request(10);
+        List<Object> rest = new ArrayList<>(c.signals);
+        assertEquals(Arrays.asList(300, 300, 100, "complete"), Arrays.asList(
+                ((List<?>) rest.get(0)).size(), ((List<?>) rest.get(1)).size(),
+                ((List<?>) rest.get(2)).size(), rest.get(3)));
+    }
+
+    @Test
+    public void testInvalidRequest() {
+        System.out.println("invalid request");
+        Collector<LogRecord> c = new Collector<>();
+        LogQuery.of(config).publisher(10, Runnable::run).subscribe(c);
+        c.subscription.request(0);
+        assertTrue(c.signals.poll() instanceof IllegalArgumentException);
+        c.subscription.request(1);
+        assertTrue(c.signals.isEmpty());
+    }
+
+    /**
+     * Test of publisher method, of class LogFollower.
+     */
+    @Test
+    public void testFollowedRecords() throws Exception {
+        System.out.println("follow publisher");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            LogFollower follower = new LogFollower(config, null, null);
+            follower.setPollMillis(50);
+            Collector<LogFollower.Record> c = new Collector<>();
+            follower.publisher(2, executor).subscribe(c);
+
+            append("2015-02-08 12:00:00.000 a\n2015-02-08 12:00:01.000 b\n"
+                    + "2015-02-08 12:00:02.000 c\n2015-02-08 12:00:03.000 d\n");
+            c.subscription.request(1);
+            List<?> batch = (List<?>) c.signals.poll(5, TimeUnit.SECONDS);
+            assertEquals(2, batch.size());
+            assertEquals("2015-02-08 12:00:00.000 a\n", new String(
+                    ((LogFollower.Record) batch.get(0)).getText(),
+                    StandardCharsets.ISO_8859_1));
+            assertNull(c.signals.poll(200, TimeUnit.MILLISECONDS));
+
+            c.subscription.request(1);
+            batch = (List<?>) c.signals.poll(5, TimeUnit.SECONDS);
+            assertEquals(1, batch.size());
+            assertEquals("[app]", ((LogFollower.Record) batch.get(0)).
+                    getSection());
+
+            c.subscription.cancel();
+        } finally {
+            executor.shutdownNow();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RecordSnapshotTest {
+
+    private Path dir;
+    private ConfigSnapshot config;
+    private List<LogFile> files;
+
+    public RecordSnapshotTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TestLogs.createDir();
+        LogConfig lc = TestLogs.section(dir);
+
+        // more records than one block
+        Instant t = Instant.parse("2015-02-08T11:00:00Z");
+        for (int f = 1; f <= 2; f++) {
+            t = TestLogs.writeRecords(dir.resolve("app" + f + ".log"), t,
+                    30000, 37, 101, i -> "INFO request " + (i % 3 == 0
+                    ? "start id=" : "end id=") + i, 13,
+                    "2015-19-39 99:99:99.000 not a date");
+            t = t.plusSeconds(60);
+        }
+
+        config = TestLogs.config(lc, Instant.parse("2015-02-08T11:00:10Z"),
+                null);
+        new GetRows(config).findInterval();
+        files = new ArrayList<>(lc.getLogFiles());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TestLogs.delete(dir);
+    }
+
+    private RecordSnapshot export(LogDiff templates) throws IOException {
+        Path path = dir.resolve("records.snapshot");
+        try (RecordSnapshot.Writer writer = new RecordSnapshot.Writer(path,
+                templates)) {
+            new QueryPlan(config, false, false, false).scan(Arrays.asList(
+                    writer));
+        }
+        return RecordSnapshot.open(path);
+    }
+
+    /**
+     * Test of top method, of class RecordSnapshot.
+     */
+    @Test
+    public void testTopMatchesRecords() throws IOException {
+        System.out.println("top");
+        try (RecordSnapshot snapshot = export(null)) {
+            long records = LogQuery.records(files).count();
+            assertEquals(records, snapshot.getRecords());
+            assertTrue(snapshot.getBlocks() > 2);
+            assertEquals(Arrays.asList("[app]"), snapshot.getSections());
+            assertEquals(0, snapshot.getTemplates().length);
+
+            LogRecord[] expected = GetRows.getLongestOperations(LogQuery.
+                    records(files), 20);
+            RecordSnapshot.Entry[] top = snapshot.top(20, null, null);
+            assertEquals(expected.length, top.length);
+            for (int k = 0; k < top.length; k++) {
+                LogRecord lr = expected[k];
+                RecordSnapshot.Entry e = top[k];
+                assertEquals(lr.getDuration(), e.getDuration());
+                assertEquals(lr.getInstant(), e.getInstant());
+                assertEquals(lr.getLf().getPath().toString(), e.getFile());
+                assertEquals(lr.getLf().getPositionFrom() + lr.
+                        getPositionFrom(), e.getPositionFrom());
+                assertEquals(lr.getLf().getPositionFrom() + lr.getPositionTo(),
+                        e.getPositionTo());
+                assertEquals(-1, e.getTemplate());
+            }
+        }
+    }
+
+    /**
+     * Test of histogram and timeline methods, of class RecordSnapshot.
+     */
+    @Test
+    public void testSlices() throws IOException {
+        System.out.println("histogram");
+        Instant from = Instant.parse("2015-02-08T11:20:00Z");
+        Instant to = Instant.parse("2015-02-08T11:40:00Z");
+        List<LogRecord> in = LogQuery.records(files).filter(lr -> !lr.
+                getInstant().isBefore(from) && lr.getInstant().isBefore(to)).
+                collect(Collectors.toList());
+        assertTrue(in.size() > RecordSnapshot.BLOCK);
+
+        try (RecordSnapshot snapshot = export(null)) {
+            long[] expected = new long[CheckpointStore.HISTOGRAM_BUCKETS];
+            for (LogRecord lr : in) {
+                expected[CheckpointStore.bucket(lr.getDuration())]++;
+            }
+            Map<String, long[]> h = snapshot.histogram(from, to);
+            assertArrayEquals(expected, h.get("[app]"));
+
+            TreeMap<Long, Long> timeline = snapshot.timeline(from, to,
+                    Duration.ofMinutes(1)).get("[app]");
+            assertEquals(Long.valueOf(from.toEpochMilli()), timeline.
+                    firstKey());
+            long count = 0;
+            for (Map.Entry<Long, Long> e : timeline.entrySet()) {
+                assertEquals(0, e.getKey() % 60000);
+                count += e.getValue();
+            }
+            assertEquals(in.size(), count);
+
+            RecordSnapshot.Entry[] top = snapshot.top(5, from, to);
+            assertEquals(GetRows.getLongestOperations(in.stream(), 5)[0].
+                    getDuration(), top[0].getDuration());
+            assertEquals(0, snapshot.top(5, to, to).length);
+        }
+    }
+
+    /**
+     * Test of template ids, of class RecordSnapshot.
+     */
+    @Test
+    public void testTemplates() throws IOException {
+        System.out.println("templates");
+        try (RecordSnapshot snapshot = export(new LogDiff(true))) {
+            // start and end records, with and without the line that is not
+            // a date, masked ids
+            assertEquals(4, snapshot.getTemplates().length);
+            RecordSnapshot.Entry[] top = snapshot.top(50, null, null);
+            for (RecordSnapshot.Entry e : top) {
+                assertTrue(e.getTemplate() >= 0 && e.getTemplate() < 4);
+            }
+        }
+    }
+
+}
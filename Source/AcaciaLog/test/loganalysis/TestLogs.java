@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import acacialog.ConfigSnapshot;
+import acacialog.IniFile;
+import acacialog.ParseCmdLine;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Temporary log directories, sections and generated records of the
+ * loganalysis tests.
+ */
+final class TestLogs {
+
+    static final String DATE
+            = "DATE=(?m)^(\\d{4})-(\\d{2})-(\\d{2}) (\\d{2}):(\\d{2}):(\\d{2})\\.(\\d{3}) ";
+    static final String ZONED_DATE_TIME
+            = "ZONED_DATE_TIME=g1-g2-g3Tg4:g5:g6.g7Z";
+
+    private TestLogs() {
+    }
+
+    /**
+     * @return a new temporary directory
+     */
+    static Path createDir() throws IOException {
+        return Files.createTempDirectory("acacialog");
+    }
+
+    /**
+     * Close the shared channels and delete dir with its content.
+     */
+    static void delete(Path dir) throws IOException {
+        FileChannelCache.getShared().clear();
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(paths::add);
+        }
+        for (Path p : paths) {
+            Files.delete(p);
+        }
+    }
+
+    /**
+     * Write dir/acacialog.ini with one section.
+     *
+     * @return the section
+     */
+    static LogConfig ini(Path dir, String section, String... lines)
+            throws IOException {
+        Path ini = dir.resolve("acacialog.ini");
+        List<String> all = new ArrayList<>();
+        all.add(section);
+        all.addAll(Arrays.asList(lines));
+        Files.write(ini, all);
+        return new LogConfig(section, new IniFile(ini.toString()));
+    }
+
+    /**
+     * @return the [app] section of the app*.log files of dir, dates like
+     * 2015-02-08 11:00:00.000 in UTC, followed by the extra ini lines
+     */
+    static LogConfig section(Path dir, String... lines) throws IOException {
+        List<String> all = new ArrayList<>(Arrays.asList("DIR=" + dir.
+                toString(), "FILE=app*.log", DATE, ZONED_DATE_TIME));
+        all.addAll(Arrays.asList(lines));
+        return ini(dir, "[app]", all.toArray(new String[all.size()]));
+    }
+
+    static ConfigSnapshot config(LogConfig lc, Instant from, Instant to) {
+        return config(new ParseCmdLine(), lc, from, to);
+    }
+
+    static ConfigSnapshot config(ParseCmdLine cmd, LogConfig lc, Instant from,
+            Instant to) {
+        return new ConfigSnapshot(cmd, from, to, Collections.singletonList(lc.
+                getLogName()), Collections.singletonMap(lc.getLogName(), lc),
+                null, null);
+    }
+
+    /**
+     * @return t as the date of a record, 2015-02-08 11:00:00.000
+     */
+    static String format(Instant t) {
+        String d = t.toString().replace('T', ' ');
+        if (d.length() == 20) {
+            d = d.substring(0, 19) + ".000Z";
+        }
+        return d.substring(0, 23);
+    }
+
+    /**
+     * Write records "date message" to file. The time advances by (i * step)
+     * % modulo ms before record i, every extraEvery-th record is followed by
+     * the extra line.
+     *
+     * @return the time of the last record
+     */
+    static Instant writeRecords(Path file, Instant t, int records, int step,
+            int modulo, IntFunction<String> message, int extraEvery,
+            String extra) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            t = t.plusMillis((i * step) % modulo);
+            sb.append(format(t)).append(' ').append(message.apply(i)).
+                    append('\n');
+            if (i % extraEvery == 0) {
+                sb.append(extra).append('\n');
+            }
+        }
+        Files.write(file, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return t;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Acacia Man
+ * The program is distributed under the terms of the GNU General Public License
+ * 
+ * This file is part of acacia-log.
+ *
+ * acacia-log is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * acacia-log is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with acacia-log.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package loganalysis;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ZoneOffsetsTest {
+
+    private static final String[] ZONES = {"Europe/Helsinki",
+        "America/New_York", "Australia/Lord_Howe", "UTC", "+05:30"};
+
+    public ZoneOffsetsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of toEpochSecond method, of class ZoneOffsets.
+     */
+    @Test
+    public void testToEpochSecond() {
+        System.out.println("toEpochSecond");
+        long start = LocalDateTime.parse("2014-12-30T00:00:00").toEpochSecond(
+                ZoneOffset.UTC);
+        long end = LocalDateTime.parse("2016-01-02T00:00:00").toEpochSecond(
+                ZoneOffset.UTC);
+        for (String id : ZONES) {
+            ZoneId zone = ZoneId.of(id);
+            ZoneOffsets instance = new ZoneOffsets(zone);
+            // every 7 minutes through the year, in time order as logs are
+            for (long s = start; s < end; s += 419) {
+                LocalDateTime ldt = LocalDateTime.ofEpochSecond(s, 0,
+                        ZoneOffset.UTC);
+                assertEquals(id + " " + ldt, ldt.atZone(zone).toEpochSecond(),
+                        instance.toEpochSecond(s));
+            }
+            // and going back over the transitions
+            for (long s = end; s > start; s -= 86400 + 419) {
+                LocalDateTime ldt = LocalDateTime.ofEpochSecond(s, 0,
+                        ZoneOffset.UTC);
+                assertEquals(id + " " + ldt, ldt.atZone(zone).toEpochSecond(),
+                        instance.toEpochSecond(s));
+            }
+        }
+    }
+
+    /**
+     * Test of toEpochSecond method around a DST gap and overlap.
+     */
+    @Test
+    public void testTransitions() {
+        System.out.println("transitions");
+        ZoneId zone = ZoneId.of("Europe/Helsinki");
+        ZoneOffsets instance = new ZoneOffsets(zone);
+        String[] times = {"2015-03-29T02:59:59", "2015-03-29T03:00:00",
+            "2015-03-29T03:59:59", "2015-03-29T04:00:00",
+            "2015-10-25T02:59:59", "2015-10-25T03:00:00",
+            "2015-10-25T03:59:59", "2015-10-25T04:00:00"};
+        for (String t : times) {
+            LocalDateTime ldt = LocalDateTime.parse(t);
+            assertEquals(t, ldt.atZone(zone).toEpochSecond(), instance.
+                    toEpochSecond(ldt.toEpochSecond(ZoneOffset.UTC)));
+        }
+    }
+
+    /**
+     * Test of getOffset method, of class ZoneOffsets.
+     */
+    @Test
+    public void testGetOffset() {
+        System.out.println("getOffset");
+        long start = Instant.parse("2014-12-30T00:00:00Z").getEpochSecond();
+        long end = Instant.parse("2016-01-02T00:00:00Z").getEpochSecond();
+        for (String id : ZONES) {
+            ZoneId zone = ZoneId.of(id);
+            ZoneOffsets instance = new ZoneOffsets(zone);
+            for (long s = start; s < end; s += 419) {
+                Instant instant = Instant.ofEpochSecond(s);
+                assertEquals(id + " " + instant, zone.getRules().getOffset(
+                        instant).getTotalSeconds(), instance.getOffset(s));
+            }
+        }
+    }
+
+}